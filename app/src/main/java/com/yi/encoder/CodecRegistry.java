@@ -0,0 +1,259 @@
+package com.yi.encoder;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Video encoders with Surface input and their capabilities. Scanning MediaCodecList and querying
+ * capabilities takes hundreds of milliseconds on some devices, so the result is probed once in the
+ * background by #init and saved to a file keyed by Build#FINGERPRINT, the next start just reads the file.
+ * Lookups wait for the probe if it is still running, and probe on the caller thread without #init.
+ */
+public final class CodecRegistry {
+	private static final boolean DEBUG = false;
+	private static final String TAG = CodecRegistry.class.getSimpleName();
+
+	private static final String FILE_NAME = "codec_registry.bin";
+	private static final int VERSION = 1;
+	private static final int MAX_ENCODERS = 1024;
+
+	private static final Object sSync = new Object();
+	// guarded by sSync
+	private static List<VideoEncoderInfo> sEncoders;
+	private static Thread sProbeThread;
+
+	private CodecRegistry() {
+	}
+
+	/**
+	 * load the saved capabilities or probe them on a background thread, this returns immediately
+	 * @param context
+	 */
+	public static void init(final Context context) {
+		final File file = new File(context.getFilesDir(), FILE_NAME);
+		synchronized (sSync) {
+			if ((sEncoders != null) || (sProbeThread != null)) return;
+			sProbeThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					List<VideoEncoderInfo> encoders = null;
+					try {
+						encoders = load(file);
+					} catch (final RuntimeException e) {
+						// lookups probe on their own thread instead
+						Log.e(TAG, "failed to load codec capabilities", e);
+					} finally {
+						synchronized (sSync) {
+							if (sEncoders == null) {
+								sEncoders = encoders;
+							}
+							sProbeThread = null;
+							sSync.notifyAll();
+						}
+					}
+				}
+			}, TAG);
+			sProbeThread.start();
+		}
+	}
+
+	/**
+	 * @return video encoders with Surface input in the order of MediaCodecList
+	 */
+	public static List<VideoEncoderInfo> getVideoEncoders() {
+		synchronized (sSync) {
+			while ((sEncoders == null) && (sProbeThread != null)) {
+				try {
+					sSync.wait();
+				} catch (final InterruptedException e) {
+					break;
+				}
+			}
+			if (sEncoders == null) {
+				Log.w(TAG, "not initialized or failed, probing on the caller thread");
+				sEncoders = probe();
+			}
+			return sEncoders;
+		}
+	}
+
+	/**
+	 * @param mimeType
+	 * @return the first encoder of the MIME type, null if there is none
+	 */
+	public static VideoEncoderInfo getVideoEncoder(final String mimeType) {
+		for (final VideoEncoderInfo info: getVideoEncoders()) {
+			if (info.mimeType.equalsIgnoreCase(mimeType)) {
+				return info;
+			}
+		}
+		return null;
+	}
+
+	private static List<VideoEncoderInfo> load(final File file) {
+		final long start = System.nanoTime();
+		List<VideoEncoderInfo> encoders = read(file);
+		if (encoders == null) {
+			encoders = probe();
+			try {
+				write(file, encoders);
+			} catch (final IOException e) {
+				Log.w(TAG, "failed to save codec capabilities", e);
+			}
+		}
+		if (DEBUG) Log.i(TAG, String.format("loaded %d encoders in %.1f ms: %s",
+			encoders.size(), (System.nanoTime() - start) / 1e6, encoders));
+		return encoders;
+	}
+
+	/**
+	 * @return null if the file does not exist, is broken or was saved on another build,
+	 * 		a broken file is deleted
+	 */
+	private static List<VideoEncoderInfo> read(final File file) {
+		if (!file.exists()) return null;
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if ((in.readInt() != VERSION) || !Build.FINGERPRINT.equals(in.readUTF())) {
+					if (DEBUG) Log.i(TAG, "saved capabilities are outdated");
+					return null;
+				}
+				final int n = in.readInt();
+				if ((n < 0) || (n > MAX_ENCODERS))
+					throw new IOException("broken encoder count:" + n);
+				final List<VideoEncoderInfo> result = new ArrayList<VideoEncoderInfo>(n);
+				for (int i = 0; i < n; i++) {
+					result.add(VideoEncoderInfo.read(in));
+				}
+				return Collections.unmodifiableList(result);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			Log.w(TAG, "failed to read codec capabilities", e);
+		} catch (final RuntimeException e) {
+			Log.w(TAG, "failed to read codec capabilities", e);
+		}
+		if (!file.delete()) {
+			Log.w(TAG, "failed to delete " + file);
+		}
+		return null;
+	}
+
+	private static void write(final File file, final List<VideoEncoderInfo> encoders) throws IOException {
+		// write to a temporary file and rename so that a killed process never leaves a broken file
+		final File tmp = new File(file.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(VERSION);
+			out.writeUTF(Build.FINGERPRINT);
+			out.writeInt(encoders.size());
+			for (final VideoEncoderInfo info: encoders) {
+				info.write(out);
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file))
+			throw new IOException("can not rename to " + file);
+	}
+
+	@SuppressWarnings("deprecation")
+	private static List<VideoEncoderInfo> probe() {
+		final List<VideoEncoderInfo> result = new ArrayList<VideoEncoderInfo>();
+		final int numCodecs = MediaCodecList.getCodecCount();
+		for (int i = 0; i < numCodecs; i++) {
+			final MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+			if (!codecInfo.isEncoder()) continue;
+			for (final String type: codecInfo.getSupportedTypes()) {
+				if (!type.toLowerCase().startsWith("video/")) continue;
+				try {
+					final VideoEncoderInfo info = probe(codecInfo, type);
+					if (info != null) result.add(info);
+				} catch (final RuntimeException e) {
+					// some vendor codecs throw for their own types
+					Log.w(TAG, "probe:" + codecInfo.getName() + "/" + type, e);
+				}
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * @return null if the codec does not accept Surface input
+	 */
+	private static VideoEncoderInfo probe(final MediaCodecInfo codecInfo, final String mimeType) {
+		final MediaCodecInfo.CodecCapabilities caps;
+		try {
+			Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+			caps = codecInfo.getCapabilitiesForType(mimeType);
+		} finally {
+			Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+		}
+		boolean surface = false;
+		for (final int colorFormat: caps.colorFormats) {
+			if (colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface) {
+				surface = true;
+				break;
+			}
+		}
+		if (!surface) return null;
+		final VideoEncoderInfo info = new VideoEncoderInfo();
+		info.name = codecInfo.getName();
+		info.mimeType = mimeType;
+		final MediaCodecInfo.CodecProfileLevel[] profileLevels = caps.profileLevels;
+		final int n = profileLevels != null ? profileLevels.length : 0;
+		info.profiles = new int[n];
+		info.levels = new int[n];
+		for (int i = 0; i < n; i++) {
+			info.profiles[i] = profileLevels[i].profile;
+			info.levels[i] = profileLevels[i].level;
+		}
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			probeVideoCapabilities(caps, info);
+		}
+		return info;
+	}
+
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static void probeVideoCapabilities(final MediaCodecInfo.CodecCapabilities caps, final VideoEncoderInfo info) {
+		final MediaCodecInfo.VideoCapabilities video = caps.getVideoCapabilities();
+		if (video == null) return;
+		info.hasVideoCapabilities = true;
+		info.widthAlignment = video.getWidthAlignment();
+		info.heightAlignment = video.getHeightAlignment();
+		info.minWidth = video.getSupportedWidths().getLower();
+		info.maxWidth = video.getSupportedWidths().getUpper();
+		info.minHeight = video.getSupportedHeights().getLower();
+		info.maxHeight = video.getSupportedHeights().getUpper();
+		info.minFrameRate = video.getSupportedFrameRates().getLower();
+		info.maxFrameRate = video.getSupportedFrameRates().getUpper();
+		info.minBitRate = video.getBitrateRange().getLower();
+		info.maxBitRate = video.getBitrateRange().getUpper();
+		final MediaCodecInfo.EncoderCapabilities encoder = caps.getEncoderCapabilities();
+		if (encoder != null) {
+			for (int mode = RecordingProfile.BITRATE_MODE_CQ; mode <= RecordingProfile.BITRATE_MODE_CBR; mode++) {
+				if (encoder.isBitrateModeSupported(mode)) {
+					info.bitrateModes |= 1 << mode;
+				}
+			}
+		}
+	}
+}
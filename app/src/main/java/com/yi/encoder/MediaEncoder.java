@@ -1,18 +1,27 @@
 package com.yi.encoder;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
+import com.yi.perf.FrameLatencyTracker;
+import com.yi.perf.LatencyHistogram;
+
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
 
 public abstract class MediaEncoder implements Runnable {
 	private static final boolean DEBUG = true;
 	private static final String TAG = "MediaEncoder";
 
 	protected static final int TIMEOUT_USEC = 10000;	// 10[msec]
+	private static final long EOS_TIMEOUT_MS = 1000;
 	protected static final int MSG_FRAME_AVAILABLE = 1;
 	protected static final int MSG_STOP_RECORDING = 9;
 
@@ -39,9 +48,10 @@ public abstract class MediaEncoder implements Runnable {
      */
     protected boolean mIsEOS;
     /**
-     * Flag the indicate the muxer is running
+     * Flag the indicate the muxer is running,
+     * this is set/cleared on the callback thread on API >= 21 and read by #release
      */
-    protected boolean mMuxerStarted;
+    protected volatile boolean mMuxerStarted;
     /**
      * Track Number
      */
@@ -61,6 +71,48 @@ public abstract class MediaEncoder implements Runnable {
 
     protected final MediaEncoderListener mListener;
 
+    private volatile FrameLatencyTracker mLatencyTracker;
+
+    /**
+     * presentation time of the frames that are passed to encoder but not written to muxer yet, guarded by mSync.
+     * Entries are looked up by the presentation time that came out of the encoder, so frames that were
+     * dropped on the way do not shift the later frames. 0 is an unused entry, the oldest entry is
+     * overwritten when all entries are used
+     */
+    private static final int MAX_PENDING_PTS = 16;
+    private final long[] mPendingPTSUs = new long[MAX_PENDING_PTS];
+    private final long[] mPendingInputNs = new long[MAX_PENDING_PTS];
+    private int mPendingNext, mPendingCount;
+    /**
+     * time of #frameAvailableSoon(long) for the frame being written, accessed only on the writing thread
+     */
+    private long mWritingInputNs;
+    private final LatencyHistogram mEncodeLatency = new LatencyHistogram();
+    /**
+     * true if frames on the input Surface carry the capture time by eglPresentationTimeANDROID,
+     * the presentationTimeUs from the encoder is written to muxer as is in that case
+     */
+    protected boolean mInputTimestamps;
+    /**
+     * asynchronous mode(API >= 21), encoded frames are written by MediaCodec.Callback
+     * on mCallbackThread as soon as they are produced instead of polling by #drain
+     */
+    private volatile boolean mAsync;
+    private HandlerThread mCallbackThread;
+    /**
+     * Flag that indicate EOS came out of the encoder in asynchronous mode, guarded by mSync
+     */
+    private boolean mOutputEOS;
+    /**
+     * bytes of encoded frames written to muxer, written only on the encoder thread
+     */
+    private volatile long mWrittenBytes;
+    /**
+     * time of the record request and of writing the first frame to muxer, for time to first frame
+     */
+    private volatile long mStartRequestNs, mFirstFrameNs;
+    private volatile long mFirstFramePTSUs;
+
     public MediaEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener) {
     	if (listener == null) throw new NullPointerException("MediaEncoderListener is null");
     	if (muxer == null) throw new NullPointerException("MediaMuxerWrapper is null");
@@ -79,6 +131,60 @@ public abstract class MediaEncoder implements Runnable {
         }
 	}
 
+    /**
+     * report writing each frame to muxer to the tracker, the presentation time is used as the frame key
+     * @param tracker null to stop reporting
+     */
+    public void setLatencyTracker(final FrameLatencyTracker tracker) {
+    	mLatencyTracker = tracker;
+    }
+
+    /**
+     * @return number of frames that were passed by #frameAvailableSoon(long) but not written to muxer yet
+     */
+    public int getPendingFrames() {
+    	synchronized (mSync) {
+    		return mPendingCount;
+    	}
+    }
+
+    /**
+     * @return true if encoded frames are written by MediaCodec.Callback, see #createEncoderAsync
+     */
+    public boolean isAsync() {
+    	return mAsync;
+    }
+
+    /**
+     * @return histogram of the time from #frameAvailableSoon(long) to writing the encoded frame to muxer
+     */
+    public LatencyHistogram getEncodeLatency() {
+    	return mEncodeLatency;
+    }
+
+    /**
+     * @return total bytes of encoded frames written to muxer since start of this encoder
+     */
+    public long getWrittenBytes() {
+    	return mWrittenBytes;
+    }
+
+    /**
+     * @return time from the record request(see MediaMuxerWrapper#startRecording(long)) to writing
+     * 		the first encoded frame to muxer, -1 until the first frame is written
+     */
+    public long getTimeToFirstFrameNs() {
+    	final long first = mFirstFrameNs;
+    	return first > 0 ? first - mStartRequestNs : -1;
+    }
+
+    /**
+     * @return presentationTimeUs of the first frame written to muxer, 0 until it is written
+     */
+    public long getFirstFramePTSUs() {
+    	return mFirstFramePTSUs;
+    }
+
     public String getOutputPath() {
     	final MediaMuxerWrapper muxer = mWeakMuxer.get();
     	return muxer != null ? muxer.getOutputPath() : null;
@@ -94,12 +200,37 @@ public abstract class MediaEncoder implements Runnable {
             if (!mIsCapturing || mRequestStop) {
                 return false;
             }
-            mRequestDrain++;
-            mSync.notifyAll();
+            if (!mAsync) {
+            	// in asynchronous mode output is written by the callback without waking this thread
+	            mRequestDrain++;
+	            mSync.notifyAll();
+            }
         }
         return true;
     }
 
+    /**
+     * the method to indicate frame data is soon available with its timestamp,
+     * the timestamp is used as presentationTimeUs of the encoded frame instead of the time of draining
+     * @param presentationTimeNs timestamp of the frame on the same time base as System#nanoTime
+     * @return return true if encoder is ready to encod.
+     */
+    public boolean frameAvailableSoon(final long presentationTimeNs) {
+        synchronized (mSync) {
+            if (!mIsCapturing || mRequestStop) {
+                return false;
+            }
+            // entries are added in turn, so the next entry is unused or the oldest one
+            if (mPendingPTSUs[mPendingNext] == 0) {
+                mPendingCount++;
+            }
+            mPendingPTSUs[mPendingNext] = presentationTimeNs / 1000L;
+            mPendingInputNs[mPendingNext] = System.nanoTime();
+            mPendingNext = (mPendingNext + 1) % MAX_PENDING_PTS;
+        }
+        return frameAvailableSoon();
+    }
+
     /**
      * encoding loop on private thread
      */
@@ -122,11 +253,17 @@ public abstract class MediaEncoder implements Runnable {
         			mRequestDrain--;
         	}
 	        if (localRequestStop) {
-	           	drain();
-	           	// request stop recording
-	           	signalEndOfInputStream();
-	           	// process output data again for EOS signale
-	           	drain();
+	        	if (mAsync) {
+	        		// output is written on the callback thread, just wait for EOS
+		           	signalEndOfInputStream();
+		           	waitForOutputEOS();
+	        	} else {
+		           	drain();
+		           	// request stop recording
+		           	signalEndOfInputStream();
+		           	// process output data again for EOS signale
+		           	drain();
+	        	}
 	           	// release all related objects
 	           	release();
 	           	break;
@@ -158,8 +295,17 @@ public abstract class MediaEncoder implements Runnable {
    /*package*/ abstract void prepare() throws IOException;
 
 	/*package*/ void startRecording() {
+		startRecording(System.nanoTime());
+	}
+
+	/**
+	 * @param requestNs time when recording was requested on the same time base as System#nanoTime,
+	 * 		time to first frame is measured from this
+	 */
+	/*package*/ void startRecording(final long requestNs) {
    	if (DEBUG) Log.v(TAG, "startRecording");
 		synchronized (mSync) {
+			mStartRequestNs = requestNs;
 			mIsCapturing = true;
 			mRequestStop = false;
 			mSync.notifyAll();
@@ -182,6 +328,141 @@ public abstract class MediaEncoder implements Runnable {
 		}
 	}
 
+	/**
+	 * stop the encoder whether recording was started or not, this discards a prepared encoder
+	 * that never started recording(and the empty output file)
+	 */
+	/*package*/ void cancel() {
+		if (DEBUG) Log.v(TAG, "cancel");
+		synchronized (mSync) {
+			mRequestStop = true;
+			mSync.notifyAll();
+		}
+	}
+
+    /**
+     * create an encoder in asynchronous mode that writes each encoded frame to muxer from
+     * MediaCodec.Callback as soon as it is produced. The codec is created on the callback thread,
+     * because MediaCodec#setCallback on API 21 and 22 delivers callbacks on the looper of the thread
+     * that created the codec. Only encoders with an input Surface can use this.
+     * @param codecName MediaCodecInfo#getName
+     * @return null on API < 21, create the codec as before and output is drained by polling in that case
+     * @throws IOException
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    protected MediaCodec createEncoderAsync(final String codecName) throws IOException {
+    	if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return null;
+    	final HandlerThread thread = new HandlerThread(getClass().getSimpleName() + "-callback");
+    	thread.start();
+    	final MediaCodec[] codec = new MediaCodec[1];
+    	final IOException[] error = new IOException[1];
+    	final CountDownLatch created = new CountDownLatch(1);
+    	new Handler(thread.getLooper()).post(new Runnable() {
+    		@Override
+    		public void run() {
+    			try {
+    				codec[0] = MediaCodec.createByCodecName(codecName);
+    			} catch (final IOException e) {
+    				error[0] = e;
+    			} catch (final RuntimeException e) {
+    				error[0] = new IOException(e);
+    			} finally {
+    				created.countDown();
+    			}
+    		}
+    	});
+    	try {
+    		created.await();
+    	} catch (final InterruptedException e) {
+    		error[0] = new IOException("interrupted while creating codec");
+    	}
+    	if (codec[0] == null) {
+    		thread.quit();
+    		throw error[0];
+    	}
+    	codec[0].setCallback(new CodecCallback());
+    	mCallbackThread = thread;
+    	mAsync = true;
+    	return codec[0];
+    }
+
+    /**
+     * wait until EOS comes out of the encoder in asynchronous mode
+     */
+    private void waitForOutputEOS() {
+    	final long deadline = System.currentTimeMillis() + EOS_TIMEOUT_MS;
+    	synchronized (mSync) {
+    		while (!mOutputEOS) {
+    			final long wait = deadline - System.currentTimeMillis();
+    			if (wait <= 0) {
+    				Log.w(TAG, "EOS did not come from encoder");
+    				break;
+    			}
+    			try {
+    				mSync.wait(wait);
+    			} catch (final InterruptedException e) {
+    				break;
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * write encoded frames on the callback thread, this does the same as #drain for each output buffer
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private final class CodecCallback extends MediaCodec.Callback {
+    	@Override
+    	public void onInputBufferAvailable(final MediaCodec codec, final int index) {
+    		// input is a Surface
+    	}
+
+    	@Override
+    	public void onOutputBufferAvailable(final MediaCodec codec, final int index, final MediaCodec.BufferInfo info) {
+    		final MediaMuxerWrapper muxer = mWeakMuxer.get();
+    		try {
+    			if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+    				// the codec specific data is passed to muxer with the output format
+    				info.size = 0;
+    			}
+    			if ((info.size != 0) && (muxer != null) && mMuxerStarted) {
+    				writeSampleData(muxer, codec.getOutputBuffer(index), info);
+    			}
+    			codec.releaseOutputBuffer(index, false);
+    		} catch (final IllegalStateException e) {
+    			// the codec was stopped while this callback was pending
+    			Log.w(TAG, "onOutputBufferAvailable:", e);
+    		}
+    		if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+    			synchronized (mSync) {
+    				mMuxerStarted = mIsCapturing = false;
+    				mOutputEOS = true;
+    				mSync.notifyAll();
+    			}
+    		}
+    	}
+
+    	@Override
+    	public void onOutputFormatChanged(final MediaCodec codec, final MediaFormat format) {
+        	if (DEBUG) Log.v(TAG, "onOutputFormatChanged:" + format);
+            if (mMuxerStarted) {	// second time request is error
+                throw new RuntimeException("format changed twice");
+            }
+    		final MediaMuxerWrapper muxer = mWeakMuxer.get();
+    		if (muxer == null) {
+    			Log.w(TAG, "muxer is unexpectedly null");
+    			return;
+    		}
+    		startMuxer(muxer, format);
+    	}
+
+    	@Override
+    	public void onError(final MediaCodec codec, final MediaCodec.CodecException e) {
+    		Log.e(TAG, "onError:", e);
+    		stopRecording();
+    	}
+    }
+
 //********************************************************************************
 //********************************************************************************
     /**
@@ -204,6 +485,16 @@ public abstract class MediaEncoder implements Runnable {
 				Log.e(TAG, "failed releasing MediaCodec", e);
 			}
         }
+        if (mCallbackThread != null) {
+        	// wait for the pending callbacks so that nothing is written after stopping muxer
+        	mCallbackThread.quitSafely();
+        	try {
+        		mCallbackThread.join();
+        	} catch (final InterruptedException e) {
+        		Thread.currentThread().interrupt();
+        	}
+        	mCallbackThread = null;
+        }
         if (mMuxerStarted) {
        		final MediaMuxerWrapper muxer = mWeakMuxer.get();
        		if (muxer != null) {
@@ -213,12 +504,27 @@ public abstract class MediaEncoder implements Runnable {
     				Log.e(TAG, "failed stopping muxer", e);
     			}
        		}
+        } else {
+        	// EOS also clears mMuxerStarted, the muxer knows whether anything was written
+       		final MediaMuxerWrapper muxer = mWeakMuxer.get();
+       		if (muxer != null) {
+       			muxer.abandon();
+       		}
         }
         mBufferInfo = null;
     }
 
     protected void signalEndOfInputStream() {
 		if (DEBUG) Log.d(TAG, "sending EOS to encoder");
+		if (mAsync) {
+			// only encoders with an input Surface run in asynchronous mode
+			try {
+				mMediaCodec.signalEndOfInputStream();	// API >= 18
+			} catch (final IllegalStateException e) {
+				Log.w(TAG, "signalEndOfInputStream:", e);
+			}
+			return;
+		}
         // signalEndOfInputStream is only avairable for video encoding with surface
         // and equivalent sending a empty buffer with BUFFER_FLAG_END_OF_STREAM flag.
 //		mMediaCodec.signalEndOfInputStream();	// API >= 18
@@ -272,7 +578,7 @@ public abstract class MediaEncoder implements Runnable {
      */
     @SuppressWarnings("deprecation")
     protected void drain() {
-    	if (mMediaCodec == null) return;
+    	if ((mMediaCodec == null) || mAsync) return;
         ByteBuffer[] encoderOutputBuffers = mMediaCodec.getOutputBuffers();
         int encoderStatus, count = 0;
         final MediaMuxerWrapper muxer = mWeakMuxer.get();
@@ -306,18 +612,8 @@ LOOP:	while (mIsCapturing) {
 				// get output format from codec and pass them to muxer
 				// getOutputFormat should be called after INFO_OUTPUT_FORMAT_CHANGED otherwise crash.
                 final MediaFormat format = mMediaCodec.getOutputFormat(); // API >= 16
-               	mTrackIndex = muxer.addTrack(format);
-               	mMuxerStarted = true;
-               	if (!muxer.start()) {
-               		// we should wait until muxer is ready
-               		synchronized (muxer) {
-	               		while (!muxer.isStarted())
-						try {
-							muxer.wait(100);
-						} catch (final InterruptedException e) {
-							break LOOP;
-						}
-               		}
+               	if (!startMuxer(muxer, format)) {
+               		break LOOP;
                	}
             } else if (encoderStatus < 0) {
             	// unexpected status
@@ -345,9 +641,7 @@ LOOP:	while (mIsCapturing) {
                         throw new RuntimeException("drain:muxer hasn't started");
                     }
                     // write encoded data to muxer(need to adjust presentationTimeUs.
-                   	mBufferInfo.presentationTimeUs = getPTSUs();
-                   	muxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
-					prevOutputPTSUs = mBufferInfo.presentationTimeUs;
+                   	writeSampleData(muxer, encodedData, mBufferInfo);
                 }
                 // return buffer to encoder
                 mMediaCodec.releaseOutputBuffer(encoderStatus, false);
@@ -360,6 +654,107 @@ LOOP:	while (mIsCapturing) {
         }
     }
 
+    /**
+     * add the track and start muxer, wait until all encoders of the muxer are ready
+     * @return false if interrupted while waiting
+     */
+    private boolean startMuxer(final MediaMuxerWrapper muxer, final MediaFormat format) {
+       	mTrackIndex = muxer.addTrack(format);
+       	mMuxerStarted = true;
+       	if (!muxer.start()) {
+       		// we should wait until muxer is ready
+       		synchronized (muxer) {
+           		while (!muxer.isStarted())
+				try {
+					muxer.wait(100);
+				} catch (final InterruptedException e) {
+					return false;
+				}
+       		}
+       	}
+       	return true;
+    }
+
+    /**
+     * write an encoded frame with adjusted presentationTimeUs and report it,
+     * this is called on the encoder thread or the callback thread in asynchronous mode
+     */
+    private void writeSampleData(final MediaMuxerWrapper muxer, final ByteBuffer encodedData,
+    	final MediaCodec.BufferInfo info) {
+
+       	info.presentationTimeUs = getNextPTSUs(info.presentationTimeUs);
+       	muxer.writeSampleData(mTrackIndex, encodedData, info);
+		prevOutputPTSUs = info.presentationTimeUs;
+		mWrittenBytes += info.size;
+		if (mFirstFrameNs == 0) {
+			mFirstFramePTSUs = info.presentationTimeUs;
+			mFirstFrameNs = System.nanoTime();
+		}
+		if (mWritingInputNs > 0) {
+			mEncodeLatency.record(System.nanoTime() - mWritingInputNs);
+		}
+		final FrameLatencyTracker tracker = mLatencyTracker;
+		if (tracker != null) {
+			tracker.onMuxerWrite(info.presentationTimeUs);
+		}
+    }
+
+    /**
+     * get presentationTimeUs of the frame that was passed by #frameAvailableSoon(long),
+     * fallback to #getPTSUs if no timestamp is pending
+     * @param codecPTSUs presentationTimeUs that came out of the encoder
+     * @return
+     */
+    private long getNextPTSUs(final long codecPTSUs) {
+    	if (mInputTimestamps && (codecPTSUs > 0)) {
+    		return getInputPTSUs(codecPTSUs);
+    	}
+    	long result = -1;
+    	mWritingInputNs = 0;
+    	synchronized (mSync) {
+    		// the encoder output does not identify the frame, take the oldest one
+    		int oldest = -1;
+    		for (int i = 0; i < MAX_PENDING_PTS; i++) {
+    			final int ix = (mPendingNext + i) % MAX_PENDING_PTS;
+    			if (mPendingPTSUs[ix] != 0) {
+    				oldest = ix;
+    				break;
+    			}
+    		}
+    		if (oldest >= 0) {
+    			result = mPendingPTSUs[oldest];
+    			mWritingInputNs = mPendingInputNs[oldest];
+    			mPendingPTSUs[oldest] = 0;
+    			mPendingCount--;
+    		}
+    	}
+		if ((result <= 0) || (result <= prevOutputPTSUs)) {
+			result = getPTSUs();
+		}
+    	return result;
+    }
+
+    /**
+     * use the timestamp that the input frame carried through the encoder and look up its pending entry,
+     * pending frames before it are removed because they were never encoded
+     */
+    private long getInputPTSUs(final long codecPTSUs) {
+    	mWritingInputNs = 0;
+    	synchronized (mSync) {
+    		for (int i = 0; (i < MAX_PENDING_PTS) && (mPendingCount > 0); i++) {
+    			final long pts = mPendingPTSUs[i];
+    			if ((pts == 0) || (pts > codecPTSUs)) continue;
+    			if (pts == codecPTSUs) {
+    				mWritingInputNs = mPendingInputNs[i];
+    			}
+    			mPendingPTSUs[i] = 0;
+    			mPendingCount--;
+    		}
+    	}
+    	// should not happen as the renderer skips frames with the same timestamp
+    	return codecPTSUs > prevOutputPTSUs ? codecPTSUs : prevOutputPTSUs + 1;
+    }
+
     /**
      * previous presentationTimeUs for writing
      */
@@ -48,6 +48,9 @@ public class MediaMuxerWrapper {
 	private final MediaMuxer mMediaMuxer;	// API >= 18
 	private int mEncoderCount, mStatedCount;
 	private boolean mIsStarted;
+	// true once MediaMuxer was started, it is never stopped by encoder when EOS came
+	private boolean mWasStarted;
+	private boolean mIsAbandoned;
 	private MediaEncoder mVideoEncoder;
 
 	/**
@@ -68,7 +71,7 @@ public class MediaMuxerWrapper {
 		mIsStarted = false;
 	}
 
-	public String getOutputPath() {
+	public synchronized String getOutputPath() {
 		return mOutputPath;
 	}
 
@@ -78,8 +81,42 @@ public class MediaMuxerWrapper {
 	}
 
 	public void startRecording() {
+		startRecording(System.nanoTime());
+	}
+
+	/**
+	 * @param requestNs time when recording was requested(System#nanoTime),
+	 * 		see MediaEncoder#getTimeToFirstFrameNs
+	 */
+	public void startRecording(final long requestNs) {
+		if (mVideoEncoder != null)
+			mVideoEncoder.startRecording(requestNs);
+	}
+
+	/**
+	 * stop the encoder without starting recording, the output file is deleted if nothing was written
+	 */
+	public void cancelRecording() {
 		if (mVideoEncoder != null)
-			mVideoEncoder.startRecording();
+			mVideoEncoder.cancel();
+		mVideoEncoder = null;
+	}
+
+	/**
+	 * rename the output file with current time, the muxer keeps writing to the renamed file.
+	 * This is for a muxer that was created long before recording starts
+	 * @return false if the file could not be renamed, the previous name is kept
+	 */
+	public synchronized boolean renameOutput() {
+		if (mOutputPath == null) return false;
+		final File file = getCaptureFile(Environment.DIRECTORY_MOVIES, mOutputPath.substring(mOutputPath.lastIndexOf('.')));
+		if ((file == null) || file.getPath().equals(mOutputPath)) return false;
+		if (!new File(mOutputPath).renameTo(file)) {
+			Log.w(TAG, "failed to rename " + mOutputPath);
+			return false;
+		}
+		mOutputPath = file.toString();
+		return true;
 	}
 
 	public void stopRecording() {
@@ -125,7 +162,7 @@ public class MediaMuxerWrapper {
 		mStatedCount++;
 		if ((mEncoderCount > 0) && (mStatedCount == mEncoderCount)) {
 			mMediaMuxer.start();
-			mIsStarted = true;
+			mIsStarted = mWasStarted = true;
 			notifyAll();
 			if (DEBUG) Log.v(TAG,  "MediaMuxer started:");
 		}
@@ -145,6 +182,21 @@ public class MediaMuxerWrapper {
 		}
 	}
 
+	/**
+	 * release the muxer and delete the output file if no encoder started it,
+	 * this is called from encoder when it is released
+	 */
+	/*package*/ synchronized void abandon() {
+		if (mWasStarted || mIsAbandoned) return;
+		if (DEBUG) Log.v(TAG,  "abandon:" + mOutputPath);
+		mIsAbandoned = true;
+		mMediaMuxer.release();
+		if ((mOutputPath != null) && !new File(mOutputPath).delete()) {
+			Log.w(TAG, "failed to delete " + mOutputPath);
+		}
+		mOutputPath = null;
+	}
+
 	/**
 	 * assign encoder to muxer
 	 * @param format
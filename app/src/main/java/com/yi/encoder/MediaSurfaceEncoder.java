@@ -1,8 +1,6 @@
 package com.yi.encoder;
 
 import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.util.Log;
 import android.view.Surface;
@@ -14,18 +12,29 @@ public class MediaSurfaceEncoder extends MediaEncoder {
 	private static final String TAG = MediaSurfaceEncoder.class.getSimpleName();
 
 	private static final String MIME_TYPE = "video/avc";
-	// parameters for recording
-	// VIDEO_WITH and VIDEO_HEIGHT should be same as the camera preview size.
-    private static final int VIDEO_WIDTH = 128;
-    private static final int VIDEO_HEIGHT = 128;
-    private static final int FRAME_RATE = 15;
-    private static final float BPP = 0.50f;
 
+    private final RecordingProfile mProfile;
     private Surface mSurface;
 
-	public MediaSurfaceEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener) {
+	/**
+	 * record with RecordingProfile#DEFAULT and the size and frame rate of the preview
+	 */
+	public MediaSurfaceEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener,
+		final int width, final int height, final int frameRate) {
+
+		this(muxer, listener, RecordingProfile.DEFAULT.matchCamera(width, height, frameRate));
+	}
+
+	/**
+	 * @param profile size and frame rate should be set by RecordingProfile#matchCamera
+	 * 		with those of the preview
+	 */
+	public MediaSurfaceEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener,
+		final RecordingProfile profile) {
+
 		super(muxer, listener);
 		if (DEBUG) Log.i(TAG, "MediaVideoEncoder: ");
+		mProfile = profile;
 	}
 
 	/**
@@ -40,22 +49,27 @@ public class MediaSurfaceEncoder extends MediaEncoder {
 		if (DEBUG) Log.i(TAG, "prepare: ");
         mTrackIndex = -1;
         mMuxerStarted = mIsEOS = false;
+        // RendererHolder sets the frame timestamp on the recordable surface
+        mInputTimestamps = true;
 
-        final MediaCodecInfo videoCodecInfo = selectVideoCodec(MIME_TYPE);
+        // probed in the background at start up instead of scanning MediaCodecList here
+        final VideoEncoderInfo videoCodecInfo = CodecRegistry.getVideoEncoder(MIME_TYPE);
         if (videoCodecInfo == null) {
             Log.e(TAG, "Unable to find an appropriate codec for " + MIME_TYPE);
             return;
         }
-		if (DEBUG) Log.i(TAG, "selected codec: " + videoCodecInfo.getName());
+		if (DEBUG) Log.i(TAG, "selected codec: " + videoCodecInfo);
 
-        final MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, VIDEO_WIDTH, VIDEO_HEIGHT);
-        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);	// API >= 18
-        format.setInteger(MediaFormat.KEY_BIT_RATE, calcBitRate());
-        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 10);
+        final RecordingProfile profile = mProfile.resolve(videoCodecInfo, null);
+        final MediaFormat format = profile.createVideoFormat(MIME_TYPE);
 		if (DEBUG) Log.i(TAG, "format: " + format);
 
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+        // write encoded frames from MediaCodec.Callback on API >= 21 instead of polling
+        // create the codec that the profile was resolved against
+        mMediaCodec = createEncoderAsync(videoCodecInfo.name);
+        if (mMediaCodec == null) {
+        	mMediaCodec = MediaCodec.createByCodecName(videoCodecInfo.name);
+        }
         mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         // get Surface for encoder input
         // this method only can call between #configure and #start
@@ -81,94 +95,4 @@ public class MediaSurfaceEncoder extends MediaEncoder {
 		super.release();
 	}
 
-	private int calcBitRate() {
-		final int bitrate = (int)(BPP * FRAME_RATE * VIDEO_WIDTH * VIDEO_HEIGHT);
-		Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", bitrate / 1024f / 1024f));
-		return bitrate;
-	}
-
-    /**
-     * select the first codec that match a specific MIME type
-     * @param mimeType
-     * @return null if no codec matched
-     */
-    @SuppressWarnings("deprecation")
-    protected static final MediaCodecInfo selectVideoCodec(final String mimeType) {
-    	if (DEBUG) Log.v(TAG, "selectVideoCodec:");
-
-    	// get the list of available codec
-        final int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-        	final MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-
-            if (!codecInfo.isEncoder()) {	// skipp decoder
-                continue;
-            }
-            // select first codec that match a specific MIME type and color format
-            final String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                	if (DEBUG) Log.i(TAG, "codec:" + codecInfo.getName() + ",MIME=" + types[j]);
-            		final int format = selectColorFormat(codecInfo, mimeType);
-                	if (format > 0) {
-                		return codecInfo;
-                	}
-                }
-            }
-        }
-        return null;
-    }
-
-    /**
-     * select color format available on specific codec and we can use.
-     * @return 0 if no colorFormat is matched
-     */
-    protected static final int selectColorFormat(final MediaCodecInfo codecInfo, final String mimeType) {
-		if (DEBUG) Log.i(TAG, "selectColorFormat: ");
-    	int result = 0;
-    	final MediaCodecInfo.CodecCapabilities caps;
-    	try {
-    		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-    		caps = codecInfo.getCapabilitiesForType(mimeType);
-    	} finally {
-    		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
-    	}
-        int colorFormat;
-        for (int i = 0; i < caps.colorFormats.length; i++) {
-        	colorFormat = caps.colorFormats[i];
-            if (isRecognizedViewoFormat(colorFormat)) {
-            	if (result == 0)
-            		result = colorFormat;
-                break;
-            }
-        }
-        if (result == 0)
-        	Log.e(TAG, "couldn't find a good color format for " + codecInfo.getName() + " / " + mimeType);
-        return result;
-    }
-
-	/**
-	 * color formats that we can use in this class
-	 */
-    protected static int[] recognizedFormats;
-	static {
-		recognizedFormats = new int[] {
-//        	MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar,
-//        	MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
-//        	MediaCodecInfo.CodecCapabilities.COLOR_QCOM_FormatYUV420SemiPlanar,
-        	MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface,
-		};
-	}
-
-    private static final boolean isRecognizedViewoFormat(final int colorFormat) {
-		if (DEBUG) Log.i(TAG, "isRecognizedViewoFormat:colorFormat=" + colorFormat);
-    	final int n = recognizedFormats != null ? recognizedFormats.length : 0;
-    	for (int i = 0; i < n; i++) {
-    		if (recognizedFormats[i] == colorFormat) {
-    			return true;
-    		}
-    	}
-    	return false;
-    }
-
 }
@@ -0,0 +1,281 @@
+package com.yi.encoder;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Encoding parameters of a recording, so that file size and quality can be chosen per deployment.
+ * Zero means "match the camera" for the size and frame rate and "codec default" for the others.
+ * Use #matchCamera to fill the camera dependent values and #resolve to fit the profile into the capabilities
+ * of the codec before #createVideoFormat, values the codec does not support are adjusted or dropped.
+ */
+public final class RecordingProfile {
+	private static final String TAG = RecordingProfile.class.getSimpleName();
+
+	public static final int BITRATE_MODE_DEFAULT = -1;
+	public static final int BITRATE_MODE_CQ = 0;		// MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ
+	public static final int BITRATE_MODE_VBR = 1;		// MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR
+	public static final int BITRATE_MODE_CBR = 2;		// MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR
+
+	/** bits per pixel to calculate the bitrate when it is not specified */
+	public static final float DEFAULT_BPP = 0.50f;
+	public static final int DEFAULT_I_FRAME_INTERVAL = 10;
+	private static final int LEGACY_ALIGNMENT = 16;
+
+	/**
+	 * same bitrate and GOP as the fixed parameters before profiles, with the camera size and frame rate
+	 */
+	public static final RecordingProfile DEFAULT = new Builder().build();
+
+	public final int width, height;
+	/** frames per second */
+	public final int frameRate;
+	/** bits per second */
+	public final int bitRate;
+	/** one of BITRATE_MODE_XXX */
+	public final int bitrateMode;
+	/** seconds between key frames */
+	public final int iFrameInterval;
+	/** MediaCodecInfo.CodecProfileLevel, 0 to leave it to the codec */
+	public final int profile, level;
+
+	private RecordingProfile(final Builder builder) {
+		width = builder.width;
+		height = builder.height;
+		frameRate = builder.frameRate;
+		bitRate = builder.bitRate;
+		bitrateMode = builder.bitrateMode;
+		iFrameInterval = builder.iFrameInterval;
+		profile = builder.profile;
+		level = builder.level;
+	}
+
+	public Builder buildUpon() {
+		return new Builder(this);
+	}
+
+	/**
+	 * fill the size and frame rate that are not specified with the values of the camera
+	 */
+	public RecordingProfile matchCamera(final int cameraWidth, final int cameraHeight, final int cameraFrameRate) {
+		if ((width > 0) && (height > 0) && (frameRate > 0)) return this;
+		final Builder builder = buildUpon();
+		if ((width <= 0) || (height <= 0)) builder.size(cameraWidth, cameraHeight);
+		if (frameRate <= 0) builder.frameRate(cameraFrameRate);
+		return builder.build();
+	}
+
+	/**
+	 * adjust the profile into the capabilities of the codec. Size and frame rate should be set by #matchCamera.
+	 * Capabilities other than profile/level are known only on API >= 21, on older devices the size is
+	 * aligned to 16 and the other values are used as is.
+	 * @param codecInfo capabilities from CodecRegistry
+	 * @param adjustments descriptions of the changed values are added if not null
+	 * @return this if nothing was changed
+	 */
+	public RecordingProfile resolve(final VideoEncoderInfo codecInfo, final List<String> adjustments) {
+		if ((width <= 0) || (height <= 0) || (frameRate <= 0))
+			throw new IllegalStateException("size and frame rate should be set by #matchCamera");
+		final Builder builder = buildUpon();
+		if (builder.bitRate <= 0) {
+			builder.bitRate((int)(DEFAULT_BPP * builder.frameRate * builder.width * builder.height));
+		}
+		if (codecInfo.hasVideoCapabilities) {
+			resolveVideoCapabilities(codecInfo, builder, adjustments);
+		} else if (((builder.width % LEGACY_ALIGNMENT) != 0) || ((builder.height % LEGACY_ALIGNMENT) != 0)) {
+			// alignment can not be queried, macroblock aligned sizes are accepted by all encoders
+			final int w = (builder.width + LEGACY_ALIGNMENT - 1) / LEGACY_ALIGNMENT * LEGACY_ALIGNMENT;
+			final int h = (builder.height + LEGACY_ALIGNMENT - 1) / LEGACY_ALIGNMENT * LEGACY_ALIGNMENT;
+			adjust(adjustments, "size " + builder.width + "x" + builder.height + " -> " + w + "x" + h);
+			builder.size(w, h);
+		}
+		if (builder.profile > 0) {
+			if (!codecInfo.isProfileLevelSupported(builder.profile, builder.level)) {
+				adjust(adjustments, "profile/level " + builder.profile + "/" + builder.level + " is not supported");
+				builder.profileLevel(0, 0);
+			}
+		} else if (builder.level > 0) {
+			adjust(adjustments, "level without profile is ignored");
+			builder.profileLevel(0, 0);
+		}
+		final RecordingProfile result = builder.build();
+		return result.equals(this) ? this : result;
+	}
+
+	private static void resolveVideoCapabilities(final VideoEncoderInfo codecInfo,
+		final Builder builder, final List<String> adjustments) {
+
+		if (!codecInfo.isSizeSupported(builder.width, builder.height)) {
+			// round up to the alignment, the renderer scales the preview to the encoder surface
+			final int wa = codecInfo.widthAlignment, ha = codecInfo.heightAlignment;
+			final int w = clamp((builder.width + wa - 1) / wa * wa, codecInfo.minWidth, codecInfo.maxWidth);
+			final int h = clamp((builder.height + ha - 1) / ha * ha, codecInfo.minHeight, codecInfo.maxHeight);
+			adjust(adjustments, "size " + builder.width + "x" + builder.height + " -> " + w + "x" + h);
+			builder.size(w, h);
+		}
+		// the range over all sizes, the range for the size is not cached
+		final int rate = clamp(builder.frameRate, codecInfo.minFrameRate, codecInfo.maxFrameRate);
+		if (rate != builder.frameRate) {
+			adjust(adjustments, "frame rate " + builder.frameRate + " -> " + rate);
+			builder.frameRate(rate);
+		}
+		final int bitRate = clamp(builder.bitRate, codecInfo.minBitRate, codecInfo.maxBitRate);
+		if (bitRate != builder.bitRate) {
+			adjust(adjustments, "bitrate " + builder.bitRate + " -> " + bitRate);
+			builder.bitRate(bitRate);
+		}
+		if ((builder.bitrateMode != BITRATE_MODE_DEFAULT) && !codecInfo.isBitrateModeSupported(builder.bitrateMode)) {
+			adjust(adjustments, "bitrate mode " + builder.bitrateMode + " is not supported");
+			builder.bitrateMode(BITRATE_MODE_DEFAULT);
+		}
+	}
+
+	private static int clamp(final int value, final int min, final int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	private static void adjust(final List<String> adjustments, final String message) {
+		Log.w(TAG, "resolve:" + message);
+		if (adjustments != null) adjustments.add(message);
+	}
+
+	/**
+	 * @param mimeType
+	 * @return format for an encoder with an input Surface
+	 */
+	public MediaFormat createVideoFormat(final String mimeType) {
+		final MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
+		format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);	// API >= 18
+		format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+		format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+		format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, iFrameInterval);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			if (bitrateMode != BITRATE_MODE_DEFAULT) {
+				format.setInteger(MediaFormat.KEY_BITRATE_MODE, bitrateMode);
+			}
+			if (profile > 0) {
+				format.setInteger(MediaFormat.KEY_PROFILE, profile);
+				// KEY_LEVEL is public from API 23 but the key is read by codecs of older versions too
+				if (level > 0) format.setInteger(MediaFormat.KEY_LEVEL, level);
+			}
+		}
+		return format;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (!(o instanceof RecordingProfile)) return false;
+		final RecordingProfile other = (RecordingProfile)o;
+		return (width == other.width) && (height == other.height) && (frameRate == other.frameRate)
+			&& (bitRate == other.bitRate) && (bitrateMode == other.bitrateMode)
+			&& (iFrameInterval == other.iFrameInterval) && (profile == other.profile) && (level == other.level);
+	}
+
+	@Override
+	public int hashCode() {
+		int result = width;
+		result = 31 * result + height;
+		result = 31 * result + frameRate;
+		result = 31 * result + bitRate;
+		result = 31 * result + bitrateMode;
+		result = 31 * result + iFrameInterval;
+		result = 31 * result + profile;
+		result = 31 * result + level;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "RecordingProfile{" + width + "x" + height + "," + frameRate + "fps,bitRate=" + bitRate
+			+ ",bitrateMode=" + bitrateMode + ",iFrameInterval=" + iFrameInterval
+			+ ",profile=" + profile + ",level=" + level + "}";
+	}
+
+	public static final class Builder {
+		private int width, height;
+		private int frameRate;
+		private int bitRate;
+		private int bitrateMode = BITRATE_MODE_DEFAULT;
+		private int iFrameInterval = DEFAULT_I_FRAME_INTERVAL;
+		private int profile, level;
+
+		public Builder() {
+		}
+
+		private Builder(final RecordingProfile src) {
+			width = src.width;
+			height = src.height;
+			frameRate = src.frameRate;
+			bitRate = src.bitRate;
+			bitrateMode = src.bitrateMode;
+			iFrameInterval = src.iFrameInterval;
+			profile = src.profile;
+			level = src.level;
+		}
+
+		/**
+		 * @param width 0 to match the camera
+		 * @param height 0 to match the camera
+		 */
+		public Builder size(final int width, final int height) {
+			this.width = width;
+			this.height = height;
+			return this;
+		}
+
+		/**
+		 * @param frameRate 0 to match the camera
+		 */
+		public Builder frameRate(final int frameRate) {
+			this.frameRate = frameRate;
+			return this;
+		}
+
+		/**
+		 * @param bitRate bits per second, 0 to calculate from DEFAULT_BPP
+		 */
+		public Builder bitRate(final int bitRate) {
+			this.bitRate = bitRate;
+			return this;
+		}
+
+		/**
+		 * @param bitrateMode one of BITRATE_MODE_XXX, only applied on API >= 21
+		 */
+		public Builder bitrateMode(final int bitrateMode) {
+			this.bitrateMode = bitrateMode;
+			return this;
+		}
+
+		/**
+		 * @param seconds GOP length in seconds, 0 for all key frames
+		 */
+		public Builder iFrameInterval(final int seconds) {
+			iFrameInterval = seconds;
+			return this;
+		}
+
+		/**
+		 * @param profile MediaCodecInfo.CodecProfileLevel.AVCProfileXXX etc, 0 to leave it to the codec
+		 * @param level MediaCodecInfo.CodecProfileLevel.AVCLevelXXX etc, 0 to leave it to the codec
+		 */
+		public Builder profileLevel(final int profile, final int level) {
+			this.profile = profile;
+			this.level = level;
+			return this;
+		}
+
+		public RecordingProfile build() {
+			if ((width < 0) || (height < 0) || (frameRate < 0) || (bitRate < 0) || (iFrameInterval < 0))
+				throw new IllegalArgumentException("negative value");
+			if ((bitrateMode < BITRATE_MODE_DEFAULT) || (bitrateMode > BITRATE_MODE_CBR))
+				throw new IllegalArgumentException("unknown bitrate mode:" + bitrateMode);
+			return new RecordingProfile(this);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.yi.encoder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Capabilities of a video encoder that accepts Surface input, a snapshot of MediaCodecInfo
+ * that can be kept by CodecRegistry without querying the codec list again.
+ */
+public final class VideoEncoderInfo {
+	/** MediaCodecInfo#getName, for MediaCodec#createByCodecName */
+	public String name;
+	public String mimeType;
+	/** MediaCodecInfo.CodecProfileLevel, levels[i] is the maximum level of profiles[i] */
+	public int[] profiles = new int[0], levels = new int[0];
+	/** false when the following were not available(API < 21) */
+	public boolean hasVideoCapabilities;
+	public int widthAlignment = 1, heightAlignment = 1;
+	public int minWidth, maxWidth, minHeight, maxHeight;
+	public int minFrameRate, maxFrameRate;
+	public int minBitRate, maxBitRate;
+	/** bit mask of (1 << RecordingProfile.BITRATE_MODE_XXX) */
+	public int bitrateModes;
+
+	public boolean isSizeSupported(final int width, final int height) {
+		if (!hasVideoCapabilities) return true;
+		return (width >= minWidth) && (width <= maxWidth) && (height >= minHeight) && (height <= maxHeight)
+			&& ((width % widthAlignment) == 0) && ((height % heightAlignment) == 0);
+	}
+
+	public boolean isBitrateModeSupported(final int mode) {
+		return (mode >= 0) && ((bitrateModes & (1 << mode)) != 0);
+	}
+
+	/**
+	 * @param level 0 for any level
+	 */
+	public boolean isProfileLevelSupported(final int profile, final int level) {
+		for (int i = 0; i < profiles.length; i++) {
+			if ((profiles[i] == profile) && ((level <= 0) || (level <= levels[i]))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*package*/ void write(final DataOutput out) throws IOException {
+		out.writeUTF(name);
+		out.writeUTF(mimeType);
+		out.writeInt(profiles.length);
+		for (int i = 0; i < profiles.length; i++) {
+			out.writeInt(profiles[i]);
+			out.writeInt(levels[i]);
+		}
+		out.writeBoolean(hasVideoCapabilities);
+		out.writeInt(widthAlignment);
+		out.writeInt(heightAlignment);
+		out.writeInt(minWidth);
+		out.writeInt(maxWidth);
+		out.writeInt(minHeight);
+		out.writeInt(maxHeight);
+		out.writeInt(minFrameRate);
+		out.writeInt(maxFrameRate);
+		out.writeInt(minBitRate);
+		out.writeInt(maxBitRate);
+		out.writeInt(bitrateModes);
+	}
+
+	/*package*/ static VideoEncoderInfo read(final DataInput in) throws IOException {
+		final VideoEncoderInfo info = new VideoEncoderInfo();
+		info.name = in.readUTF();
+		info.mimeType = in.readUTF();
+		final int n = in.readInt();
+		if ((n < 0) || (n > 1024))
+			throw new IOException("broken profile levels:" + n);
+		info.profiles = new int[n];
+		info.levels = new int[n];
+		for (int i = 0; i < n; i++) {
+			info.profiles[i] = in.readInt();
+			info.levels[i] = in.readInt();
+		}
+		info.hasVideoCapabilities = in.readBoolean();
+		info.widthAlignment = Math.max(1, in.readInt());
+		info.heightAlignment = Math.max(1, in.readInt());
+		info.minWidth = in.readInt();
+		info.maxWidth = in.readInt();
+		info.minHeight = in.readInt();
+		info.maxHeight = in.readInt();
+		info.minFrameRate = in.readInt();
+		info.maxFrameRate = in.readInt();
+		info.minBitRate = in.readInt();
+		info.maxBitRate = in.readInt();
+		info.bitrateModes = in.readInt();
+		return info;
+	}
+
+	@Override
+	public String toString() {
+		return "VideoEncoderInfo{" + name + "," + mimeType + ",profiles=" + profiles.length
+			+ (hasVideoCapabilities ? ",size=" + minWidth + "-" + maxWidth + "x" + minHeight + "-" + maxHeight
+				+ "(align " + widthAlignment + "x" + heightAlignment + "),fps=" + minFrameRate + "-" + maxFrameRate
+				+ ",bitRate=" + minBitRate + "-" + maxBitRate + ",bitrateModes=" + bitrateModes : "")
+			+ "}";
+	}
+}
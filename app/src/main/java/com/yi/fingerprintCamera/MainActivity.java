@@ -9,6 +9,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
@@ -28,17 +29,37 @@ import com.serenegiant.usb.USBMonitor;
 import com.serenegiant.usb.USBMonitor.OnDeviceConnectListener;
 import com.serenegiant.usb.USBMonitor.UsbControlBlock;
 import com.serenegiant.usb.UVCCamera;
+import com.yi.encoder.CodecRegistry;
 import com.yi.encoder.MediaMuxerWrapper;
+import com.yi.encoder.RecordingProfile;
+import com.yi.perf.MetricsLogger;
+import com.yi.perf.PerfCounters;
+import com.yi.perf.PerfMonitor;
+import com.yi.perf.PerfSample;
 import com.yi.usb.UVCCameraHandler;
 import com.yi.widget.PermissionHelper;
 import com.yi.widget.UVCCameraTextureView;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 public final class MainActivity extends AppCompatActivity implements CameraDialog.CameraDialogParent {
 	private static final boolean DEBUG = true;
 	private static final String TAG = MainActivity.class.getSimpleName();
+	/**
+	 * keep an encoder ready in video mode so that recording starts from the next frame
+	 */
+	private static final boolean WARM_STANDBY = true;
+	/**
+	 * measure MJPEG decoding with 1 to DECODE_SWEEP_MAX_WORKERS decode workers after the preview started,
+	 * the results are written to Android/data/<package>/files/perf, see UVCCameraHandler#startDecodeWorkerSweep
+	 */
+	private static final boolean DECODE_WORKER_SWEEP = false;
+	private static final int DECODE_SWEEP_MAX_WORKERS = 4;
+	private static final int DECODE_SWEEP_MEASURE_MS = 10000;
 
 	/**
 	 * for accessing USB
@@ -73,15 +94,36 @@ public final class MainActivity extends AppCompatActivity implements CameraDialo
 	private Long startTime;
 	private Handler handler = new Handler();
 
+	/**
+	 * performance overlay and metrics logging, toggled by long click on the info text.
+	 * Counters are sampled and written to file on mPerfHandler to keep file I/O off the UI thread
+	 */
+	private static final long PERF_INTERVAL_MS = 1000;
+	private TextView mPerfOverlay;
+	private HandlerThread mPerfThread;
+	private Handler mPerfHandler;
+	private final PerfCounters mPerfCounters = new PerfCounters();
+	private final PerfMonitor mPerfMonitor = new PerfMonitor();
+	private final PerfSample mPerfSample = new PerfSample();
+	private MetricsLogger mMetricsLogger;
+	private volatile boolean mPerfEnabled;
+
 	@Override
 	protected void onCreate(final Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		if (DEBUG) Log.v(TAG, "onCreate:");
+		// probe encoder capabilities in the background so that starting a recording does not scan codecs
+		CodecRegistry.init(getApplicationContext());
 		setContentView(R.layout.activity_main);
 
 		mRelativeLayout = (RelativeLayout) findViewById(R.id.RelativeLayout1);
 
 		mTipTextView = (TextView) findViewById(R.id.id_txt_info);
+		mTipTextView.setOnLongClickListener(mOnLongClickListener);
+		mPerfOverlay = (TextView) findViewById(R.id.perf_overlay);
+		mPerfThread = new HandlerThread("PerfMonitor");
+		mPerfThread.start();
+		mPerfHandler = new Handler(mPerfThread.getLooper());
 
 		mUVCCameraView = (UVCCameraTextureView) findViewById(R.id.camera_view);
 		mUVCCameraView.setAspectRatio(UVCCamera.DEFAULT_PREVIEW_WIDTH / (float) UVCCamera.DEFAULT_PREVIEW_HEIGHT);
@@ -154,6 +196,7 @@ public final class MainActivity extends AppCompatActivity implements CameraDialo
 	@Override
 	public void onPause() {
 		if (DEBUG) Log.e(TAG, "onPause:");
+		setPerfEnabled(false);
 		mHandler.close();    // #close include #stopRecording and #stopPreview
 		mCameraButton.setChecked(false);
 		mUSBMonitor.unregister();
@@ -164,6 +207,10 @@ public final class MainActivity extends AppCompatActivity implements CameraDialo
 	@Override
 	public void onDestroy() {
 		if (DEBUG) Log.e(TAG, "onDestroy:");
+		if (mPerfThread != null) {
+			mPerfThread.quitSafely();
+			mPerfThread = null;
+		}
 		if (mHandler != null) {
 			mHandler.release();
 			mHandler = null;
@@ -229,11 +276,15 @@ public final class MainActivity extends AppCompatActivity implements CameraDialo
 						mModeImage.setImageDrawable(getResources().getDrawable(R.drawable.c_mode_camera));
 						CapturePicture = false;
 						ModeSwitch = false;
+						if (WARM_STANDBY) {
+							mHandler.setWarmStandby(RecordingProfile.DEFAULT);
+						}
 					} else {
 						mCaptureImage.setImageDrawable(getResources().getDrawable(R.drawable.c_shot));
 						mModeImage.setImageDrawable(getResources().getDrawable(R.drawable.c_mode_video));
 						CapturePicture = true;
 						ModeSwitch = true;
+						mHandler.setWarmStandby(null);
 					}
 					break;
 			}
@@ -259,13 +310,104 @@ public final class MainActivity extends AppCompatActivity implements CameraDialo
 						}
 						return true;
 					}
+					break;
+				case R.id.id_txt_info:
+					setPerfEnabled(!mPerfEnabled);
+					return true;
 			}
 			return false;
 		}
 	};
 
+	/**
+	 * show/hide the performance overlay and start/stop writing metrics to
+	 * Android/data/<package>/files/perf on external storage, which can be copied without adb
+	 */
+	private void setPerfEnabled(final boolean enable) {
+		if (enable == mPerfEnabled) return;
+		mPerfEnabled = enable;
+		mHandler.setLatencyTracking(enable);
+		if (enable) {
+			final File dir = getExternalFilesDir("perf");
+			final String name = new SimpleDateFormat("'perf-'yyyyMMdd-HHmmss'.csv'", Locale.US).format(new Date());
+			final File file = dir != null ? new File(dir, name) : null;
+			mPerfHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					mPerfMonitor.reset();
+					try {
+						if (file != null) mMetricsLogger = new MetricsLogger(file);
+					} catch (final IOException e) {
+						Log.w(TAG, "MetricsLogger:", e);
+					}
+					mPerfTask.run();
+				}
+			});
+			mPerfOverlay.setText("");
+			mPerfOverlay.setVisibility(View.VISIBLE);
+			Toast.makeText(this, getString(R.string.perf_started, file), Toast.LENGTH_LONG).show();
+		} else {
+			mPerfHandler.removeCallbacks(mPerfTask);
+			mPerfHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					closeMetricsLogger();
+				}
+			});
+			mPerfOverlay.setVisibility(View.GONE);
+			Toast.makeText(this, R.string.perf_stopped, Toast.LENGTH_SHORT).show();
+		}
+	}
+
+	/**
+	 * sample the counters and write the metrics, this runs on mPerfHandler
+	 */
+	private final Runnable mPerfTask = new Runnable() {
+		@Override
+		public void run() {
+			final UVCCameraHandler cameraHandler = mHandler;
+			if (!mPerfEnabled || (cameraHandler == null)) return;
+			cameraHandler.getPerfCounters(mPerfCounters);
+			if (mPerfMonitor.update(mPerfCounters, System.nanoTime(), mPerfSample)) {
+				if (mMetricsLogger != null) {
+					try {
+						mMetricsLogger.write(mPerfSample);
+					} catch (final IOException e) {
+						Log.w(TAG, "MetricsLogger#write:", e);
+						closeMetricsLogger();
+					}
+				}
+				final String text = mPerfSample.toDisplayString();
+				runOnUiThread(new Runnable() {
+					@Override
+					public void run() {
+						if (mPerfEnabled) mPerfOverlay.setText(text);
+					}
+				});
+			}
+			mPerfHandler.postDelayed(this, PERF_INTERVAL_MS);
+		}
+	};
+
+	private void closeMetricsLogger() {
+		if (mMetricsLogger == null) return;
+		try {
+			final UVCCameraHandler cameraHandler = mHandler;
+			mMetricsLogger.close(cameraHandler != null ? cameraHandler.getLatencyTracker() : null);
+		} catch (final IOException e) {
+			Log.w(TAG, "MetricsLogger#close:", e);
+		}
+		mMetricsLogger = null;
+	}
+
 	private void startPreview() {
 		mHandler.startPreview();
+		if (DECODE_WORKER_SWEEP) {
+			final File dir = getExternalFilesDir("perf");
+			final String name = new SimpleDateFormat("'decode-'yyyyMMdd-HHmmss'.csv'", Locale.US).format(new Date());
+			mHandler.startDecodeWorkerSweep(DECODE_SWEEP_MAX_WORKERS, DECODE_SWEEP_MEASURE_MS,
+				dir != null ? new File(dir, name).getPath() : null);
+		}
 		mCameraButton.setChecked(true);
 		mCaptureImage.setEnabled(true);
 		mTipTextView.setText(R.string.open_string);
@@ -28,6 +28,7 @@ import android.opengl.EGL14;
 import android.opengl.EGLConfig;
 import android.opengl.EGLContext;
 import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
 import android.opengl.EGLSurface;
 import android.os.Build;
 import android.util.Log;
@@ -75,10 +76,27 @@ public class EGLBase {	// API >= 17
 			mEgl.swap(mEglSurface);
 		}
 
+		/**
+		 * set the timestamp of the frame that is posted by the next #swap,
+		 * the encoder outputs this as presentationTimeUs(/1000) when this is the input surface of MediaCodec
+		 * @param presentationTimeNs
+		 */
+		public void setPresentationTime(final long presentationTimeNs) {
+			mEgl.setPresentationTime(mEglSurface, presentationTimeNs);
+		}
+
 		public EGLContext getContext() {
 			return mEgl.getContext();
 		}
 
+		public int getWidth() {
+			return mEgl.querySurface(mEglSurface, EGL14.EGL_WIDTH);
+		}
+
+		public int getHeight() {
+			return mEgl.querySurface(mEglSurface, EGL14.EGL_HEIGHT);
+		}
+
 		public void release() {
 			if (DEBUG) Log.v(TAG, "EglSurface:release:");
 			mEgl.makeDefault();
@@ -185,6 +203,12 @@ public class EGLBase {	// API >= 17
         }
 	}
 
+	private void setPresentationTime(final EGLSurface surface, final long presentationTimeNs) {
+		if (!EGLExt.eglPresentationTimeANDROID(mEglDisplay, surface, presentationTimeNs)) {
+			if (DEBUG) Log.w(TAG, "setPresentationTime:err=" + EGL14.eglGetError());
+		}
+	}
+
 	private int swap(final EGLSurface surface) {
 //		if (DEBUG) Log.v(TAG, "swap:");
         if (!EGL14.eglSwapBuffers(mEglDisplay, surface)) {
@@ -276,6 +300,12 @@ public class EGLBase {	// API >= 17
         if (DEBUG) Log.v(TAG, "destroySurface:finished");
 	}
 
+	private int querySurface(final EGLSurface surface, final int what) {
+		final int[] value = new int[1];
+		EGL14.eglQuerySurface(mEglDisplay, surface, what, value, 0);
+		return value[0];
+	}
+
     private void checkEglError(final String msg) {
         int error;
         if ((error = EGL14.eglGetError()) != EGL14.EGL_SUCCESS) {
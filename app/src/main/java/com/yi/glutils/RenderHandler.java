@@ -33,6 +33,8 @@ import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import com.yi.perf.FrameLatencyTracker;
+
 /**
  * Draw shared texture on specific whole Surface using OpenGL|ES
  */
@@ -84,6 +86,19 @@ public final class RenderHandler extends Handler {
 		sendMessage(obtainMessage(MSG_RENDER_DRAW, tex_id, 0, tex_matrix));
 	}
 
+	/**
+	 * draw and report the time when drawing finished to the tracker
+	 * @param tracker nullable
+	 * @param frameKey USB arrival time of the frame(FrameDescriptor#timestampNs), this is the frame key of
+	 * 		FrameLatencyTracker and the presentation time on a recordable surface. The shared texture
+	 * 		has the latest frame when drawing, so the key of the latest request is used when requests are queued
+	 */
+	public final void draw(final int tex_id, final float[] tex_matrix, final FrameLatencyTracker tracker, final long frameKey) {
+		mThread.mLatencyTracker = tracker;
+		mThread.mFrameKey = frameKey;
+		draw(tex_id, tex_matrix);
+	}
+
 	public boolean isValid() {
 		synchronized (mThread.mSync) {
 			sendEmptyMessage(MSG_CHECK_VALID);
@@ -153,6 +168,10 @@ public final class RenderHandler extends Handler {
     	private EGLBase.EglSurface mTargetSurface;
     	private Surface mSurface;
     	private GLDrawer2D mDrawer;
+    	private boolean mIsRecordable;
+    	private volatile FrameLatencyTracker mLatencyTracker;
+    	private volatile long mFrameKey;
+    	private long mLastPresentationNs;
 
     	public RenderThread(final String name) {
     		super(name);
@@ -181,6 +200,7 @@ public final class RenderHandler extends Handler {
     			mSurface = surface instanceof Surface ? (Surface)surface
     				: (surface instanceof SurfaceTexture ? new Surface((SurfaceTexture)surface) : null);
     		}
+    		mIsRecordable = isRecordable;
     		mEgl = new EGLBase(shard_context, false, isRecordable);
    			mTargetSurface = mEgl.createFromSurface(surface);
     		mDrawer = new GLDrawer2D();
@@ -194,9 +214,24 @@ public final class RenderHandler extends Handler {
     	public void handleDraw(final int tex_id, final float[] tex_matrix) {
 //    		if (DEBUG) Log.i(TAG_THREAD, "draw");
     		if (tex_id >= 0) {
+    			final long frameKey = mFrameKey;
+    			if (mIsRecordable && (frameKey != 0)) {
+    				// queued requests draw the same latest frame, the encoder needs increasing timestamps
+    				if (frameKey <= mLastPresentationNs) return;
+    				mLastPresentationNs = frameKey;
+    			}
 	    		mTargetSurface.makeCurrent();
 	    		mDrawer.draw(tex_id, tex_matrix);
+	    		if (mIsRecordable && (frameKey != 0)) {
+	    			// carry the capture time to the encoder instead of the time of swapping
+	    			mTargetSurface.setPresentationTime(frameKey);
+	    		}
 	    		mTargetSurface.swap();
+	    		final FrameLatencyTracker tracker = mLatencyTracker;
+	    		if (tracker != null) {
+	    			// recordable surface is the input surface of an encoder
+	    			tracker.onClientDrawn(frameKey, mIsRecordable);
+	    		}
     		}
     	}
 
@@ -30,26 +30,38 @@ import android.opengl.EGL14;
 import android.opengl.GLES20;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.serenegiant.usb.FrameDescriptor;
+import com.serenegiant.usb.UVCCamera;
+import com.yi.perf.FrameLatencyTracker;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Hold shared texture that has camera frame and draw them to registered surface if needs<br>
  * Using RenderHandler is little bit slow and it is better to draw in this class directly.
+ * In single thread mode, this class draws to all registered surfaces by itself with one EGL context
+ * instead of creating RenderHandler(thread and EGL context) for each surface.
  */
 public class RendererHolder implements Runnable {
 	private static final boolean DEBUG = true;
 	private static final String TAG = "RendererHolder";
 
-	private static final int WIDTH = 640;
-	private static final int HEIGHT = 480;
+	// still images are compressed and written on worker threads
+	private static final int STILL_ENCODER_WORKERS = 1;
+	private static final int STILL_ENCODER_MAX_PENDING = 3;
+	// all frames of one burst are kept in pooled buffers until they are written
+	public static final int MAX_BURST_FRAMES = 10;
+	private static final int BURST_ENCODER_WORKERS = 2;
+	// maximum time to wait for render thread to release EGL surfaces of removed clients
+	private static final long RELEASE_TIMEOUT_MS = 1000;
 
 	public interface RenderHolderCallback {
 		public void onCreate(Surface surface);
@@ -60,23 +72,90 @@ public class RendererHolder implements Runnable {
 		public void onFrameAvailable();
 	}
 
+	/**
+	 * receives result of #captureBurst
+	 */
+	public interface BurstSink {
+		/**
+		 * called on capture thread to decide output file of each frame
+		 * @param index 0 to count - 1
+		 * @return null to skip this frame
+		 */
+		public File getOutputFile(int index);
+		/**
+		 * called on worker thread after each frame was written
+		 */
+		public void onFrameWritten(int index, StillImageEncoder.Result result);
+		/**
+		 * called on worker thread after all frames of the burst were written or failed
+		 * @param written number of frames that were written successfully
+		 * @param requested
+		 */
+		public void onBurstFinished(int written, int requested);
+	}
+
+	/**
+	 * OnFrameAvailableCallback that also receives FrameDescriptor of the drawn frame.
+	 * The timestamp is the one of the SurfaceTexture, i.e. the time when the frame was posted
+	 * from native preview thread on the same time base as System#nanoTime.
+	 * #onFrameAvailable(FrameDescriptor) is called instead of #onFrameAvailable().
+	 */
+	public interface OnFrameDescriptorCallback extends OnFrameAvailableCallback {
+		/**
+		 * @param descriptor this instance is reused for next frame
+		 */
+		public void onFrameAvailable(FrameDescriptor descriptor);
+	}
+
 	private final Object mSync = new Object();
 	private final RenderHolderCallback mCallback;
 	private final SparseArray<RenderHandler> mClients = new SparseArray<RenderHandler>();
 	private final SparseArray<OnFrameAvailableCallback> mOnFrameAvailables = new SparseArray<OnFrameAvailableCallback>();
+	// for single thread mode, EGL surfaces are created/released only on the render thread
+	private final boolean mSingleThread;
+	private final SparseArray<WindowClient> mWindowClients = new SparseArray<WindowClient>();
+	private final List<WindowClient> mReleasingClients = new ArrayList<WindowClient>();
+	// ids of surfaces that are registered but not drawn, see #setSurfacePaused
+	private final SparseBooleanArray mPausedClients = new SparseBooleanArray();
+	private Thread mRenderThread;
+	private GLDrawer2D mDrawer;
 	private volatile boolean isRunning;
 	private volatile boolean requestDraw;
 	private File mCaptureFile;
+	private int mCaptureWidth, mCaptureHeight;	// requested output size of still image, 0 means preview size
+	private StillImageEncoder.Callback mCaptureCallback;
+	private final StillImageEncoder mStillEncoder
+		= new StillImageEncoder(STILL_ENCODER_WORKERS, STILL_ENCODER_MAX_PENDING, Bitmap.CompressFormat.PNG, 90);
+	private Burst mBurst;
+	private final StillImageEncoder mBurstEncoder
+		= new StillImageEncoder(BURST_ENCODER_WORKERS, MAX_BURST_FRAMES, Bitmap.CompressFormat.PNG, 90);
+	private int mPreviewWidth = UVCCamera.DEFAULT_PREVIEW_WIDTH;
+	private int mPreviewHeight = UVCCamera.DEFAULT_PREVIEW_HEIGHT;
 	private EGLBase mMasterEgl;
 	private EGLBase.EglSurface mDummySurface;
 	private int mTexId;
 	private SurfaceTexture mMasterTexture;
 	final float[] mTexMatrix = new float[16];
 	private Surface mSurface;
+	private final FrameDescriptor mFrameDescriptor = new FrameDescriptor();
+	private long mFrameSequence;
+	private volatile FrameLatencyTracker.FrameTimeSource mFrameTimeSource;
+	private final long[] mFrameTimes = new long[3];
+	private volatile FrameLatencyTracker mLatencyTracker;
 
 	public RendererHolder(final RenderHolderCallback callback) {
-		if (DEBUG) Log.v(TAG, "Constructor");
+		this(callback, false);
+	}
+
+	/**
+	 * @param callback
+	 * @param singleThread true: draw to all surfaces on one thread with one EGL context,
+	 * 		false: use RenderHandler for each surface
+	 */
+	public RendererHolder(final RenderHolderCallback callback, final boolean singleThread) {
+		if (DEBUG) Log.v(TAG, "Constructor:singleThread=" + singleThread);
 		mCallback = callback;
+		mSingleThread = singleThread;
 		final Thread thread = new Thread(this, TAG);
 		thread.start();
 		new Thread(mCaptureTask, "CaptureTask").start();
@@ -96,8 +175,38 @@ public class RendererHolder implements Runnable {
 	}
 
 	public void addSurface(final int id, final Surface surface, final boolean isRecordable, final OnFrameAvailableCallback onFrameAvailableListener) {
-		if (DEBUG) Log.v(TAG, "addSurface:id=" + id + ",surface=" + surface);
+		addSurface(id, surface, isRecordable, false, onFrameAvailableListener);
+	}
+
+	/**
+	 * @param paused true to register the surface without drawing to it until #setSurfacePaused(id, false)
+	 */
+	public void addSurface(final int id, final Surface surface, final boolean isRecordable, final boolean paused,
+		final OnFrameAvailableCallback onFrameAvailableListener) {
+
+		if (DEBUG) Log.v(TAG, "addSurface:id=" + id + ",surface=" + surface + ",paused=" + paused);
 		checkSurface();
+		if (paused) {
+			synchronized (mSync) {
+				mPausedClients.put(id, true);
+			}
+		}
+		if (mSingleThread) {
+			if (!(surface instanceof Surface) && !(surface instanceof SurfaceHolder))
+				throw new RuntimeException("unsupported window type:" + surface);
+			synchronized (mSync) {
+				if (mWindowClients.get(id) == null) {
+					mWindowClients.append(id, new WindowClient(surface, isRecordable));
+					if (onFrameAvailableListener != null)
+						mOnFrameAvailables.append(id, onFrameAvailableListener);
+					if (DEBUG) Log.v(TAG, "success to add surface:id=" + id);
+				} else {
+					Log.w(TAG, "specific surface id already exist");
+				}
+				mSync.notifyAll();
+			}
+			return;
+		}
 		synchronized (mSync) {
 			RenderHandler handler = mClients.get(id);
 			if (handler == null) {
@@ -115,11 +224,37 @@ public class RendererHolder implements Runnable {
 		}
 	}
 
+	/**
+	 * stop or restart drawing to a registered surface and calling its OnFrameAvailableCallback.
+	 * A paused surface keeps its EGL surface, so drawing restarts from the next frame without setup,
+	 * e.g. the input surface of an encoder that waits for recording to start
+	 */
+	public void setSurfacePaused(final int id, final boolean paused) {
+		if (DEBUG) Log.v(TAG, "setSurfacePaused:id=" + id + ",paused=" + paused);
+		synchronized (mSync) {
+			if (paused) {
+				mPausedClients.put(id, true);
+			} else {
+				mPausedClients.delete(id);
+			}
+			mSync.notifyAll();
+		}
+	}
+
 	public void removeSurface(final int id) {
 		if (DEBUG) Log.v(TAG, "removeSurface:id=" + id);
 		RenderHandler handler = null;
 		synchronized (mSync) {
 			mOnFrameAvailables.remove(id);
+			mPausedClients.delete(id);
+			final WindowClient client = mWindowClients.get(id);
+			if (client != null) {
+				mWindowClients.remove(id);
+				// the caller may release the Surface after returning, so wait until EGL surface is released
+				mReleasingClients.add(client);
+				waitWindowClientsReleased();
+				if (DEBUG) Log.v(TAG, "success to remove surface:id=" + id);
+			}
 			handler = mClients.get(id);
 			if (handler != null) {
 				requestDraw = false;
@@ -127,7 +262,7 @@ public class RendererHolder implements Runnable {
 				handler.release();
 				handler = null;
 				if (DEBUG) Log.v(TAG, "success to remove surface:id=" + id);
-			} else {
+			} else if (client == null) {
 				Log.w(TAG, "specific surface id not found");
 			}
 			mSync.notifyAll();
@@ -144,17 +279,92 @@ public class RendererHolder implements Runnable {
 				mClients.valueAt(i).release();
 			}
 			mClients.clear();
+			final int m = mWindowClients.size();
+			for (int i = 0; i < m; i++) {
+				mReleasingClients.add(mWindowClients.valueAt(i));
+			}
+			mWindowClients.clear();
 			mOnFrameAvailables.clear();
+			mPausedClients.clear();
 			mSync.notifyAll();
+			waitWindowClientsReleased();
+		}
+	}
+
+	/**
+	 * set size of frames that come into the shared texture, still images are read back with this size
+	 * @param width
+	 * @param height
+	 */
+	public void setPreviewSize(final int width, final int height) {
+		if (DEBUG) Log.v(TAG, "setPreviewSize:" + width + "x" + height);
+		if ((width <= 0) || (height <= 0))
+			throw new IllegalArgumentException("invalid preview size:" + width + "x" + height);
+		synchronized (mSync) {
+			mPreviewWidth = width;
+			mPreviewHeight = height;
 		}
 	}
 
+	/**
+	 * report the texture update and drawing of each frame to the tracker
+	 * @param tracker null to stop reporting
+	 */
+	public void setLatencyTracker(final FrameLatencyTracker tracker) {
+		mLatencyTracker = tracker;
+	}
+
+	/**
+	 * look up the sequence number and USB arrival time of each frame from the camera so that
+	 * FrameDescriptor of OnFrameDescriptorCallback and the presentation time on recordable surfaces
+	 * identify the camera frame instead of the texture update
+	 * @param source null to use a counter of this renderer and the timestamp of the texture
+	 */
+	public void setFrameTimeSource(final FrameLatencyTracker.FrameTimeSource source) {
+		mFrameTimeSource = source;
+	}
+
 	public void captureStill(final String path) {
-		if (DEBUG) Log.v(TAG, "captureStill:" + path);
+		captureStill(path, 0, 0, null);
+	}
+
+	/**
+	 * capture next frame as a still image, pixels are read back on the capture thread
+	 * and compressed/written on StillImageEncoder asynchronously
+	 * @param path
+	 * @param width output width, 0 means preview width
+	 * @param height output height, 0 means preview height
+	 * @param callback called when the file was written or failed, nullable
+	 */
+	public void captureStill(final String path, final int width, final int height, final StillImageEncoder.Callback callback) {
+		if (DEBUG) Log.v(TAG, "captureStill:" + path + "," + width + "x" + height);
+		if ((width < 0) || (height < 0))
+			throw new IllegalArgumentException("invalid capture size:" + width + "x" + height);
 		final File file = new File(path);
-		if (DEBUG) Log.v(TAG, "captureStill:canWrite");
 		synchronized (mSync) {
 			mCaptureFile = file;
+			mCaptureWidth = width;
+			mCaptureHeight = height;
+			mCaptureCallback = callback;
+			mSync.notifyAll();
+		}
+	}
+
+	/**
+	 * capture consecutive frames with preview size, pixels of all frames are read back into buffers
+	 * that are allocated on the capture thread when the burst starts, and written on worker threads in the background.
+	 * A burst that is requested while another burst is running replaces the pending one.
+	 * @param count number of frames, 1 to MAX_BURST_FRAMES
+	 * @param intervalFrames capture every intervalFrames frames, 1 means every frame
+	 * @param sink
+	 */
+	public void captureBurst(final int count, final int intervalFrames, final BurstSink sink) {
+		if (DEBUG) Log.v(TAG, "captureBurst:count=" + count + ",interval=" + intervalFrames);
+		if ((count < 1) || (count > MAX_BURST_FRAMES) || (intervalFrames < 1))
+			throw new IllegalArgumentException("invalid burst:count=" + count + ",interval=" + intervalFrames);
+		if (sink == null) throw new NullPointerException("sink should not be null");
+		synchronized (mSync) {
+			mBurst = new Burst(count, intervalFrames, sink);
 			mSync.notifyAll();
 		}
 	}
@@ -189,33 +399,107 @@ public class RendererHolder implements Runnable {
 					mClients.valueAt(i).release();
 					mClients.remove(id);
 					mOnFrameAvailables.remove(id);
+					mPausedClients.delete(id);
+				}
+			}
+			for (int i = mWindowClients.size() - 1; i >= 0; i--) {
+				if (!mWindowClients.valueAt(i).isValid()) {
+					final int id = mWindowClients.keyAt(i);
+					if (DEBUG) Log.i(TAG, "checkSurface:found invalid surface:id=" + id);
+					mReleasingClients.add(mWindowClients.valueAt(i));
+					mWindowClients.removeAt(i);
+					mOnFrameAvailables.remove(id);
+					mPausedClients.delete(id);
 				}
 			}
 			mSync.notifyAll();
 		}
 	}
 
+	/**
+	 * release EGL surfaces of removed clients, this should be called on render thread with mSync locked
+	 */
+	private void releaseWindowClients() {
+		final int n = mReleasingClients.size();
+		if (n > 0) {
+			for (int i = 0; i < n; i++) {
+				mReleasingClients.get(i).release();
+			}
+			mReleasingClients.clear();
+			mSync.notifyAll();
+		}
+	}
+
+	/**
+	 * wait until render thread releases EGL surfaces of removed clients, this should be called with mSync locked
+	 */
+	private void waitWindowClientsReleased() {
+		if (!isRunning || (Thread.currentThread() == mRenderThread)) {
+			releaseWindowClients();
+			return;
+		}
+		// wake up render thread, it releases the clients at the top of its loop even if no frame comes
+		mSync.notifyAll();
+		final long deadline = System.currentTimeMillis() + RELEASE_TIMEOUT_MS;
+		while (isRunning && !mReleasingClients.isEmpty()) {
+			final long wait = deadline - System.currentTimeMillis();
+			if (wait <= 0) {
+				Log.w(TAG, "waitWindowClientsReleased:timeout, " + mReleasingClients.size() + " clients are pending");
+				break;
+			}
+			try {
+				mSync.wait(wait);
+			} catch (final InterruptedException e) {
+				break;
+			}
+		}
+	}
+
 	private void draw() {
+		final long presentedNs;
 		try {
 			mDummySurface.makeCurrent();
 			mMasterTexture.updateTexImage();
 			mMasterTexture.getTransformMatrix(mTexMatrix);
+			presentedNs = mMasterTexture.getTimestamp();
 		} catch (final Exception e) {
 			Log.e(TAG, "draw:thread id =" + Thread.currentThread().getId(), e);
 			return;
 		}
+		final FrameLatencyTracker.FrameTimeSource source = mFrameTimeSource;
+		if ((source != null) && source.getFrameTimes(presentedNs, mFrameTimes)) {
+			mFrameDescriptor.sequence = mFrameTimes[FrameLatencyTracker.FrameTimeSource.TIME_SEQUENCE];
+			mFrameDescriptor.timestampNs = mFrameTimes[FrameLatencyTracker.FrameTimeSource.TIME_ARRIVAL_NS];
+		} else {
+			mFrameDescriptor.sequence = mFrameSequence++;
+			mFrameDescriptor.timestampNs = presentedNs;
+		}
+		final FrameLatencyTracker tracker = mLatencyTracker;
+		if (tracker != null) {
+			tracker.onTextureUpdated(presentedNs);
+		}
 		synchronized (mCaptureTask) {
 			mCaptureTask.notify();
 		}
 		synchronized (mSync) {
 			final int n = mClients.size();
 			for (int i = 0; i < n; i++) {
-				mClients.valueAt(i).draw(mTexId, mTexMatrix);
+				if (mPausedClients.get(mClients.keyAt(i))) continue;
+				mClients.valueAt(i).draw(mTexId, mTexMatrix, tracker, mFrameDescriptor.timestampNs);
+			}
+			if (mSingleThread) {
+				drawWindowClients(tracker);
 			}
 			final int m = mOnFrameAvailables.size();
 			for (int i = 0; i < m; i++) {
+				if (mPausedClients.get(mOnFrameAvailables.keyAt(i))) continue;
 				try {
-					mOnFrameAvailables.valueAt(i).onFrameAvailable();
+					final OnFrameAvailableCallback callback = mOnFrameAvailables.valueAt(i);
+					if (callback instanceof OnFrameDescriptorCallback) {
+						((OnFrameDescriptorCallback)callback).onFrameAvailable(mFrameDescriptor);
+					} else {
+						callback.onFrameAvailable();
+					}
 				} catch (final Exception e) {
 				}
 			}
@@ -224,13 +508,43 @@ public class RendererHolder implements Runnable {
 		GLES20.glFlush();
 	}
 
+	/**
+	 * draw shared texture to all window surfaces sequentially, this should be called on render thread with mSync locked
+	 * @param tracker nullable
+	 */
+	private void drawWindowClients(final FrameLatencyTracker tracker) {
+		final int n = mWindowClients.size();
+		for (int i = 0; i < n; i++) {
+			final WindowClient client = mWindowClients.valueAt(i);
+			try {
+				if (mPausedClients.get(mWindowClients.keyAt(i))) {
+					// create EGL surface ahead so that the first frame after resuming is drawn without delay
+					client.prepare(mMasterEgl);
+					continue;
+				}
+				client.draw(mMasterEgl, mDrawer, mTexId, mTexMatrix, mFrameDescriptor.timestampNs);
+				if (tracker != null) {
+					tracker.onClientDrawn(mFrameDescriptor.timestampNs, client.mIsRecordable);
+				}
+			} catch (final Exception e) {
+				Log.w(TAG, "drawWindowClients:id=" + mWindowClients.keyAt(i), e);
+			}
+		}
+		mDummySurface.makeCurrent();
+	}
+
 	@Override
 	public void run() {
 		if (DEBUG) Log.v(TAG, "start:threadid=" + Thread.currentThread().getId());
-		mMasterEgl = new EGLBase(EGL14.EGL_NO_CONTEXT, false, false);
+		mRenderThread = Thread.currentThread();
+		// window surfaces for MediaCodec are created from master EGL context in single thread mode
+		mMasterEgl = new EGLBase(EGL14.EGL_NO_CONTEXT, false, mSingleThread);
     	mDummySurface = mMasterEgl.createOffscreen(2, 2);
 		mDummySurface.makeCurrent();
 		mTexId = GLDrawer2D.initTex();
+		if (mSingleThread) {
+			mDrawer = new GLDrawer2D();
+		}
 		mMasterTexture = new SurfaceTexture(mTexId);
 		mSurface = new Surface(mMasterTexture);
 		mMasterTexture.setOnFrameAvailableListener(mOnFrameAvailableListener);
@@ -241,6 +555,7 @@ public class RendererHolder implements Runnable {
 			isRunning = true;
 			mSync.notifyAll();
 			while (isRunning) {
+				releaseWindowClients();
 				if (requestDraw) {
 					requestDraw = false;
 					draw();
@@ -258,6 +573,14 @@ public class RendererHolder implements Runnable {
 			mCallback.onDestroy();
 		}
 		release();
+		synchronized (mSync) {
+			releaseWindowClients();
+		}
+		if (mDrawer != null) {
+			mDummySurface.makeCurrent();
+			mDrawer.release();
+			mDrawer = null;
+		}
 		mSurface = null;
 		mMasterTexture.release();
 		mMasterTexture = null;
@@ -270,15 +593,14 @@ public class RendererHolder implements Runnable {
 	}
 
 	private final Runnable mCaptureTask = new Runnable() {
-    	final ByteBuffer buf = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4);
     	EGLBase egl;
     	EGLBase.EglSurface captureSurface;
+    	int surfaceWidth, surfaceHeight;
     	GLDrawer2D drawer;
 
     	@Override
 		public void run() {
 			if (DEBUG) Log.v(TAG, "captureTask start");
-	    	buf.order(ByteOrder.LITTLE_ENDIAN);
 			synchronized (mSync) {
 				if (!isRunning) {
 					try {
@@ -289,20 +611,37 @@ public class RendererHolder implements Runnable {
 			}
 			init();
 			File captureFile = null;
+			StillImageEncoder.Callback captureCallback = null;
+			Burst burst = null;
+			int width = 0, height = 0;
 			if (DEBUG) Log.v(TAG, "captureTask loop");
 			while (isRunning) {
-				if (captureFile == null)
-				synchronized (mSync) {
-					if (mCaptureFile == null) {
-						try {
-							mSync.wait();
-						} catch (final InterruptedException e) {
-							break;
+				if ((captureFile == null) && (burst == null)) {
+					synchronized (mSync) {
+						if ((mCaptureFile == null) && (mBurst == null)) {
+							try {
+								mSync.wait();
+							} catch (final InterruptedException e) {
+								break;
+							}
+						}
+						if (mCaptureFile != null) {
+							captureFile = mCaptureFile;
+							captureCallback = mCaptureCallback;
+							mCaptureFile = null;
+							mCaptureCallback = null;
+							width = mCaptureWidth > 0 ? mCaptureWidth : mPreviewWidth;
+							height = mCaptureHeight > 0 ? mCaptureHeight : mPreviewHeight;
+						} else if (mBurst != null) {
+							burst = mBurst;
+							mBurst = null;
+							width = mPreviewWidth;
+							height = mPreviewHeight;
 						}
 					}
-					if (mCaptureFile != null) {
-						captureFile = mCaptureFile;
-						mCaptureFile = null;
+					if (burst != null) {
+						// allocate when the burst starts, not on the caller thread nor while capturing frames
+						mBurstEncoder.prepareBuffers(width * height * 4);
 					}
 				} else {
 					synchronized (mCaptureTask) {
@@ -313,47 +652,115 @@ public class RendererHolder implements Runnable {
 						}
 					}
 					if (isRunning && (captureFile != null)) {
-						captureSurface.makeCurrent();
-						drawer.draw(mTexId, mTexMatrix);
-						captureSurface.swap();
-				        buf.clear();
-				        // XXX it is better to feed resolution as parameter so that user can change camera resolution.
-				        // if the camera resolution is smaller than WIDTH x HEIGHT, app may crash...
-				        GLES20.glReadPixels(0, 0, WIDTH, HEIGHT, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buf);
-						// if you save every frame as a Bitmap, app may crash by Out of Memory exception...
-				        if (DEBUG) Log.v(TAG, "save pixels to png file:" + captureFile);
-				        BufferedOutputStream os = null;
-						try {
-					        try {
-					            os = new BufferedOutputStream(new FileOutputStream(captureFile));
-					            final Bitmap bmp = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
-						        buf.clear();
-					            bmp.copyPixelsFromBuffer(buf);
-					            bmp.compress(Bitmap.CompressFormat.PNG, 90, os);
-					            bmp.recycle();
-					        } finally {
-					            if (os != null) os.close();
-					        }
-						} catch (final FileNotFoundException e) {
-						} catch (final IOException e) {
+						final long start = System.nanoTime();
+						// pooled buffer, this does not block even if the encoder is busy
+						final ByteBuffer buf = mStillEncoder.obtainBuffer(width * height * 4);
+						if (buf != null) {
+							boolean queued = false;
+							try {
+								prepareSurface(width, height);
+								captureSurface.makeCurrent();
+								GLES20.glViewport(0, 0, width, height);
+								drawer.draw(mTexId, mTexMatrix);
+								captureSurface.swap();
+						        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buf);
+						        if (DEBUG) Log.v(TAG, "save pixels to file:" + captureFile);
+								mStillEncoder.encode(buf, width, height, captureFile, System.nanoTime() - start, captureCallback);
+								queued = true;
+							} catch (final RuntimeException e) {
+								Log.w(TAG, "failed to read back still image:" + captureFile, e);
+								if (captureCallback != null) {
+									captureCallback.onError(captureFile.toString(), e);
+								}
+							} finally {
+								if (!queued) {
+									// the encoder owns the buffer only after #encode
+									mStillEncoder.recycleBuffer(buf);
+								}
+							}
+						} else {
+							Log.w(TAG, "still image encoder is busy, capture skipped:" + captureFile);
+							if (captureCallback != null) {
+								captureCallback.onError(captureFile.toString(), new IllegalStateException("encoder busy"));
+							}
 						}
 					}
 					captureFile = null;
+					captureCallback = null;
+					if (isRunning && (burst != null)) {
+						if (burst.nextFrame()) {
+							captureBurstFrame(burst, width, height);
+						}
+						if (burst.isCaptured()) {
+							burst.finishCapturing();
+							burst = null;
+						}
+					}
 				}
 			}	// wnd of while (isRunning)
+			if (burst != null) {
+				burst.finishCapturing();
+			}
 			// release resources
 			if (DEBUG) Log.v(TAG, "captureTask finishing");
 			release();
+			mStillEncoder.release();
+			mBurstEncoder.release();
 			if (DEBUG) Log.v(TAG, "captureTask finished");
 		}
 
+		/**
+		 * read back one frame of burst into pooled buffer and pass it to the encoder
+		 */
+		private final void captureBurstFrame(final Burst burst, final int width, final int height) {
+			final long start = System.nanoTime();
+			final int index = burst.captured++;
+			final File file = burst.sink.getOutputFile(index);
+			final ByteBuffer buf = file != null ? mBurstEncoder.obtainBuffer(width * height * 4) : null;
+			if (buf == null) {
+				Log.w(TAG, "burst frame skipped:index=" + index);
+				return;
+			}
+			boolean queued = false;
+			try {
+				prepareSurface(width, height);
+				captureSurface.makeCurrent();
+				GLES20.glViewport(0, 0, width, height);
+				drawer.draw(mTexId, mTexMatrix);
+				captureSurface.swap();
+				GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buf);
+				mBurstEncoder.encode(buf, width, height, file, System.nanoTime() - start, burst.newCallback(index));
+				queued = true;
+			} catch (final RuntimeException e) {
+				Log.w(TAG, "failed to read back burst frame:index=" + index, e);
+			} finally {
+				if (!queued) {
+					mBurstEncoder.recycleBuffer(buf);
+				}
+			}
+		}
+
 		private final void init() {
 	    	egl = new EGLBase(mMasterEgl.getContext(), false, false);
-	    	captureSurface = egl.createOffscreen(WIDTH,  HEIGHT);
+	    	prepareSurface(mPreviewWidth, mPreviewHeight);
 	    	drawer = new GLDrawer2D();
 	    	drawer.getMvpMatrxi()[5] *= -1.0f;	// flip up-side down
 		}
 
+		/**
+		 * (re)create offscreen surface if the capture size changed
+		 */
+		private final void prepareSurface(final int width, final int height) {
+			if ((captureSurface == null) || (surfaceWidth != width) || (surfaceHeight != height)) {
+				if (captureSurface != null) {
+					captureSurface.release();
+				}
+		    	captureSurface = egl.createOffscreen(width, height);
+		    	surfaceWidth = width;
+		    	surfaceHeight = height;
+			}
+		}
+
 		private final void release() {
 			captureSurface.release();
 			captureSurface = null;
@@ -363,4 +770,122 @@ public class RendererHolder implements Runnable {
 			egl = null;
 		}
 	};
+
+	/**
+	 * state of one burst capture
+	 */
+	private static final class Burst {
+		private final int count;
+		private final int interval;
+		private final BurstSink sink;
+		// accessed only from capture thread
+		private int frames;
+		private int captured;
+		// 1 for capturing + number of frames in the encoder, the one who decrements this to 0 finishes the burst
+		private final AtomicInteger pending = new AtomicInteger(1);
+		private final AtomicInteger written = new AtomicInteger();
+
+		private Burst(final int count, final int interval, final BurstSink sink) {
+			this.count = count;
+			this.interval = interval;
+			this.sink = sink;
+		}
+
+		/**
+		 * @return true if current frame should be captured
+		 */
+		private boolean nextFrame() {
+			return (frames++ % interval) == 0;
+		}
+
+		private boolean isCaptured() {
+			return captured >= count;
+		}
+
+		private void finishCapturing() {
+			release();
+		}
+
+		private void release() {
+			if (pending.decrementAndGet() == 0) {
+				sink.onBurstFinished(written.get(), count);
+			}
+		}
+
+		private StillImageEncoder.Callback newCallback(final int index) {
+			pending.incrementAndGet();
+			return new StillImageEncoder.Callback() {
+				@Override
+				public void onComplete(final StillImageEncoder.Result result) {
+					written.incrementAndGet();
+					try {
+						sink.onFrameWritten(index, result);
+					} finally {
+						release();
+					}
+				}
+
+				@Override
+				public void onError(final String path, final Exception e) {
+					Log.w(TAG, "failed to write burst frame:" + path, e);
+					release();
+				}
+			};
+		}
+	}
+
+	/**
+	 * window surface that is drawn on the render thread in single thread mode
+	 */
+	private static final class WindowClient {
+		private final Object mSurface;
+		// recordable surface is the input surface of an encoder
+		private final boolean mIsRecordable;
+		private EGLBase.EglSurface mEglSurface;
+
+		public WindowClient(final Object surface, final boolean isRecordable) {
+			mSurface = surface;
+			mIsRecordable = isRecordable;
+		}
+
+		public boolean isValid() {
+			if (mSurface instanceof Surface) {
+				return ((Surface)mSurface).isValid();
+			} else if (mSurface instanceof SurfaceHolder) {
+				return ((SurfaceHolder)mSurface).getSurface().isValid();
+			}
+			return false;
+		}
+
+		/**
+		 * EGL surface is created on first drawing(or #prepare while paused) so that it belongs to render thread
+		 * @param presentationTimeNs timestamp of the frame, passed to the encoder on a recordable surface
+		 */
+		public void draw(final EGLBase egl, final GLDrawer2D drawer, final int tex_id, final float[] tex_matrix,
+			final long presentationTimeNs) {
+
+			prepare(egl);
+			mEglSurface.makeCurrent();
+			// all surfaces share one EGL context, so viewport should be set for each surface
+			GLES20.glViewport(0, 0, mEglSurface.getWidth(), mEglSurface.getHeight());
+			drawer.draw(tex_id, tex_matrix);
+			if (mIsRecordable && (presentationTimeNs != 0)) {
+				mEglSurface.setPresentationTime(presentationTimeNs);
+			}
+			mEglSurface.swap();
+		}
+
+		public void prepare(final EGLBase egl) {
+			if (mEglSurface == null) {
+				mEglSurface = egl.createFromSurface(mSurface);
+			}
+		}
+
+		public void release() {
+			if (mEglSurface != null) {
+				mEglSurface.release();
+				mEglSurface = null;
+			}
+		}
+	}
 }
@@ -0,0 +1,232 @@
+package com.yi.glutils;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compress RGBA pixels that were read back from GL and write them to files on worker threads,
+ * so that the thread holding GL context only needs to do glReadPixels.
+ * Pixel buffers are pooled and the number of buffers limits the number of pending jobs,
+ * therefore #obtainBuffer returns null instead of blocking when all workers are busy.
+ */
+public class StillImageEncoder {
+	private static final boolean DEBUG = false;	// TODO set false on release
+	private static final String TAG = "StillImageEncoder";
+
+	public interface Callback {
+		/**
+		 * called on worker thread after the file was written
+		 */
+		public void onComplete(Result result);
+		/**
+		 * called on worker thread, or on the caller thread of #encode when the job was rejected
+		 */
+		public void onError(String path, Exception e);
+	}
+
+	/**
+	 * output path and timings of one still image
+	 */
+	public static final class Result {
+		public final String path;
+		public final int width;
+		public final int height;
+		/** time spent for GL readback on capture thread */
+		public final long readbackNs;
+		/** time the job waited for a worker */
+		public final long queuedNs;
+		/** time spent for compressing and writing */
+		public final long encodeNs;
+
+		private Result(final String path, final int width, final int height,
+			final long readbackNs, final long queuedNs, final long encodeNs) {
+
+			this.path = path;
+			this.width = width;
+			this.height = height;
+			this.readbackNs = readbackNs;
+			this.queuedNs = queuedNs;
+			this.encodeNs = encodeNs;
+		}
+
+		@Override
+		public String toString() {
+			return "Result{path=" + path + ",size=" + width + "x" + height
+				+ ",readback=" + readbackNs / 1000 + "us,queued=" + queuedNs / 1000
+				+ "us,encode=" + encodeNs / 1000 + "us}";
+		}
+	}
+
+	private final Bitmap.CompressFormat mFormat;
+	private final int mQuality;
+	private final ThreadPoolExecutor mExecutor;
+	private final BlockingQueue<ByteBuffer> mBufferPool;
+	// Bitmap is reused on each worker thread while the size is same
+	private final ThreadLocal<Bitmap> mBitmap = new ThreadLocal<Bitmap>();
+
+	/**
+	 * @param workers number of worker threads
+	 * @param maxPending max number of images that are read back but not written yet
+	 * @param format
+	 * @param quality
+	 */
+	public StillImageEncoder(final int workers, final int maxPending,
+		final Bitmap.CompressFormat format, final int quality) {
+
+		if ((workers < 1) || (maxPending < workers))
+			throw new IllegalArgumentException("invalid workers/maxPending:" + workers + "/" + maxPending);
+		mFormat = format;
+		mQuality = quality;
+		mBufferPool = new ArrayBlockingQueue<ByteBuffer>(maxPending);
+		for (int i = 0; i < maxPending; i++) {
+			mBufferPool.offer(allocate(0));
+		}
+		// each job holds one pooled buffer, so the queue never overflows
+		mExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(maxPending), new ThreadFactory() {
+				private int mCount;
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, TAG + "-" + (mCount++));
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				}
+			});
+	}
+
+	/**
+	 * grow free pooled buffers beforehand so that #obtainBuffer does not allocate while capturing
+	 * @param bytes
+	 */
+	public void prepareBuffers(final int bytes) {
+		final int n = mBufferPool.size();
+		for (int i = 0; i < n; i++) {
+			ByteBuffer buf = mBufferPool.poll();
+			if (buf == null) break;
+			if (buf.capacity() < bytes) {
+				buf = allocate(bytes);
+			}
+			mBufferPool.offer(buf);
+		}
+	}
+
+	/**
+	 * get free pixel buffer that has at least specific bytes
+	 * @param bytes
+	 * @return null if all buffers are in use
+	 */
+	public ByteBuffer obtainBuffer(final int bytes) {
+		ByteBuffer buf = mBufferPool.poll();
+		if ((buf != null) && (buf.capacity() < bytes)) {
+			buf = allocate(bytes);
+		}
+		if (buf != null) {
+			buf.clear();
+		}
+		return buf;
+	}
+
+	/**
+	 * return the buffer that was obtained by #obtainBuffer but not passed to #encode
+	 */
+	public void recycleBuffer(final ByteBuffer buf) {
+		if (buf != null) {
+			mBufferPool.offer(buf);
+		}
+	}
+
+	/**
+	 * compress and write pixels on worker thread, ownership of the buffer moves to this class
+	 * @param buf RGBA pixels, obtained by #obtainBuffer
+	 * @param width
+	 * @param height
+	 * @param file
+	 * @param readbackNs time spent for reading back pixels, just for Result
+	 * @param callback nullable
+	 */
+	public void encode(final ByteBuffer buf, final int width, final int height,
+		final File file, final long readbackNs, final Callback callback) {
+
+		final long queued = System.nanoTime();
+		try {
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					final long start = System.nanoTime();
+					try {
+						write(buf, width, height, file);
+						final Result result = new Result(file.toString(), width, height,
+							readbackNs, start - queued, System.nanoTime() - start);
+						if (DEBUG) Log.v(TAG, "encode:" + result);
+						if (callback != null) {
+							callback.onComplete(result);
+						}
+					} catch (final Exception e) {
+						Log.w(TAG, "encode:" + file, e);
+						if (callback != null) {
+							callback.onError(file.toString(), e);
+						}
+					} finally {
+						mBufferPool.offer(buf);
+					}
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			mBufferPool.offer(buf);
+			if (callback != null) {
+				callback.onError(file.toString(), e);
+			}
+		}
+	}
+
+	/**
+	 * wait for pending jobs and terminate worker threads
+	 */
+	public void release() {
+		mExecutor.shutdown();
+		try {
+			mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write(final ByteBuffer buf, final int width, final int height, final File file) throws IOException {
+		Bitmap bmp = mBitmap.get();
+		if ((bmp == null) || (bmp.getWidth() != width) || (bmp.getHeight() != height)) {
+			if (bmp != null) {
+				bmp.recycle();
+			}
+			bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			mBitmap.set(bmp);
+		}
+		buf.clear();
+		bmp.copyPixelsFromBuffer(buf);
+		final OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			bmp.compress(mFormat, mQuality, os);
+		} finally {
+			os.close();
+		}
+	}
+
+	private static ByteBuffer allocate(final int bytes) {
+		final ByteBuffer buf = ByteBuffer.allocateDirect(bytes);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return buf;
+	}
+}
@@ -0,0 +1,86 @@
+package com.yi.matcher;
+
+import com.yi.minutiae.MinutiaeSet;
+
+import java.util.Arrays;
+
+/**
+ * Templates packed into a few primitive arrays instead of one object per template/minutia.
+ * Minutiae of all templates are stored back to back in one int array and
+ * the offset of each template is kept in another int array.
+ * #add should not be called while other threads are reading this set.
+ */
+public class InMemoryTemplateSet implements TemplateSet {
+	private long[] mIds;
+	private int[] mOffsets;	// mOffsets[i + 1] - mOffsets[i] is the number of minutiae of template i
+	private int[] mData;
+	private int mCount;
+	private final int[] mWork = new int[TemplateCodec.MAX_MINUTIAE];
+
+	public InMemoryTemplateSet() {
+		this(1024);
+	}
+
+	/**
+	 * @param initialCapacity expected number of templates
+	 */
+	public InMemoryTemplateSet(final int initialCapacity) {
+		final int n = Math.max(initialCapacity, 16);
+		mIds = new long[n];
+		mOffsets = new int[n + 1];
+		mData = new int[n * 40];
+	}
+
+	/**
+	 * @return index of added template
+	 */
+	public synchronized int add(final long id, final MinutiaeSet minutiae) {
+		final int n = TemplateCodec.encode(minutiae, mWork);
+		return add(id, mWork, n);
+	}
+
+	/**
+	 * @param packed minutiae packed by TemplateCodec
+	 * @param count number of minutiae, at most TemplateCodec#MAX_MINUTIAE
+	 * @return index of added template
+	 */
+	public synchronized int add(final long id, final int[] packed, final int count) {
+		if ((count < 0) || (count > TemplateCodec.MAX_MINUTIAE))
+			throw new IllegalArgumentException("invalid count:" + count);
+		if (mCount == mIds.length) {
+			mIds = Arrays.copyOf(mIds, mCount * 2);
+			mOffsets = Arrays.copyOf(mOffsets, mCount * 2 + 1);
+		}
+		final int offset = mOffsets[mCount];
+		if (offset + count > mData.length) {
+			mData = Arrays.copyOf(mData, Math.max(mData.length * 2, offset + count));
+		}
+		System.arraycopy(packed, 0, mData, offset, count);
+		mIds[mCount] = id;
+		mOffsets[mCount + 1] = offset + count;
+		return mCount++;
+	}
+
+	@Override
+	public int size() {
+		return mCount;
+	}
+
+	@Override
+	public long getId(final int index) {
+		return mIds[index];
+	}
+
+	@Override
+	public int getMinutiaeCount(final int index) {
+		return mOffsets[index + 1] - mOffsets[index];
+	}
+
+	@Override
+	public int readMinutiae(final int index, final int[] out) {
+		final int offset = mOffsets[index];
+		final int n = mOffsets[index + 1] - offset;
+		System.arraycopy(mData, offset, out, 0, n);
+		return n;
+	}
+}
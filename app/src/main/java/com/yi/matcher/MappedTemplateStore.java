@@ -0,0 +1,223 @@
+package com.yi.matcher;
+
+import com.yi.minutiae.MinutiaeSet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Persistent append-only TemplateSet backed by two memory-mapped files.
+ * The data file holds packed minutiae of all templates back to back.
+ * The index file(path + ".idx") has a small header and one fixed size entry per template,
+ * entry is (id, offset << 8 | minutiae count), so opening the store only maps the files and
+ * reads the header, pages of the data file are loaded by the OS when they are accessed.
+ *
+ * Appending writes and flushes minutiae and the index entry first and updates the record count
+ * in the header at last, so a crash while appending leaves the store at the last committed state.
+ * Bytes after the committed data are ignored and overwritten by next append.
+ * Reading is thread safe and can run concurrently with #append.
+ */
+public class MappedTemplateStore implements TemplateSet, Closeable {
+	private static final int MAGIC = 0x49545046;	// "FPTI"
+	private static final int VERSION = 1;
+	// header: magic, version, count, reserved
+	private static final int HEADER_SIZE = 16;
+	private static final int OFFSET_COUNT = 8;
+	private static final int ENTRY_SIZE = 16;
+	// files are mapped with extra room so that appending does not remap each time
+	private static final int GROW_BYTES = 1024 * 1024;
+
+	private final File mIndexFile;
+	private final RandomAccessFile mData, mIndex;
+	private volatile MappedByteBuffer mDataBuf, mIndexBuf;
+	private volatile int mCount;
+	private long mDataEnd;
+	private boolean mSyncOnAppend = true;
+	private int mCommitted;
+	private final int[] mWork = new int[TemplateCodec.MAX_MINUTIAE];
+
+	/**
+	 * open the store, new files are created if they do not exist
+	 * @param file data file, the index file is created next to it
+	 * @throws IOException the files can not be opened or they are corrupted
+	 */
+	public MappedTemplateStore(final File file) throws IOException {
+		mIndexFile = new File(file.getPath() + ".idx");
+		mData = new RandomAccessFile(file, "rw");
+		try {
+			mIndex = new RandomAccessFile(mIndexFile, "rw");
+		} catch (final IOException e) {
+			mData.close();
+			throw e;
+		}
+		try {
+			open();
+		} catch (final IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private void open() throws IOException {
+		final boolean created = mIndex.length() < HEADER_SIZE;
+		mIndexBuf = map(mIndex.getChannel(), Math.max(mIndex.length(), HEADER_SIZE + GROW_BYTES));
+		mDataBuf = map(mData.getChannel(), Math.max(mData.length(), GROW_BYTES));
+		if (created) {
+			mIndexBuf.putInt(0, MAGIC);
+			mIndexBuf.putInt(4, VERSION);
+			mIndexBuf.putInt(OFFSET_COUNT, 0);
+			mIndexBuf.force();
+		} else if ((mIndexBuf.getInt(0) != MAGIC) || (mIndexBuf.getInt(4) != VERSION)) {
+			throw new IOException("not a template store:" + mIndexFile);
+		}
+		final int count = mIndexBuf.getInt(OFFSET_COUNT);
+		if ((count < 0) || (HEADER_SIZE + (long)count * ENTRY_SIZE > mIndexBuf.capacity()))
+			throw new IOException("corrupted header:count=" + count);
+		// end of committed data is derived from the last entry instead of being stored separately
+		long end = 0;
+		if (count > 0) {
+			final long v = mIndexBuf.getLong(HEADER_SIZE + (count - 1) * ENTRY_SIZE + 8);
+			end = (v >>> 8) + (v & 0xff) * 4;
+			if (end > mDataBuf.capacity())
+				throw new IOException("corrupted entry:end=" + end + ",data=" + mDataBuf.capacity());
+		}
+		mDataEnd = end;
+		mCommitted = mCount = count;
+	}
+
+	/**
+	 * @param sync true(default) to flush each #append to storage, set false when importing many
+	 * 		templates at once and call #sync after that. uncommitted templates are readable from
+	 * 		this instance but are lost on crash
+	 */
+	public synchronized void setSyncOnAppend(final boolean sync) throws IOException {
+		mSyncOnAppend = sync;
+		if (sync) {
+			sync();
+		}
+	}
+
+	/**
+	 * @return index of added template
+	 */
+	public synchronized int append(final long id, final MinutiaeSet minutiae) throws IOException {
+		return append(id, mWork, TemplateCodec.encode(minutiae, mWork));
+	}
+
+	/**
+	 * @param packed minutiae packed by TemplateCodec
+	 * @param count number of minutiae, at most TemplateCodec#MAX_MINUTIAE
+	 * @return index of added template
+	 */
+	public synchronized int append(final long id, final int[] packed, final int count) throws IOException {
+		if ((count < 0) || (count > TemplateCodec.MAX_MINUTIAE))
+			throw new IllegalArgumentException("invalid count:" + count);
+		final int index = mCount;
+		final long offset = mDataEnd;
+		final long end = offset + count * 4L;
+		if (end > mDataBuf.capacity()) {
+			mDataBuf = map(mData.getChannel(), end + GROW_BYTES);
+		}
+		final long entry = HEADER_SIZE + (long)index * ENTRY_SIZE;
+		if (entry + ENTRY_SIZE > mIndexBuf.capacity()) {
+			mIndexBuf = map(mIndex.getChannel(), entry + ENTRY_SIZE + GROW_BYTES);
+		}
+		final MappedByteBuffer data = mDataBuf, idx = mIndexBuf;
+		for (int i = 0; i < count; i++) {
+			data.putInt((int)(offset + i * 4), packed[i]);
+		}
+		idx.putLong((int)entry, id);
+		idx.putLong((int)entry + 8, (offset << 8) | count);
+		mDataEnd = end;
+		// readers see the template after this volatile write
+		mCount = index + 1;
+		if (mSyncOnAppend) {
+			sync();
+		}
+		return index;
+	}
+
+	/**
+	 * flush appended templates and commit them
+	 */
+	public synchronized void sync() throws IOException {
+		if (mCommitted == mCount) return;
+		// the record count is updated only after the data and entries reached storage
+		mDataBuf.force();
+		mIndexBuf.force();
+		mIndexBuf.putInt(OFFSET_COUNT, mCount);
+		mIndexBuf.force();
+		mCommitted = mCount;
+	}
+
+	@Override
+	public int size() {
+		return mCount;
+	}
+
+	@Override
+	public long getId(final int index) {
+		final int entry = entryOffset(index);
+		return mIndexBuf.getLong(entry);
+	}
+
+	@Override
+	public int getMinutiaeCount(final int index) {
+		final int entry = entryOffset(index);
+		return (int)(mIndexBuf.getLong(entry + 8) & 0xff);
+	}
+
+	@Override
+	public int readMinutiae(final int index, final int[] out) {
+		final int entry = entryOffset(index);
+		final long v = mIndexBuf.getLong(entry + 8);
+		final int offset = (int)(v >>> 8), n = (int)(v & 0xff);
+		final MappedByteBuffer data = mDataBuf;
+		for (int i = 0; i < n; i++) {
+			out[i] = data.getInt(offset + i * 4);
+		}
+		return n;
+	}
+
+	/**
+	 * commit pending templates and close the files.
+	 * mapped memory is released when the buffers are garbage collected
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (mIndexBuf != null) {
+				sync();
+			}
+		} finally {
+			try {
+				mData.close();
+			} finally {
+				mIndex.close();
+			}
+		}
+	}
+
+	/**
+	 * check the index before reading buffers, the buffers are remapped before mCount is updated
+	 */
+	private int entryOffset(final int index) {
+		final int count = mCount;
+		if ((index < 0) || (index >= count))
+			throw new IndexOutOfBoundsException("index=" + index + ",size=" + count);
+		return HEADER_SIZE + index * ENTRY_SIZE;
+	}
+
+	private static MappedByteBuffer map(final FileChannel channel, final long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("template store is too large:" + size);
+		final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return buf;
+	}
+}
@@ -0,0 +1,26 @@
+package com.yi.matcher;
+
+import java.util.Locale;
+
+/**
+ * one candidate of identification
+ */
+public final class MatchResult {
+	/** id of the template given on enrollment */
+	public final long id;
+	/** index of the template in TemplateSet */
+	public final int index;
+	/** similarity, 0.0 - 1.0 */
+	public final float score;
+
+	MatchResult(final long id, final int index, final float score) {
+		this.id = id;
+		this.index = index;
+		this.score = score;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "MatchResult(id=%d,index=%d,score=%.3f)", id, index, score);
+	}
+}
@@ -0,0 +1,263 @@
+package com.yi.matcher;
+
+import com.yi.minutiae.MinutiaeSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1:N identification against a TemplateSet.
+ * Templates are pre-filtered by TripletIndex, then the candidates are split into chunks and
+ * scored on a fixed pool of worker threads, each chunk keeps its own top-k and they are merged at last.
+ * Templates added after #rebuildIndex are not in the index and are always scored.
+ * This class does not depend on Android, #identify can be called from multiple threads.
+ */
+public class Matcher {
+	public static final int DEFAULT_MAX_CANDIDATES = 500;
+	public static final int DEFAULT_MIN_VOTES = 2;
+	// candidates less than this are scored on the caller thread
+	private static final int MIN_PARALLEL_CANDIDATES = 64;
+	// chunks per worker thread to balance uneven scoring cost
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private static final Comparator<MatchResult> BY_SCORE = new Comparator<MatchResult>() {
+		@Override
+		public int compare(final MatchResult lhs, final MatchResult rhs) {
+			return Float.compare(rhs.score, lhs.score);
+		}
+	};
+
+	private final TemplateSet mTemplates;
+	private final int mThreads;
+	private final ThreadPoolExecutor mExecutor;
+	// MinutiaeScorer has large work buffers, keep one per thread
+	private final ThreadLocal<MinutiaeScorer> mScorer = new ThreadLocal<MinutiaeScorer>() {
+		@Override
+		protected MinutiaeScorer initialValue() {
+			return new MinutiaeScorer();
+		}
+	};
+	private volatile TripletIndex mIndex;
+	private volatile int mMaxCandidates = DEFAULT_MAX_CANDIDATES;
+	private volatile int mMinVotes = DEFAULT_MIN_VOTES;
+
+	public Matcher(final TemplateSet templates) {
+		this(templates, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param templates
+	 * @param threads number of worker threads for scoring
+	 */
+	public Matcher(final TemplateSet templates, final int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("invalid threads:" + threads);
+		mTemplates = templates;
+		mThreads = threads;
+		mExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private int mCount;
+				@Override
+				public synchronized Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "Matcher-" + (mCount++));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	}
+
+	public TemplateSet getTemplates() {
+		return mTemplates;
+	}
+
+	/**
+	 * build pre-filter index of current templates, this takes a time proportional to the number of templates
+	 */
+	public void rebuildIndex() {
+		mIndex = TripletIndex.build(mTemplates);
+	}
+
+	/**
+	 * build pre-filter index on a background thread,
+	 * #identify scores all templates (or uses the previous index) until the new index is ready
+	 * @return the thread that builds the index
+	 */
+	public Thread rebuildIndexAsync() {
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				rebuildIndex();
+			}
+		}, "Matcher-index");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * @param maxCandidates max number of templates that are scored after pre-filter
+	 */
+	public void setMaxCandidates(final int maxCandidates) {
+		if (maxCandidates < 1)
+			throw new IllegalArgumentException("invalid maxCandidates:" + maxCandidates);
+		mMaxCandidates = maxCandidates;
+	}
+
+	/**
+	 * @param minVotes templates that share less triplets than this with the probe are not scored
+	 */
+	public void setMinVotes(final int minVotes) {
+		mMinVotes = minVotes;
+	}
+
+	public SearchResult identify(final MinutiaeSet probe, final int k) {
+		final int[] packed = new int[TemplateCodec.MAX_MINUTIAE];
+		final int n = TemplateCodec.encode(probe, packed);
+		return identify(packed, n, k);
+	}
+
+	/**
+	 * @param probe minutiae packed by TemplateCodec
+	 * @param count number of minutiae, minutiae beyond TemplateCodec#MAX_MINUTIAE are ignored
+	 * @param k max number of results
+	 */
+	public SearchResult identify(final int[] probe, final int count, final int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("invalid k:" + k);
+		if ((count < 0) || (count > probe.length))
+			throw new IllegalArgumentException("invalid count:" + count);
+		// clamp once, the pre-filter and the scorers should see the same minutiae
+		final int n = Math.min(count, TemplateCodec.MAX_MINUTIAE);
+		final long start = System.nanoTime();
+		final int templates = mTemplates.size();
+		final int[] candidates = selectCandidates(probe, n, templates);
+		final long prefiltered = System.nanoTime();
+		final List<MatchResult> matches;
+		if ((mThreads == 1) || (candidates.length < MIN_PARALLEL_CANDIDATES)) {
+			matches = score(probe, n, candidates, 0, candidates.length, k);
+		} else {
+			matches = scoreParallel(probe, n, candidates, k);
+		}
+		final long end = System.nanoTime();
+		return new SearchResult(Collections.unmodifiableList(matches), templates, candidates.length,
+			prefiltered - start, end - prefiltered, end - start);
+	}
+
+	/**
+	 * wait for running jobs and terminate worker threads
+	 */
+	public void release() {
+		mExecutor.shutdown();
+		try {
+			mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return indices of templates to score, the most voted first
+	 */
+	private int[] selectCandidates(final int[] probe, final int count, final int n) {
+		final TripletIndex index = mIndex;
+		if (index == null) {
+			// no index yet, score all templates
+			final int[] all = new int[n];
+			for (int i = 0; i < n; i++) all[i] = i;
+			return all;
+		}
+		final int indexed = Math.min(index.getTemplateCount(), n);
+		final int[] votes = new int[index.getTemplateCount()];
+		index.vote(probe, count, votes, new int[TripletIndex.maxKeys(count)], new int[count * 3]);
+		final int minVotes = mMinVotes;
+		long[] voted = new long[64];
+		int nv = 0;
+		for (int i = 0; i < indexed; i++) {
+			if (votes[i] < minVotes) continue;
+			if (nv == voted.length) voted = Arrays.copyOf(voted, nv * 2);
+			voted[nv++] = ((long)votes[i] << 32) | i;
+		}
+		Arrays.sort(voted, 0, nv);
+		final int selected = Math.min(nv, mMaxCandidates);
+		final int[] result = new int[selected + (n - indexed)];
+		for (int i = 0; i < selected; i++) {
+			result[i] = (int)voted[nv - 1 - i];
+		}
+		// templates that were added after the index was built
+		for (int i = indexed; i < n; i++) {
+			result[selected + i - indexed] = i;
+		}
+		return result;
+	}
+
+	private List<MatchResult> scoreParallel(final int[] probe, final int count,
+		final int[] candidates, final int k) {
+
+		final int chunks = Math.min(mThreads * CHUNKS_PER_THREAD, candidates.length / (MIN_PARALLEL_CANDIDATES / 4));
+		final int chunkSize = (candidates.length + chunks - 1) / chunks;
+		final List<Callable<List<MatchResult>>> tasks = new ArrayList<Callable<List<MatchResult>>>(chunks);
+		for (int from = 0; from < candidates.length; from += chunkSize) {
+			final int s = from, e = Math.min(from + chunkSize, candidates.length);
+			tasks.add(new Callable<List<MatchResult>>() {
+				@Override
+				public List<MatchResult> call() throws Exception {
+					return score(probe, count, candidates, s, e, k);
+				}
+			});
+		}
+		final List<MatchResult> merged = new ArrayList<MatchResult>(tasks.size() * k);
+		try {
+			for (final Future<List<MatchResult>> future: mExecutor.invokeAll(tasks)) {
+				merged.addAll(future.get());
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while matching", e);
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException("failed to score templates", e.getCause());
+		}
+		Collections.sort(merged, BY_SCORE);
+		return merged.size() > k ? new ArrayList<MatchResult>(merged.subList(0, k)) : merged;
+	}
+
+	/**
+	 * score candidates[from, to) and keep top-k
+	 * @return best first
+	 */
+	private List<MatchResult> score(final int[] probe, final int count,
+		final int[] candidates, final int from, final int to, final int k) {
+
+		final MinutiaeScorer scorer = mScorer.get();
+		final int[] top = new int[k];
+		final float[] topScores = new float[k];
+		int n = 0;
+		for (int i = from; i < to; i++) {
+			final float score = scorer.score(probe, count, mTemplates, candidates[i]);
+			if ((score <= 0) || ((n == k) && (score <= topScores[k - 1]))) continue;
+			// insertion into sorted top-k
+			int pos = n < k ? n++ : k - 1;
+			while ((pos > 0) && (topScores[pos - 1] < score)) {
+				top[pos] = top[pos - 1];
+				topScores[pos] = topScores[pos - 1];
+				pos--;
+			}
+			top[pos] = candidates[i];
+			topScores[pos] = score;
+		}
+		final List<MatchResult> result = new ArrayList<MatchResult>(n);
+		for (int i = 0; i < n; i++) {
+			result.add(new MatchResult(mTemplates.getId(top[i]), top[i], topScores[i]));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,111 @@
+package com.yi.matcher;
+
+import java.util.Arrays;
+
+/**
+ * Score similarity of two packed templates.
+ * The alignment (rotation and translation) is found by voting over all pairs of minutiae
+ * that have same type, then minutiae are paired greedily within distance/angle tolerance.
+ * The score is matched^2 / (probe minutiae * candidate minutiae), 0.0 - 1.0.
+ * Work buffers are reused, so one instance should be used by only one thread.
+ */
+final class MinutiaeScorer {
+	// alignment bins
+	private static final int ROTATION_SHIFT = 2;	// 128 >> 2 = 32 bins
+	private static final int TRANSLATION_STEP = 16;
+	private static final int TRANSLATION_OFFSET = 256;	// 9 bits for each axis
+	// tolerance for pairing minutiae after alignment
+	private static final int DISTANCE_TOLERANCE = 14;
+	private static final int ANGLE_TOLERANCE = 10;	// in TemplateCodec angle bins, about 28 degrees
+
+	private final int[] mCandidate = new int[TemplateCodec.MAX_MINUTIAE];
+	private final long[] mVotes = new long[TemplateCodec.MAX_MINUTIAE * TemplateCodec.MAX_MINUTIAE];
+	private final boolean[] mUsed = new boolean[TemplateCodec.MAX_MINUTIAE];
+
+	float score(final int[] probe, final int np, final TemplateSet templates, final int index) {
+		final int nc = templates.readMinutiae(index, mCandidate);
+		return score(probe, np, mCandidate, nc);
+	}
+
+	float score(final int[] probe, final int np, final int[] cand, final int nc) {
+		if ((np == 0) || (nc == 0)) return 0;
+		// vote for alignment, the pair indices are kept in lower bits to recover the transform
+		int nv = 0;
+		for (int i = 0; i < np; i++) {
+			final int p = probe[i];
+			final int px = TemplateCodec.x(p), py = TemplateCodec.y(p), pa = TemplateCodec.angleBin(p);
+			for (int j = 0; j < nc; j++) {
+				final int c = cand[j];
+				if (TemplateCodec.type(c) != TemplateCodec.type(p)) continue;
+				final int rot = (TemplateCodec.angleBin(c) - pa) & (TemplateCodec.ANGLE_BINS - 1);
+				final float cos = TemplateCodec.cos(rot), sin = TemplateCodec.sin(rot);
+				final int tx = TemplateCodec.x(c) - (int)(px * cos - py * sin);
+				final int ty = TemplateCodec.y(c) - (int)(px * sin + py * cos);
+				final long bin = translationBin(tx) | (translationBin(ty) << 9) | ((long)(rot >> ROTATION_SHIFT) << 18);
+				mVotes[nv++] = (bin << 16) | (i << 8) | j;
+			}
+		}
+		if (nv == 0) return 0;
+		Arrays.sort(mVotes, 0, nv);
+		// find the most voted bin
+		int bestStart = 0, bestLen = 0;
+		for (int s = 0; s < nv; ) {
+			final long bin = mVotes[s] >>> 16;
+			int e = s + 1;
+			while ((e < nv) && ((mVotes[e] >>> 16) == bin)) e++;
+			if (e - s > bestLen) {
+				bestStart = s;
+				bestLen = e - s;
+			}
+			s = e;
+		}
+		// the transform of the first pair in the bin, averaging does not gain much with these bin sizes
+		final long v = mVotes[bestStart];
+		final int pi = (int)(v >>> 8) & 0xff, cj = (int)v & 0xff;
+		final int rot = (TemplateCodec.angleBin(cand[cj]) - TemplateCodec.angleBin(probe[pi])) & (TemplateCodec.ANGLE_BINS - 1);
+		final float cos = TemplateCodec.cos(rot), sin = TemplateCodec.sin(rot);
+		final float ppx = TemplateCodec.x(probe[pi]), ppy = TemplateCodec.y(probe[pi]);
+		final float tx = TemplateCodec.x(cand[cj]) - (ppx * cos - ppy * sin);
+		final float ty = TemplateCodec.y(cand[cj]) - (ppx * sin + ppy * cos);
+		return pair(probe, np, cand, nc, rot, cos, sin, tx, ty);
+	}
+
+	private float pair(final int[] probe, final int np, final int[] cand, final int nc,
+		final int rot, final float cos, final float sin, final float tx, final float ty) {
+
+		Arrays.fill(mUsed, 0, nc, false);
+		int matched = 0;
+		final float tol2 = DISTANCE_TOLERANCE * DISTANCE_TOLERANCE;
+		for (int i = 0; i < np; i++) {
+			final int p = probe[i];
+			final int px = TemplateCodec.x(p), py = TemplateCodec.y(p);
+			final float x = px * cos - py * sin + tx;
+			final float y = px * sin + py * cos + ty;
+			final int a = (TemplateCodec.angleBin(p) + rot) & (TemplateCodec.ANGLE_BINS - 1);
+			int best = -1;
+			float bestD = tol2;
+			for (int j = 0; j < nc; j++) {
+				if (mUsed[j]) continue;
+				final int c = cand[j];
+				final float dx = TemplateCodec.x(c) - x, dy = TemplateCodec.y(c) - y;
+				final float d = dx * dx + dy * dy;
+				if (d >= bestD) continue;
+				int da = (TemplateCodec.angleBin(c) - a) & (TemplateCodec.ANGLE_BINS - 1);
+				if (da > TemplateCodec.ANGLE_BINS / 2) da = TemplateCodec.ANGLE_BINS - da;
+				if (da > ANGLE_TOLERANCE) continue;
+				best = j;
+				bestD = d;
+			}
+			if (best >= 0) {
+				mUsed[best] = true;
+				matched++;
+			}
+		}
+		return matched * matched / (float)(np * nc);
+	}
+
+	private static long translationBin(final int t) {
+		final int bin = (t >= 0 ? t / TRANSLATION_STEP : -((TRANSLATION_STEP - 1 - t) / TRANSLATION_STEP)) + TRANSLATION_OFFSET;
+		return bin < 0 ? 0 : (bin > 511 ? 511 : bin);
+	}
+}
@@ -0,0 +1,45 @@
+package com.yi.matcher;
+
+import java.util.List;
+
+/**
+ * top-k candidates of one identification and its timings
+ */
+public final class SearchResult {
+	/** best first */
+	public final List<MatchResult> matches;
+	/** number of templates in the set */
+	public final int templates;
+	/** number of templates that passed the pre-filter and were scored */
+	public final int candidates;
+	/** time spent for triplet voting and candidate selection */
+	public final long prefilterNs;
+	/** time spent for scoring candidates on worker threads */
+	public final long scoringNs;
+	public final long totalNs;
+
+	SearchResult(final List<MatchResult> matches, final int templates, final int candidates,
+		final long prefilterNs, final long scoringNs, final long totalNs) {
+
+		this.matches = matches;
+		this.templates = templates;
+		this.candidates = candidates;
+		this.prefilterNs = prefilterNs;
+		this.scoringNs = scoringNs;
+		this.totalNs = totalNs;
+	}
+
+	/**
+	 * @return null if there is no candidate
+	 */
+	public MatchResult getBest() {
+		return matches.isEmpty() ? null : matches.get(0);
+	}
+
+	@Override
+	public String toString() {
+		return "SearchResult{matches=" + matches.size() + ",templates=" + templates
+			+ ",candidates=" + candidates + ",prefilter=" + prefilterNs / 1000
+			+ "us,scoring=" + scoringNs / 1000 + "us,total=" + totalNs / 1000 + "us}";
+	}
+}
@@ -0,0 +1,79 @@
+package com.yi.matcher;
+
+import com.yi.minutiae.MinutiaeSet;
+
+/**
+ * Pack one minutia into 32 bits so that templates can be stored in int arrays/buffers.
+ * bit 0-11: x, bit 12-23: y, bit 24-30: angle in ANGLE_BINS steps, bit 31: 1 for bifurcation
+ */
+public final class TemplateCodec {
+	public static final int MAX_COORD = 0xfff;
+	public static final int ANGLE_BINS = 128;
+	/** max number of minutiae in one template */
+	public static final int MAX_MINUTIAE = 255;
+
+	private static final float[] COS = new float[ANGLE_BINS];
+	private static final float[] SIN = new float[ANGLE_BINS];
+	static {
+		for (int i = 0; i < ANGLE_BINS; i++) {
+			final double a = 2 * Math.PI * i / ANGLE_BINS;
+			COS[i] = (float)Math.cos(a);
+			SIN[i] = (float)Math.sin(a);
+		}
+	}
+
+	private TemplateCodec() {
+	}
+
+	/**
+	 * @param x clamped to 0 - MAX_COORD
+	 * @param y clamped to 0 - MAX_COORD
+	 * @param angle radians
+	 * @param type MinutiaeSet#TYPE_ENDING or MinutiaeSet#TYPE_BIFURCATION
+	 */
+	public static int pack(final int x, final int y, final float angle, final int type) {
+		final int bin = (int)Math.floor(angle / (2 * Math.PI) * ANGLE_BINS + 0.5) & (ANGLE_BINS - 1);
+		return clamp(x) | (clamp(y) << 12) | (bin << 24)
+			| (type == MinutiaeSet.TYPE_BIFURCATION ? 0x80000000 : 0);
+	}
+
+	/**
+	 * pack minutiae, extra minutiae are dropped when out is shorter than the set
+	 * @return number of packed minutiae
+	 */
+	public static int encode(final MinutiaeSet minutiae, final int[] out) {
+		final int n = Math.min(Math.min(minutiae.size(), out.length), MAX_MINUTIAE);
+		for (int i = 0; i < n; i++) {
+			out[i] = pack(minutiae.getX(i), minutiae.getY(i), minutiae.getAngle(i), minutiae.getType(i));
+		}
+		return n;
+	}
+
+	public static int x(final int m) {
+		return m & 0xfff;
+	}
+
+	public static int y(final int m) {
+		return (m >>> 12) & 0xfff;
+	}
+
+	public static int angleBin(final int m) {
+		return (m >>> 24) & 0x7f;
+	}
+
+	public static int type(final int m) {
+		return m < 0 ? MinutiaeSet.TYPE_BIFURCATION : MinutiaeSet.TYPE_ENDING;
+	}
+
+	static float cos(final int angleBin) {
+		return COS[angleBin & (ANGLE_BINS - 1)];
+	}
+
+	static float sin(final int angleBin) {
+		return SIN[angleBin & (ANGLE_BINS - 1)];
+	}
+
+	private static int clamp(final int v) {
+		return v < 0 ? 0 : (v > MAX_COORD ? MAX_COORD : v);
+	}
+}
@@ -0,0 +1,16 @@
+package com.yi.matcher;
+
+/**
+ * Read access to enrolled templates by index, templates are packed by TemplateCodec.
+ * Implementations should allow concurrent reads from multiple threads.
+ */
+public interface TemplateSet {
+	public int size();
+	public long getId(int index);
+	public int getMinutiaeCount(int index);
+	/**
+	 * @param out should have at least TemplateCodec#MAX_MINUTIAE elements
+	 * @return number of minutiae
+	 */
+	public int readMinutiae(int index, int[] out);
+}
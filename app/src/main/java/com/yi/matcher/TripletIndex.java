@@ -0,0 +1,169 @@
+package com.yi.matcher;
+
+import java.util.Arrays;
+
+/**
+ * Pre-filter index of minutiae triplets.
+ * Each minutia forms triplets with pairs of its nearest neighbours and the triplet is hashed
+ * from quantized side lengths and relative angles, which do not change by rotation/translation.
+ * Entries are kept as one sorted long array of (hash << 32 | template index),
+ * so lookup is a binary search and the index does not hold any object per template.
+ * The index is immutable and can be shared between threads.
+ */
+public final class TripletIndex {
+	// number of nearest neighbours of each minutia, each pair of them makes one triplet
+	private static final int NEIGHBOURS = 3;
+	// side length quantization in pixels and its max bin (4 bits)
+	private static final int DISTANCE_STEP = 12;
+	private static final int MAX_DISTANCE_BIN = 15;
+	// relative angles are quantized into 8 bins
+	private static final int ANGLE_SHIFT = 4;	// 128 >> 4 = 8 bins
+
+	private final long[] mEntries;
+	private final int mTemplates;
+
+	private TripletIndex(final long[] entries, final int templates) {
+		mEntries = entries;
+		mTemplates = templates;
+	}
+
+	/**
+	 * @return index of all templates in the set at this time
+	 */
+	public static TripletIndex build(final TemplateSet templates) {
+		final int n = templates.size();
+		final int[] minutiae = new int[TemplateCodec.MAX_MINUTIAE];
+		final int[] keys = new int[maxKeys(TemplateCodec.MAX_MINUTIAE)];
+		final int[] work = new int[TemplateCodec.MAX_MINUTIAE * NEIGHBOURS];
+		long[] entries = new long[Math.max(n * 64, 16)];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			final int m = templates.readMinutiae(i, minutiae);
+			final int k = computeKeys(minutiae, m, keys, work);
+			if (count + k > entries.length) {
+				entries = Arrays.copyOf(entries, Math.max(entries.length * 2, count + k));
+			}
+			for (int j = 0; j < k; j++) {
+				entries[count++] = ((long)keys[j] << 32) | i;
+			}
+		}
+		entries = Arrays.copyOf(entries, count);
+		Arrays.sort(entries);
+		return new TripletIndex(entries, n);
+	}
+
+	/**
+	 * number of templates when this index was built
+	 */
+	public int getTemplateCount() {
+		return mTemplates;
+	}
+
+	public int getEntryCount() {
+		return mEntries.length;
+	}
+
+	/**
+	 * add one vote to each template per shared triplet
+	 * @param probe minutiae packed by TemplateCodec
+	 * @param count
+	 * @param votes should have at least #getTemplateCount elements, not cleared by this method
+	 * @param keys work buffer that has at least #maxKeys(count) elements
+	 * @param work work buffer that has at least count * 3 elements
+	 */
+	void vote(final int[] probe, final int count, final int[] votes, final int[] keys, final int[] work) {
+		final long[] entries = mEntries;
+		final int k = computeKeys(probe, count, keys, work);
+		for (int i = 0; i < k; i++) {
+			final long key = (long)keys[i] << 32;
+			for (int j = lowerBound(entries, key); j < entries.length; j++) {
+				final long e = entries[j];
+				if ((e & 0xffffffff00000000L) != key) break;
+				votes[(int)e]++;
+			}
+		}
+	}
+
+	static int maxKeys(final int minutiae) {
+		return minutiae * NEIGHBOURS * (NEIGHBOURS - 1) / 2;
+	}
+
+	/**
+	 * @return number of unique keys written into keys
+	 */
+	private static int computeKeys(final int[] m, final int n, final int[] keys, final int[] neighbours) {
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			final int nn = nearest(m, n, i, neighbours, i * NEIGHBOURS);
+			for (int a = 0; a < nn; a++) {
+				for (int b = a + 1; b < nn; b++) {
+					keys[count++] = hash(m, i, neighbours[i * NEIGHBOURS + a], neighbours[i * NEIGHBOURS + b]);
+				}
+			}
+		}
+		// one template votes once per key
+		Arrays.sort(keys, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++) {
+			if ((unique == 0) || (keys[unique - 1] != keys[i])) keys[unique++] = keys[i];
+		}
+		return unique;
+	}
+
+	/**
+	 * find nearest neighbours of minutia i, the nearest first
+	 * @return number of found neighbours
+	 */
+	private static int nearest(final int[] m, final int n, final int i, final int[] out, final int offset) {
+		final int xi = TemplateCodec.x(m[i]), yi = TemplateCodec.y(m[i]);
+		final int maxD = (MAX_DISTANCE_BIN + 1) * DISTANCE_STEP;
+		int found = 0;
+		for (int j = 0; j < n; j++) {
+			if (j == i) continue;
+			final int dx = TemplateCodec.x(m[j]) - xi, dy = TemplateCodec.y(m[j]) - yi;
+			final int d = dx * dx + dy * dy;
+			if (d >= maxD * maxD) continue;
+			// squared distance and index are packed so that the short list is sorted by distance
+			final int v = (d << 8) | j;
+			int pos = found < NEIGHBOURS ? found++ : NEIGHBOURS;
+			while ((pos > 0) && (out[offset + pos - 1] > v)) {
+				if (pos < NEIGHBOURS) {
+					out[offset + pos] = out[offset + pos - 1];
+				}
+				pos--;
+			}
+			if (pos < NEIGHBOURS) {
+				out[offset + pos] = v;
+			}
+		}
+		for (int k = 0; k < found; k++) {
+			out[offset + k] &= 0xff;
+		}
+		return found;
+	}
+
+	private static int hash(final int[] m, final int i, final int j, final int k) {
+		final int mi = m[i], mj = m[j], mk = m[k];
+		final int dij = distanceBin(mi, mj), dik = distanceBin(mi, mk), djk = distanceBin(mj, mk);
+		final int ai = TemplateCodec.angleBin(mi);
+		final int aj = ((TemplateCodec.angleBin(mj) - ai) & (TemplateCodec.ANGLE_BINS - 1)) >> ANGLE_SHIFT;
+		final int ak = ((TemplateCodec.angleBin(mk) - ai) & (TemplateCodec.ANGLE_BINS - 1)) >> ANGLE_SHIFT;
+		final int type = TemplateCodec.type(mi);
+		return dij | (dik << 4) | (djk << 8) | (aj << 12) | (ak << 15) | (type << 18);
+	}
+
+	private static int distanceBin(final int a, final int b) {
+		final int dx = TemplateCodec.x(a) - TemplateCodec.x(b), dy = TemplateCodec.y(a) - TemplateCodec.y(b);
+		final int bin = (int)Math.sqrt(dx * dx + dy * dy) / DISTANCE_STEP;
+		return bin > MAX_DISTANCE_BIN ? MAX_DISTANCE_BIN : bin;
+	}
+
+	private static int lowerBound(final long[] a, final long key) {
+		int lo = 0, hi = a.length;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (a[mid] < key) lo = mid + 1; else hi = mid;
+		}
+		return lo;
+	}
+}
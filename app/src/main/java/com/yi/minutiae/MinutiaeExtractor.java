@@ -0,0 +1,267 @@
+package com.yi.minutiae;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Extract minutiae from grayscale fingerprint frames.
+ * The frame goes through segmentation and orientation field estimation, oriented Gabor enhancement
+ * and binarization, Zhang-Suen thinning and crossing number detection, then false minutiae
+ * (short spurs, broken ridges and minutiae near the border of the print) are removed.
+ * All working buffers are allocated in the constructor, so #extract does not allocate any object
+ * and can be called for every preview frame.
+ * This class does not depend on Android and is not thread safe, use one instance per thread.
+ */
+public class MinutiaeExtractor {
+	public static final int BLOCK_SIZE = 16;
+	/** ridge period of 500dpi sensors */
+	public static final float DEFAULT_RIDGE_PERIOD = 9.0f;
+
+	private static final int MAX_CANDIDATES = 1024;
+	// number of skeleton pixels traced to estimate the direction of minutiae
+	private static final int TRACE_LENGTH = 10;
+	// ridges shorter than this from a minutia are treated as noise
+	private static final int MIN_RIDGE_LENGTH = 6;
+	// minutiae closer than this to each other are treated as broken ridges/bridges
+	private static final int MIN_DISTANCE = 8;
+
+	private final int mWidth, mHeight;
+	private final byte[] mLuma;
+	private final byte[] mSkeleton;
+	private final OrientationField mField;
+	private final RidgeEnhancer mEnhancer;
+	private final Thinner mThinner;
+	// neighbour offsets in clockwise order starting from north
+	private final int[] mNeighbours;
+	// candidates before removing false minutiae
+	private final int[] mCandX = new int[MAX_CANDIDATES];
+	private final int[] mCandY = new int[MAX_CANDIDATES];
+	private final float[] mCandAngle = new float[MAX_CANDIDATES];
+	private final byte[] mCandType = new byte[MAX_CANDIDATES];
+	private final boolean[] mCandRemoved = new boolean[MAX_CANDIDATES];
+	private final int[] mBranches = new int[8];
+	// results of #trace
+	private int mTraceEnd;
+	private boolean mTraceTerminated;
+
+	public MinutiaeExtractor(final int width, final int height) {
+		this(width, height, DEFAULT_RIDGE_PERIOD);
+	}
+
+	/**
+	 * @param width frame width, should be equal or larger than BLOCK_SIZE * 3
+	 * @param height frame height, should be equal or larger than BLOCK_SIZE * 3
+	 * @param ridgePeriod distance between neighbouring ridges in pixels
+	 */
+	public MinutiaeExtractor(final int width, final int height, final float ridgePeriod) {
+		if ((width < BLOCK_SIZE * 3) || (height < BLOCK_SIZE * 3))
+			throw new IllegalArgumentException("frame is too small:" + width + "x" + height);
+		if (ridgePeriod < 3)
+			throw new IllegalArgumentException("invalid ridgePeriod:" + ridgePeriod);
+		mWidth = width;
+		mHeight = height;
+		mLuma = new byte[width * height];
+		mSkeleton = new byte[width * height];
+		mField = new OrientationField(width, height, BLOCK_SIZE);
+		mEnhancer = new RidgeEnhancer(width, height, ridgePeriod);
+		mThinner = new Thinner(width, height);
+		mNeighbours = new int[] { -width, -width + 1, 1, width + 1, width, width - 1, -1, -width - 1 };
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * ridge skeleton of the last frame, 1 for ridge pixels. this array is overwritten by next call
+	 */
+	public byte[] getSkeleton() {
+		return mSkeleton;
+	}
+
+	/**
+	 * extract minutiae from the frame of IFrameCallback
+	 * @param frame pixels start from position of this buffer, position is not changed
+	 * @param pixelStride 1 for NV21/YUV420SP(Y plane comes first) and 2 for YUYV
+	 * @param out cleared before adding minutiae
+	 * @return number of minutiae
+	 */
+	public int extract(final ByteBuffer frame, final int pixelStride, final MinutiaeSet out) {
+		final int n = mWidth * mHeight;
+		final int pos = frame.position();
+		if (pixelStride == 1) {
+			frame.get(mLuma, 0, n);
+			frame.position(pos);
+		} else {
+			for (int i = 0, j = pos; i < n; i++, j += pixelStride) {
+				mLuma[i] = frame.get(j);
+			}
+		}
+		return extract(mLuma, 0, mWidth, out);
+	}
+
+	/**
+	 * extract minutiae from 8 bit grayscale image that has same size as this instance
+	 * @param luma
+	 * @param offset
+	 * @param stride bytes per row
+	 * @param out cleared before adding minutiae
+	 * @return number of minutiae
+	 */
+	public int extract(final byte[] luma, final int offset, final int stride, final MinutiaeSet out) {
+		out.clear();
+		if (mField.compute(luma, offset, stride) == 0) {
+			Arrays.fill(mSkeleton, (byte)0);
+			return 0;
+		}
+		mEnhancer.apply(luma, offset, stride, mField, mSkeleton);
+		mThinner.thin(mSkeleton, mHeight);
+		final int candidates = detect();
+		removeFalseMinutiae(candidates);
+		for (int i = 0; i < candidates; i++) {
+			if (!mCandRemoved[i]
+				&& !out.add(mCandX[i], mCandY[i], mCandAngle[i], mCandType[i])) break;
+		}
+		return out.size();
+	}
+
+	/**
+	 * find ridge endings and bifurcations by crossing number
+	 * @return number of candidates
+	 */
+	private int detect() {
+		final int w = mWidth, h = mHeight;
+		final byte[] img = mSkeleton;
+		final int[] nb = mNeighbours;
+		final int margin = RidgeEnhancer.RADIUS + 1;
+		int count = 0;
+		for (int y = margin; y < h - margin; y++) {
+			for (int x = margin, p = y * w + margin; x < w - margin; x++, p++) {
+				if (img[p] == 0) continue;
+				// number of 0 -> 1 transitions around the pixel
+				int cn = 0;
+				for (int i = 0; i < 8; i++) {
+					if ((img[p + nb[i]] == 0) && (img[p + nb[(i + 1) & 7]] != 0)) {
+						mBranches[cn++] = p + nb[(i + 1) & 7];
+					}
+				}
+				if (((cn != 1) && (cn != 3)) || !mField.isInterior(x, y)) continue;
+				final float angle = cn == 1 ? endingAngle(p) : bifurcationAngle(p);
+				if (Float.isNaN(angle)) continue;
+				mCandX[count] = x;
+				mCandY[count] = y;
+				mCandAngle[count] = angle;
+				mCandType[count] = (byte)(cn == 1 ? MinutiaeSet.TYPE_ENDING : MinutiaeSet.TYPE_BIFURCATION);
+				mCandRemoved[count] = false;
+				if (++count >= MAX_CANDIDATES) return count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return angle pointing away from the ridge, NaN if the ridge is too short
+	 */
+	private float endingAngle(final int p) {
+		final int steps = trace(p, mBranches[0], TRACE_LENGTH);
+		if (mTraceTerminated && (steps < MIN_RIDGE_LENGTH)) return Float.NaN;
+		final int w = mWidth;
+		return resolveAngle(p, p % w - mTraceEnd % w, p / w - mTraceEnd / w);
+	}
+
+	/**
+	 * @return angle pointing to the side of the fork, NaN if one of the branches is a short spur
+	 */
+	private float bifurcationAngle(final int p) {
+		final int w = mWidth;
+		final int px = p % w, py = p / w;
+		float vx = 0, vy = 0;
+		for (int i = 0; i < 3; i++) {
+			final int steps = trace(p, mBranches[i], TRACE_LENGTH);
+			if (mTraceTerminated && (steps < MIN_RIDGE_LENGTH)) return Float.NaN;
+			final int dx = mTraceEnd % w - px, dy = mTraceEnd / w - py;
+			final float len = (float)Math.sqrt(dx * dx + dy * dy);
+			if (len > 0) {
+				vx += dx / len;
+				vy += dy / len;
+			}
+		}
+		return resolveAngle(p, vx, vy);
+	}
+
+	/**
+	 * choose the ridge orientation or its opposite that is closer to the vector
+	 * @return angle in [0, 2PI)
+	 */
+	private float resolveAngle(final int p, final float vx, final float vy) {
+		final float theta = mField.orientationAt(p % mWidth, p / mWidth);
+		final double dot = vx * Math.cos(theta) + vy * Math.sin(theta);
+		return dot >= 0 ? theta : theta + (float)Math.PI;
+	}
+
+	/**
+	 * follow the skeleton from the pixel next to the start pixel until a junction or an end,
+	 * mTraceEnd and mTraceTerminated are updated
+	 * @return number of steps
+	 */
+	private int trace(final int start, final int first, final int maxSteps) {
+		final byte[] img = mSkeleton;
+		final int[] nb = mNeighbours;
+		int prev = start, cur = first, steps = 1;
+		mTraceTerminated = false;
+		while (steps < maxSteps) {
+			int next = -1, found = 0, fallback = -1;
+			for (int i = 0; i < 8; i++) {
+				final int q = cur + nb[i];
+				if ((q == prev) || (q == start) || (img[q] == 0)) continue;
+				if (isAdjacent(q, prev)) {
+					// shortcut of a staircase, use only when there is no other way
+					fallback = q;
+					continue;
+				}
+				next = q;
+				found++;
+			}
+			if (found == 0) {
+				next = fallback;
+			}
+			if (next < 0) {
+				mTraceTerminated = true;
+				break;
+			}
+			if (found > 1) break;	// reached a junction
+			prev = cur;
+			cur = next;
+			steps++;
+		}
+		mTraceEnd = cur;
+		return steps;
+	}
+
+	private boolean isAdjacent(final int a, final int b) {
+		final int w = mWidth;
+		return (Math.abs(a % w - b % w) <= 1) && (Math.abs(a / w - b / w) <= 1);
+	}
+
+	/**
+	 * remove both of minutiae that are too close each other,
+	 * they are usually produced by broken ridges, bridges or noise
+	 */
+	private void removeFalseMinutiae(final int count) {
+		final int d2 = MIN_DISTANCE * MIN_DISTANCE;
+		for (int i = 0; i < count; i++) {
+			for (int j = i + 1; j < count; j++) {
+				final int dy = mCandY[j] - mCandY[i];
+				if (dy >= MIN_DISTANCE) break;	// candidates are sorted by y
+				final int dx = mCandX[j] - mCandX[i];
+				if (dx * dx + dy * dy < d2) {
+					mCandRemoved[i] = mCandRemoved[j] = true;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.yi.minutiae;
+
+/**
+ * Minutiae of one fingerprint image held in parallel arrays.
+ * The arrays are allocated in the constructor and reused, so filling this set does not allocate.
+ * Angles are in radians in the range of [0, 2PI), coordinates are pixels of the source image.
+ */
+public class MinutiaeSet {
+	public static final int TYPE_ENDING = 1;
+	public static final int TYPE_BIFURCATION = 2;
+
+	private final int[] mX;
+	private final int[] mY;
+	private final float[] mAngle;
+	private final byte[] mType;
+	private int mCount;
+
+	/**
+	 * @param capacity max number of minutiae
+	 */
+	public MinutiaeSet(final int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("invalid capacity:" + capacity);
+		mX = new int[capacity];
+		mY = new int[capacity];
+		mAngle = new float[capacity];
+		mType = new byte[capacity];
+	}
+
+	/**
+	 * @return false if this set is already full
+	 */
+	public boolean add(final int x, final int y, final float angle, final int type) {
+		if (mCount >= mX.length) return false;
+		mX[mCount] = x;
+		mY[mCount] = y;
+		mAngle[mCount] = angle;
+		mType[mCount] = (byte)type;
+		mCount++;
+		return true;
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public int capacity() {
+		return mX.length;
+	}
+
+	public int getX(final int index) {
+		return mX[index];
+	}
+
+	public int getY(final int index) {
+		return mY[index];
+	}
+
+	public float getAngle(final int index) {
+		return mAngle[index];
+	}
+
+	public int getType(final int index) {
+		return mType[index];
+	}
+
+	public void clear() {
+		mCount = 0;
+	}
+
+	/**
+	 * copy minutiae from other set, extra minutiae are dropped if this set is smaller
+	 */
+	public MinutiaeSet set(final MinutiaeSet other) {
+		final int n = Math.min(other.mCount, mX.length);
+		System.arraycopy(other.mX, 0, mX, 0, n);
+		System.arraycopy(other.mY, 0, mY, 0, n);
+		System.arraycopy(other.mAngle, 0, mAngle, 0, n);
+		System.arraycopy(other.mType, 0, mType, 0, n);
+		mCount = n;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "MinutiaeSet{size=" + mCount + "}";
+	}
+}
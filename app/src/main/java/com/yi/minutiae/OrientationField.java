@@ -0,0 +1,171 @@
+package com.yi.minutiae;
+
+/**
+ * Block-wise segmentation and ridge orientation of a grayscale fingerprint image.
+ * Blocks that have enough variance are treated as foreground, then isolated blocks are removed
+ * and small holes are filled. Orientation is estimated from gradients as doubled angle vectors
+ * and smoothed with neighbouring foreground blocks.
+ */
+final class OrientationField {
+	// blocks whose standard deviation is lower than this are treated as background
+	private static final float FOREGROUND_STDDEV = 10.0f;
+
+	final int blockSize;
+	final int blocksX, blocksY;
+	/** 1 for foreground blocks */
+	final byte[] mask;
+	/** ridge orientation of each block in radians, [0, PI) */
+	final float[] orientation;
+
+	private final int mWidth, mHeight;
+	private final float[] mCos2, mSin2;
+	private final byte[] mTmpMask;
+
+	OrientationField(final int width, final int height, final int blockSize) {
+		this.blockSize = blockSize;
+		mWidth = width;
+		mHeight = height;
+		blocksX = width / blockSize;
+		blocksY = height / blockSize;
+		final int n = blocksX * blocksY;
+		mask = new byte[n];
+		orientation = new float[n];
+		mCos2 = new float[n];
+		mSin2 = new float[n];
+		mTmpMask = new byte[n];
+	}
+
+	/**
+	 * @return number of foreground blocks
+	 */
+	int compute(final byte[] luma, final int offset, final int stride) {
+		final int bs = blockSize, w = mWidth, h = mHeight;
+		final int cnt = bs * bs;
+		for (int by = 0; by < blocksY; by++) {
+			final int y0 = by * bs;
+			for (int bx = 0; bx < blocksX; bx++) {
+				final int x0 = bx * bs;
+				final int b = by * blocksX + bx;
+				long sum = 0, sum2 = 0;
+				for (int y = y0; y < y0 + bs; y++) {
+					int ix = offset + y * stride + x0;
+					for (int x = 0; x < bs; x++, ix++) {
+						final int v = luma[ix] & 0xff;
+						sum += v;
+						sum2 += v * v;
+					}
+				}
+				final double mean = sum / (double)cnt;
+				final double var = sum2 / (double)cnt - mean * mean;
+				if (var < FOREGROUND_STDDEV * FOREGROUND_STDDEV) {
+					mTmpMask[b] = 0;
+					mCos2[b] = mSin2[b] = 0;
+					continue;
+				}
+				mTmpMask[b] = 1;
+				long gxx = 0, gyy = 0, gxy = 0;
+				final int ys = Math.max(y0, 1), ye = Math.min(y0 + bs, h - 1);
+				final int xs = Math.max(x0, 1), xe = Math.min(x0 + bs, w - 1);
+				for (int y = ys; y < ye; y++) {
+					final int row = offset + y * stride;
+					for (int x = xs; x < xe; x++) {
+						final int ix = row + x;
+						final int gx = (luma[ix + 1] & 0xff) - (luma[ix - 1] & 0xff);
+						final int gy = (luma[ix + stride] & 0xff) - (luma[ix - stride] & 0xff);
+						gxx += gx * gx;
+						gyy += gy * gy;
+						gxy += gx * gy;
+					}
+				}
+				// doubled angle of dominant gradient, the magnitude works as reliability weight
+				mCos2[b] = gxx - gyy;
+				mSin2[b] = 2 * gxy;
+			}
+		}
+		return cleanupMask() ? smooth() : 0;
+	}
+
+	/**
+	 * remove isolated foreground blocks and fill holes surrounded by foreground
+	 * @return false if there is no foreground block
+	 */
+	private boolean cleanupMask() {
+		boolean found = false;
+		for (int by = 0; by < blocksY; by++) {
+			for (int bx = 0; bx < blocksX; bx++) {
+				final int b = by * blocksX + bx;
+				int neighbours = 0;
+				for (int dy = -1; dy <= 1; dy++) {
+					final int yy = by + dy;
+					if ((yy < 0) || (yy >= blocksY)) continue;
+					for (int dx = -1; dx <= 1; dx++) {
+						final int xx = bx + dx;
+						if (((dx == 0) && (dy == 0)) || (xx < 0) || (xx >= blocksX)) continue;
+						neighbours += mTmpMask[yy * blocksX + xx];
+					}
+				}
+				final boolean fg = mTmpMask[b] != 0 ? neighbours >= 2 : neighbours >= 6;
+				mask[b] = (byte)(fg ? 1 : 0);
+				found |= fg;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * average doubled angle vectors over 3x3 foreground blocks
+	 * @return number of foreground blocks
+	 */
+	private int smooth() {
+		int fgBlocks = 0;
+		for (int by = 0; by < blocksY; by++) {
+			for (int bx = 0; bx < blocksX; bx++) {
+				final int b = by * blocksX + bx;
+				if (mask[b] == 0) continue;
+				fgBlocks++;
+				float c = 0, s = 0;
+				for (int dy = -1; dy <= 1; dy++) {
+					final int yy = by + dy;
+					if ((yy < 0) || (yy >= blocksY)) continue;
+					for (int dx = -1; dx <= 1; dx++) {
+						final int xx = bx + dx;
+						if ((xx < 0) || (xx >= blocksX)) continue;
+						final int nb = yy * blocksX + xx;
+						if (mask[nb] == 0) continue;
+						c += mCos2[nb];
+						s += mSin2[nb];
+					}
+				}
+				// ridges run perpendicular to the gradient
+				float theta = (float)(0.5 * Math.atan2(s, c) + Math.PI / 2);
+				if (theta >= Math.PI) theta -= (float)Math.PI;
+				orientation[b] = theta;
+			}
+		}
+		return fgBlocks;
+	}
+
+	boolean isForeground(final int x, final int y) {
+		final int bx = x / blockSize, by = y / blockSize;
+		return (bx < blocksX) && (by < blocksY) && (mask[by * blocksX + bx] != 0);
+	}
+
+	/**
+	 * @return true if the block containing the pixel and all its neighbour blocks are foreground
+	 */
+	boolean isInterior(final int x, final int y) {
+		final int bx = x / blockSize, by = y / blockSize;
+		if ((bx < 1) || (by < 1) || (bx >= blocksX - 1) || (by >= blocksY - 1)) return false;
+		for (int dy = -1; dy <= 1; dy++) {
+			final int row = (by + dy) * blocksX;
+			for (int dx = -1; dx <= 1; dx++) {
+				if (mask[row + bx + dx] == 0) return false;
+			}
+		}
+		return true;
+	}
+
+	float orientationAt(final int x, final int y) {
+		return orientation[(y / blockSize) * blocksX + x / blockSize];
+	}
+}
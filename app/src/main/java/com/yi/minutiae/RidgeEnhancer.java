@@ -0,0 +1,83 @@
+package com.yi.minutiae;
+
+import java.util.Arrays;
+
+/**
+ * Enhance ridges with oriented Gabor filters and binarize the result.
+ * Kernels for ORIENTATIONS directions are computed in the constructor and have zero mean,
+ * so the sign of the response tells whether the pixel is on a (dark) ridge or on a valley.
+ */
+final class RidgeEnhancer {
+	static final int ORIENTATIONS = 16;
+	static final int RADIUS = 5;
+	private static final int SIZE = RADIUS * 2 + 1;
+	private static final float SIGMA = 4.0f;
+
+	private final int mWidth, mHeight;
+	private final float[][] mKernels = new float[ORIENTATIONS][SIZE * SIZE];
+
+	/**
+	 * @param ridgePeriod distance between neighbouring ridges in pixels
+	 */
+	RidgeEnhancer(final int width, final int height, final float ridgePeriod) {
+		mWidth = width;
+		mHeight = height;
+		final double freq = 1.0 / ridgePeriod;
+		for (int k = 0; k < ORIENTATIONS; k++) {
+			final double theta = Math.PI * k / ORIENTATIONS;
+			final double cos = Math.cos(theta), sin = Math.sin(theta);
+			final float[] kernel = mKernels[k];
+			double sum = 0;
+			for (int y = -RADIUS, i = 0; y <= RADIUS; y++) {
+				for (int x = -RADIUS; x <= RADIUS; x++, i++) {
+					// across and along the ridge
+					final double xn = -x * sin + y * cos;
+					final double xr = x * cos + y * sin;
+					final double v = Math.exp(-(xn * xn + xr * xr) / (2 * SIGMA * SIGMA))
+						* Math.cos(2 * Math.PI * freq * xn);
+					kernel[i] = (float)v;
+					sum += v;
+				}
+			}
+			final float mean = (float)(sum / (SIZE * SIZE));
+			for (int i = 0; i < kernel.length; i++) {
+				kernel[i] -= mean;
+			}
+		}
+	}
+
+	/**
+	 * @param out 1 for ridge pixels, pixels within RADIUS from the image border are always 0
+	 */
+	void apply(final byte[] luma, final int offset, final int stride,
+		final OrientationField field, final byte[] out) {
+
+		final int w = mWidth, h = mHeight, bs = field.blockSize;
+		Arrays.fill(out, 0, w * h, (byte)0);
+		for (int by = 0; by < field.blocksY; by++) {
+			final int ys = Math.max(by * bs, RADIUS), ye = Math.min(by * bs + bs, h - RADIUS);
+			for (int bx = 0; bx < field.blocksX; bx++) {
+				final int b = by * field.blocksX + bx;
+				if (field.mask[b] == 0) continue;
+				final float[] kernel = mKernels[
+					(int)(field.orientation[b] / Math.PI * ORIENTATIONS + 0.5f) % ORIENTATIONS];
+				final int xs = Math.max(bx * bs, RADIUS), xe = Math.min(bx * bs + bs, w - RADIUS);
+				for (int y = ys; y < ye; y++) {
+					for (int x = xs; x < xe; x++) {
+						float acc = 0;
+						int k = 0;
+						for (int ky = -RADIUS; ky <= RADIUS; ky++) {
+							int ix = offset + (y + ky) * stride + x - RADIUS;
+							for (int kx = 0; kx < SIZE; kx++) {
+								acc += kernel[k++] * (luma[ix++] & 0xff);
+							}
+						}
+						if (acc < 0) {
+							out[y * w + x] = 1;
+						}
+					}
+				}
+			}
+		}
+	}
+}
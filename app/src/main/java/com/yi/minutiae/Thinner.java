@@ -0,0 +1,72 @@
+package com.yi.minutiae;
+
+/**
+ * Zhang-Suen thinning of a binary image in place.
+ * Only ridge pixels are kept in a list and the list shrinks on each pass,
+ * so later passes do not scan the whole image.
+ */
+final class Thinner {
+	private final int mWidth;
+	private final int[] mPixels;
+	private final int[] mDeleted;
+
+	Thinner(final int width, final int height) {
+		mWidth = width;
+		mPixels = new int[width * height];
+		mDeleted = new int[width * height];
+	}
+
+	/**
+	 * @param img 1 for ridge pixels, the pixels on the image border should be 0
+	 * @return number of skeleton pixels
+	 */
+	int thin(final byte[] img, final int height) {
+		final int w = mWidth;
+		final int[] pixels = mPixels;
+		int n = 0;
+		for (int i = w, end = w * (height - 1); i < end; i++) {
+			if (img[i] != 0) pixels[n++] = i;
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int step = 0; step < 2; step++) {
+				int deleted = 0;
+				for (int i = 0; i < n; i++) {
+					final int p = pixels[i];
+					if (isDeletable(img, p, w, step)) {
+						mDeleted[deleted++] = p;
+					}
+				}
+				if (deleted == 0) continue;
+				changed = true;
+				for (int i = 0; i < deleted; i++) {
+					img[mDeleted[i]] = 0;
+				}
+				int m = 0;
+				for (int i = 0; i < n; i++) {
+					if (img[pixels[i]] != 0) pixels[m++] = pixels[i];
+				}
+				n = m;
+			}
+		}
+		return n;
+	}
+
+	private static boolean isDeletable(final byte[] img, final int p, final int w, final int step) {
+		final int p2 = img[p - w], p3 = img[p - w + 1], p4 = img[p + 1], p5 = img[p + w + 1];
+		final int p6 = img[p + w], p7 = img[p + w - 1], p8 = img[p - 1], p9 = img[p - w - 1];
+		final int b = p2 + p3 + p4 + p5 + p6 + p7 + p8 + p9;
+		if ((b < 2) || (b > 6)) return false;
+		final int a = ((p2 == 0) && (p3 != 0) ? 1 : 0) + ((p3 == 0) && (p4 != 0) ? 1 : 0)
+			+ ((p4 == 0) && (p5 != 0) ? 1 : 0) + ((p5 == 0) && (p6 != 0) ? 1 : 0)
+			+ ((p6 == 0) && (p7 != 0) ? 1 : 0) + ((p7 == 0) && (p8 != 0) ? 1 : 0)
+			+ ((p8 == 0) && (p9 != 0) ? 1 : 0) + ((p9 == 0) && (p2 != 0) ? 1 : 0);
+		if (a != 1) return false;
+		if (step == 0) {
+			return (p2 * p4 * p6 == 0) && (p4 * p6 * p8 == 0);
+		} else {
+			return (p2 * p4 * p8 == 0) && (p2 * p6 * p8 == 0);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.yi.perf;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Results of previewing with each number of MJPEG decode workers(UVCCamera#setDecodeWorkers),
+ * computed from two snapshots of UVCCamera#getDecodeStats taken after the preview settled.
+ * The frame rate is capped by the camera, so the decode capacity(frames per second the workers could
+ * decode if frames came fast enough) and the frames dropped because all workers were busy tell whether
+ * more workers help. UVCCameraHandler#startDecodeWorkerSweep drives the preview, this class has no
+ * Android dependency.
+ */
+public class DecodeWorkerSweep {
+	public static final String CSV_HEADER = "workers,frames,fps,decode_ms,capacity_fps,busy_drops";
+	/** fps within this ratio of the best one is regarded as the same */
+	private static final double SAME_FPS_RATIO = 0.95;
+
+	// same as UVCCamera.DECODE_STATS_XXX
+	private static final int STATS_FRAMES = 1;
+	private static final int STATS_DECODE_NS = 2;
+	private static final int STATS_ELAPSED_NS = 3;
+
+	public static final class Result {
+		public final int workers;
+		/** frames decoded while measuring */
+		public final long frames;
+		/** decoded frames per second */
+		public final double fps;
+		/** mean decoding time of one frame on one worker */
+		public final double decodeMs;
+		/** frames per second all workers could decode without waiting for the camera */
+		public final double capacityFps;
+		/** frames dropped because all workers were busy(UVCCamera.DROP_COUNT_NEWEST) */
+		public final long busyDrops;
+
+		private Result(final int workers, final long frames, final long elapsedNs,
+			final long decodeNs, final long busyDrops) {
+
+			this.workers = workers;
+			this.frames = frames;
+			this.busyDrops = busyDrops;
+			fps = elapsedNs > 0 ? frames * 1e9 / elapsedNs : 0;
+			decodeMs = frames > 0 ? decodeNs / 1e6 / frames : 0;
+			capacityFps = decodeNs > 0 ? workers * frames * 1e9 / decodeNs : 0;
+		}
+
+		public String toCsv() {
+			return String.format(Locale.US, "%d,%d,%.2f,%.3f,%.2f,%d",
+				workers, frames, fps, decodeMs, capacityFps, busyDrops);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "workers=%d,frames=%d,fps=%.2f,decode=%.3fms,capacity=%.2ffps,busyDrops=%d",
+				workers, frames, fps, decodeMs, capacityFps, busyDrops);
+		}
+	}
+
+	private final List<Result> mResults = new ArrayList<Result>();
+
+	/**
+	 * @param workers number of decode workers of the preview
+	 * @param start UVCCamera#getDecodeStats when measuring started
+	 * @param end UVCCamera#getDecodeStats when measuring ended, of the same preview as start
+	 * @param busyDrops increase of UVCCamera#getFrameDropCounts[DROP_COUNT_NEWEST] while measuring
+	 */
+	public synchronized Result add(final int workers, final long[] start, final long[] end, final long busyDrops) {
+		final Result result = new Result(workers,
+			end[STATS_FRAMES] - start[STATS_FRAMES],
+			end[STATS_ELAPSED_NS] - start[STATS_ELAPSED_NS],
+			end[STATS_DECODE_NS] - start[STATS_DECODE_NS],
+			busyDrops);
+		mResults.add(result);
+		return result;
+	}
+
+	public synchronized List<Result> getResults() {
+		return Collections.unmodifiableList(new ArrayList<Result>(mResults));
+	}
+
+	/**
+	 * @return the least number of workers that reached the best fps, 0 if nothing was measured
+	 */
+	public synchronized int getBestWorkers() {
+		double max = 0;
+		for (final Result result: mResults) {
+			max = Math.max(max, result.fps);
+		}
+		int best = 0;
+		for (final Result result: mResults) {
+			if ((result.fps > 0) && (result.fps >= max * SAME_FPS_RATIO)
+				&& ((best == 0) || (result.workers < best))) {
+				best = result.workers;
+			}
+		}
+		return best;
+	}
+
+	public synchronized void write(final Writer out) throws IOException {
+		out.write(CSV_HEADER);
+		out.write('\n');
+		for (final Result result: mResults) {
+			out.write(result.toCsv());
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	public void write(final File file) throws IOException {
+		final Writer out = new FileWriter(file);
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+}
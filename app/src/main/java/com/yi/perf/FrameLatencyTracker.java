@@ -0,0 +1,249 @@
+package com.yi.perf;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per frame latency across capture, render and encode.
+ * The times before the texture update(USB arrival and decode done) are looked up through FrameTimeSource
+ * by the timestamp of the SurfaceTexture that receives camera frames, and the later checkpoints are reported
+ * with the USB arrival time of the frame(frame key), which is also the presentation time of the encoded frame.
+ * The timestamp of the SurfaceTexture is the frame key if FrameTimeSource does not know the frame.
+ * Each checkpoint has two histograms, the latency since USB arrival and the time since the previous
+ * checkpoint(for CHECKPOINT_ARRIVAL, the interval from the previous arrival), so a slow preview can be
+ * attributed to USB, decoding, GL or the encoder.
+ * Reporting does not allocate, histograms can be read from any thread.
+ */
+public class FrameLatencyTracker {
+	public static final int CHECKPOINT_ARRIVAL = 0;			// frame arrived from USB
+	public static final int CHECKPOINT_DECODE = 1;			// MJPEG decoding finished
+	public static final int CHECKPOINT_TEXTURE = 2;			// shared texture was updated(RendererHolder#draw)
+	public static final int CHECKPOINT_CLIENT_DRAW = 3;		// drawn to a preview surface
+	public static final int CHECKPOINT_ENCODER_INPUT = 4;	// drawn to the input surface of the encoder
+	public static final int CHECKPOINT_MUXER_WRITE = 5;		// encoded frame was written to the muxer
+	public static final int CHECKPOINT_NUM = 6;
+
+	private static final String[] NAMES = {
+		"arrival", "decode", "texture", "client_draw", "encoder_input", "muxer_write",
+	};
+
+	/**
+	 * looks up the times of a frame before it reached the SurfaceTexture
+	 */
+	public interface FrameTimeSource {
+		public static final int TIME_ARRIVAL_NS = 0;
+		public static final int TIME_DECODED_NS = 1;
+		public static final int TIME_SEQUENCE = 2;		// sequence number of the frame from the camera, not a time
+		/**
+		 * @param presentedNs timestamp of the SurfaceTexture
+		 * @param times TIME_XXX as index, times are on the same time base as System#nanoTime
+		 * @return false if the frame is unknown
+		 */
+		public boolean getFrameTimes(long presentedNs, long[] times);
+	}
+
+	// recent frames that may still be reported by later checkpoints
+	private static final int RING_SIZE = 32;
+	private static final int ENTRY_KEY = 0;			// USB arrival time
+	private static final int ENTRY_TEXTURE = 1;
+	private static final int ENTRY_ENCODER_INPUT = 2;
+	private static final int ENTRY_SIZE = 3;
+
+	private final LatencyHistogram[] mLatency = new LatencyHistogram[CHECKPOINT_NUM];
+	private final LatencyHistogram[] mStage = new LatencyHistogram[CHECKPOINT_NUM];
+	private final AtomicLongArray mRing = new AtomicLongArray(RING_SIZE * ENTRY_SIZE);
+	private volatile FrameTimeSource mSource;
+	// accessed only from the thread that calls #onTextureUpdated
+	private final long[] mTimes = new long[3];
+	private int mRingHead;
+	private long mLastArrivalNs;
+	private long mLastSequence = -1;
+	// written only from the thread that calls #onTextureUpdated
+	private volatile long mCameraFrames, mRenderedFrames;
+
+	public FrameLatencyTracker() {
+		for (int i = 0; i < CHECKPOINT_NUM; i++) {
+			mLatency[i] = new LatencyHistogram();
+			mStage[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * @param source null when the times before the texture update are unknown,
+	 * 		the timestamp of SurfaceTexture is used as the arrival time in that case
+	 */
+	public void setFrameTimeSource(final FrameTimeSource source) {
+		mSource = source;
+	}
+
+	public static String getName(final int checkpoint) {
+		return NAMES[checkpoint];
+	}
+
+	/**
+	 * @return histogram of the time from USB arrival to the checkpoint
+	 */
+	public LatencyHistogram getLatency(final int checkpoint) {
+		return mLatency[checkpoint];
+	}
+
+	/**
+	 * @return histogram of the time from the previous checkpoint
+	 */
+	public LatencyHistogram getStageTime(final int checkpoint) {
+		return mStage[checkpoint];
+	}
+
+	/**
+	 * @return number of frames the camera sent since the tracker was created, including frames
+	 * 		that were dropped before reaching the texture. This is counted from the sequence numbers
+	 * 		of the frames, same as #getRenderedFrames when the frame times are unknown
+	 */
+	public long getCameraFrames() {
+		return mCameraFrames;
+	}
+
+	/**
+	 * @return number of frames that reached the texture since the tracker was created
+	 */
+	public long getRenderedFrames() {
+		return mRenderedFrames;
+	}
+
+	/**
+	 * clear histograms, frame counters are not cleared so that rates can be computed across reset
+	 */
+	public void reset() {
+		for (int i = 0; i < CHECKPOINT_NUM; i++) {
+			mLatency[i].reset();
+			mStage[i].reset();
+		}
+	}
+
+	/**
+	 * called on the render thread after SurfaceTexture#updateTexImage
+	 * @param presentedNs SurfaceTexture#getTimestamp to look up the frame times
+	 */
+	public void onTextureUpdated(final long presentedNs) {
+		final long now = System.nanoTime();
+		final FrameTimeSource source = mSource;
+		long arrival = presentedNs, previous = presentedNs;
+		long cameraFrames = 1;
+		if ((source != null) && source.getFrameTimes(presentedNs, mTimes)) {
+			arrival = mTimes[FrameTimeSource.TIME_ARRIVAL_NS];
+			previous = mTimes[FrameTimeSource.TIME_DECODED_NS];
+			// the sequence restarts from 0 when the preview restarts
+			final long sequence = mTimes[FrameTimeSource.TIME_SEQUENCE];
+			if ((mLastSequence >= 0) && (sequence > mLastSequence)) {
+				cameraFrames = sequence - mLastSequence;
+			}
+			mLastSequence = sequence;
+			if (arrival > mLastArrivalNs) {
+				if (mLastArrivalNs > 0) {
+					mStage[CHECKPOINT_ARRIVAL].record(arrival - mLastArrivalNs);
+				}
+				mLastArrivalNs = arrival;
+			}
+			mLatency[CHECKPOINT_DECODE].record(previous - arrival);
+			mStage[CHECKPOINT_DECODE].record(previous - arrival);
+		}
+		mCameraFrames += cameraFrames;
+		mRenderedFrames++;
+		mLatency[CHECKPOINT_TEXTURE].record(now - arrival);
+		mStage[CHECKPOINT_TEXTURE].record(now - previous);
+		// invalidate the key while updating so that readers never see a half written entry
+		final int entry = mRingHead * ENTRY_SIZE;
+		mRingHead = (mRingHead + 1) % RING_SIZE;
+		mRing.set(entry + ENTRY_KEY, 0);
+		mRing.set(entry + ENTRY_TEXTURE, now);
+		mRing.set(entry + ENTRY_ENCODER_INPUT, 0);
+		mRing.set(entry + ENTRY_KEY, arrival);
+	}
+
+	/**
+	 * called after the frame was drawn to a client surface(after swapping buffers)
+	 * @param frameKey USB arrival time of the frame(FrameDescriptor#timestampNs of RendererHolder)
+	 * @param encoderInput true if the surface is the input surface of an encoder
+	 */
+	public void onClientDrawn(final long frameKey, final boolean encoderInput) {
+		final long now = System.nanoTime();
+		final int entry = find(frameKey, false);
+		if (entry < 0) return;
+		final long texture = mRing.get(entry + ENTRY_TEXTURE);
+		if (mRing.get(entry + ENTRY_KEY) != frameKey) return;	// overwritten while reading
+		final int checkpoint = encoderInput ? CHECKPOINT_ENCODER_INPUT : CHECKPOINT_CLIENT_DRAW;
+		mLatency[checkpoint].record(now - frameKey);
+		mStage[checkpoint].record(now - texture);
+		if (encoderInput) {
+			mRing.compareAndSet(entry + ENTRY_ENCODER_INPUT, 0, now);
+		}
+	}
+
+	/**
+	 * called on the encoder thread after an encoded frame was written to the muxer
+	 * @param presentationTimeUs presentation time of the frame, frame key / 1000
+	 */
+	public void onMuxerWrite(final long presentationTimeUs) {
+		final long now = System.nanoTime();
+		final int entry = find(presentationTimeUs, true);
+		if (entry < 0) return;
+		final long input = mRing.get(entry + ENTRY_ENCODER_INPUT);
+		final long arrival = mRing.get(entry + ENTRY_KEY);
+		if (arrival / 1000 != presentationTimeUs) return;	// overwritten while reading
+		mLatency[CHECKPOINT_MUXER_WRITE].record(now - arrival);
+		if (input > 0) {
+			mStage[CHECKPOINT_MUXER_WRITE].record(now - input);
+		}
+	}
+
+	/**
+	 * write percentiles of all histograms as CSV, times are in microseconds
+	 */
+	public void dump(final Writer out) throws IOException {
+		out.write("checkpoint,kind,count,mean_us,p50_us,p90_us,p99_us,p999_us,max_us\n");
+		dump(out, NAMES[CHECKPOINT_ARRIVAL], "interval", mStage[CHECKPOINT_ARRIVAL]);
+		for (int i = CHECKPOINT_ARRIVAL + 1; i < CHECKPOINT_NUM; i++) {
+			dump(out, NAMES[i], "latency", mLatency[i]);
+			dump(out, NAMES[i], "stage", mStage[i]);
+		}
+		out.flush();
+	}
+
+	public void dump(final File file) throws IOException {
+		final Writer out = new FileWriter(file);
+		try {
+			dump(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void dump(final Writer out, final String name, final String kind,
+		final LatencyHistogram histogram) throws IOException {
+
+		out.write(String.format(Locale.US, "%s,%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f\n", name, kind,
+			histogram.getCount(), histogram.getMean() / 1e3,
+			histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(90) / 1e3,
+			histogram.getValueAtPercentile(99) / 1e3, histogram.getValueAtPercentile(99.9) / 1e3,
+			histogram.getMax() / 1e3));
+	}
+
+	/**
+	 * @param micros true to compare with key / 1000
+	 * @return index of the entry, -1 if not found
+	 */
+	private int find(final long key, final boolean micros) {
+		if (key == 0) return -1;
+		for (int i = 0; i < RING_SIZE; i++) {
+			final long k = mRing.get(i * ENTRY_SIZE + ENTRY_KEY);
+			if ((micros ? k / 1000 : k) == key) {
+				return i * ENTRY_SIZE;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,112 @@
+package com.yi.perf;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets like HdrHistogram.
+ * Each power of 2 range is split into SUB_BUCKETS buckets, so a recorded value is kept with
+ * an error of less than 1/SUB_BUCKETS(about 3%) with a fixed memory footprint.
+ * #record does not allocate and can be called from multiple threads.
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// values up to 2^(MAX_EXPONENT + 1) ns(about 137 seconds), larger values go into the last bucket
+	private static final int MAX_EXPONENT = 36;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	/**
+	 * @param valueNs negative values are ignored
+	 */
+	public void record(final long valueNs) {
+		if (valueNs < 0) return;
+		mCounts.incrementAndGet(bucketOf(valueNs));
+		mCount.incrementAndGet();
+		mSum.addAndGet(valueNs);
+		for (long max = mMax.get(); (valueNs > max) && !mMax.compareAndSet(max, valueNs); max = mMax.get()) {
+			// retry
+		}
+	}
+
+	public long getCount() {
+		return mCount.get();
+	}
+
+	/**
+	 * @return mean in nanoseconds, 0 if nothing is recorded
+	 */
+	public double getMean() {
+		final long count = mCount.get();
+		return count > 0 ? mSum.get() / (double)count : 0;
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	/**
+	 * @param percentile 0 to 100
+	 * @return the value in nanoseconds that percentile% of recorded values are less than or equal to,
+	 * 		0 if nothing is recorded
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += mCounts.get(i);
+		}
+		if (total == 0) return 0;
+		final long target = Math.max(1, (long)Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+		long sum = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			sum += mCounts.get(i);
+			if (sum >= target) {
+				return Math.min(middleOf(i), mMax.get());
+			}
+		}
+		return mMax.get();
+	}
+
+	/**
+	 * clear all recorded values, values recorded concurrently may be lost
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			mCounts.set(i, 0);
+		}
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "count=%d,mean=%.2fms,p50=%.2fms,p90=%.2fms,p99=%.2fms,max=%.2fms",
+			getCount(), getMean() / 1e6, getValueAtPercentile(50) / 1e6, getValueAtPercentile(90) / 1e6,
+			getValueAtPercentile(99) / 1e6, getMax() / 1e6);
+	}
+
+	private static int bucketOf(final long value) {
+		if (value < SUB_BUCKETS) return (int)value;
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+		// SUB_BITS bits below the highest bit select the sub bucket
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int)(value >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+	}
+
+	/**
+	 * @return the value at the middle of the bucket
+	 */
+	private static long middleOf(final int bucket) {
+		if (bucket < SUB_BUCKETS) return bucket;
+		final int shift = bucket / SUB_BUCKETS - 1;
+		final long lowest = (long)(bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + ((1L << shift) >> 1);
+	}
+}
@@ -0,0 +1,69 @@
+package com.yi.perf;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Append PerfSample to a local file so that field technicians can collect metrics without adb.
+ * The format is chosen by the extension: ".json" writes one JSON object per line(JSON Lines),
+ * otherwise CSV with a header line. This does blocking file I/O, call it off the UI thread.
+ */
+public class MetricsLogger {
+	private final File mFile;
+	private final boolean mJson;
+	private Writer mWriter;
+
+	/**
+	 * @param file the file is created or appended to
+	 * @throws IOException
+	 */
+	public MetricsLogger(final File file) throws IOException {
+		mFile = file;
+		mJson = file.getName().toLowerCase().endsWith(".json");
+		final File dir = file.getParentFile();
+		if ((dir != null) && !dir.exists() && !dir.mkdirs())
+			throw new IOException("can not create directory:" + dir);
+		final boolean append = file.length() > 0;
+		mWriter = new BufferedWriter(new FileWriter(file, append));
+		if (!mJson && !append) {
+			mWriter.write(PerfSample.CSV_HEADER);
+			mWriter.write('\n');
+		}
+	}
+
+	public File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * write one sample and flush, so that the file is complete even if the process is killed
+	 */
+	public synchronized void write(final PerfSample sample) throws IOException {
+		if (mWriter == null)
+			throw new IOException("already closed");
+		mWriter.write(mJson ? sample.toJson() : sample.toCsv());
+		mWriter.write('\n');
+		mWriter.flush();
+	}
+
+	/**
+	 * close the file, the latency histograms of the tracker are written to "<name>-latency.csv"
+	 * next to the file if tracker is not null
+	 */
+	public synchronized void close(final FrameLatencyTracker tracker) throws IOException {
+		if (mWriter == null) return;
+		try {
+			mWriter.close();
+		} finally {
+			mWriter = null;
+		}
+		if (tracker != null) {
+			final String name = mFile.getName();
+			final int dot = name.lastIndexOf('.');
+			tracker.dump(new File(mFile.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + "-latency.csv"));
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.yi.perf;
+
+/**
+ * Cumulative counters of the camera, preview and encoder read at one time, see PerfMonitor.
+ */
+public final class PerfCounters {
+	/** frames sent by the camera including dropped ones, see FrameLatencyTracker#getCameraFrames */
+	public long cameraFrames;
+	/** frames that reached the preview texture */
+	public long renderedFrames;
+	/** true while recording, the encoder counters are 0 otherwise */
+	public boolean recording;
+	/** frames passed to the encoder but not written to the muxer yet */
+	public int encoderBacklog;
+	/** encoded bytes written to the muxer since the recording started */
+	public long encodedBytes;
+	/** latency from USB arrival to the texture update, 0 while latency tracking is disabled */
+	public long textureLatencyP50Ns, textureLatencyP99Ns;
+	/** time from encoder input to muxer write of this recording, see MediaEncoder#getEncodeLatency */
+	public long encodeLatencyP50Ns, encodeLatencyP99Ns;
+	/** time from the record request to the first frame written to the muxer, 0 until it is written */
+	public long firstFrameLatencyNs;
+
+	public void clear() {
+		cameraFrames = renderedFrames = encodedBytes = 0;
+		recording = false;
+		encoderBacklog = 0;
+		textureLatencyP50Ns = textureLatencyP99Ns = 0;
+		encodeLatencyP50Ns = encodeLatencyP99Ns = 0;
+		firstFrameLatencyNs = 0;
+	}
+
+	public void set(final PerfCounters other) {
+		cameraFrames = other.cameraFrames;
+		renderedFrames = other.renderedFrames;
+		recording = other.recording;
+		encoderBacklog = other.encoderBacklog;
+		encodedBytes = other.encodedBytes;
+		textureLatencyP50Ns = other.textureLatencyP50Ns;
+		textureLatencyP99Ns = other.textureLatencyP99Ns;
+		encodeLatencyP50Ns = other.encodeLatencyP50Ns;
+		encodeLatencyP99Ns = other.encodeLatencyP99Ns;
+		firstFrameLatencyNs = other.firstFrameLatencyNs;
+	}
+}
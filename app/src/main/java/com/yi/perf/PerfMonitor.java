@@ -0,0 +1,62 @@
+package com.yi.perf;
+
+/**
+ * Turn periodically read PerfCounters into per interval rates.
+ * This does not own a thread, the caller reads the counters(e.g. UVCCameraHandler#getPerfCounters)
+ * at a fixed interval and passes them to #update on one thread.
+ */
+public class PerfMonitor {
+	private final PerfCounters mPrevious = new PerfCounters();
+	private long mPreviousNs = -1;
+	private long mDropped;
+
+	/**
+	 * forget the previous counters, the next #update only starts a new interval
+	 */
+	public void reset() {
+		mPreviousNs = -1;
+		mDropped = 0;
+	}
+
+	/**
+	 * @param counters counters read just now
+	 * @param nowNs System#nanoTime when the counters were read
+	 * @param sample rates since the previous call are written to this
+	 * @return false if this is the first call after creation or #reset and sample was not written
+	 */
+	public boolean update(final PerfCounters counters, final long nowNs, final PerfSample sample) {
+		final long elapsedNs = nowNs - mPreviousNs;
+		final boolean valid = (mPreviousNs >= 0) && (elapsedNs > 0);
+		if (valid) {
+			final double seconds = elapsedNs / 1e9;
+			// counters go back when the camera or the tracker is replaced
+			final long camera = delta(counters.cameraFrames, mPrevious.cameraFrames);
+			final long rendered = delta(counters.renderedFrames, mPrevious.renderedFrames);
+			if (camera > rendered) {
+				mDropped += camera - rendered;
+			}
+			// encodedBytes starts from 0 on each recording
+			final long bytes = (counters.recording && mPrevious.recording)
+				? delta(counters.encodedBytes, mPrevious.encodedBytes) : counters.encodedBytes;
+			sample.timeMs = System.currentTimeMillis();
+			sample.cameraFps = (float)(camera / seconds);
+			sample.renderedFps = (float)(rendered / seconds);
+			sample.droppedFrames = mDropped;
+			sample.recording = counters.recording;
+			sample.encoderBacklog = counters.encoderBacklog;
+			sample.bitrateKbps = counters.recording ? (float)(bytes * 8 / 1e3 / seconds) : 0;
+			sample.textureLatencyP50Us = counters.textureLatencyP50Ns / 1000;
+			sample.textureLatencyP99Us = counters.textureLatencyP99Ns / 1000;
+			sample.encodeLatencyP50Us = counters.encodeLatencyP50Ns / 1000;
+			sample.encodeLatencyP99Us = counters.encodeLatencyP99Ns / 1000;
+			sample.firstFrameLatencyUs = counters.firstFrameLatencyNs / 1000;
+		}
+		mPrevious.set(counters);
+		mPreviousNs = nowNs;
+		return valid;
+	}
+
+	private static long delta(final long current, final long previous) {
+		return current >= previous ? current - previous : current;
+	}
+}
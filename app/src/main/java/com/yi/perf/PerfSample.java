@@ -0,0 +1,63 @@
+package com.yi.perf;
+
+import java.util.Locale;
+
+/**
+ * Rates over one sampling interval computed by PerfMonitor, with CSV and JSON formatting for MetricsLogger.
+ */
+public final class PerfSample {
+	public static final String CSV_HEADER =
+		"time_ms,camera_fps,rendered_fps,dropped_frames,recording,encoder_backlog,bitrate_kbps,texture_p50_us,texture_p99_us,encode_p50_us,encode_p99_us,first_frame_us";
+
+	/** wall clock time of the sample, System#currentTimeMillis */
+	public long timeMs;
+	public float cameraFps;
+	public float renderedFps;
+	/** frames the camera sent but never reached the texture, since PerfMonitor#reset */
+	public long droppedFrames;
+	public boolean recording;
+	public int encoderBacklog;
+	public float bitrateKbps;
+	public long textureLatencyP50Us, textureLatencyP99Us;
+	public long encodeLatencyP50Us, encodeLatencyP99Us;
+	/** time to the first recorded frame, see PerfCounters#firstFrameLatencyNs */
+	public long firstFrameLatencyUs;
+
+	public String toCsv() {
+		return String.format(Locale.US, "%d,%.1f,%.1f,%d,%d,%d,%.1f,%d,%d,%d,%d,%d", timeMs, cameraFps, renderedFps,
+			droppedFrames, recording ? 1 : 0, encoderBacklog, bitrateKbps, textureLatencyP50Us, textureLatencyP99Us,
+			encodeLatencyP50Us, encodeLatencyP99Us, firstFrameLatencyUs);
+	}
+
+	public String toJson() {
+		return String.format(Locale.US, "{\"time_ms\":%d,\"camera_fps\":%.1f,\"rendered_fps\":%.1f,"
+			+ "\"dropped_frames\":%d,\"recording\":%b,\"encoder_backlog\":%d,\"bitrate_kbps\":%.1f,"
+			+ "\"texture_p50_us\":%d,\"texture_p99_us\":%d,\"encode_p50_us\":%d,\"encode_p99_us\":%d,\"first_frame_us\":%d}",
+			timeMs, cameraFps, renderedFps, droppedFrames, recording, encoderBacklog, bitrateKbps,
+			textureLatencyP50Us, textureLatencyP99Us, encodeLatencyP50Us, encodeLatencyP99Us, firstFrameLatencyUs);
+	}
+
+	/**
+	 * multi line text for an on-screen overlay
+	 */
+	public String toDisplayString() {
+		final StringBuilder sb = new StringBuilder(160);
+		sb.append(String.format(Locale.US, "camera %.1f fps\nrender %.1f fps\ndropped %d",
+			cameraFps, renderedFps, droppedFrames));
+		if (textureLatencyP99Us > 0) {
+			sb.append(String.format(Locale.US, "\nlatency p50 %.1f / p99 %.1f ms",
+				textureLatencyP50Us / 1e3, textureLatencyP99Us / 1e3));
+		}
+		if (recording) {
+			sb.append(String.format(Locale.US, "\nencoder backlog %d\nbitrate %.0f kbps", encoderBacklog, bitrateKbps));
+			if (encodeLatencyP99Us > 0) {
+				sb.append(String.format(Locale.US, "\nencode p50 %.1f / p99 %.1f ms",
+					encodeLatencyP50Us / 1e3, encodeLatencyP99Us / 1e3));
+			}
+			if (firstFrameLatencyUs > 0) {
+				sb.append(String.format(Locale.US, "\nfirst frame %.1f ms", firstFrameLatencyUs / 1e3));
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,262 @@
+package com.yi.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Report the jitter of presentation timestamps of the video track in a recorded MP4,
+ * to verify that the timestamps follow the capture timing of the camera.
+ * Timestamps are read from the sample table(stts and ctts boxes) without decoding, and this does not
+ * depend on Android so it also runs on a desktop JVM:
+ *   java -cp <classes> com.yi.perf.PtsJitterAnalyzer movie.mp4...
+ */
+public final class PtsJitterAnalyzer {
+	/** intervals longer than this times the median are counted as gaps(dropped frames) */
+	private static final double GAP_RATIO = 1.5;
+
+	public static final class Report {
+		public int frames;
+		/** frames whose timestamp is not larger than the previous one in decoding order */
+		public int nonMonotonic;
+		public long durationUs;
+		public double meanIntervalUs, stdDevIntervalUs;
+		public long minIntervalUs, medianIntervalUs, maxIntervalUs;
+		/** absolute difference of the intervals from the median */
+		public long p50JitterUs, p90JitterUs, p99JitterUs, maxJitterUs;
+		public int gaps;
+
+		public double getFps() {
+			return meanIntervalUs > 0 ? 1e6 / meanIntervalUs : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "frames=%d,duration=%.3fs,fps=%.2f,interval(mean=%.2fms,sd=%.2fms,"
+				+ "min=%.2fms,median=%.2fms,max=%.2fms),jitter(p50=%.2fms,p90=%.2fms,p99=%.2fms,max=%.2fms),"
+				+ "gaps=%d,nonMonotonic=%d",
+				frames, durationUs / 1e6, getFps(), meanIntervalUs / 1e3, stdDevIntervalUs / 1e3,
+				minIntervalUs / 1e3, medianIntervalUs / 1e3, maxIntervalUs / 1e3,
+				p50JitterUs / 1e3, p90JitterUs / 1e3, p99JitterUs / 1e3, maxJitterUs / 1e3, gaps, nonMonotonic);
+		}
+	}
+
+	private PtsJitterAnalyzer() {
+	}
+
+	/**
+	 * @param file MP4 file, the first video track is analyzed
+	 * @throws IOException the file can not be read or has no video track
+	 */
+	public static Report analyze(final File file) throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			return analyze(readVideoPTSUs(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param ptsUs presentation timestamps in decoding order, this array is sorted
+	 */
+	public static Report analyze(final long[] ptsUs) {
+		final Report report = new Report();
+		final int n = ptsUs.length;
+		report.frames = n;
+		for (int i = 1; i < n; i++) {
+			if (ptsUs[i] <= ptsUs[i - 1]) report.nonMonotonic++;
+		}
+		if (n < 2) return report;
+		Arrays.sort(ptsUs);
+		report.durationUs = ptsUs[n - 1] - ptsUs[0];
+		final long[] intervals = new long[n - 1];
+		double sum = 0, sumSq = 0;
+		for (int i = 0; i < n - 1; i++) {
+			final long interval = ptsUs[i + 1] - ptsUs[i];
+			intervals[i] = interval;
+			sum += interval;
+			sumSq += (double)interval * interval;
+		}
+		final int m = intervals.length;
+		report.meanIntervalUs = sum / m;
+		report.stdDevIntervalUs = Math.sqrt(Math.max(0, sumSq / m - report.meanIntervalUs * report.meanIntervalUs));
+		final long[] sorted = intervals.clone();
+		Arrays.sort(sorted);
+		report.minIntervalUs = sorted[0];
+		report.maxIntervalUs = sorted[m - 1];
+		report.medianIntervalUs = sorted[m / 2];
+		final long[] jitter = new long[m];
+		for (int i = 0; i < m; i++) {
+			jitter[i] = Math.abs(intervals[i] - report.medianIntervalUs);
+			if (intervals[i] > report.medianIntervalUs * GAP_RATIO) report.gaps++;
+		}
+		Arrays.sort(jitter);
+		report.p50JitterUs = percentile(jitter, 50);
+		report.p90JitterUs = percentile(jitter, 90);
+		report.p99JitterUs = percentile(jitter, 99);
+		report.maxJitterUs = jitter[m - 1];
+		return report;
+	}
+
+	private static long percentile(final long[] sorted, final double percentile) {
+		final int index = (int)Math.ceil(sorted.length * percentile / 100) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	/**
+	 * @return presentation timestamps of the first video track in decoding order
+	 */
+	private static long[] readVideoPTSUs(final RandomAccessFile in) throws IOException {
+		final long[] moov = findBox(in, 0, in.length(), "moov");
+		if (moov == null)
+			throw new IOException("no moov box");
+		for (long pos = moov[0]; pos < moov[1]; ) {
+			final long[] trak = readBoxHeader(in, pos, moov[1]);
+			if (trak == null) break;
+			if (trak[2] == type("trak")) {
+				final long[] pts = readTrackPTSUs(in, trak[0], trak[1]);
+				if (pts != null) return pts;
+			}
+			pos = trak[1];
+		}
+		throw new IOException("no video track");
+	}
+
+	/**
+	 * @return null if the track is not a video track
+	 */
+	private static long[] readTrackPTSUs(final RandomAccessFile in, final long start, final long end) throws IOException {
+		final long[] mdia = findBox(in, start, end, "mdia");
+		if (mdia == null) return null;
+		final long[] hdlr = findBox(in, mdia[0], mdia[1], "hdlr");
+		if (hdlr == null) return null;
+		in.seek(hdlr[0] + 8);	// version, flags and pre_defined
+		if (in.readInt() != type("vide")) return null;
+		final long[] mdhd = findBox(in, mdia[0], mdia[1], "mdhd");
+		final long[] minf = findBox(in, mdia[0], mdia[1], "minf");
+		final long[] stbl = minf != null ? findBox(in, minf[0], minf[1], "stbl") : null;
+		final long[] stts = stbl != null ? findBox(in, stbl[0], stbl[1], "stts") : null;
+		if ((mdhd == null) || (stts == null))
+			throw new IOException("broken video track");
+		in.seek(mdhd[0]);
+		final int version = in.readInt() >>> 24;
+		in.skipBytes(version == 1 ? 16 : 8);	// creation and modification time
+		final long timescale = in.readInt() & 0xffffffffL;
+		if (timescale == 0)
+			throw new IOException("invalid timescale");
+		// decoding time from the durations of samples
+		in.seek(stts[0] + 4);
+		final int entries = in.readInt();
+		final IntBuffer sttsTable = readTable(in, entries, stts[1]);
+		final long[] counts = new long[entries];
+		final long[] deltas = new long[entries];
+		long samples = 0;
+		for (int i = 0; i < entries; i++) {
+			counts[i] = sttsTable.get() & 0xffffffffL;
+			deltas[i] = sttsTable.get() & 0xffffffffL;
+			samples += counts[i];
+		}
+		if (samples > Integer.MAX_VALUE)
+			throw new IOException("too many samples");
+		final long[] pts = new long[(int)samples];
+		long dts = 0;
+		for (int i = 0, ix = 0; i < entries; i++) {
+			for (long j = 0; j < counts[i]; j++) {
+				pts[ix++] = dts;
+				dts += deltas[i];
+			}
+		}
+		// composition offsets when frames are reordered(B frames)
+		final long[] ctts = findBox(in, stbl[0], stbl[1], "ctts");
+		if (ctts != null) {
+			in.seek(ctts[0] + 4);
+			final int n = in.readInt();
+			final IntBuffer cttsTable = readTable(in, n, ctts[1]);
+			for (int i = 0, ix = 0; (i < n) && (ix < pts.length); i++) {
+				final long count = cttsTable.get() & 0xffffffffL;
+				final int offset = cttsTable.get();	// signed in version 1, small enough for version 0
+				for (long j = 0; (j < count) && (ix < pts.length); j++) {
+					pts[ix++] += offset;
+				}
+			}
+		}
+		for (int i = 0; i < pts.length; i++) {
+			pts[i] = pts[i] * 1000000L / timescale;
+		}
+		return pts;
+	}
+
+	/**
+	 * read a table of 2 x 32 bit entries(stts, ctts) at the current position with one read
+	 * instead of reading each value from the file
+	 * @param end end of the box that contains the table
+	 */
+	private static IntBuffer readTable(final RandomAccessFile in, final int entries, final long end) throws IOException {
+		if ((entries < 0) || (in.getFilePointer() + entries * 8L > end))
+			throw new IOException("broken sample table");
+		final byte[] table = new byte[entries * 8];
+		in.readFully(table);
+		return ByteBuffer.wrap(table).asIntBuffer();	// big endian as MP4
+	}
+
+	/**
+	 * @return {payload start, box end} of the first child box of the type, null if not found
+	 */
+	private static long[] findBox(final RandomAccessFile in, final long start, final long end, final String type)
+		throws IOException {
+
+		final int t = type(type);
+		for (long pos = start; pos < end; ) {
+			final long[] box = readBoxHeader(in, pos, end);
+			if (box == null) return null;
+			if (box[2] == t) return box;
+			pos = box[1];
+		}
+		return null;
+	}
+
+	/**
+	 * @return {payload start, box end, type}, null if the box is broken
+	 */
+	private static long[] readBoxHeader(final RandomAccessFile in, final long pos, final long end) throws IOException {
+		if (pos + 8 > end) return null;
+		in.seek(pos);
+		long size = in.readInt() & 0xffffffffL;
+		final int type = in.readInt();
+		long payload = pos + 8;
+		if (size == 1) {
+			size = in.readLong();
+			payload += 8;
+		} else if (size == 0) {
+			size = end - pos;	// extends to the end
+		}
+		if ((size < payload - pos) || (pos + size > end)) return null;
+		return new long[] { payload, pos + size, type };
+	}
+
+	private static int type(final String type) {
+		return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+	}
+
+	public static void main(final String[] args) {
+		if (args.length == 0) {
+			System.err.println("usage: PtsJitterAnalyzer movie.mp4...");
+			System.exit(1);
+		}
+		int errors = 0;
+		for (final String path: args) {
+			try {
+				System.out.println(path + ": " + analyze(new File(path)));
+			} catch (final IOException e) {
+				System.err.println(path + ": " + e.getMessage());
+				errors++;
+			}
+		}
+		System.exit(errors > 0 ? 2 : 0);
+	}
+}
@@ -0,0 +1,69 @@
+package com.yi.pipeline;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * One frame flowing through Pipeline. Instances are owned by FramePool and reused,
+ * so stages should not keep the reference after returning from FrameStage#process.
+ */
+public final class Frame {
+	// same values as UVCCamera.PIXEL_FORMAT_XXX so that frames from the frame callback can be passed as is
+	public static final int FORMAT_RAW = 0;
+	public static final int FORMAT_YUYV = 1;
+	public static final int FORMAT_RGB565 = 2;
+	public static final int FORMAT_RGBX = 3;
+	public static final int FORMAT_YUV420SP = 4;
+	public static final int FORMAT_NV21 = 5;
+	/** 8 bit luminance only, this is not supported by UVCCamera */
+	public static final int FORMAT_GRAY = 100;
+
+	/** frame data from position 0 to limit */
+	public ByteBuffer data;
+	public int width;
+	public int height;
+	/** one of FORMAT_XXX */
+	public int format;
+	/** sequence number given by Pipeline#submit */
+	public long sequence;
+	/** capture time of the frame, same time base as System#nanoTime */
+	public long timestampNs;
+	/** time when the frame entered the pipeline */
+	long submitNs;
+
+	Frame() {
+	}
+
+	/**
+	 * make sure #data has at least specific capacity, the contents are not kept when reallocated
+	 * @param bytes
+	 * @return #data, cleared and its limit is set to bytes
+	 */
+	public ByteBuffer ensureCapacity(final int bytes) {
+		if ((data == null) || (data.capacity() < bytes)) {
+			data = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+		data.clear();
+		data.limit(bytes);
+		return data;
+	}
+
+	/**
+	 * copy metadata from other frame, data is not copied
+	 */
+	public Frame setMetadata(final Frame other) {
+		width = other.width;
+		height = other.height;
+		format = other.format;
+		sequence = other.sequence;
+		timestampNs = other.timestampNs;
+		submitNs = other.submitNs;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "Frame{seq=" + sequence + ",size=" + width + "x" + height + ",format=" + format
+			+ ",bytes=" + (data != null ? data.limit() : 0) + "}";
+	}
+}
@@ -0,0 +1,25 @@
+package com.yi.pipeline;
+
+import com.serenegiant.usb.FrameDescriptor;
+import com.serenegiant.usb.IFrameDescriptorCallback;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source adapter that submits frames from UVCCamera#setFrameDescriptorCallback or
+ * com.yi.replay.ReplayFrameSource to Pipeline. The frame callback classes of libuvccamera
+ * do not depend on Android, so this works on a desktop JVM too.
+ */
+public class FrameCallbackAdapter implements IFrameDescriptorCallback {
+	private final Pipeline mPipeline;
+
+	public FrameCallbackAdapter(final Pipeline pipeline) {
+		mPipeline = pipeline;
+	}
+
+	@Override
+	public void onFrame(final ByteBuffer frame, final FrameDescriptor descriptor) {
+		mPipeline.submit(frame, descriptor.width, descriptor.height,
+			descriptor.pixelFormat, descriptor.timestampNs);
+	}
+}
@@ -0,0 +1,74 @@
+package com.yi.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of Frame. Frames are allocated lazily until the pool is filled up and
+ * #obtain returns null instead of blocking when all frames are in use,
+ * so the number of frames in the pipeline never exceeds the capacity.
+ * This class is thread safe.
+ */
+public final class FramePool {
+	private final BlockingQueue<Frame> mFree;
+	private final int mCapacity;
+	private final AtomicInteger mAllocated = new AtomicInteger();
+	private final AtomicLong mMissed = new AtomicLong();
+
+	public FramePool(final int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("invalid capacity:" + capacity);
+		mCapacity = capacity;
+		mFree = new ArrayBlockingQueue<Frame>(capacity);
+	}
+
+	public int capacity() {
+		return mCapacity;
+	}
+
+	/**
+	 * @return null if all frames are in use
+	 */
+	public Frame obtain() {
+		Frame frame = mFree.poll();
+		if (frame == null) {
+			for ( ; ; ) {
+				final int n = mAllocated.get();
+				if (n >= mCapacity) break;
+				if (mAllocated.compareAndSet(n, n + 1)) {
+					frame = new Frame();
+					break;
+				}
+			}
+		}
+		if (frame == null) {
+			mMissed.incrementAndGet();
+		}
+		return frame;
+	}
+
+	/**
+	 * number of times #obtain returned null, i.e. frames dropped because of the pool size
+	 */
+	public long getMissedCount() {
+		return mMissed.get();
+	}
+
+	/**
+	 * return the frame that was obtained by #obtain
+	 */
+	public void recycle(final Frame frame) {
+		if (frame != null) {
+			mFree.offer(frame);
+		}
+	}
+
+	/**
+	 * number of frames that are obtained and not recycled yet
+	 */
+	public int inUse() {
+		return mAllocated.get() - mFree.size();
+	}
+}
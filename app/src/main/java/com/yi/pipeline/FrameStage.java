@@ -0,0 +1,17 @@
+package com.yi.pipeline;
+
+/**
+ * One step of Pipeline, e.g. format conversion, image processing or a sink.
+ * A stage is called from the thread(s) of its ThreadPolicy,
+ * it should be thread safe if ThreadPolicy#pool is used.
+ */
+public interface FrameStage {
+	/**
+	 * @param frame input frame
+	 * @param pool pool to obtain an output frame when the result can not be written in place
+	 * @return frame for next stage, the input frame itself, a frame obtained from the pool,
+	 * 		or null to stop processing this frame. the input frame is recycled by Pipeline
+	 * 		when a different frame is returned. the return value of the last stage is recycled.
+	 */
+	public Frame process(Frame frame, FramePool pool);
+}
@@ -0,0 +1,38 @@
+package com.yi.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Convert YUYV/NV21/YUV420SP frames into FORMAT_GRAY frames by extracting luminance.
+ * The conversion is done in place, so this stage does not use frames from the pool.
+ * Frames of other formats are dropped.
+ */
+public class GrayConvertStage implements FrameStage {
+	@Override
+	public Frame process(final Frame frame, final FramePool pool) {
+		final int n = frame.width * frame.height;
+		switch (frame.format) {
+		case Frame.FORMAT_GRAY:
+			return frame;
+		case Frame.FORMAT_NV21:
+		case Frame.FORMAT_YUV420SP:
+			if (frame.data.limit() < n) return null;
+			// luminance plane comes first, just cut off the chroma
+			frame.data.limit(n);
+			frame.format = Frame.FORMAT_GRAY;
+			return frame;
+		case Frame.FORMAT_YUYV:
+		{
+			if (frame.data.limit() < n * 2) return null;
+			// compact Y of each pixel to the front in place
+			final ByteBuffer buf = frame.data;
+			PixelConverter.yuyvToGray(buf, buf, n);
+			buf.limit(n);
+			frame.format = Frame.FORMAT_GRAY;
+			return frame;
+		}
+		default:
+			return null;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.yi.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Geometric transforms and normalization of 8 bit gray images on ByteBuffer.
+ * Images are tightly packed (stride == width) from index 0, position and limit
+ * of the buffers are not changed and nothing is allocated.
+ * These do in software what the preview does with View#setRotationX/Y,
+ * so that frames for processing/saving have the same orientation as the preview.
+ */
+public final class ImageOps {
+	private ImageOps() {
+	}
+
+	/**
+	 * flip in place, flipping both directions is rotation by 180 degrees
+	 */
+	public static void flip(final ByteBuffer image, final int width, final int height,
+		final boolean horizontal, final boolean vertical) {
+
+		if (vertical) {
+			final int half = height / 2;
+			for (int y = 0; y < half; y++) {
+				int top = y * width, bottom = (height - 1 - y) * width;
+				if (horizontal) {
+					bottom += width - 1;
+					for (int x = 0; x < width; x++, top++, bottom--) {
+						swap(image, top, bottom);
+					}
+				} else {
+					for (int x = 0; x < width; x++, top++, bottom++) {
+						swap(image, top, bottom);
+					}
+				}
+			}
+			if (horizontal && ((height & 1) != 0)) {
+				mirrorRow(image, half * width, width);
+			}
+		} else if (horizontal) {
+			for (int y = 0; y < height; y++) {
+				mirrorRow(image, y * width, width);
+			}
+		}
+	}
+
+	/**
+	 * rotate by 90 degrees
+	 * @param src width x height
+	 * @param dst height x width, should not be src
+	 * @param clockwise
+	 */
+	public static void rotate90(final ByteBuffer src, final ByteBuffer dst, final int width, final int height,
+		final boolean clockwise) {
+
+		for (int y = 0; y < height; y++) {
+			final int row = y * width;
+			// source row y becomes destination column (height - 1 - y) for clockwise, y otherwise
+			if (clockwise) {
+				final int col = height - 1 - y;
+				for (int x = 0; x < width; x++) {
+					dst.put(x * height + col, src.get(row + x));
+				}
+			} else {
+				for (int x = 0; x < width; x++) {
+					dst.put((width - 1 - x) * height + y, src.get(row + x));
+				}
+			}
+		}
+	}
+
+	/**
+	 * stretch the intensity range to 0-255 in place, uniform images are not changed
+	 * @param image gray
+	 * @param pixels width * height
+	 */
+	public static void normalize(final ByteBuffer image, final int pixels) {
+		int min = 255, max = 0;
+		for (int i = 0; i < pixels; i++) {
+			final int v = image.get(i) & 0xff;
+			if (v < min) min = v;
+			if (v > max) max = v;
+		}
+		if ((max <= min) || ((min == 0) && (max == 255))) return;
+		// 16.16 fixed point scale to avoid a division per pixel, rounded up so that max maps to 255
+		final int range = max - min;
+		final int scale = ((255 << 16) + range - 1) / range;
+		for (int i = 0; i < pixels; i++) {
+			image.put(i, (byte)((((image.get(i) & 0xff) - min) * scale) >> 16));
+		}
+	}
+
+	private static void mirrorRow(final ByteBuffer image, final int row, final int width) {
+		for (int l = row, r = row + width - 1; l < r; l++, r--) {
+			swap(image, l, r);
+		}
+	}
+
+	private static void swap(final ByteBuffer image, final int a, final int b) {
+		final byte t = image.get(a);
+		image.put(a, image.get(b));
+		image.put(b, t);
+	}
+}
@@ -0,0 +1,238 @@
+package com.yi.pipeline;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame pipeline that runs source -> convert -> process -> sink stages without Android classes,
+ * so the processing and scheduling can be measured on a desktop JVM.
+ * A source (the frame callback of UVCCamera, ReplayFrameSource etc.) passes frames by #submit,
+ * the frame is copied into a pooled Frame and handed to the stages in the order they were added.
+ * Each stage runs with its ThreadPolicy. Frames are dropped and counted instead of blocking
+ * when the pool is exhausted or the queue of a stage is full, so a slow stage never blocks the source.
+ * Worker threads take frames from ArrayBlockingQueue, therefore passing frames does not allocate.
+ */
+public class Pipeline {
+	private static final String TAG = "Pipeline";
+
+	private final FramePool mPool;
+	private final List<StageRunner> mStages = new ArrayList<StageRunner>();
+	private final AtomicLong mSubmitDropped = new AtomicLong();
+	private long mSequence;
+	private volatile boolean mIsRunning;
+
+	/**
+	 * @param poolSize max number of frames in the pipeline at the same time
+	 */
+	public Pipeline(final int poolSize) {
+		mPool = new FramePool(poolSize);
+	}
+
+	public FramePool getPool() {
+		return mPool;
+	}
+
+	/**
+	 * add a stage, stages should be added before #start
+	 * @param name name for statistics and worker threads
+	 * @param stage
+	 * @param policy
+	 */
+	public synchronized Pipeline addStage(final String name, final FrameStage stage, final ThreadPolicy policy) {
+		if (mIsRunning)
+			throw new IllegalStateException("already started");
+		final StageRunner runner = new StageRunner(name, stage, policy);
+		if (!mStages.isEmpty()) {
+			mStages.get(mStages.size() - 1).mNext = runner;
+		}
+		mStages.add(runner);
+		return this;
+	}
+
+	public synchronized void start() {
+		if (mIsRunning) return;
+		if (mStages.isEmpty())
+			throw new IllegalStateException("no stage");
+		mIsRunning = true;
+		for (final StageRunner runner: mStages) {
+			runner.start();
+		}
+	}
+
+	/**
+	 * stop worker threads, frames waiting in the queues are discarded
+	 */
+	public synchronized void stop() {
+		if (!mIsRunning) return;
+		mIsRunning = false;
+		for (final StageRunner runner: mStages) {
+			runner.stop();
+		}
+	}
+
+	public boolean isRunning() {
+		return mIsRunning;
+	}
+
+	/**
+	 * copy the frame into the pipeline, this should be called from one source thread at a time
+	 * @param data frame data from position to limit, position is not changed
+	 * @param width
+	 * @param height
+	 * @param format one of Frame.FORMAT_XXX
+	 * @param timestampNs capture time, same time base as System#nanoTime
+	 * @return false if the frame was dropped
+	 */
+	public boolean submit(final ByteBuffer data, final int width, final int height,
+		final int format, final long timestampNs) {
+
+		if (!mIsRunning) return false;
+		final Frame frame = mPool.obtain();
+		if (frame == null) {
+			mSubmitDropped.incrementAndGet();
+			return false;
+		}
+		final int pos = data.position();
+		frame.ensureCapacity(data.remaining()).put(data);
+		frame.data.flip();
+		data.position(pos);
+		frame.width = width;
+		frame.height = height;
+		frame.format = format;
+		frame.sequence = mSequence++;
+		frame.timestampNs = timestampNs;
+		frame.submitNs = System.nanoTime();
+		return mStages.get(0).accept(frame);
+	}
+
+	/**
+	 * number of frames dropped at #submit because all frames of the pool were in use
+	 */
+	public long getSubmitDropped() {
+		return mSubmitDropped.get();
+	}
+
+	/**
+	 * @return snapshot of counters of each stage in order
+	 */
+	public synchronized List<StageStats> getStats() {
+		final List<StageStats> result = new ArrayList<StageStats>(mStages.size());
+		for (final StageRunner runner: mStages) {
+			result.add(runner.getStats());
+		}
+		return result;
+	}
+
+	private final class StageRunner {
+		private final String mName;
+		private final FrameStage mStage;
+		private final ThreadPolicy mPolicy;
+		private final BlockingQueue<Frame> mQueue;
+		private final Thread[] mWorkers;
+		private final AtomicLong mProcessed = new AtomicLong();
+		private final AtomicLong mDropped = new AtomicLong();
+		private final AtomicLong mBusyNs = new AtomicLong();
+		private final AtomicLong mErrors = new AtomicLong();
+		private StageRunner mNext;
+
+		private StageRunner(final String name, final FrameStage stage, final ThreadPolicy policy) {
+			mName = name;
+			mStage = stage;
+			mPolicy = policy;
+			if (policy.type == ThreadPolicy.TYPE_INLINE) {
+				mQueue = null;
+				mWorkers = null;
+			} else {
+				mQueue = new ArrayBlockingQueue<Frame>(policy.queueDepth);
+				mWorkers = new Thread[policy.threads];
+			}
+		}
+
+		private void start() {
+			if (mWorkers == null) return;
+			for (int i = 0; i < mWorkers.length; i++) {
+				mWorkers[i] = new Thread(mWorkerTask, TAG + "-" + mName + (mWorkers.length > 1 ? "-" + i : ""));
+				mWorkers[i].start();
+			}
+		}
+
+		private void stop() {
+			if (mWorkers == null) return;
+			for (final Thread worker: mWorkers) {
+				worker.interrupt();
+			}
+			for (final Thread worker: mWorkers) {
+				try {
+					worker.join();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			for (Frame frame = mQueue.poll(); frame != null; frame = mQueue.poll()) {
+				mPool.recycle(frame);
+			}
+		}
+
+		/**
+		 * @return false if the frame was dropped
+		 */
+		private boolean accept(final Frame frame) {
+			if (mQueue == null) {
+				run(frame);
+				return true;
+			}
+			if (!mIsRunning || !mQueue.offer(frame)) {
+				mDropped.incrementAndGet();
+				mPool.recycle(frame);
+				return false;
+			}
+			return true;
+		}
+
+		private void run(final Frame frame) {
+			final long start = System.nanoTime();
+			Frame out = null;
+			try {
+				out = mStage.process(frame, mPool);
+			} catch (final RuntimeException e) {
+				// one broken frame should not stop the worker thread
+				mErrors.incrementAndGet();
+			} finally {
+				mBusyNs.addAndGet(System.nanoTime() - start);
+				mProcessed.incrementAndGet();
+				if (out != frame) {
+					mPool.recycle(frame);
+				}
+			}
+			if (out != null) {
+				if (mNext != null) {
+					mNext.accept(out);
+				} else {
+					mPool.recycle(out);
+				}
+			}
+		}
+
+		private StageStats getStats() {
+			return new StageStats(mName, mPolicy.toString(), mProcessed.get(), mDropped.get(),
+				mErrors.get(), mBusyNs.get(), mQueue != null ? mQueue.size() : 0);
+		}
+
+		private final Runnable mWorkerTask = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (mIsRunning) {
+						StageRunner.this.run(mQueue.take());
+					}
+				} catch (final InterruptedException e) {
+					// stopped
+				}
+			}
+		};
+	}
+}
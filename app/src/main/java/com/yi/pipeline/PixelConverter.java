@@ -0,0 +1,83 @@
+package com.yi.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pixel format conversions from YUYV(YUY2), the format UVCCamera delivers frames in.
+ * All methods use absolute get/put, so position and limit of the buffers are not changed
+ * and nothing is allocated. Color conversion is BT.601 limited range in fixed point.
+ */
+public final class PixelConverter {
+	private PixelConverter() {
+	}
+
+	/**
+	 * extract luminance, src and dst can be the same buffer
+	 * @param src YUYV, pixels * 2 bytes
+	 * @param dst gray, pixels bytes
+	 * @param pixels width * height
+	 */
+	public static void yuyvToGray(final ByteBuffer src, final ByteBuffer dst, final int pixels) {
+		// the read index is always ahead of the write index when converting in place
+		for (int i = 0; i < pixels; i++) {
+			dst.put(i, src.get(i * 2));
+		}
+	}
+
+	/**
+	 * @param src YUYV, width * height * 2 bytes
+	 * @param dst RGBX, width * height * 4 bytes
+	 * @param width should be even
+	 * @param height
+	 */
+	public static void yuyvToRgbx(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		final int n = width * height / 2;
+		for (int i = 0, s = 0, d = 0; i < n; i++, s += 4, d += 8) {
+			final int y0 = (src.get(s) & 0xff) - 16;
+			final int u = (src.get(s + 1) & 0xff) - 128;
+			final int y1 = (src.get(s + 2) & 0xff) - 16;
+			final int v = (src.get(s + 3) & 0xff) - 128;
+			final int r = 409 * v + 128;
+			final int g = -100 * u - 208 * v + 128;
+			final int b = 516 * u + 128;
+			final int c0 = 298 * y0, c1 = 298 * y1;
+			dst.put(d, clamp((c0 + r) >> 8));
+			dst.put(d + 1, clamp((c0 + g) >> 8));
+			dst.put(d + 2, clamp((c0 + b) >> 8));
+			dst.put(d + 3, (byte)0xff);
+			dst.put(d + 4, clamp((c1 + r) >> 8));
+			dst.put(d + 5, clamp((c1 + g) >> 8));
+			dst.put(d + 6, clamp((c1 + b) >> 8));
+			dst.put(d + 7, (byte)0xff);
+		}
+	}
+
+	/**
+	 * chroma of each 2x2 block is taken from its upper row
+	 * @param src YUYV, width * height * 2 bytes
+	 * @param dst NV21, width * height * 3 / 2 bytes
+	 * @param width should be even
+	 * @param height should be even
+	 */
+	public static void yuyvToNv21(final ByteBuffer src, final ByteBuffer dst, final int width, final int height) {
+		final int stride = width * 2;
+		int vu = width * height;
+		for (int y = 0; y < height; y++) {
+			final int row = y * stride;
+			final int out = y * width;
+			for (int x = 0; x < width; x++) {
+				dst.put(out + x, src.get(row + x * 2));
+			}
+			if ((y & 1) == 0) {
+				for (int x = 0; x < stride; x += 4) {
+					dst.put(vu++, src.get(row + x + 3));
+					dst.put(vu++, src.get(row + x + 1));
+				}
+			}
+		}
+	}
+
+	private static byte clamp(final int v) {
+		return (byte)(v < 0 ? 0 : (v > 255 ? 255 : v));
+	}
+}
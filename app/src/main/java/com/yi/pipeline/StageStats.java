@@ -0,0 +1,44 @@
+package com.yi.pipeline;
+
+/**
+ * snapshot of counters of one stage
+ */
+public final class StageStats {
+	public final String name;
+	public final String policy;
+	/** number of frames processed by the stage */
+	public final long processed;
+	/** number of frames dropped because the queue of the stage was full */
+	public final long dropped;
+	/** number of frames that FrameStage#process threw RuntimeException */
+	public final long errors;
+	/** total time spent in FrameStage#process */
+	public final long busyNs;
+	/** number of frames waiting in the queue */
+	public final int queued;
+
+	StageStats(final String name, final String policy, final long processed,
+		final long dropped, final long errors, final long busyNs, final int queued) {
+
+		this.name = name;
+		this.policy = policy;
+		this.processed = processed;
+		this.dropped = dropped;
+		this.errors = errors;
+		this.busyNs = busyNs;
+		this.queued = queued;
+	}
+
+	/**
+	 * @return average time per frame in nanoseconds
+	 */
+	public long getAverageNs() {
+		return processed > 0 ? busyNs / processed : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "StageStats{" + name + "," + policy + ",processed=" + processed + ",dropped=" + dropped
+			+ ",errors=" + errors + ",avg=" + getAverageNs() / 1000 + "us,queued=" + queued + "}";
+	}
+}
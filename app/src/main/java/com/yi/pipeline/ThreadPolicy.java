@@ -0,0 +1,56 @@
+package com.yi.pipeline;
+
+/**
+ * How a stage of Pipeline is scheduled.
+ */
+public final class ThreadPolicy {
+	static final int TYPE_INLINE = 0;
+	static final int TYPE_DEDICATED = 1;
+	static final int TYPE_POOL = 2;
+
+	final int type;
+	final int threads;
+	final int queueDepth;
+
+	private ThreadPolicy(final int type, final int threads, final int queueDepth) {
+		this.type = type;
+		this.threads = threads;
+		this.queueDepth = queueDepth;
+	}
+
+	/**
+	 * run the stage on the thread of the previous stage (or the thread that calls Pipeline#submit),
+	 * no hand off cost but the previous stage waits for this stage
+	 */
+	public static ThreadPolicy inline() {
+		return new ThreadPolicy(TYPE_INLINE, 0, 0);
+	}
+
+	/**
+	 * run the stage on its own thread, frames are processed in order
+	 * @param queueDepth max number of frames waiting for the stage, new frames are dropped when full
+	 */
+	public static ThreadPolicy dedicated(final int queueDepth) {
+		return pool(1, queueDepth);
+	}
+
+	/**
+	 * run the stage on multiple threads, frames may be passed to next stage out of order
+	 * @param threads
+	 * @param queueDepth max number of frames waiting for the stage, new frames are dropped when full
+	 */
+	public static ThreadPolicy pool(final int threads, final int queueDepth) {
+		if ((threads < 1) || (queueDepth < 1))
+			throw new IllegalArgumentException("invalid threads/queueDepth:" + threads + "/" + queueDepth);
+		return new ThreadPolicy(threads == 1 ? TYPE_DEDICATED : TYPE_POOL, threads, queueDepth);
+	}
+
+	@Override
+	public String toString() {
+		switch (type) {
+		case TYPE_INLINE:	return "inline";
+		case TYPE_DEDICATED:	return "dedicated(" + queueDepth + ")";
+		default:	return "pool(" + threads + "," + queueDepth + ")";
+		}
+	}
+}
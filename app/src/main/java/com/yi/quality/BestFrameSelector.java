@@ -0,0 +1,96 @@
+package com.yi.quality;
+
+/**
+ * Keep last N grayscale frames and find the frame that has the highest score among them.
+ * Frames are copied into a ring of pre-allocated buffers and the best frame is tracked
+ * with a monotonic queue, so #offer does not allocate and costs O(1) amortized besides copying.
+ * This class does not depend on Android and is not thread safe.
+ */
+public class BestFrameSelector {
+	private final int mWindow;
+	private final int mFrameBytes;
+	private final byte[][] mFrames;
+	private final QualityScore[] mScores;
+	private final long[] mSequences;
+	// indices of frames in descending order of score, head is the best in the window
+	private final int[] mQueue;
+	private int mHead, mCount;
+	private long mSequence;
+
+	/**
+	 * @param window number of recent frames to select from
+	 * @param frameBytes bytes of one frame
+	 */
+	public BestFrameSelector(final int window, final int frameBytes) {
+		if ((window < 1) || (frameBytes < 1))
+			throw new IllegalArgumentException("invalid window/frameBytes:" + window + "/" + frameBytes);
+		mWindow = window;
+		mFrameBytes = frameBytes;
+		mFrames = new byte[window][frameBytes];
+		mScores = new QualityScore[window];
+		for (int i = 0; i < window; i++) {
+			mScores[i] = new QualityScore();
+		}
+		mSequences = new long[window];
+		mQueue = new int[window];
+	}
+
+	public int getWindow() {
+		return mWindow;
+	}
+
+	public int getFrameBytes() {
+		return mFrameBytes;
+	}
+
+	/**
+	 * add new frame, the oldest frame is dropped when the window is full
+	 * @param frame
+	 * @param offset
+	 * @param score the value is copied
+	 */
+	public void offer(final byte[] frame, final int offset, final QualityScore score) {
+		final long seq = mSequence++;
+		final int slot = (int)(seq % mWindow);
+		// drop the frame that goes out of the window, it is always the oldest one and its slot is reused
+		if ((mCount > 0) && (mSequences[mQueue[mHead]] <= seq - mWindow)) {
+			mHead = (mHead + 1) % mWindow;
+			mCount--;
+		}
+		System.arraycopy(frame, offset, mFrames[slot], 0, mFrameBytes);
+		mScores[slot].set(score);
+		mSequences[slot] = seq;
+		// drop frames that can never be the best because the new frame is better and newer
+		while ((mCount > 0) && (mScores[mQueue[(mHead + mCount - 1) % mWindow]].total <= score.total)) {
+			mCount--;
+		}
+		mQueue[(mHead + mCount) % mWindow] = slot;
+		mCount++;
+	}
+
+	public boolean isEmpty() {
+		return mCount == 0;
+	}
+
+	/**
+	 * @return score of the best frame, null if no frame was offered
+	 */
+	public QualityScore getBestScore() {
+		return mCount > 0 ? mScores[mQueue[mHead]] : null;
+	}
+
+	/**
+	 * copy the best frame
+	 * @param out should have at least getFrameBytes() bytes
+	 * @return false if no frame was offered
+	 */
+	public boolean getBestFrame(final byte[] out) {
+		if (mCount == 0) return false;
+		System.arraycopy(mFrames[mQueue[mHead]], 0, out, 0, mFrameBytes);
+		return true;
+	}
+
+	public void clear() {
+		mHead = mCount = 0;
+	}
+}
@@ -0,0 +1,152 @@
+package com.yi.quality;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Score quality of grayscale fingerprint frames.
+ * The image is divided into BLOCK_SIZE x BLOCK_SIZE blocks and following values are evaluated
+ * on blocks that have enough variance(foreground):
+ * local ridge contrast, orientation coherence of gradients, foreground coverage and focus(gradient energy).
+ * All working buffers are allocated in the constructor, so #score does not allocate any object.
+ * This class does not depend on Android and is not thread safe.
+ */
+public class FrameQualityScorer {
+	public static final int BLOCK_SIZE = 16;
+
+	// blocks whose standard deviation is lower than this are treated as background
+	private static final float FOREGROUND_STDDEV = 10.0f;
+	// standard deviation/gradient that is treated as 1.0
+	private static final float CONTRAST_SCALE = 64.0f;
+	private static final float FOCUS_SCALE = 48.0f;
+	// weights of each value for total score, coverage is multiplied separately
+	private static final float WEIGHT_CONTRAST = 0.3f;
+	private static final float WEIGHT_COHERENCE = 0.4f;
+	private static final float WEIGHT_FOCUS = 0.3f;
+
+	private final int mWidth, mHeight;
+	private final int mBlocksX, mBlocksY;
+	private final byte[] mLuma;
+	private final QualityScore mScore = new QualityScore();
+
+	/**
+	 * @param width frame width, should be equal or larger than BLOCK_SIZE
+	 * @param height frame height, should be equal or larger than BLOCK_SIZE
+	 */
+	public FrameQualityScorer(final int width, final int height) {
+		if ((width < BLOCK_SIZE) || (height < BLOCK_SIZE))
+			throw new IllegalArgumentException("frame is too small:" + width + "x" + height);
+		mWidth = width;
+		mHeight = height;
+		mBlocksX = width / BLOCK_SIZE;
+		mBlocksY = height / BLOCK_SIZE;
+		mLuma = new byte[width * height];
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * luminance of the last frame passed to #score(ByteBuffer, int), this array is overwritten by next call
+	 */
+	public byte[] getLuma() {
+		return mLuma;
+	}
+
+	/**
+	 * score the frame from IFrameCallback
+	 * @param frame pixels start from position of this buffer, position is not changed
+	 * @param pixelStride 1 for NV21/YUV420SP(Y plane comes first) and 2 for YUYV
+	 * @return this instance is reused for next frame
+	 */
+	public QualityScore score(final ByteBuffer frame, final int pixelStride) {
+		final int n = mWidth * mHeight;
+		final int pos = frame.position();
+		if (pixelStride == 1) {
+			frame.get(mLuma, 0, n);
+			frame.position(pos);
+		} else {
+			for (int i = 0, j = pos; i < n; i++, j += pixelStride) {
+				mLuma[i] = frame.get(j);
+			}
+		}
+		return score(mLuma, 0, mWidth);
+	}
+
+	/**
+	 * score 8 bit grayscale image that has same size as this instance
+	 * @param luma
+	 * @param offset
+	 * @param stride bytes per row
+	 * @return this instance is reused for next frame
+	 */
+	public QualityScore score(final byte[] luma, final int offset, final int stride) {
+		final int w = mWidth, h = mHeight;
+		int fgBlocks = 0;
+		double sumStdDev = 0, sumCoherence = 0, sumGradient = 0;
+		for (int by = 0; by < mBlocksY; by++) {
+			final int y0 = by * BLOCK_SIZE;
+			for (int bx = 0; bx < mBlocksX; bx++) {
+				final int x0 = bx * BLOCK_SIZE;
+				// mean and variance
+				long sum = 0, sum2 = 0;
+				for (int y = y0; y < y0 + BLOCK_SIZE; y++) {
+					int ix = offset + y * stride + x0;
+					for (int x = 0; x < BLOCK_SIZE; x++, ix++) {
+						final int v = luma[ix] & 0xff;
+						sum += v;
+						sum2 += v * v;
+					}
+				}
+				final int cnt = BLOCK_SIZE * BLOCK_SIZE;
+				final double mean = sum / (double)cnt;
+				final double var = sum2 / (double)cnt - mean * mean;
+				final double stddev = var > 0 ? Math.sqrt(var) : 0;
+				if (stddev < FOREGROUND_STDDEV) continue;
+				fgBlocks++;
+				sumStdDev += stddev;
+				// gradients by central difference, skip the border pixels of the image
+				long gxx = 0, gyy = 0, gxy = 0;
+				final int ys = Math.max(y0, 1), ye = Math.min(y0 + BLOCK_SIZE, h - 1);
+				final int xs = Math.max(x0, 1), xe = Math.min(x0 + BLOCK_SIZE, w - 1);
+				for (int y = ys; y < ye; y++) {
+					final int row = offset + y * stride;
+					for (int x = xs; x < xe; x++) {
+						final int ix = row + x;
+						final int gx = (luma[ix + 1] & 0xff) - (luma[ix - 1] & 0xff);
+						final int gy = (luma[ix + stride] & 0xff) - (luma[ix - stride] & 0xff);
+						gxx += gx * gx;
+						gyy += gy * gy;
+						gxy += gx * gy;
+					}
+				}
+				final long g = gxx + gyy;
+				if (g > 0) {
+					final double d = gxx - gyy;
+					sumCoherence += Math.sqrt(d * d + 4.0 * gxy * gxy) / g;
+					sumGradient += Math.sqrt(g / (double)((ye - ys) * (xe - xs)));
+				}
+			}
+		}
+		final QualityScore score = mScore;
+		if (fgBlocks == 0) {
+			score.clear();
+			return score;
+		}
+		score.coverage = fgBlocks / (float)(mBlocksX * mBlocksY);
+		score.contrast = clamp((float)(sumStdDev / fgBlocks) / CONTRAST_SCALE);
+		score.coherence = clamp((float)(sumCoherence / fgBlocks));
+		score.focus = clamp((float)(sumGradient / fgBlocks) / FOCUS_SCALE);
+		score.total = score.coverage * (WEIGHT_CONTRAST * score.contrast
+			+ WEIGHT_COHERENCE * score.coherence + WEIGHT_FOCUS * score.focus);
+		return score;
+	}
+
+	private static float clamp(final float v) {
+		return v < 0 ? 0 : (v > 1.0f ? 1.0f : v);
+	}
+}
@@ -0,0 +1,39 @@
+package com.yi.quality;
+
+import java.util.Locale;
+
+/**
+ * Quality of one fingerprint frame, all values are normalized to 0.0 - 1.0.
+ * FrameQualityScorer reuses one instance for every frame, so copy it with #set if you need to keep it.
+ */
+public class QualityScore {
+	/** weighted score of below values, this is 0 when no finger is on the sensor */
+	public float total;
+	/** mean local standard deviation of foreground blocks, i.e. ridge/valley contrast */
+	public float contrast;
+	/** mean orientation coherence of foreground blocks, 1 means parallel ridges */
+	public float coherence;
+	/** ratio of foreground blocks */
+	public float coverage;
+	/** gradient energy of foreground, low when the image is blurred */
+	public float focus;
+
+	public QualityScore set(final QualityScore other) {
+		total = other.total;
+		contrast = other.contrast;
+		coherence = other.coherence;
+		coverage = other.coverage;
+		focus = other.focus;
+		return this;
+	}
+
+	public void clear() {
+		total = contrast = coherence = coverage = focus = 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "QualityScore(total=%.3f,contrast=%.3f,coherence=%.3f,coverage=%.3f,focus=%.3f)",
+			total, contrast, coherence, coverage, focus);
+	}
+}
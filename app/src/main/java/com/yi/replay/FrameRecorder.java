@@ -0,0 +1,167 @@
+package com.yi.replay;
+
+import com.serenegiant.usb.FrameDescriptor;
+import com.serenegiant.usb.IFrameDescriptorCallback;
+import com.serenegiant.usb.SpscQueue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dump frames from the frame callback into a file so that they can be fed back by ReplayFrameSource.
+ * Frames are copied into pooled direct buffers on the capture thread and written on a writer thread,
+ * frames are dropped and counted instead of blocking the capture thread when the storage is slow.
+ *
+ * file format (little endian):
+ * header(HEADER_SIZE bytes): magic, version, width, height, pixel format(UVCCamera.PIXEL_FORMAT_XXX), reserved
+ * then records: timestamp in nanoseconds(long), number of bytes(int), frame data
+ * Frames whose size/format differ from the first frame are dropped.
+ */
+public class FrameRecorder implements IFrameDescriptorCallback {
+	static final int MAGIC = 0x46525046;	// "FPRF"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int RECORD_HEADER_SIZE = 12;
+
+	private final FileOutputStream mOutput;
+	private final FileChannel mChannel;
+	// producer: capture thread, consumer: writer thread
+	private final SpscQueue<ByteBuffer> mReadyQueue;
+	// producer: writer thread, consumer: capture thread
+	private final SpscQueue<ByteBuffer> mFreeQueue;
+	private final Thread mWriterThread;
+	private volatile boolean mIsRunning = true;
+	private volatile long mRecorded, mDropped;
+	private volatile IOException mError;
+	// format of the first frame, accessed only from capture thread until #release
+	private int mWidth, mHeight, mPixelFormat = -1, mBytes;
+	// number of allocated buffers, accessed only from capture thread
+	private int mAllocated;
+
+	/**
+	 * @param file output file, overwritten if exists
+	 * @param queueDepth max number of frames waiting for writing
+	 * @throws IOException
+	 */
+	public FrameRecorder(final File file, final int queueDepth) throws IOException {
+		mOutput = new FileOutputStream(file);
+		mChannel = mOutput.getChannel();
+		// reserve the header, it is written when the first frame arrives
+		mChannel.position(HEADER_SIZE);
+		mReadyQueue = new SpscQueue<ByteBuffer>(queueDepth);
+		mFreeQueue = new SpscQueue<ByteBuffer>(queueDepth + 1);
+		mWriterThread = new Thread(mWriterTask, "FrameRecorder");
+		mWriterThread.start();
+	}
+
+	/**
+	 * called from native capture thread
+	 */
+	@Override
+	public void onFrame(final ByteBuffer frame, final FrameDescriptor descriptor) {
+		if (!mIsRunning) return;
+		final int bytes = frame.remaining();
+		if (mPixelFormat < 0) {
+			mWidth = descriptor.width;
+			mHeight = descriptor.height;
+			mPixelFormat = descriptor.pixelFormat;
+			mBytes = bytes;
+		} else if ((descriptor.width != mWidth) || (descriptor.height != mHeight)
+			|| (descriptor.pixelFormat != mPixelFormat) || (bytes != mBytes)) {
+			mDropped++;
+			return;
+		}
+		ByteBuffer buf = mFreeQueue.poll();
+		if ((buf == null) && (mAllocated < mFreeQueue.capacity())) {
+			// buffers are allocated lazily until the pool is filled up
+			buf = ByteBuffer.allocateDirect(RECORD_HEADER_SIZE + bytes).order(ByteOrder.LITTLE_ENDIAN);
+			mAllocated++;
+		}
+		if (buf == null) {
+			mDropped++;
+			return;
+		}
+		buf.clear();
+		buf.putLong(descriptor.timestampNs);
+		buf.putInt(bytes);
+		buf.put(frame);
+		buf.flip();
+		if (mReadyQueue.offer(buf)) {
+			LockSupport.unpark(mWriterThread);
+		} else {
+			mFreeQueue.offer(buf);
+			mDropped++;
+		}
+	}
+
+	/**
+	 * number of frames written into the file
+	 */
+	public long getRecordedFrames() {
+		return mRecorded;
+	}
+
+	/**
+	 * number of frames dropped because the writer could not keep up or the format changed
+	 */
+	public long getDroppedFrames() {
+		return mDropped;
+	}
+
+	/**
+	 * write pending frames and the header then close the file,
+	 * the frame callback should be removed before calling this
+	 * @throws IOException the error while writing frames if any
+	 */
+	public void release() throws IOException {
+		mIsRunning = false;
+		LockSupport.unpark(mWriterThread);
+		try {
+			mWriterThread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if ((mError == null) && (mPixelFormat >= 0)) {
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(MAGIC).putInt(VERSION).putInt(mWidth).putInt(mHeight).putInt(mPixelFormat);
+				header.clear();
+				mChannel.write(header, 0);
+			}
+		} finally {
+			mOutput.close();
+		}
+		if (mError != null) throw mError;
+	}
+
+	private final Runnable mWriterTask = new Runnable() {
+		@Override
+		public void run() {
+			for ( ; ; ) {
+				final ByteBuffer buf = mReadyQueue.poll();
+				if (buf == null) {
+					if (!mIsRunning) break;
+					LockSupport.park(this);
+					continue;
+				}
+				try {
+					if (mError == null) {
+						while (buf.hasRemaining()) {
+							mChannel.write(buf);
+						}
+						mRecorded++;
+					}
+				} catch (final IOException e) {
+					mError = e;
+				} finally {
+					mFreeQueue.offer(buf);
+				}
+			}
+		}
+	};
+}
@@ -0,0 +1,261 @@
+package com.yi.replay;
+
+import com.serenegiant.usb.FrameDescriptor;
+import com.serenegiant.usb.IFrameCallback;
+import com.serenegiant.usb.IFrameDescriptorCallback;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feed frames recorded by FrameRecorder to the same callbacks as UVCCamera#setFrameCallback/
+ * #setFrameDescriptorCallback without a camera, e.g. to reproduce performance issues on a desktop JVM.
+ * Frames are read into one reused direct buffer on the replay thread, so the callbacks should not
+ * keep the buffer like callbacks from the native library.
+ * In realtime mode frames are delivered with the original intervals and the timestamps are shifted
+ * to start from the time of #start, otherwise frames are delivered as fast as the callbacks consume
+ * them and the timestamps are the time of delivery.
+ */
+public class ReplayFrameSource {
+	/**
+	 * interval between the last frame and the first frame of the next loop when the recording does not
+	 * tell it(a single frame or frames with the same timestamp), otherwise realtime replay never waits
+	 */
+	private static final long DEFAULT_FRAME_INTERVAL_NS = 1000000000L / 30;
+
+	public interface Listener {
+		/**
+		 * called on the replay thread when all frames were delivered or #stop was called
+		 * @param frames number of delivered frames
+		 * @param elapsedNs time from the start of replay
+		 */
+		public void onFinished(long frames, long elapsedNs);
+		/**
+		 * called on the replay thread when the file could not be read
+		 */
+		public void onError(IOException e);
+	}
+
+	private final File mFile;
+	private final int mWidth, mHeight, mPixelFormat;
+	private volatile IFrameCallback mFrameCallback;
+	private volatile IFrameDescriptorCallback mDescriptorCallback;
+	private volatile Listener mListener;
+	private Thread mReplayThread;
+	private volatile boolean mIsRunning;
+	private volatile long mDelivered;
+
+	/**
+	 * @param file recorded by FrameRecorder
+	 * @throws IOException the file can not be read or it is not a frame recording
+	 */
+	public ReplayFrameSource(final File file) throws IOException {
+		mFile = file;
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(FrameRecorder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (!readFully(in.getChannel(), header))
+				throw new IOException("not a frame recording:" + file);
+			header.flip();
+			if ((header.getInt() != FrameRecorder.MAGIC) || (header.getInt() != FrameRecorder.VERSION))
+				throw new IOException("not a frame recording:" + file);
+			mWidth = header.getInt();
+			mHeight = header.getInt();
+			mPixelFormat = header.getInt();
+		} finally {
+			in.close();
+		}
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * @return one of UVCCamera.PIXEL_FORMAT_XXX
+	 */
+	public int getPixelFormat() {
+		return mPixelFormat;
+	}
+
+	public void setFrameCallback(final IFrameCallback callback) {
+		mFrameCallback = callback;
+	}
+
+	public void setFrameDescriptorCallback(final IFrameDescriptorCallback callback) {
+		mDescriptorCallback = callback;
+	}
+
+	public void setListener(final Listener listener) {
+		mListener = listener;
+	}
+
+	public long getDeliveredFrames() {
+		return mDelivered;
+	}
+
+	/**
+	 * start replay on a new thread
+	 * @param realtime true to keep the original frame intervals, false to deliver frames at maximum speed
+	 * @param loop true to repeat from the first frame until #stop
+	 */
+	public synchronized void start(final boolean realtime, final boolean loop) {
+		if (mReplayThread != null)
+			throw new IllegalStateException("already started");
+		mIsRunning = true;
+		mDelivered = 0;
+		mReplayThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					replay(realtime, loop);
+				} finally {
+					// replay finished by itself, allow #start without #stop
+					synchronized (ReplayFrameSource.this) {
+						if (mReplayThread == Thread.currentThread()) {
+							mReplayThread = null;
+						}
+					}
+				}
+			}
+		}, "ReplayFrameSource");
+		mReplayThread.start();
+	}
+
+	/**
+	 * stop replay and wait for the replay thread
+	 */
+	public void stop() {
+		final Thread thread;
+		synchronized (this) {
+			thread = mReplayThread;
+			mReplayThread = null;
+		}
+		if (thread == null) return;
+		mIsRunning = false;
+		LockSupport.unpark(thread);
+		join(thread);
+	}
+
+	/**
+	 * wait until replay finishes, never returns when replaying with loop until #stop is called
+	 */
+	public void join() {
+		final Thread thread;
+		synchronized (this) {
+			thread = mReplayThread;
+		}
+		if (thread != null) {
+			join(thread);
+		}
+	}
+
+	private void replay(final boolean realtime, final boolean loop) {
+		final FrameDescriptor descriptor = new FrameDescriptor();
+		descriptor.width = mWidth;
+		descriptor.height = mHeight;
+		descriptor.pixelFormat = mPixelFormat;
+		final ByteBuffer recordHeader = ByteBuffer.allocate(FrameRecorder.RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer frame = null;
+		final long start = System.nanoTime();
+		long firstTs = -1, offset = 0, lastTs = 0, interval = 0;
+		try {
+			final FileInputStream in = new FileInputStream(mFile);
+			try {
+				final FileChannel channel = in.getChannel();
+				channel.position(FrameRecorder.HEADER_SIZE);
+				while (mIsRunning) {
+					recordHeader.clear();
+					if (!readFully(channel, recordHeader)) {
+						if (!loop || (firstTs < 0)) break;
+						// rewind and continue the timeline one frame interval after the last frame
+						channel.position(FrameRecorder.HEADER_SIZE);
+						offset += lastTs - firstTs + (interval > 0 ? interval : DEFAULT_FRAME_INTERVAL_NS);
+						firstTs = -1;
+						continue;
+					}
+					recordHeader.flip();
+					final long ts = recordHeader.getLong();
+					final int bytes = recordHeader.getInt();
+					if ((frame == null) || (frame.capacity() < bytes)) {
+						frame = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+					}
+					frame.clear();
+					frame.limit(bytes);
+					if (!readFully(channel, frame)) break;	// truncated record
+					frame.flip();
+					if (firstTs < 0) {
+						firstTs = ts;
+					} else {
+						interval = ts - lastTs;
+					}
+					lastTs = ts;
+					final long when = start + offset + (ts - firstTs);
+					if (realtime) {
+						for (long wait = when - System.nanoTime(); mIsRunning && (wait > 0); wait = when - System.nanoTime()) {
+							LockSupport.parkNanos(this, wait);
+						}
+						if (!mIsRunning) break;
+					}
+					descriptor.sequence = mDelivered;
+					descriptor.timestampNs = realtime ? when : System.nanoTime();
+					descriptor.bytes = bytes;
+					deliver(frame, descriptor);
+					mDelivered++;
+				}
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			final Listener listener = mListener;
+			if (listener != null) {
+				listener.onError(e);
+			}
+		}
+		final Listener listener = mListener;
+		if (listener != null) {
+			listener.onFinished(mDelivered, System.nanoTime() - start);
+		}
+	}
+
+	private void deliver(final ByteBuffer frame, final FrameDescriptor descriptor) {
+		final IFrameDescriptorCallback descriptorCallback = mDescriptorCallback;
+		if (descriptorCallback != null) {
+			descriptorCallback.onFrame(frame, descriptor);
+			frame.limit(descriptor.bytes);
+			frame.position(0);
+		}
+		final IFrameCallback callback = mFrameCallback;
+		if (callback != null) {
+			callback.onFrame(frame);
+		}
+	}
+
+	/**
+	 * @return false if reached end of file before filling the buffer
+	 */
+	private static boolean readFully(final FileChannel channel, final ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf) < 0) return false;
+		}
+		return true;
+	}
+
+	private static void join(final Thread thread) {
+		if (thread == Thread.currentThread()) return;
+		try {
+			thread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package com.yi.usb;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.media.AudioManager;
 import android.media.MediaScannerConnection;
 import android.media.SoundPool;
@@ -11,29 +12,65 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.view.Surface;
 
+import com.serenegiant.usb.FrameDescriptor;
+import com.serenegiant.usb.IFrameDescriptorCallback;
+import com.serenegiant.usb.Size;
 import com.serenegiant.usb.USBMonitor;
 import com.serenegiant.usb.UVCCamera;
 import com.yi.encoder.MediaEncoder;
 import com.yi.encoder.MediaMuxerWrapper;
 import com.yi.encoder.MediaSurfaceEncoder;
+import com.yi.encoder.RecordingProfile;
 
 import com.yi.fingerprintCamera.R;
 import com.yi.glutils.RendererHolder;
+import com.yi.glutils.StillImageEncoder;
+import com.yi.perf.DecodeWorkerSweep;
+import com.yi.perf.FrameLatencyTracker;
+import com.yi.perf.LatencyHistogram;
+import com.yi.perf.PerfCounters;
+import com.yi.perf.PtsJitterAnalyzer;
+import com.yi.pipeline.Frame;
+import com.yi.pipeline.FrameCallbackAdapter;
+import com.yi.pipeline.FramePool;
+import com.yi.pipeline.FrameStage;
+import com.yi.pipeline.GrayConvertStage;
+import com.yi.pipeline.Pipeline;
+import com.yi.pipeline.ThreadPolicy;
+import com.yi.quality.BestFrameSelector;
+import com.yi.quality.FrameQualityScorer;
+import com.yi.quality.QualityScore;
+import com.yi.replay.FrameRecorder;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 
 public final class UVCCameraHandler extends Handler {
 	private static final boolean DEBUG = true;
 	private static final String TAG = UVCCameraHandler.class.getSimpleName();
+	/**
+	 * log PTS jitter of each recorded movie(see PtsJitterAnalyzer), this reads the whole sample table
+	 * so it runs on its own thread
+	 */
+	private static final boolean ANALYZE_PTS_JITTER = false;
 
 	private RendererHolder mRendererHolder;
 	private final WeakReference<CameraThread> mWeakThread;
 
 	public static UVCCameraHandler createHandler(final Context context) {
+		return createHandler(context, false);
+	}
+
+	/**
+	 * @param singleRenderThread if true, preview and encoder surfaces are drawn on one render thread
+	 * 		with one EGL context, see RendererHolder
+	 */
+	public static UVCCameraHandler createHandler(final Context context, final boolean singleRenderThread) {
 		if (DEBUG) Log.d(TAG, "createServer:");
-		final CameraThread thread = new CameraThread(context);
+		final CameraThread thread = new CameraThread(context, singleRenderThread);
 		thread.start();
 		return thread.getHandler();
 	}
@@ -41,7 +78,9 @@ public final class UVCCameraHandler extends Handler {
 	private UVCCameraHandler(final CameraThread thread) {
 		if (DEBUG) Log.d(TAG, "Constructor:");
 		mWeakThread = new WeakReference<CameraThread>(thread);
-		mRendererHolder = new RendererHolder(null);
+		mRendererHolder = new RendererHolder(null, thread.mSingleRenderThread);
+		// identify frames by the camera so that the encoder gets the USB arrival time as presentation time
+		mRendererHolder.setFrameTimeSource(thread.mFrameTimeSource);
 	}
 
 	@Override
@@ -119,8 +158,33 @@ public final class UVCCameraHandler extends Handler {
 	}
 
 	public void startRecording() {
-		if (!isRecording())
-			sendEmptyMessage(MSG_CAPTURE_START);
+		startRecording(RecordingProfile.DEFAULT);
+	}
+
+	/**
+	 * @param profile size and frame rate that are not specified are matched to the preview,
+	 * 		values the codec does not support are adjusted, see RecordingProfile#resolve
+	 */
+	public void startRecording(final RecordingProfile profile) {
+		if (profile == null) throw new NullPointerException("profile is null");
+		final CameraThread thread = mWeakThread.get();
+		if ((thread != null) && !thread.isRecording()) {
+			// time to first frame is measured from here, see MediaEncoder#getTimeToFirstFrameNs
+			thread.mRecordRequestNs = System.nanoTime();
+			sendMessage(obtainMessage(MSG_CAPTURE_START, profile));
+		}
+	}
+
+	/**
+	 * keep an encoder that is configured for the profile and attached to the renderer(but not drawn to)
+	 * while previewing, so that #startRecording with an equal profile starts from the next camera frame
+	 * instead of creating the muxer, the encoder and its input surface after the request.
+	 * The standby encoder is prepared again after each recording, and the output file of the standby
+	 * is renamed with the time recording started.
+	 * @param profile null to disable and release the standby encoder
+	 */
+	public void setWarmStandby(final RecordingProfile profile) {
+		sendMessage(obtainMessage(MSG_WARM_STANDBY, profile));
 	}
 
 	public void stopRecording() {
@@ -129,10 +193,115 @@ public final class UVCCameraHandler extends Handler {
 	}
 
 	public void captureStill(final String path) {
-		mRendererHolder.captureStill(path);
-		sendMessage(obtainMessage(MSG_CAPTURE_STILL, path));
+		final CameraThread thread = mWeakThread.get();
+		final boolean smart = (thread != null) && thread.isSmartCapture();
+		if (!smart) {
+			mRendererHolder.captureStill(path, 0, 0, mStillImageCallback);
+		}
+		sendMessage(obtainMessage(MSG_CAPTURE_STILL, smart ? 1 : 0, 0, path));
+	}
+
+	/**
+	 * In smart capture mode, every preview frame is scored by FrameQualityScorer
+	 * and #captureStill saves the best grayscale frame among the recent frames
+	 * instead of the frame that is rendered at that moment.
+	 * @param enable
+	 * @param windowFrames number of recent frames to select from
+	 */
+	public void setSmartCapture(final boolean enable, final int windowFrames) {
+		if (enable && (windowFrames < 1))
+			throw new IllegalArgumentException("invalid windowFrames:" + windowFrames);
+		sendMessage(obtainMessage(MSG_SMART_CAPTURE, enable ? windowFrames : 0, 0));
 	}
 
+	public boolean isSmartCapture() {
+		final CameraThread thread = mWeakThread.get();
+		return (thread != null) && thread.isSmartCapture();
+	}
+
+	/**
+	 * dump raw YUYV frames with their timestamps into the file while previewing,
+	 * the file can be fed back by com.yi.replay.ReplayFrameSource
+	 * @param path
+	 */
+	public void startFrameRecording(final String path) {
+		sendMessage(obtainMessage(MSG_FRAME_RECORD_START, path));
+	}
+
+	public void stopFrameRecording() {
+		sendEmptyMessage(MSG_FRAME_RECORD_STOP);
+	}
+
+	/**
+	 * measure per frame latency from USB arrival to decoding, texture update, drawing to each surface,
+	 * encoder input and muxer write, see FrameLatencyTracker
+	 * @param enable
+	 */
+	public void setLatencyTracking(final boolean enable) {
+		final CameraThread thread = mWeakThread.get();
+		if (thread == null) return;
+		mRendererHolder.setLatencyTracker(enable ? thread.mLatencyTracker : null);
+		sendMessage(obtainMessage(MSG_LATENCY_TRACKING, enable ? 1 : 0, 0));
+	}
+
+	/**
+	 * @return histograms are kept after disabling latency tracking until FrameLatencyTracker#reset
+	 */
+	public FrameLatencyTracker getLatencyTracker() {
+		final CameraThread thread = mWeakThread.get();
+		return thread != null ? thread.mLatencyTracker : null;
+	}
+
+	/**
+	 * read the counters for an on-screen overlay or metrics logging, see PerfMonitor.
+	 * Frame counts and latency are available only while latency tracking is enabled.
+	 * This can be called from any thread.
+	 * @param counters
+	 */
+	public void getPerfCounters(final PerfCounters counters) {
+		final CameraThread thread = mWeakThread.get();
+		if (thread == null) {
+			counters.clear();
+			return;
+		}
+		thread.getPerfCounters(counters);
+	}
+
+	/**
+	 * measure MJPEG decoding with 1 to maxWorkers decode workers(UVCCamera#setDecodeWorkers), the preview is
+	 * restarted for each number of workers and measured for measureMs after it settled. The results are logged
+	 * and written to path as CSV(see DecodeWorkerSweep), then the preview is restarted with the previous workers.
+	 * This is ignored while recording or when the preview is not running
+	 * @param path null if the results are only logged
+	 */
+	public void startDecodeWorkerSweep(final int maxWorkers, final int measureMs, final String path) {
+		sendMessage(obtainMessage(MSG_DECODE_SWEEP, maxWorkers, measureMs, path));
+	}
+
+	/**
+	 * capture consecutive frames in the background, see RendererHolder#captureBurst
+	 */
+	public void captureBurst(final int count, final int intervalFrames, final RendererHolder.BurstSink sink) {
+		mRendererHolder.captureBurst(count, intervalFrames, sink);
+		sendMessage(obtainMessage(MSG_CAPTURE_STILL, null));
+	}
+
+	/**
+	 * called on worker thread of StillImageEncoder
+	 */
+	private final StillImageEncoder.Callback mStillImageCallback = new StillImageEncoder.Callback() {
+		@Override
+		public void onComplete(final StillImageEncoder.Result result) {
+			if (DEBUG) Log.v(TAG, "onComplete:" + result);
+			sendMessage(obtainMessage(MSG_MEDIA_UPDATE, result.path));
+		}
+
+		@Override
+		public void onError(final String path, final Exception e) {
+			Log.w(TAG, "failed to capture still image:" + path, e);
+		}
+	};
+
 //**********************************************************************
 	private static final int MSG_OPEN = 0;
 	private static final int MSG_CLOSE = 1;
@@ -142,7 +311,15 @@ public final class UVCCameraHandler extends Handler {
 	private static final int MSG_CAPTURE_START = 5;
 	private static final int MSG_CAPTURE_STOP = 6;
 	private static final int MSG_MEDIA_UPDATE = 7;
+	private static final int MSG_SMART_CAPTURE = 8;
 	private static final int MSG_RELEASE = 9;
+	private static final int MSG_FRAME_RECORD_START = 10;
+	private static final int MSG_FRAME_RECORD_STOP = 11;
+	private static final int MSG_LATENCY_TRACKING = 12;
+	private static final int MSG_WARM_STANDBY = 13;
+	private static final int MSG_PREPARE_STANDBY = 14;
+	private static final int MSG_DECODE_SWEEP = 15;
+	private static final int MSG_DECODE_SWEEP_STEP = 16;
 
 	@Override
 	public void handleMessage(final Message msg) {
@@ -159,13 +336,14 @@ public final class UVCCameraHandler extends Handler {
 			thread.handleStartPreview((Surface)msg.obj);
 			break;
 		case MSG_PREVIEW_STOP:
+			thread.cancelDecodeWorkerSweep();
 			thread.handleStopPreview();
 			break;
 		case MSG_CAPTURE_STILL:
-			thread.handleCaptureStill((String)msg.obj);
+			thread.handleCaptureStill((String)msg.obj, msg.arg1 != 0);
 			break;
 		case MSG_CAPTURE_START:
-			thread.handleStartRecording();
+			thread.handleStartRecording((RecordingProfile)msg.obj);
 			break;
 		case MSG_CAPTURE_STOP:
 			thread.handleStopRecording();
@@ -173,9 +351,33 @@ public final class UVCCameraHandler extends Handler {
 		case MSG_MEDIA_UPDATE:
 			thread.handleUpdateMedia((String)msg.obj);
 			break;
+		case MSG_SMART_CAPTURE:
+			thread.handleSetSmartCapture(msg.arg1);
+			break;
 		case MSG_RELEASE:
 			thread.handleRelease();
 			break;
+		case MSG_FRAME_RECORD_START:
+			thread.handleStartFrameRecording((String)msg.obj);
+			break;
+		case MSG_FRAME_RECORD_STOP:
+			thread.handleStopFrameRecording();
+			break;
+		case MSG_LATENCY_TRACKING:
+			thread.handleSetLatencyTracking(msg.arg1 != 0);
+			break;
+		case MSG_WARM_STANDBY:
+			thread.handleSetWarmStandby((RecordingProfile)msg.obj);
+			break;
+		case MSG_PREPARE_STANDBY:
+			thread.prepareStandby();
+			break;
+		case MSG_DECODE_SWEEP:
+			thread.handleStartDecodeWorkerSweep(msg.arg1, msg.arg2, (String)msg.obj);
+			break;
+		case MSG_DECODE_SWEEP_STEP:
+			thread.handleDecodeWorkerSweepStep(msg.arg1 != 0);
+			break;
 		default:
 			throw new RuntimeException("unsupported message:what=" + msg.what);
 		}
@@ -186,7 +388,6 @@ public final class UVCCameraHandler extends Handler {
 		private final Object mSync = new Object();
 		private boolean mIsRecording;
 	    private final WeakReference<Context> mWeakContext;
-		private int mEncoderSurfaceId;
 		/**
 		 * shutter sound
 		 */
@@ -202,12 +403,73 @@ public final class UVCCameraHandler extends Handler {
 		 * muxer for audio/video recording
 		 */
 		private MediaMuxerWrapper mMuxer;
-		private MediaSurfaceEncoder mVideoEncoder;
+		/**
+		 * this is also read from the caller of UVCCameraHandler#getPerfCounters
+		 */
+		private volatile MediaSurfaceEncoder mVideoEncoder;
+		private final boolean mSingleRenderThread;
+		/**
+		 * warm standby, an encoder prepared for mStandbyProfile(matched to the preview) whose input surface
+		 * is attached to the renderer paused, these are accessed only on this thread
+		 */
+		private RecordingProfile mStandbyRequest, mStandbyProfile;
+		private MediaMuxerWrapper mStandbyMuxer;
+		private MediaSurfaceEncoder mStandbyEncoder;
+		private boolean mIsPreviewing;
+		private boolean mRecordingFromStandby;
+		/**
+		 * time of UVCCameraHandler#startRecording
+		 */
+		private volatile long mRecordRequestNs;
+		/**
+		 * for smart capture, the scorer and selector are accessed on the quality stage of mPipeline
+		 * and on this thread while holding mSmartSync
+		 */
+		private final Object mSmartSync = new Object();
+		private volatile int mSmartWindow;
+		private FrameQualityScorer mScorer;
+		private BestFrameSelector mSelector;
+		private StillImageEncoder mSmartEncoder;
+		private byte[] mBestFrame;
+		/**
+		 * raw frame recorder, this is accessed on the frame callback thread
+		 */
+		private volatile FrameRecorder mFrameRecorder;
+		/**
+		 * frame processing off the native capture thread: luminance extraction and quality scoring
+		 */
+		private final Pipeline mPipeline;
+		private final FrameCallbackAdapter mPipelineSource;
+		/**
+		 * per frame latency, the camera for looking up the native frame times is guarded by
+		 * mFrameTimesSync instead of mSync because the render thread should never wait for stopping preview
+		 */
+		private final FrameLatencyTracker mLatencyTracker = new FrameLatencyTracker();
+		private volatile boolean mLatencyTracking;
+		/**
+		 * decode worker sweep, these are accessed only on this thread
+		 */
+		private static final int DECODE_SWEEP_WARMUP_MS = 2000;
+		private static final int DECODE_WORKERS = 1;	// same as DEFAULT_DECODE_WORKERS in UVCPreview.h
+		private DecodeWorkerSweep mSweep;
+		private String mSweepPath;
+		private int mSweepWorkers, mSweepMaxWorkers, mSweepMeasureMs;
+		private long[] mSweepStartStats;
+		private int mSweepStartDrops;
+		private final Object mFrameTimesSync = new Object();
+		private UVCCamera mFrameTimesCamera;
+		private final long[] mFrameTimes = new long[4];
 
-		private CameraThread(final Context context) {
+		private CameraThread(final Context context, final boolean singleRenderThread) {
 			super("CameraThread");
 			if (DEBUG) Log.d(TAG_THREAD, "Constructor:");
 			mWeakContext = new WeakReference<Context>(context);
+			mSingleRenderThread = singleRenderThread;
+			mPipeline = new Pipeline(4)
+				.addStage("gray", new GrayConvertStage(), ThreadPolicy.inline())
+				.addStage("quality", mQualityStage, ThreadPolicy.dedicated(2));
+			mPipelineSource = new FrameCallbackAdapter(mPipeline);
+			mLatencyTracker.setFrameTimeSource(mFrameTimeSource);
 			loadSutterSound(context);
 		}
 
@@ -241,6 +503,27 @@ public final class UVCCameraHandler extends Handler {
 			}
 		}
 
+		public void getPerfCounters(final PerfCounters counters) {
+			final FrameLatencyTracker tracker = mLatencyTracker;
+			counters.cameraFrames = tracker.getCameraFrames();
+			counters.renderedFrames = tracker.getRenderedFrames();
+			final LatencyHistogram texture = tracker.getLatency(FrameLatencyTracker.CHECKPOINT_TEXTURE);
+			counters.textureLatencyP50Ns = texture.getValueAtPercentile(50);
+			counters.textureLatencyP99Ns = texture.getValueAtPercentile(99);
+			final MediaSurfaceEncoder encoder = mVideoEncoder;
+			counters.recording = encoder != null;
+			counters.encoderBacklog = encoder != null ? encoder.getPendingFrames() : 0;
+			counters.encodedBytes = encoder != null ? encoder.getWrittenBytes() : 0;
+			final LatencyHistogram encode = encoder != null ? encoder.getEncodeLatency() : null;
+			counters.encodeLatencyP50Ns = encode != null ? encode.getValueAtPercentile(50) : 0;
+			counters.encodeLatencyP99Ns = encode != null ? encode.getValueAtPercentile(99) : 0;
+			counters.firstFrameLatencyNs = encoder != null ? Math.max(0, encoder.getTimeToFirstFrameNs()) : 0;
+		}
+
+		public boolean isSmartCapture() {
+			return mSmartWindow > 0;
+		}
+
 		public void handleOpen(final USBMonitor.UsbControlBlock ctrlBlock) {
 			if (DEBUG) Log.d(TAG_THREAD, "handleOpen:");
 			handleClose();
@@ -254,7 +537,19 @@ public final class UVCCameraHandler extends Handler {
 
 		public void handleClose() {
 			if (DEBUG) Log.d(TAG_THREAD, "handleClose:");
+			cancelDecodeWorkerSweep();
 			handleStopRecording();
+			releaseStandby();
+			mIsPreviewing = false;
+			handleStopFrameRecording();
+			synchronized (mSmartSync) {
+				if (mSelector != null) {
+					mSelector.clear();
+				}
+			}
+			synchronized (mFrameTimesSync) {
+				mFrameTimesCamera = null;
+			}
 			synchronized (mSync) {
 				if (mUVCCamera != null) {
 					mUVCCamera.stopPreview();
@@ -285,13 +580,25 @@ public final class UVCCameraHandler extends Handler {
 				}
 			}
 			if (mUVCCamera == null) return;
-			//mUVCCamera.setFrameCallback(mIFrameCallback, UVCCamera.PIXEL_FORMAT_YUV);
+			// still images are read back with the actual preview size
+			final Size size = mUVCCamera.getPreviewSize();
+			mHandler.mRendererHolder.setPreviewSize(
+				size != null ? size.width : UVCCamera.DEFAULT_PREVIEW_WIDTH,
+				size != null ? size.height : UVCCamera.DEFAULT_PREVIEW_HEIGHT);
+			updateFrameCallback();
 			mUVCCamera.setPreviewDisplay(surface);
 			mUVCCamera.startPreview();
+			synchronized (mFrameTimesSync) {
+				mFrameTimesCamera = mUVCCamera;
+			}
+			mIsPreviewing = true;
+			prepareStandby();
 		}
 
 		public void handleStopPreview() {
 			if (DEBUG) Log.d(TAG_THREAD, "handleStopPreview:");
+			mIsPreviewing = false;
+			releaseStandby();
 			if (mUVCCamera != null) {
 				mUVCCamera.stopPreview();
 			}
@@ -300,21 +607,227 @@ public final class UVCCameraHandler extends Handler {
 			}
 		}
 
-		public void handleCaptureStill(final String path) {
-			if (DEBUG) Log.d(TAG_THREAD, "handleCaptureStill:");
+		public void handleStartDecodeWorkerSweep(final int maxWorkers, final int measureMs, final String path) {
+			if (DEBUG) Log.d(TAG_THREAD, "handleStartDecodeWorkerSweep:maxWorkers=" + maxWorkers + ",measureMs=" + measureMs);
+			if ((mUVCCamera == null) || !mIsPreviewing || isRecording() || (mSweep != null)) {
+				Log.w(TAG_THREAD, "decode worker sweep needs running preview without recording");
+				return;
+			}
+			mSweep = new DecodeWorkerSweep();
+			mSweepPath = path;
+			mSweepMaxWorkers = Math.max(1, Math.min(maxWorkers, UVCCamera.MAX_DECODE_WORKERS));
+			mSweepMeasureMs = Math.max(1, measureMs);
+			mSweepWorkers = 1;
+			restartPreview(mSweepWorkers);
+			mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_DECODE_SWEEP_STEP, 0, 0), DECODE_SWEEP_WARMUP_MS);
+		}
 
+		/**
+		 * @param measured false to start measuring, true to finish measuring the current number of workers
+		 */
+		public void handleDecodeWorkerSweepStep(final boolean measured) {
+			if ((mSweep == null) || (mUVCCamera == null) || !mIsPreviewing) return;
+			if (!measured) {
+				mSweepStartStats = mUVCCamera.getDecodeStats();
+				mSweepStartDrops = mUVCCamera.getFrameDropCounts()[UVCCamera.DROP_COUNT_NEWEST];
+				mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_DECODE_SWEEP_STEP, 1, 0), mSweepMeasureMs);
+				return;
+			}
+			final DecodeWorkerSweep.Result result = mSweep.add(mSweepWorkers, mSweepStartStats,
+				mUVCCamera.getDecodeStats(),
+				mUVCCamera.getFrameDropCounts()[UVCCamera.DROP_COUNT_NEWEST] - mSweepStartDrops);
+			Log.i(TAG_THREAD, "decode worker sweep:" + result);
+			if (mSweepWorkers < mSweepMaxWorkers) {
+				mSweepWorkers++;
+				restartPreview(mSweepWorkers);
+				mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_DECODE_SWEEP_STEP, 0, 0), DECODE_SWEEP_WARMUP_MS);
+				return;
+			}
+			final DecodeWorkerSweep sweep = mSweep;
+			final String path = mSweepPath;
+			mSweep = null;
+			Log.i(TAG_THREAD, "decode worker sweep finished, best workers=" + sweep.getBestWorkers());
+			if (!TextUtils.isEmpty(path)) {
+				try {
+					sweep.write(new File(path));
+				} catch (final IOException e) {
+					Log.w(TAG_THREAD, "failed to write decode worker sweep:" + path, e);
+				}
+			}
+			restartPreview(DECODE_WORKERS);
+		}
+
+		/**
+		 * stop the sweep without restarting preview, the previous workers are applied on next preview
+		 */
+		public void cancelDecodeWorkerSweep() {
+			if (mSweep == null) return;
+			if (DEBUG) Log.d(TAG_THREAD, "cancelDecodeWorkerSweep:");
+			mHandler.removeMessages(MSG_DECODE_SWEEP_STEP);
+			mSweep = null;
+			if (mUVCCamera != null) {
+				mUVCCamera.setDecodeWorkers(DECODE_WORKERS);
+			}
+		}
+
+		private void restartPreview(final int decodeWorkers) {
+			mUVCCamera.setDecodeWorkers(decodeWorkers);
+			handleStopPreview();
+			handleStartPreview(mHandler.mRendererHolder.getSurface());
+		}
+
+		/**
+		 * @param path null when only shutter sound is needed
+		 * @param smart true if the caller requested to save the best frame of smart capture
+		 */
+		public void handleCaptureStill(final String path, final boolean smart) {
+			if (DEBUG) Log.d(TAG_THREAD, "handleCaptureStill:");
+			if (smart && !TextUtils.isEmpty(path) && !saveBestFrame(path)) {
+				// smart capture was disabled after the request or no frame is scored yet
+				mHandler.mRendererHolder.captureStill(path, 0, 0, mHandler.mStillImageCallback);
+			}
 			mSoundPool.play(mSoundId, 0.2f, 0.2f, 0, 0, 1.0f);	// play shutter sound
 		}
 
-		public void handleStartRecording() {
-			if (DEBUG) Log.d(TAG_THREAD, "handleStartRecording:");
+		/**
+		 * @param window number of recent frames to select from, 0 disables smart capture
+		 */
+		public void handleSetSmartCapture(final int window) {
+			if (DEBUG) Log.d(TAG_THREAD, "handleSetSmartCapture:window=" + window);
+			mSmartWindow = window;
+			updateFrameCallback();
+		}
+
+		public void handleSetLatencyTracking(final boolean enable) {
+			if (DEBUG) Log.d(TAG_THREAD, "handleSetLatencyTracking:" + enable);
+			mLatencyTracking = enable;
+			if (mVideoEncoder != null) {
+				mVideoEncoder.setLatencyTracker(enable ? mLatencyTracker : null);
+			}
+		}
+
+		public void handleStartFrameRecording(final String path) {
+			if (DEBUG) Log.d(TAG_THREAD, "handleStartFrameRecording:path=" + path);
+			if ((mUVCCamera == null) || TextUtils.isEmpty(path)) return;
+			handleStopFrameRecording();
 			try {
-				if ((mUVCCamera == null) || (mMuxer != null)) return;
-				mMuxer = new MediaMuxerWrapper(".mp4");	// if you record audio only, ".m4a" is also OK.
-				new MediaSurfaceEncoder(mMuxer, mMediaEncoderListener);
+				mFrameRecorder = new FrameRecorder(new File(path), 8);
+			} catch (final IOException e) {
+				Log.e(TAG, "handleStartFrameRecording:", e);
+			}
+			updateFrameCallback();
+		}
+
+		public void handleStopFrameRecording() {
+			final FrameRecorder recorder = mFrameRecorder;
+			if (recorder == null) return;
+			if (DEBUG) Log.d(TAG_THREAD, "handleStopFrameRecording:");
+			mFrameRecorder = null;
+			updateFrameCallback();
+			try {
+				recorder.release();
+				if (DEBUG) Log.i(TAG_THREAD, "frame recording finished:recorded=" + recorder.getRecordedFrames()
+					+ ",dropped=" + recorder.getDroppedFrames());
+			} catch (final IOException e) {
+				Log.e(TAG, "handleStopFrameRecording:", e);
+			}
+		}
+
+		/**
+		 * (re)create the scorer and selector for current preview size and set/reset frame callback
+		 * that is shared by smart capture and frame recording
+		 */
+		private void updateFrameCallback() {
+			if (mUVCCamera == null) return;
+			final int window = mSmartWindow;
+			final Size size = window > 0 ? mUVCCamera.getPreviewSize() : null;
+			synchronized (mSmartSync) {
+				if (size != null) {
+					if ((mScorer == null) || (mScorer.getWidth() != size.width) || (mScorer.getHeight() != size.height)) {
+						mScorer = new FrameQualityScorer(size.width, size.height);
+					}
+					final int bytes = size.width * size.height;
+					if ((mSelector == null) || (mSelector.getWindow() != window) || (mSelector.getFrameBytes() != bytes)) {
+						mSelector = new BestFrameSelector(window, bytes);
+						mBestFrame = new byte[bytes];
+					} else {
+						mSelector.clear();
+					}
+					if (mSmartEncoder == null) {
+						mSmartEncoder = new StillImageEncoder(1, 2, Bitmap.CompressFormat.PNG, 90);
+					}
+					mPipeline.start();
+				} else {
+					mScorer = null;
+					mSelector = null;
+					mBestFrame = null;
+				}
+			}
+			final boolean needed = (size != null) || (mFrameRecorder != null);
+			mUVCCamera.setFrameDescriptorCallback(needed ? mFrameDispatcher : null, UVCCamera.PIXEL_FORMAT_YUV);
+		}
 
-				mMuxer.prepare();
-				mMuxer.startRecording();
+		/**
+		 * write the best frame of smart capture as grayscale image
+		 * @param path
+		 * @return false if there is no frame to save
+		 */
+		private boolean saveBestFrame(final String path) {
+			final int width, height;
+			final ByteBuffer buf;
+			synchronized (mSmartSync) {
+				if ((mSelector == null) || mSelector.isEmpty()) return false;
+				width = mScorer.getWidth();
+				height = mScorer.getHeight();
+				buf = mSmartEncoder.obtainBuffer(width * height * 4);
+				if (buf == null) {
+					Log.w(TAG_THREAD, "saveBestFrame:previous images are still being written, skip " + path);
+					return true;
+				}
+				if (DEBUG) Log.v(TAG_THREAD, "saveBestFrame:" + mSelector.getBestScore());
+				mSelector.getBestFrame(mBestFrame);
+			}
+			// luminance to RGBA, mBestFrame is only accessed on this thread after copying
+			final byte[] luma = mBestFrame;
+			final int n = width * height;
+			for (int i = 0; i < n; i++) {
+				final int y = luma[i] & 0xff;
+				buf.putInt(0xff000000 | (y << 16) | (y << 8) | y);
+			}
+			mSmartEncoder.encode(buf, width, height, new File(path), 0, mHandler.mStillImageCallback);
+			return true;
+		}
+
+		public void handleStartRecording(final RecordingProfile profile) {
+			if (DEBUG) Log.d(TAG_THREAD, "handleStartRecording:" + profile);
+			try {
+				if ((mUVCCamera == null) || (mMuxer != null)) return;
+				final RecordingProfile matched = matchPreview(profile);
+				final MediaSurfaceEncoder encoder;
+				if ((mStandbyEncoder != null) && matched.equals(mStandbyProfile)) {
+					// the encoder and its input surface are ready, just start drawing to it
+					mMuxer = mStandbyMuxer;
+					encoder = mStandbyEncoder;
+					mStandbyMuxer = null;
+					mStandbyEncoder = null;
+					mStandbyProfile = null;
+					mMuxer.renameOutput();
+					mRecordingFromStandby = true;
+				} else {
+					releaseStandby();
+					mMuxer = new MediaMuxerWrapper(".mp4");	// if you record audio only, ".m4a" is also OK.
+					encoder = new MediaSurfaceEncoder(mMuxer, mMediaEncoderListener, matched);
+					mMuxer.prepare();
+					mRecordingFromStandby = false;
+				}
+				if (mLatencyTracking) {
+					encoder.setLatencyTracker(mLatencyTracker);
+				}
+				mIsRecording = true;
+				mVideoEncoder = encoder;
+				// start capturing before resuming the surface so that the encoder accepts the next frame
+				mMuxer.startRecording(mRecordRequestNs);
+				mHandler.mRendererHolder.setSurfacePaused(getSurfaceId(encoder), false);
 			} catch (final IOException e) {
 				Log.e(TAG, "startCapture:", e);
 			}
@@ -329,8 +842,82 @@ public final class UVCCameraHandler extends Handler {
 			}
 		}
 
+		public void handleSetWarmStandby(final RecordingProfile profile) {
+			if (DEBUG) Log.d(TAG_THREAD, "handleSetWarmStandby:" + profile);
+			mStandbyRequest = profile;
+			if ((profile == null) || ((mStandbyProfile != null) && !matchPreview(profile).equals(mStandbyProfile))) {
+				releaseStandby();
+			}
+			prepareStandby();
+		}
+
+		/**
+		 * prepare the standby encoder if warm standby is enabled and nothing is being recorded
+		 */
+		public void prepareStandby() {
+			if ((mStandbyRequest == null) || !mIsPreviewing || (mUVCCamera == null)
+				|| (mStandbyEncoder != null) || (mMuxer != null) || (mVideoEncoder != null)) {
+				// the standby is prepared after the previous recording stopped, see onStopped
+				return;
+			}
+			final long start = System.nanoTime();
+			try {
+				final RecordingProfile matched = matchPreview(mStandbyRequest);
+				final MediaMuxerWrapper muxer = new MediaMuxerWrapper(".mp4");
+				final MediaSurfaceEncoder encoder = new MediaSurfaceEncoder(muxer, mMediaEncoderListener, matched);
+				muxer.prepare();
+				mStandbyMuxer = muxer;
+				mStandbyEncoder = encoder;
+				mStandbyProfile = matched;
+				if (DEBUG) Log.i(TAG_THREAD, String.format("standby prepared in %.1f ms:%s",
+					(System.nanoTime() - start) / 1e6, matched));
+			} catch (final IOException e) {
+				Log.e(TAG, "prepareStandby:", e);
+			}
+		}
+
+		private void releaseStandby() {
+			if (mStandbyMuxer == null) return;
+			if (DEBUG) Log.d(TAG_THREAD, "releaseStandby:");
+			// the encoder stops on its thread, and the unused output file is deleted
+			mStandbyMuxer.cancelRecording();
+			mStandbyMuxer = null;
+			mStandbyEncoder = null;
+			mStandbyProfile = null;
+		}
+
+		/**
+		 * fill the size and frame rate that the profile does not specify with those of the running preview
+		 */
+		private RecordingProfile matchPreview(final RecordingProfile profile) {
+			final Size size = mUVCCamera.getPreviewSize();
+			return profile.matchCamera(
+				size != null ? size.width : UVCCamera.DEFAULT_PREVIEW_WIDTH,
+				size != null ? size.height : UVCCamera.DEFAULT_PREVIEW_HEIGHT,
+				mUVCCamera.getPreviewFrameRate());
+		}
+
+		/**
+		 * id of the encoder input surface in RendererHolder, this is also available after the surface was released
+		 */
+		private static int getSurfaceId(final MediaEncoder encoder) {
+			return System.identityHashCode(encoder);
+		}
+
 		public void handleUpdateMedia(final String path) {
 			if (DEBUG) Log.d(TAG_THREAD, "handleUpdateMedia:path=" + path);
+			if (ANALYZE_PTS_JITTER && path.endsWith(".mp4")) {
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							Log.i(TAG_THREAD, "pts jitter:" + PtsJitterAnalyzer.analyze(new File(path)));
+						} catch (final IOException e) {
+							Log.w(TAG_THREAD, "PtsJitterAnalyzer:", e);
+						}
+					}
+				}, "PtsJitterAnalyzer").start();
+			}
 			final Context context = mWeakContext.get();
 			if (context != null) {
 				try {
@@ -350,37 +937,93 @@ public final class UVCCameraHandler extends Handler {
 		public void handleRelease() {
 			if (DEBUG) Log.d(TAG_THREAD, "handleRelease:");
 			handleClose();
+			mPipeline.stop();
+			if (mSmartEncoder != null) {
+				mSmartEncoder.release();
+				mSmartEncoder = null;
+			}
 			if (!mIsRecording)
 				Looper.myLooper().quit();
 		}
 
-/*		// if you need frame data as ByteBuffer on Java side, you can use this callback method with UVCCamera#setFrameCallback
-		private final IFrameCallback mIFrameCallback = new IFrameCallback() {
+		/**
+		 * pass YUYV frames to the frame recorder and to the pipeline for smart capture,
+		 * this is called on the native capture thread
+		 */
+		private final IFrameDescriptorCallback mFrameDispatcher = new IFrameDescriptorCallback() {
+			@Override
+			public void onFrame(final ByteBuffer frame, final FrameDescriptor descriptor) {
+				final FrameRecorder recorder = mFrameRecorder;
+				if (recorder != null) {
+					final int pos = frame.position();
+					recorder.onFrame(frame, descriptor);
+					frame.position(pos);
+				}
+				if (mSmartWindow > 0) {
+					mPipelineSource.onFrame(frame, descriptor);
+				}
+			}
+		};
+
+		/**
+		 * look up the native frame times for FrameLatencyTracker and RendererHolder, this is called on the render thread
+		 */
+		private final FrameLatencyTracker.FrameTimeSource mFrameTimeSource = new FrameLatencyTracker.FrameTimeSource() {
 			@Override
-			public void onFrame(final ByteBuffer frame) {
+			public boolean getFrameTimes(final long presentedNs, final long[] times) {
+				synchronized (mFrameTimesSync) {
+					if ((mFrameTimesCamera == null) || !mFrameTimesCamera.getFrameTimes(presentedNs, mFrameTimes)) {
+						return false;
+					}
+					times[TIME_ARRIVAL_NS] = mFrameTimes[UVCCamera.FRAME_TIMES_ARRIVAL_NS];
+					times[TIME_DECODED_NS] = mFrameTimes[UVCCamera.FRAME_TIMES_DECODED_NS];
+					times[TIME_SEQUENCE] = mFrameTimes[UVCCamera.FRAME_TIMES_SEQUENCE];
+				}
+				return true;
 			}
-		}; */
+		};
 
-		private final RendererHolder.OnFrameAvailableCallback mOnFrameAvailable = new RendererHolder.OnFrameAvailableCallback() {
+		/**
+		 * score grayscale frames for smart capture, this is called on the worker thread of mPipeline
+		 */
+		private final FrameStage mQualityStage = new FrameStage() {
+			@Override
+			public Frame process(final Frame frame, final FramePool pool) {
+				synchronized (mSmartSync) {
+					if ((mScorer == null) || (frame.width != mScorer.getWidth())
+						|| (frame.height != mScorer.getHeight())) return null;
+					final QualityScore score = mScorer.score(frame.data, 1);
+					mSelector.offer(mScorer.getLuma(), 0, score);
+				}
+				return null;
+			}
+		};
+
+		private final RendererHolder.OnFrameAvailableCallback mOnFrameAvailable = new RendererHolder.OnFrameDescriptorCallback() {
 			@Override
 			public void onFrameAvailable() {
 //				if (DEBUG) Log.d(TAG_THREAD, "onFrameAvailable:");
 				if (mVideoEncoder != null)
 					mVideoEncoder.frameAvailableSoon();
 			}
+
+			@Override
+			public void onFrameAvailable(final FrameDescriptor descriptor) {
+				// pass the USB arrival time so that the encoder can use it as presentation time
+				if (mVideoEncoder != null)
+					mVideoEncoder.frameAvailableSoon(descriptor.timestampNs);
+			}
 		};
 
 		private final MediaEncoder.MediaEncoderListener mMediaEncoderListener = new MediaEncoder.MediaEncoderListener() {
 			@Override
 			public void onPrepared(final MediaEncoder encoder) {
 				if (DEBUG) Log.d(TAG, "onPrepared:encoder=" + encoder);
-				mIsRecording = true;
 				if (encoder instanceof MediaSurfaceEncoder)
 				try {
-					mVideoEncoder = (MediaSurfaceEncoder)encoder;
-					final Surface encoderSurface = mVideoEncoder.getInputSurface();
-					mEncoderSurfaceId = encoderSurface.hashCode();
-					mHandler.mRendererHolder.addSurface(mEncoderSurfaceId, encoderSurface, true, mOnFrameAvailable);
+					// attach paused, drawing starts in handleStartRecording
+					final Surface encoderSurface = ((MediaSurfaceEncoder)encoder).getInputSurface();
+					mHandler.mRendererHolder.addSurface(getSurfaceId(encoder), encoderSurface, true, true, mOnFrameAvailable);
 				} catch (final Exception e) {
 					Log.e(TAG, "onPrepared:", e);
 				}
@@ -391,16 +1034,28 @@ public final class UVCCameraHandler extends Handler {
 				if (DEBUG) Log.v(TAG_THREAD, "onStopped:encoder=" + encoder);
 				if ((encoder instanceof MediaSurfaceEncoder))
 				try {
+					mHandler.mRendererHolder.removeSurface(getSurfaceId(encoder));
+					if (encoder != mVideoEncoder) {
+						// standby encoder that was released without recording
+						return;
+					}
+					Log.i(TAG_THREAD, "encode latency(async=" + encoder.isAsync() + "):" + encoder.getEncodeLatency());
+					final long ttff = encoder.getTimeToFirstFrameNs();
+					if (ttff >= 0) {
+						// capture offset is within one frame interval when recording started from the next frame
+						Log.i(TAG_THREAD, String.format("time to first frame(standby=%b):%.1f ms, captured %.1f ms after request",
+							mRecordingFromStandby, ttff / 1e6, (encoder.getFirstFramePTSUs() * 1000 - mRecordRequestNs) / 1e6));
+					}
 					mIsRecording = false;
-					if (mEncoderSurfaceId > 0)
-						mHandler.mRendererHolder.removeSurface(mEncoderSurfaceId);
-					mEncoderSurfaceId = -1;
 					mUVCCamera.stopCapture();
 					mVideoEncoder = null;
 					final String path = encoder.getOutputPath();
 					if (!TextUtils.isEmpty(path)) {
 						mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_MEDIA_UPDATE, path), 1000);
 					}
+					// the codec of this encoder is released after this returns, some devices can not
+					// run two hardware encoders at once so wait a while before preparing the next one
+					mHandler.sendEmptyMessageDelayed(MSG_PREPARE_STANDBY, 500);
 				} catch (final Exception e) {
 					Log.e(TAG, "onPrepared:", e);
 				}
@@ -0,0 +1,165 @@
+package com.yi.matcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedTemplateStoreTest {
+	// same as MappedTemplateStore
+	private static final int HEADER_SIZE = 16;
+	private static final int ENTRY_SIZE = 16;
+	private static final int GROW_BYTES = 1024 * 1024;
+
+	private File mFile;
+	private File mIndexFile;
+
+	@Before
+	public void setUp() throws IOException {
+		mFile = File.createTempFile("templates", ".bin");
+		mFile.delete();
+		mIndexFile = new File(mFile.getPath() + ".idx");
+	}
+
+	@After
+	public void tearDown() {
+		mFile.delete();
+		mIndexFile.delete();
+	}
+
+	/**
+	 * packed minutiae that differ for each seed
+	 */
+	private static int[] template(final int seed, final int count) {
+		final int[] packed = new int[count];
+		for (int i = 0; i < count; i++) {
+			packed[i] = seed * 1000 + i;
+		}
+		return packed;
+	}
+
+	private static void assertTemplate(final MappedTemplateStore store, final int index,
+		final long id, final int[] expected) {
+
+		assertEquals(id, store.getId(index));
+		assertEquals(expected.length, store.getMinutiaeCount(index));
+		final int[] out = new int[TemplateCodec.MAX_MINUTIAE];
+		final int n = store.readMinutiae(index, out);
+		assertEquals(expected.length, n);
+		final int[] actual = new int[n];
+		System.arraycopy(out, 0, actual, 0, n);
+		assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	public void appendedTemplatesSurviveReopen() throws IOException {
+		MappedTemplateStore store = new MappedTemplateStore(mFile);
+		try {
+			assertEquals(0, store.size());
+			for (int i = 0; i < 3; i++) {
+				assertEquals(i, store.append(100 + i, template(i, 10 + i), 10 + i));
+			}
+			assertTemplate(store, 1, 101, template(1, 11));
+		} finally {
+			store.close();
+		}
+		store = new MappedTemplateStore(mFile);
+		try {
+			assertEquals(3, store.size());
+			for (int i = 0; i < 3; i++) {
+				assertTemplate(store, i, 100 + i, template(i, 10 + i));
+			}
+			// appending continues after the reopened templates
+			assertEquals(3, store.append(103, template(3, 5), 5));
+			assertTemplate(store, 2, 102, template(2, 12));
+			assertTemplate(store, 3, 103, template(3, 5));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void uncommittedEntryIsIgnoredAndOverwritten() throws IOException {
+		MappedTemplateStore store = new MappedTemplateStore(mFile);
+		try {
+			store.append(1, template(1, 8), 8);
+		} finally {
+			store.close();
+		}
+		// simulate a crash after writing minutiae and the index entry but before updating the count
+		final RandomAccessFile index = new RandomAccessFile(mIndexFile, "rw");
+		try {
+			final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			entry.putLong(0, 2);
+			entry.putLong(8, (8L * 4 << 8) | 20);
+			index.seek(HEADER_SIZE + ENTRY_SIZE);
+			index.write(entry.array());
+		} finally {
+			index.close();
+		}
+		final RandomAccessFile data = new RandomAccessFile(mFile, "rw");
+		try {
+			data.seek(8 * 4);
+			for (int i = 0; i < 20; i++) {
+				data.writeInt(-1);
+			}
+		} finally {
+			data.close();
+		}
+		store = new MappedTemplateStore(mFile);
+		try {
+			assertEquals(1, store.size());
+			assertEquals(1, store.append(3, template(3, 4), 4));
+		} finally {
+			store.close();
+		}
+		store = new MappedTemplateStore(mFile);
+		try {
+			assertEquals(2, store.size());
+			assertTemplate(store, 0, 1, template(1, 8));
+			assertTemplate(store, 1, 3, template(3, 4));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void growsPastMappedSize() throws IOException {
+		final int max = TemplateCodec.MAX_MINUTIAE;
+		final int n = GROW_BYTES / (max * 4) * 2 + 1;
+		MappedTemplateStore store = new MappedTemplateStore(mFile);
+		try {
+			store.setSyncOnAppend(false);
+			for (int i = 0; i < n; i++) {
+				store.append(i, template(i, max), max);
+			}
+			store.sync();
+			// templates before and after the remap are readable from the same instance
+			assertEquals(n, store.size());
+			assertTemplate(store, 0, 0, template(0, max));
+			assertTemplate(store, n - 1, n - 1, template(n - 1, max));
+		} finally {
+			store.close();
+		}
+		assertTrue(mFile.length() > GROW_BYTES);
+		store = new MappedTemplateStore(mFile);
+		try {
+			assertEquals(n, store.size());
+			for (int i = 0; i < n; i += 97) {
+				assertTemplate(store, i, i, template(i, max));
+			}
+			assertTemplate(store, n - 1, n - 1, template(n - 1, max));
+		} finally {
+			store.close();
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.yi.matcher;
+
+import com.yi.minutiae.MinutiaeSet;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MatcherTest {
+	private static final int MINUTIAE = 40;
+	private static final int AREA = 400;
+	private static final int MARGIN = 150;
+
+	private final Random mRandom = new Random(1234);
+	private Matcher mMatcher;
+	private Matcher mSerialMatcher;
+
+	@After
+	public void tearDown() {
+		if (mMatcher != null) {
+			mMatcher.release();
+		}
+		if (mSerialMatcher != null) {
+			mSerialMatcher.release();
+		}
+	}
+
+	/**
+	 * random template in the middle of the coordinate space so that it can be moved around
+	 */
+	private MinutiaeSet randomTemplate() {
+		final MinutiaeSet minutiae = new MinutiaeSet(MINUTIAE);
+		for (int i = 0; i < MINUTIAE; i++) {
+			minutiae.add(MARGIN + mRandom.nextInt(AREA), MARGIN + mRandom.nextInt(AREA),
+				(float)(mRandom.nextDouble() * 2 * Math.PI),
+				mRandom.nextBoolean() ? MinutiaeSet.TYPE_ENDING : MinutiaeSet.TYPE_BIFURCATION);
+		}
+		return minutiae;
+	}
+
+	/**
+	 * rotate around the center of the template area and translate, as another impression of the same finger
+	 */
+	private static MinutiaeSet transform(final MinutiaeSet src, final double angle, final int dx, final int dy) {
+		final MinutiaeSet result = new MinutiaeSet(src.size());
+		final double c = MARGIN + AREA / 2.0;
+		final double cos = Math.cos(angle), sin = Math.sin(angle);
+		for (int i = 0; i < src.size(); i++) {
+			final double x = src.getX(i) - c, y = src.getY(i) - c;
+			result.add((int)Math.round(c + x * cos - y * sin + dx), (int)Math.round(c + x * sin + y * cos + dy),
+				(float)(src.getAngle(i) + angle), src.getType(i));
+		}
+		return result;
+	}
+
+	private MinutiaeSet[] enroll(final InMemoryTemplateSet templates, final int n) {
+		final MinutiaeSet[] enrolled = new MinutiaeSet[n];
+		for (int i = 0; i < n; i++) {
+			enrolled[i] = randomTemplate();
+			templates.add(1000 + templates.size(), enrolled[i]);
+		}
+		return enrolled;
+	}
+
+	@Test
+	public void transformedProbeRanksEnrolledTemplateFirst() {
+		final InMemoryTemplateSet templates = new InMemoryTemplateSet();
+		final MinutiaeSet[] enrolled = enroll(templates, 200);
+		mMatcher = new Matcher(templates, 2);
+		mMatcher.rebuildIndex();
+		final SearchResult result = mMatcher.identify(transform(enrolled[37], Math.toRadians(25), 40, -30), 5);
+		assertTrue(result.toString(), result.candidates < result.templates);
+		final MatchResult best = result.getBest();
+		assertEquals(1037, best.id);
+		assertEquals(37, best.index);
+		assertTrue(result.matches.toString(), best.score > result.matches.get(1).score * 2);
+	}
+
+	@Test
+	public void templatesAddedAfterIndexAreScored() {
+		final InMemoryTemplateSet templates = new InMemoryTemplateSet();
+		enroll(templates, 100);
+		mMatcher = new Matcher(templates, 2);
+		mMatcher.rebuildIndex();
+		final MinutiaeSet[] added = enroll(templates, 20);
+		final SearchResult result = mMatcher.identify(transform(added[10], Math.toRadians(-15), -20, 35), 3);
+		assertEquals(120, result.templates);
+		assertEquals(110, result.getBest().index);
+		assertEquals(1110, result.getBest().id);
+	}
+
+	@Test
+	public void parallelScoringGivesSameTopK() {
+		final InMemoryTemplateSet templates = new InMemoryTemplateSet();
+		final MinutiaeSet[] enrolled = enroll(templates, 300);
+		// no index, so all templates are candidates and the parallel path is used
+		mSerialMatcher = new Matcher(templates, 1);
+		mMatcher = new Matcher(templates, 4);
+		for (final int target: new int[] {3, 150, 299}) {
+			final MinutiaeSet probe = transform(enrolled[target], Math.toRadians(10), 15, 15);
+			final SearchResult serial = mSerialMatcher.identify(probe, 10);
+			final SearchResult parallel = mMatcher.identify(probe, 10);
+			assertEquals(300, parallel.candidates);
+			assertEquals(serial.matches.size(), parallel.matches.size());
+			for (int i = 0; i < serial.matches.size(); i++) {
+				assertEquals(serial.matches.get(i).index, parallel.matches.get(i).index);
+				assertEquals(serial.matches.get(i).score, parallel.matches.get(i).score, 0);
+			}
+			assertEquals(target, parallel.getBest().index);
+		}
+	}
+}
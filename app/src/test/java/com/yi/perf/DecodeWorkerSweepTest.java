@@ -0,0 +1,61 @@
+package com.yi.perf;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class DecodeWorkerSweepTest {
+
+	private static long[] stats(final int workers, final long frames, final long decodeNs, final long elapsedNs) {
+		return new long[] { workers, frames, decodeNs, elapsedNs };
+	}
+
+	@Test
+	public void computesRatesFromDifferenceOfSnapshots() {
+		final DecodeWorkerSweep sweep = new DecodeWorkerSweep();
+		// 300 frames in 10s, 20ms each on 2 workers
+		final DecodeWorkerSweep.Result result = sweep.add(2,
+			stats(2, 100, 1000000000L, 5000000000L),
+			stats(2, 400, 7000000000L, 15000000000L), 3);
+		assertEquals(300, result.frames);
+		assertEquals(30.0, result.fps, 1e-9);
+		assertEquals(20.0, result.decodeMs, 1e-9);
+		assertEquals(100.0, result.capacityFps, 1e-9);
+		assertEquals(3, result.busyDrops);
+	}
+
+	@Test
+	public void nothingDecodedGivesZeroRates() {
+		final DecodeWorkerSweep sweep = new DecodeWorkerSweep();
+		final long[] zero = stats(1, 0, 0, 0);
+		final DecodeWorkerSweep.Result result = sweep.add(1, zero, zero, 0);
+		assertEquals(0.0, result.fps, 0);
+		assertEquals(0.0, result.decodeMs, 0);
+		assertEquals(0.0, result.capacityFps, 0);
+		assertEquals(0, sweep.getBestWorkers());
+	}
+
+	@Test
+	public void bestWorkersIsTheLeastThatReachesBestFps() {
+		final DecodeWorkerSweep sweep = new DecodeWorkerSweep();
+		final long[] start = stats(0, 0, 0, 0);
+		sweep.add(1, start, stats(1, 200, 10000000000L, 10000000000L), 100);
+		sweep.add(2, start, stats(2, 295, 10000000000L, 10000000000L), 5);
+		sweep.add(3, start, stats(3, 300, 10000000000L, 10000000000L), 0);
+		sweep.add(4, start, stats(4, 300, 10000000000L, 10000000000L), 0);
+		// 29.5fps is within 5% of 30fps
+		assertEquals(2, sweep.getBestWorkers());
+		assertEquals(4, sweep.getResults().size());
+	}
+
+	@Test
+	public void writesCsv() throws Exception {
+		final DecodeWorkerSweep sweep = new DecodeWorkerSweep();
+		sweep.add(1, stats(1, 0, 0, 0), stats(1, 30, 300000000L, 1000000000L), 0);
+		final StringWriter out = new StringWriter();
+		sweep.write(out);
+		assertEquals(DecodeWorkerSweep.CSV_HEADER + "\n1,30,30.00,10.000,100.00,0\n", out.toString());
+	}
+}
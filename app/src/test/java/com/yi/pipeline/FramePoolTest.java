@@ -0,0 +1,103 @@
+package com.yi.pipeline;
+
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FramePoolTest {
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveCapacity() {
+		new FramePool(0);
+	}
+
+	@Test
+	public void obtainReturnsNullWhenExhausted() {
+		final FramePool pool = new FramePool(3);
+		final Map<Frame, Boolean> frames = new IdentityHashMap<Frame, Boolean>();
+		for (int i = 0; i < 3; i++) {
+			final Frame frame = pool.obtain();
+			assertNotNull(frame);
+			frames.put(frame, Boolean.TRUE);
+		}
+		assertEquals(3, frames.size());
+		assertEquals(3, pool.inUse());
+		assertNull(pool.obtain());
+		assertNull(pool.obtain());
+		assertEquals(2, pool.getMissedCount());
+	}
+
+	@Test
+	public void recycledFrameIsReused() {
+		final FramePool pool = new FramePool(2);
+		final Frame first = pool.obtain();
+		final Frame second = pool.obtain();
+		first.ensureCapacity(16);
+		pool.recycle(first);
+		assertEquals(1, pool.inUse());
+		// no new frame is allocated while a recycled one is free
+		final Frame reused = pool.obtain();
+		assertSame(first, reused);
+		assertEquals(16, reused.data.capacity());
+		assertNull(pool.obtain());
+		pool.recycle(second);
+		pool.recycle(reused);
+		assertEquals(0, pool.inUse());
+	}
+
+	@Test
+	public void recycleIgnoresNull() {
+		final FramePool pool = new FramePool(1);
+		pool.recycle(null);
+		assertEquals(0, pool.inUse());
+		assertNotNull(pool.obtain());
+	}
+
+	@Test
+	public void concurrentObtainNeverExceedsCapacity() throws InterruptedException {
+		final FramePool pool = new FramePool(4);
+		final Thread[] threads = new Thread[4];
+		final Throwable[] error = new Throwable[1];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 100000; j++) {
+							final Frame frame = pool.obtain();
+							if (frame != null) {
+								if (pool.inUse() > pool.capacity()) {
+									throw new AssertionError("inUse=" + pool.inUse());
+								}
+								pool.recycle(frame);
+							}
+						}
+					} catch (final Throwable e) {
+						synchronized (error) {
+							error[0] = e;
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (final Thread thread: threads) {
+			thread.join();
+		}
+		synchronized (error) {
+			assertNull(error[0]);
+		}
+		assertEquals(0, pool.inUse());
+		// all frames are back, the pool is filled up without allocating more
+		for (int i = 0; i < pool.capacity(); i++) {
+			assertNotNull(pool.obtain());
+		}
+		assertNull(pool.obtain());
+	}
+}
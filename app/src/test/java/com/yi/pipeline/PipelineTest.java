@@ -0,0 +1,220 @@
+package com.yi.pipeline;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineTest {
+	private static final int WIDTH = 4;
+	private static final int HEIGHT = 2;
+
+	private final ByteBuffer mData = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+	private Pipeline mPipeline;
+
+	@After
+	public void tearDown() {
+		if (mPipeline != null) {
+			mPipeline.stop();
+		}
+	}
+
+	private boolean submit() {
+		return mPipeline.submit(mData, WIDTH, HEIGHT, Frame.FORMAT_GRAY, System.nanoTime());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void startWithoutStageFails() {
+		new Pipeline(1).start();
+	}
+
+	@Test
+	public void submitBeforeStartIsRejected() {
+		mPipeline = new Pipeline(2).addStage("sink", new RecordingStage(), ThreadPolicy.inline());
+		assertFalse(submit());
+		assertEquals(0, mPipeline.getPool().inUse());
+	}
+
+	@Test
+	public void submitKeepsSourcePosition() {
+		final RecordingStage sink = new RecordingStage();
+		mPipeline = new Pipeline(2).addStage("sink", sink, ThreadPolicy.inline());
+		mPipeline.start();
+		mData.position(2);
+		assertTrue(mPipeline.submit(mData, WIDTH, HEIGHT, Frame.FORMAT_GRAY, 1));
+		assertEquals(2, mData.position());
+		assertEquals(WIDTH * HEIGHT - 2, sink.mBytes.get(0).intValue());
+	}
+
+	@Test(timeout = 10000)
+	public void dropsFramesWhenQueueIsFull() throws InterruptedException {
+		final BlockingStage stage = new BlockingStage();
+		mPipeline = new Pipeline(8).addStage("slow", stage, ThreadPolicy.dedicated(1));
+		mPipeline.start();
+		assertTrue(submit());
+		// the worker holds the first frame, the second one waits in the queue
+		assertTrue(stage.mEntered.await(5, TimeUnit.SECONDS));
+		assertTrue(submit());
+		assertFalse(submit());
+		assertFalse(submit());
+		final StageStats stats = mPipeline.getStats().get(0);
+		assertEquals(2, stats.dropped);
+		assertEquals(1, stats.queued);
+		// dropped frames go back to the pool at once
+		assertEquals(2, mPipeline.getPool().inUse());
+		assertEquals(0, mPipeline.getSubmitDropped());
+		stage.mRelease.countDown();
+	}
+
+	@Test(timeout = 10000)
+	public void dropsFramesWhenPoolIsExhausted() throws InterruptedException {
+		final BlockingStage stage = new BlockingStage();
+		mPipeline = new Pipeline(1).addStage("slow", stage, ThreadPolicy.dedicated(4));
+		mPipeline.start();
+		assertTrue(submit());
+		assertTrue(stage.mEntered.await(5, TimeUnit.SECONDS));
+		assertFalse(submit());
+		assertEquals(1, mPipeline.getSubmitDropped());
+		assertEquals(1, mPipeline.getPool().getMissedCount());
+		assertEquals(0, mPipeline.getStats().get(0).dropped);
+		stage.mRelease.countDown();
+	}
+
+	@Test
+	public void inlineStagesKeepOrder() {
+		final RecordingStage first = new RecordingStage();
+		final RecordingStage second = new RecordingStage();
+		mPipeline = new Pipeline(1)
+			.addStage("first", first, ThreadPolicy.inline())
+			.addStage("second", second, ThreadPolicy.inline());
+		mPipeline.start();
+		for (int i = 0; i < 100; i++) {
+			// inline stages finish before submit returns, so one frame is enough
+			assertTrue(submit());
+			assertEquals(0, mPipeline.getPool().inUse());
+		}
+		assertSequence(first.mSequences, 100);
+		assertSequence(second.mSequences, 100);
+	}
+
+	@Test(timeout = 10000)
+	public void dedicatedStageKeepsOrder() throws InterruptedException {
+		final int n = 1000;
+		final RecordingStage first = new RecordingStage();
+		final RecordingStage second = new RecordingStage(n);
+		mPipeline = new Pipeline(n)
+			.addStage("first", first, ThreadPolicy.dedicated(n))
+			.addStage("gray", new GrayConvertStage(), ThreadPolicy.inline())
+			.addStage("second", second, ThreadPolicy.dedicated(n));
+		mPipeline.start();
+		for (int i = 0; i < n; i++) {
+			assertTrue(submit());
+		}
+		assertTrue(second.mDone.await(5, TimeUnit.SECONDS));
+		assertSequence(first.mSequences, n);
+		assertSequence(second.mSequences, n);
+		for (final StageStats stats: mPipeline.getStats()) {
+			assertEquals(0, stats.dropped);
+			assertEquals(0, stats.errors);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void stopDrainsQueuesAndReleasesFrames() throws InterruptedException {
+		final BlockingStage stage = new BlockingStage();
+		mPipeline = new Pipeline(8).addStage("slow", stage, ThreadPolicy.dedicated(4));
+		mPipeline.start();
+		assertTrue(submit());
+		assertTrue(stage.mEntered.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 4; i++) {
+			assertTrue(submit());
+		}
+		assertEquals(5, mPipeline.getPool().inUse());
+		// stop interrupts the worker waiting in the stage and discards the queued frames
+		mPipeline.stop();
+		assertFalse(mPipeline.isRunning());
+		assertEquals(0, mPipeline.getPool().inUse());
+		assertEquals(0, mPipeline.getStats().get(0).queued);
+		assertEquals(1, mPipeline.getStats().get(0).processed);
+		assertFalse(submit());
+		assertEquals(0, mPipeline.getPool().inUse());
+	}
+
+	@Test
+	public void failingStageRecyclesFrame() {
+		mPipeline = new Pipeline(1).addStage("broken", new FrameStage() {
+			@Override
+			public Frame process(final Frame frame, final FramePool pool) {
+				throw new IllegalStateException("broken frame");
+			}
+		}, ThreadPolicy.inline());
+		mPipeline.start();
+		assertTrue(submit());
+		assertTrue(submit());
+		assertEquals(2, mPipeline.getStats().get(0).errors);
+		assertEquals(0, mPipeline.getPool().inUse());
+	}
+
+	private static void assertSequence(final List<Long> sequences, final int n) {
+		synchronized (sequences) {
+			assertEquals(n, sequences.size());
+			for (int i = 0; i < n; i++) {
+				assertEquals(i, sequences.get(i).longValue());
+			}
+		}
+	}
+
+	/**
+	 * records the sequence numbers and passes the frame to next stage
+	 */
+	private static class RecordingStage implements FrameStage {
+		private final List<Long> mSequences = new ArrayList<Long>();
+		private final List<Integer> mBytes = new ArrayList<Integer>();
+		private final CountDownLatch mDone;
+
+		private RecordingStage() {
+			this(0);
+		}
+
+		private RecordingStage(final int expected) {
+			mDone = new CountDownLatch(expected);
+		}
+
+		@Override
+		public Frame process(final Frame frame, final FramePool pool) {
+			synchronized (mSequences) {
+				mSequences.add(frame.sequence);
+				mBytes.add(frame.data.limit());
+			}
+			mDone.countDown();
+			return frame;
+		}
+	}
+
+	/**
+	 * holds the first frame until released or interrupted
+	 */
+	private static class BlockingStage implements FrameStage {
+		private final CountDownLatch mEntered = new CountDownLatch(1);
+		private final CountDownLatch mRelease = new CountDownLatch(1);
+
+		@Override
+		public Frame process(final Frame frame, final FramePool pool) {
+			mEntered.countDown();
+			try {
+				mRelease.await();
+			} catch (final InterruptedException e) {
+				// stopped
+			}
+			return frame;
+		}
+	}
+}
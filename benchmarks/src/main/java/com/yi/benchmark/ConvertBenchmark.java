@@ -0,0 +1,65 @@
+package com.yi.benchmark;
+
+import com.yi.pipeline.PixelConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of YUYV frames from UVCCamera into the formats used for processing/encoding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertBenchmark {
+	// default preview size, a typical area sensor and VGA
+	@Param({"120x120", "256x360", "640x480"})
+	public String size;
+
+	private int mWidth, mHeight;
+	private ByteBuffer mYuyv, mGray, mRgbx, mNv21;
+
+	@Setup
+	public void setup() {
+		final int[] wh = TestFrames.parseSize(size);
+		mWidth = wh[0];
+		mHeight = wh[1];
+		mYuyv = TestFrames.yuyv(mWidth, mHeight);
+		mGray = TestFrames.allocate(mWidth * mHeight);
+		mRgbx = TestFrames.allocate(mWidth * mHeight * 4);
+		mNv21 = TestFrames.allocate(mWidth * mHeight * 3 / 2);
+	}
+
+	@Benchmark
+	public ByteBuffer yuyvToGray() {
+		PixelConverter.yuyvToGray(mYuyv, mGray, mWidth * mHeight);
+		return mGray;
+	}
+
+	@Benchmark
+	public ByteBuffer yuyvToRgbx() {
+		PixelConverter.yuyvToRgbx(mYuyv, mRgbx, mWidth, mHeight);
+		return mRgbx;
+	}
+
+	@Benchmark
+	public ByteBuffer yuyvToNv21() {
+		PixelConverter.yuyvToNv21(mYuyv, mNv21, mWidth, mHeight);
+		return mNv21;
+	}
+}
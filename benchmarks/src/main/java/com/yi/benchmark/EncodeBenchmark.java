@@ -0,0 +1,110 @@
+package com.yi.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * PNG/JPEG encoding of fingerprint-sized frames.
+ * Bitmap#compress is not available on a desktop JVM, ImageIO is used as a proxy, so compare
+ * results between changes rather than with the timing on devices.
+ * "gray" encodes the luminance only, "rgb" encodes the gray image expanded to RGB as
+ * the smart capture of UVCCameraHandler does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+	@Param({"120x120", "256x360"})
+	public String size;
+
+	@Param({"gray", "rgb"})
+	public String color;
+
+	private BufferedImage mImage;
+	private ImageWriter mPngWriter, mJpegWriter;
+	private ImageWriteParam mJpegParam;
+	private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream(1024 * 1024);
+
+	@Setup
+	public void setup() {
+		final int[] wh = TestFrames.parseSize(size);
+		final int width = wh[0], height = wh[1];
+		final ByteBuffer gray = TestFrames.gray(width, height);
+		if ("gray".equals(color)) {
+			mImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+			gray.get(((DataBufferByte)mImage.getRaster().getDataBuffer()).getData());
+		} else {
+			mImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			final int[] pixels = ((DataBufferInt)mImage.getRaster().getDataBuffer()).getData();
+			for (int i = 0; i < pixels.length; i++) {
+				final int v = gray.get(i) & 0xff;
+				pixels[i] = (v << 16) | (v << 8) | v;
+			}
+		}
+		mPngWriter = ImageIO.getImageWritersByFormatName("png").next();
+		mJpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+		// same quality as StillImageEncoder uses
+		mJpegParam = mJpegWriter.getDefaultWriteParam();
+		mJpegParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		mJpegParam.setCompressionQuality(0.9f);
+	}
+
+	@TearDown
+	public void tearDown() {
+		mPngWriter.dispose();
+		mJpegWriter.dispose();
+	}
+
+	@Benchmark
+	public int png() throws IOException {
+		return encode(mPngWriter, null);
+	}
+
+	@Benchmark
+	public int jpeg() throws IOException {
+		return encode(mJpegWriter, mJpegParam);
+	}
+
+	/**
+	 * @return encoded size
+	 */
+	private int encode(final ImageWriter writer, final ImageWriteParam param) throws IOException {
+		mOutput.reset();
+		final ImageOutputStream out = new MemoryCacheImageOutputStream(mOutput);
+		try {
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(mImage, null, null), param);
+		} finally {
+			out.close();
+		}
+		return mOutput.size();
+	}
+}
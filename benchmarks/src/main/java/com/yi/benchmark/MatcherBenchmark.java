@@ -0,0 +1,97 @@
+package com.yi.benchmark;
+
+import com.yi.matcher.InMemoryTemplateSet;
+import com.yi.matcher.Matcher;
+import com.yi.matcher.SearchResult;
+import com.yi.matcher.TemplateCodec;
+import com.yi.matcher.TripletIndex;
+import com.yi.minutiae.MinutiaeSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1:N identification against random templates, the probe is a rotated/translated copy of one of them.
+ * #identify uses the triplet pre-filter, #identifyAll scores every template as before #rebuildIndex.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatcherBenchmark {
+	private static final int MINUTIAE = 40;
+
+	@Param({"1000", "10000"})
+	public int templates;
+
+	private InMemoryTemplateSet mTemplates;
+	private Matcher mIndexed, mAll;
+	private final int[] mProbe = new int[TemplateCodec.MAX_MINUTIAE];
+	private int mProbeCount;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(1234);
+		mTemplates = new InMemoryTemplateSet(templates);
+		final MinutiaeSet minutiae = new MinutiaeSet(MINUTIAE);
+		final MinutiaeSet probe = new MinutiaeSet(MINUTIAE);
+		for (int i = 0; i < templates; i++) {
+			minutiae.clear();
+			for (int j = 0; j < MINUTIAE; j++) {
+				minutiae.add(150 + random.nextInt(400), 150 + random.nextInt(400),
+					(float)(random.nextDouble() * 2 * Math.PI),
+					random.nextBoolean() ? MinutiaeSet.TYPE_ENDING : MinutiaeSet.TYPE_BIFURCATION);
+			}
+			mTemplates.add(i, minutiae);
+			if (i == templates / 2) {
+				// rotate 20 degrees around the center and move
+				final double cos = Math.cos(Math.toRadians(20)), sin = Math.sin(Math.toRadians(20));
+				for (int j = 0; j < MINUTIAE; j++) {
+					final double x = minutiae.getX(j) - 350, y = minutiae.getY(j) - 350;
+					probe.add((int)Math.round(380 + x * cos - y * sin), (int)Math.round(330 + x * sin + y * cos),
+						(float)(minutiae.getAngle(j) + Math.toRadians(20)), minutiae.getType(j));
+				}
+			}
+		}
+		mProbeCount = TemplateCodec.encode(probe, mProbe);
+		mIndexed = new Matcher(mTemplates);
+		mIndexed.rebuildIndex();
+		mAll = new Matcher(mTemplates);
+	}
+
+	@TearDown
+	public void tearDown() {
+		mIndexed.release();
+		mAll.release();
+	}
+
+	@Benchmark
+	public SearchResult identify() {
+		return mIndexed.identify(mProbe, mProbeCount, 10);
+	}
+
+	@Benchmark
+	public SearchResult identifyAll() {
+		return mAll.identify(mProbe, mProbeCount, 10);
+	}
+
+	@Benchmark
+	public TripletIndex buildIndex() {
+		return TripletIndex.build(mTemplates);
+	}
+}
@@ -0,0 +1,58 @@
+package com.yi.benchmark;
+
+import com.yi.minutiae.MinutiaeExtractor;
+import com.yi.minutiae.MinutiaeSet;
+import com.yi.quality.FrameQualityScorer;
+import com.yi.quality.QualityScore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per frame analysis that runs on the frame callback path, directly on YUYV frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessingBenchmark {
+	@Param({"120x120", "256x360"})
+	public String size;
+
+	private ByteBuffer mYuyv;
+	private FrameQualityScorer mScorer;
+	private MinutiaeExtractor mExtractor;
+	private final MinutiaeSet mMinutiae = new MinutiaeSet(256);
+
+	@Setup
+	public void setup() {
+		final int[] wh = TestFrames.parseSize(size);
+		mYuyv = TestFrames.yuyv(wh[0], wh[1]);
+		mScorer = new FrameQualityScorer(wh[0], wh[1]);
+		mExtractor = new MinutiaeExtractor(wh[0], wh[1], TestFrames.RIDGE_PERIOD);
+	}
+
+	@Benchmark
+	public QualityScore qualityScore() {
+		return mScorer.score(mYuyv, 2);
+	}
+
+	@Benchmark
+	public int extractMinutiae() {
+		return mExtractor.extract(mYuyv, 2, mMinutiae);
+	}
+}
@@ -0,0 +1,61 @@
+package com.yi.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Synthetic fingerprint-like frames, concentric ridges with a period of about 9 pixels
+ * inside an ellipse on a bright background, so that the benchmarks do not need sample images.
+ */
+final class TestFrames {
+	static final int RIDGE_PERIOD = 9;
+
+	private TestFrames() {
+	}
+
+	/**
+	 * @param size "WIDTHxHEIGHT"
+	 * @return {width, height}
+	 */
+	static int[] parseSize(final String size) {
+		final int x = size.indexOf('x');
+		return new int[] {Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1))};
+	}
+
+	static ByteBuffer gray(final int width, final int height) {
+		final ByteBuffer buf = allocate(width * height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				buf.put(y * width + x, luma(x, y, width, height));
+			}
+		}
+		return buf;
+	}
+
+	static ByteBuffer yuyv(final int width, final int height) {
+		final ByteBuffer buf = allocate(width * height * 2);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final int i = (y * width + x) * 2;
+				buf.put(i, luma(x, y, width, height));
+				// slight color cast as a real sensor under LED light
+				buf.put(i + 1, (byte)((x & 1) == 0 ? 120 : 140));
+			}
+		}
+		return buf;
+	}
+
+	static ByteBuffer allocate(final int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	private static byte luma(final int x, final int y, final int width, final int height) {
+		final double dx = (x - width / 2.0) / (width * 0.4);
+		final double dy = (y - height / 2.0) / (height * 0.45);
+		if (dx * dx + dy * dy > 1.0) {
+			return (byte)210;
+		}
+		final double r = Math.hypot(x - width / 2.0, (y - height / 2.0) * 0.8);
+		return (byte)(110 + 70 * Math.cos(2 * Math.PI * r / RIDGE_PERIOD));
+	}
+}
@@ -0,0 +1,88 @@
+package com.yi.benchmark;
+
+import com.yi.pipeline.ImageOps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rotation/flip and normalization of gray frames.
+ * Normalization is a no-op on an already normalized image, so #normalize restores the frame
+ * first and #copy measures the restoring alone to be subtracted.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+	@Param({"120x120", "256x360", "640x480"})
+	public String size;
+
+	private int mWidth, mHeight;
+	private ByteBuffer mSource, mImage, mRotated;
+
+	@Setup
+	public void setup() {
+		final int[] wh = TestFrames.parseSize(size);
+		mWidth = wh[0];
+		mHeight = wh[1];
+		mSource = TestFrames.gray(mWidth, mHeight);
+		mImage = TestFrames.allocate(mWidth * mHeight);
+		mRotated = TestFrames.allocate(mWidth * mHeight);
+		copy();
+	}
+
+	@Benchmark
+	public ByteBuffer flipHorizontal() {
+		ImageOps.flip(mImage, mWidth, mHeight, true, false);
+		return mImage;
+	}
+
+	@Benchmark
+	public ByteBuffer flipVertical() {
+		ImageOps.flip(mImage, mWidth, mHeight, false, true);
+		return mImage;
+	}
+
+	@Benchmark
+	public ByteBuffer rotate180() {
+		ImageOps.flip(mImage, mWidth, mHeight, true, true);
+		return mImage;
+	}
+
+	@Benchmark
+	public ByteBuffer rotate90() {
+		ImageOps.rotate90(mImage, mRotated, mWidth, mHeight, true);
+		return mRotated;
+	}
+
+	@Benchmark
+	public ByteBuffer copy() {
+		mSource.clear();
+		mImage.clear();
+		mImage.put(mSource);
+		mImage.clear();
+		return mImage;
+	}
+
+	@Benchmark
+	public ByteBuffer normalize() {
+		copy();
+		ImageOps.normalize(mImage, mWidth * mHeight);
+		return mImage;
+	}
+}
@@ -0,0 +1,56 @@
+package com.serenegiant.usb;
+
+import java.util.Locale;
+
+/**
+ * Metadata of a frame that is delivered with frame data.
+ * The same instance is reused for every frame to avoid allocation,
+ * copy it with #set if you need to keep the values after the callback returns.
+ */
+public class FrameDescriptor {
+
+    // These fields are accessed from native code and do not change name and remove
+    /**
+     * monotonic sequence number of the frame, this may skip when frames are dropped on the way
+     */
+    public long sequence;
+    /**
+     * time when the frame arrived from USB, same time base as System#nanoTime
+     */
+    public long timestampNs;
+    public int width;
+    public int height;
+    /**
+     * one of UVCCamera.PIXEL_FORMAT_XXX
+     */
+    public int pixelFormat;
+    /**
+     * number of bytes of frame data
+     */
+    public int bytes;
+    // until here
+
+    public FrameDescriptor() {
+    }
+
+    public FrameDescriptor(final FrameDescriptor other) {
+        set(other);
+    }
+
+    public FrameDescriptor set(final FrameDescriptor other) {
+        if (other != null) {
+            sequence = other.sequence;
+            timestampNs = other.timestampNs;
+            width = other.width;
+            height = other.height;
+            pixelFormat = other.pixelFormat;
+            bytes = other.bytes;
+        }
+        return this;
+    }
+
+    public String toString() {
+        return String.format(Locale.US, "FrameDescriptor(seq:%d, ts:%d, %dx%d, format:%d, bytes:%d)",
+            sequence, timestampNs, width, height, pixelFormat, bytes);
+    }
+}
@@ -0,0 +1,16 @@
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Extended version of IFrameCallback that receives FrameDescriptor with each frame,
+ * use this with UVCCamera#setFrameDescriptorCallback.
+ */
+public interface IFrameDescriptorCallback {
+    /**
+     * This method is called from native library via JNI on the same thread as UVCCamera#startCaptures.
+     * @param frame
+     * @param descriptor metadata of the frame, this instance is reused for next frame
+     */
+    void onFrame(ByteBuffer frame, FrameDescriptor descriptor);
+}
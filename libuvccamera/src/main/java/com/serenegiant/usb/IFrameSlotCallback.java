@@ -0,0 +1,18 @@
+package com.serenegiant.usb;
+
+/**
+ * Zero-allocation version of IFrameCallback.
+ * Frames are written into the direct ByteBuffers that were returned from UVCCamera#setFrameCallback(IFrameSlotCallback, int, int)
+ * by turns and only the index of the buffer is passed, so no Java object is created for each frame.
+ * The buffers are sized for the preview size when they are registered, register them again after changing preview size.
+ */
+public interface IFrameSlotCallback {
+    /**
+     * This method is called from native library via JNI on the same thread as UVCCamera#startCaptures.
+     * The content of the slot is valid until the ring of buffers wraps around,
+     * i.e. you can keep using it while (number of slots - 1) frames are delivered.
+     * @param slot index of the ByteBuffer array that holds the frame
+     * @param bytes number of bytes of the frame
+     */
+    void onFrameSlot(int slot, int bytes);
+}
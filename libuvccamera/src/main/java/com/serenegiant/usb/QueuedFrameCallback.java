@@ -0,0 +1,114 @@
+package com.serenegiant.usb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * IFrameCallback wrapper that hands frames to a dedicated dispatch thread through lock-free queues,
+ * so that slow #onFrame of the delegate does not block native capture thread.
+ * Frame data are copied into pooled direct ByteBuffers and the buffers are returned to the pool
+ * after the delegate returns, therefore the delegate should not keep the reference to the ByteBuffer.
+ * If no free buffer is available, the frame is dropped and counted.
+ */
+public class QueuedFrameCallback implements IFrameCallback {
+    private final IFrameCallback mCallback;
+    // producer: native capture thread, consumer: dispatch thread
+    private final SpscQueue<ByteBuffer> mReadyQueue;
+    // producer: dispatch thread, consumer: native capture thread
+    private final SpscQueue<ByteBuffer> mFreeQueue;
+    private final Thread mDispatchThread;
+    private volatile boolean mIsRunning = true;
+    private volatile long mDropCount;
+    // buffer that was rejected by mReadyQueue/too small, accessed only from native capture thread
+    private ByteBuffer mSpare;
+    // number of allocated buffers, accessed only from native capture thread
+    private int mAllocated;
+
+    /**
+     * @param callback   delegate, called on the dispatch thread
+     * @param queueDepth max number of frames waiting for dispatch
+     */
+    public QueuedFrameCallback(final IFrameCallback callback, final int queueDepth) {
+        if (callback == null) throw new NullPointerException("callback should not be null");
+        mCallback = callback;
+        mReadyQueue = new SpscQueue<ByteBuffer>(queueDepth);
+        // one extra buffer for the frame that is dispatching now
+        mFreeQueue = new SpscQueue<ByteBuffer>(queueDepth + 1);
+        mDispatchThread = new Thread(mDispatchTask, "QueuedFrameCallback");
+        mDispatchThread.start();
+    }
+
+    /**
+     * called from native capture thread
+     */
+    @Override
+    public void onFrame(final ByteBuffer frame) {
+        if (!mIsRunning) return;
+        final int bytes = frame.remaining();
+        ByteBuffer buf = mSpare;
+        if (buf != null) {
+            mSpare = null;
+        } else {
+            buf = mFreeQueue.poll();
+        }
+        if ((buf != null) && (buf.capacity() < bytes)) {
+            // frame size changed, replace with new one
+            buf = ByteBuffer.allocateDirect(bytes);
+        } else if ((buf == null) && (mAllocated < mFreeQueue.capacity())) {
+            // buffers are allocated lazily until the pool is filled up
+            buf = ByteBuffer.allocateDirect(bytes);
+            mAllocated++;
+        }
+        if (buf == null) {
+            mDropCount++;
+            return;
+        }
+        buf.clear();
+        buf.put(frame);
+        buf.flip();
+        if (mReadyQueue.offer(buf)) {
+            LockSupport.unpark(mDispatchThread);
+        } else {
+            mSpare = buf;
+            mDropCount++;
+        }
+    }
+
+    /**
+     * number of frames dropped because the dispatch thread could not keep up
+     */
+    public long getDropCount() {
+        return mDropCount;
+    }
+
+    /**
+     * stop dispatch thread, frames that are not dispatched yet are discarded
+     */
+    public void release() {
+        mIsRunning = false;
+        LockSupport.unpark(mDispatchThread);
+        try {
+            mDispatchThread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final Runnable mDispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            while (mIsRunning) {
+                final ByteBuffer buf = mReadyQueue.poll();
+                if (buf == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                try {
+                    mCallback.onFrame(buf);
+                } finally {
+                    mFreeQueue.offer(buf);
+                }
+            }
+        }
+    };
+}
@@ -0,0 +1,76 @@
+package com.serenegiant.usb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free bounded ring buffer for single producer and single consumer.
+ * This is Java counterpart of jni/UVCCamera/spscqueue.h.
+ * #offer must be called only from one producer thread and #poll only from one consumer thread.
+ */
+public class SpscQueue<E> {
+    private final Object[] mElements;
+    private final int mMask;
+    private final int mCapacity;
+    // mHead is written only by consumer and mTail is written only by producer
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    public SpscQueue(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity should be positive:" + capacity);
+        }
+        int n = 1;
+        while (n < capacity) n <<= 1;
+        mElements = new Object[n];
+        mMask = n - 1;
+        mCapacity = capacity;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * approximate number of queued elements, this is exact only when called from producer or consumer thread
+     */
+    public int size() {
+        return (int)(mTail.get() - mHead.get());
+    }
+
+    public boolean isEmpty() {
+        return size() <= 0;
+    }
+
+    /**
+     * add element to the tail, only from producer thread
+     * @param e
+     * @return false if the queue is full
+     */
+    public boolean offer(final E e) {
+        if (e == null) throw new NullPointerException();
+        final long tail = mTail.get();
+        if (tail - mHead.get() >= mCapacity) {
+            return false;
+        }
+        mElements[(int)tail & mMask] = e;
+        mTail.lazySet(tail + 1);    // release store, element is visible before new tail
+        return true;
+    }
+
+    /**
+     * remove and return the head element, only from consumer thread
+     * @return null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final long head = mHead.get();
+        if (head == mTail.get()) {
+            return null;
+        }
+        final int ix = (int)head & mMask;
+        final E e = (E)mElements[ix];
+        mElements[ix] = null;
+        mHead.lazySet(head + 1);
+        return e;
+    }
+}
@@ -11,6 +11,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -90,6 +92,33 @@ public class UVCCamera {
     public static final int STATUS_ATTRIBUTE_FAILURE_CHANGE     = 0x02;
     public static final int STATUS_ATTRIBUTE_UNKNOWN            = 0xff;
 
+    // what to do when frame queue for preview is full, these are same as FRAME_DROP_POLICY_XXX in UVCPreview.h
+    public static final int FRAME_DROP_NEWEST = 0;  // discard the frame that just arrived
+    public static final int FRAME_DROP_OLDEST = 1;  // discard queued frames, latest frame wins (low latency preview)
+    public static final int FRAME_DROP_BLOCK = 2;   // block USB callback until preview thread catch up
+    public static final int DEFAULT_FRAME_POOL_SIZE = 6;
+    public static final int DEFAULT_FRAME_QUEUE_DEPTH = 4;
+
+    public static final int MAX_DECODE_WORKERS = 8;    // same as MAX_DECODE_WORKERS in MJPEGDecodePool.h
+
+    // index of the array returned by #getDecodeStats
+    public static final int DECODE_STATS_WORKERS = 0;       // number of decode threads
+    public static final int DECODE_STATS_FRAMES = 1;        // number of decoded frames
+    public static final int DECODE_STATS_DECODE_NS = 2;     // total time spent for decoding on all threads
+    public static final int DECODE_STATS_ELAPSED_NS = 3;    // elapsed time since decoder started
+
+    // index of the array for #getFrameTimes, all times are on the same time base as System#nanoTime
+    public static final int FRAME_TIMES_SEQUENCE = 0;
+    public static final int FRAME_TIMES_ARRIVAL_NS = 1;     // the frame arrived from USB
+    public static final int FRAME_TIMES_DECODED_NS = 2;     // MJPEG decoding finished(dequeued for YUYV)
+    public static final int FRAME_TIMES_POSTED_NS = 3;      // started posting to the preview Surface
+
+    // index of the array returned by #getFrameDropCounts
+    public static final int DROP_COUNT_NEWEST = 0;
+    public static final int DROP_COUNT_OLDEST = 1;
+    public static final int DROP_COUNT_BLOCKED = 2;
+    public static final int DROP_COUNT_SKIPPED = 3;   // not decoded/converted because no preview/capture/callback is attached
+
     private static boolean isLoaded;
     static {
         if (!isLoaded) {
@@ -227,7 +256,7 @@ public class UVCCamera {
         Size result = null;
         final List<Size> list = getSupportedSizeList();
         for (final Size sz : list) {
-            if ((sz.width == mCurrentPreviewWidth) || (sz.height == mCurrentPreviewHeight)) {
+            if ((sz.width == mCurrentPreviewWidth) && (sz.height == mCurrentPreviewHeight)) {
                 result = sz;
                 break;
             }
@@ -235,6 +264,16 @@ public class UVCCamera {
         return result;
     }
 
+    /**
+     * Get the frame rate negotiated with the camera for current preview size,
+     * this is in the range of min_fps and max_fps of #setPreviewSize if the camera supports it
+     * @return frames per second, DEFAULT_PREVIEW_MAX_FPS if the camera is not opened
+     */
+    public int getPreviewFrameRate() {
+        final int result = mNativePtr != 0 ? nativeGetPreviewFrameRate(mNativePtr) : 0;
+        return result > 0 ? result : DEFAULT_PREVIEW_MAX_FPS;
+    }
+
     /**
      * Set preview size and preview mode
      * @param width
@@ -361,6 +400,130 @@ public class UVCCamera {
         }
     }
 
+    /**
+     * Set frame callback that receives FrameDescriptor(sequence number, arrival time, size etc.) with each frame
+     * @param callback
+     * @param pixelFormat
+     */
+    public void setFrameDescriptorCallback(final IFrameDescriptorCallback callback, final int pixelFormat) {
+        if (mNativePtr != 0) {
+            nativeSetFrameDescriptorCallback(mNativePtr, callback, pixelFormat,
+                callback != null ? new FrameDescriptor() : null);
+        }
+    }
+
+    /**
+     * Set frame callback that receives frames through pre-allocated direct ByteBuffers
+     * instead of creating new ByteBuffer for every frame.
+     * This should be called after #setPreviewSize because the size of buffers depends on preview size,
+     * call this again after changing preview size, otherwise no frame is passed if the buffers are too small.
+     * @param callback
+     * @param pixelFormat
+     * @param slotCount number of buffers in the ring, should be 2 or more if you use the buffer on other thread
+     * @return the ring of direct ByteBuffers, IFrameSlotCallback#onFrameSlot passes the index of this array
+     */
+    public ByteBuffer[] setFrameCallback(final IFrameSlotCallback callback, final int pixelFormat, final int slotCount) {
+        if (slotCount < 1) throw new IllegalArgumentException("slotCount should be positive");
+        final int bytes = getFrameBytes(mCurrentPreviewWidth, mCurrentPreviewHeight, pixelFormat);
+        final ByteBuffer[] slots = new ByteBuffer[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        if (mNativePtr != 0) {
+            final int result = nativeSetFrameSlotCallback(mNativePtr, callback, pixelFormat, slots);
+            if (result != 0) throw new IllegalArgumentException("Failed to set frame slot callback");
+        }
+        return slots;
+    }
+
+    /**
+     * Get the number of bytes of a frame that is passed to frame callback
+     * @param width
+     * @param height
+     * @param pixelFormat
+     * @return
+     */
+    public static int getFrameBytes(final int width, final int height, final int pixelFormat) {
+        final int sz = width * height;
+        switch (pixelFormat) {
+        case PIXEL_FORMAT_RGBX:
+            return sz * 4;
+        case PIXEL_FORMAT_YUV420SP:
+        case PIXEL_FORMAT_NV21:
+            return (sz * 3) / 2;
+        default:
+            return sz * 2;
+        }
+    }
+
+    /**
+     * Set frame pool and frame queue configuration, this is applied on next #startPreview
+     * @param poolSize max number of frames kept in the frame pool for reuse
+     * @param queueDepth max number of frames waiting for preview thread
+     * @param dropPolicy FRAME_DROP_NEWEST, FRAME_DROP_OLDEST or FRAME_DROP_BLOCK
+     */
+    public void setFramePoolConfig(final int poolSize, final int queueDepth, final int dropPolicy) {
+        if ((poolSize < 1) || (queueDepth < 1)
+            || (dropPolicy < FRAME_DROP_NEWEST) || (dropPolicy > FRAME_DROP_BLOCK))
+            throw new IllegalArgumentException("Invalid frame pool config");
+        if (mNativePtr != 0) {
+            final int result = nativeSetFramePoolConfig(mNativePtr, poolSize, queueDepth, dropPolicy);
+            if (result != 0) throw new IllegalArgumentException("Failed to set frame pool config");
+        }
+    }
+
+    /**
+     * Get the number of frames discarded/blocked since last #startPreview.
+     * Frames are not decoded nor converted while no preview display, capture display and frame callback
+     * are attached, those frames are counted as DROP_COUNT_SKIPPED.
+     * @return array of counts, use DROP_COUNT_XXX as index
+     */
+    public int[] getFrameDropCounts() {
+        final int[] result = new int[4];
+        if (mNativePtr != 0) {
+            nativeGetFrameDropCounts(mNativePtr, result);
+        }
+        return result;
+    }
+
+    /**
+     * Set the number of threads to decode MJPEG frames, this is applied on next #startPreview.
+     * Decoded frames are always presented in arrival order regardless of the number of threads.
+     * @param workers 1 to MAX_DECODE_WORKERS
+     */
+    public void setDecodeWorkers(final int workers) {
+        if ((workers < 1) || (workers > MAX_DECODE_WORKERS))
+            throw new IllegalArgumentException("Invalid number of decode workers:" + workers);
+        if (mNativePtr != 0) {
+            nativeSetDecodeWorkers(mNativePtr, workers);
+        }
+    }
+
+    /**
+     * Get statistics of MJPEG decoding of current(or last) preview,
+     * decoding throughput is DECODE_STATS_FRAMES * 1e9 / DECODE_STATS_ELAPSED_NS [fps]
+     * @return array of statistics, use DECODE_STATS_XXX as index
+     */
+    public long[] getDecodeStats() {
+        final long[] result = new long[4];
+        if (mNativePtr != 0) {
+            nativeGetDecodeStats(mNativePtr, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the times of the frame that was drawn into the preview Surface, this does not allocate
+     * so it can be called for every frame.
+     * The native side keeps the times of recent frames only, so call this soon after the frame is drawn.
+     * @param presentedNs SurfaceTexture#getTimestamp of the SurfaceTexture that is set by #setPreviewDisplay
+     * @param times array of at least 4 elements, use FRAME_TIMES_XXX as index
+     * @return false if the frame was not found
+     */
+    public boolean getFrameTimes(final long presentedNs, final long[] times) {
+        return (mNativePtr != 0) && (nativeGetFrameTimes(mNativePtr, presentedNs, times) == 0);
+    }
+
     /**
      * Start preview
      */
@@ -920,6 +1083,14 @@ public class UVCCamera {
     private static final native int nativeStopPreview(final long id_camera);
     private static final native int nativeSetPreviewDisplay(final long id_camera, final Surface surface);
     private static final native int nativeSetFrameCallback(final long mNativePtr, final IFrameCallback callback, final int pixelFormat);
+    private static final native int nativeSetFrameSlotCallback(final long mNativePtr, final IFrameSlotCallback callback, final int pixelFormat, final ByteBuffer[] slots);
+    private static final native int nativeSetFrameDescriptorCallback(final long mNativePtr, final IFrameDescriptorCallback callback, final int pixelFormat, final FrameDescriptor descriptor);
+    private static final native int nativeSetDecodeWorkers(final long id_camera, final int workers);
+    private static final native int nativeGetDecodeStats(final long id_camera, final long[] stats);
+    private static final native int nativeGetPreviewFrameRate(final long id_camera);
+    private static final native int nativeGetFrameTimes(final long id_camera, final long presentedNs, final long[] times);
+    private static final native int nativeSetFramePoolConfig(final long id_camera, final int poolSize, final int queueDepth, final int dropPolicy);
+    private static final native int nativeGetFrameDropCounts(final long id_camera, final int[] counts);
 
     /**
      * Start movie capturing(this should call while previewing)
@@ -0,0 +1,235 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MJPEGDecodePool.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <linux/time.h>
+#include <unistd.h>
+
+#if 1	// set 1 if you don't need debug log
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// w/o LOGV/LOGD/MARK
+	#endif
+	#undef USE_LOGALL
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+//	#undef NDEBUG
+#endif
+
+#include "utilbase.h"
+#include "MJPEGDecodePool.h"
+
+#define	LOCAL_DEBUG 0
+
+MJPEGDecodePool::MJPEGDecodePool(int worker_num, int depth, decodeFunc_t decode_func, sem_t *notify)
+:	mWorkerNum(worker_num < 1 ? 1 : (worker_num > MAX_DECODE_WORKERS ? MAX_DECODE_WORKERS : worker_num)),
+	mDepth(depth < 1 ? 1 : depth),
+	mDecodeFunc(decode_func),
+	mNotify(notify),
+	mIsRunning(false),
+	mWorkers(NULL),
+	mSubmitIndex(0),
+	mPollIndex(0),
+	mInFlight(0),
+	mStartTimeNs(0) {
+
+	ENTER();
+	mWorkers = new decode_worker_t[mWorkerNum];
+	for (int i = 0; i < mWorkerNum; i++) {
+		decode_worker_t *worker = &mWorkers[i];
+		worker->parent = this;
+		sem_init(&worker->sync, 0, 0);
+		worker->in.resize(mDepth);
+		worker->out.resize(mDepth);
+		worker->free_jobs.resize(mDepth);
+		worker->jobs = new decode_job_t[mDepth];
+		for (int j = 0; j < mDepth; j++) {
+			worker->free_jobs.put(&worker->jobs[j]);
+		}
+		worker->decoded = 0;
+		worker->decode_ns = 0;
+	}
+	EXIT();
+}
+
+MJPEGDecodePool::~MJPEGDecodePool() {
+	ENTER();
+	stop();
+	for (int i = 0; i < mWorkerNum; i++) {
+		sem_destroy(&mWorkers[i].sync);
+		SAFE_DELETE_ARRAY(mWorkers[i].jobs);
+	}
+	SAFE_DELETE_ARRAY(mWorkers);
+	EXIT();
+}
+
+uint64_t MJPEGDecodePool::nowNs() {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+int MJPEGDecodePool::start() {
+	ENTER();
+	int result = 0;
+	if (!mIsRunning) {
+		mIsRunning = true;
+		mStartTimeNs = nowNs();
+		for (int i = 0; i < mWorkerNum; i++) {
+			result = pthread_create(&mWorkers[i].thread, NULL, worker_thread_func, (void *)&mWorkers[i]);
+			if (UNLIKELY(result)) {
+				LOGE("failed to create decode worker:%d", result);
+				// stop workers that already started
+				mIsRunning = false;
+				for (int j = 0; j < i; j++) {
+					sem_post(&mWorkers[j].sync);
+					pthread_join(mWorkers[j].thread, NULL);
+				}
+				break;
+			}
+		}
+	}
+	RETURN(result, int);
+}
+
+/**
+ * stop all workers, jobs that are not polled yet are discarded
+ * frames in those jobs are not released, caller should poll them before calling this if needs
+ */
+void MJPEGDecodePool::stop() {
+	ENTER();
+	if (mIsRunning) {
+		mIsRunning = false;
+		for (int i = 0; i < mWorkerNum; i++) {
+			sem_post(&mWorkers[i].sync);
+		}
+		for (int i = 0; i < mWorkerNum; i++) {
+			if (pthread_join(mWorkers[i].thread, NULL) != EXIT_SUCCESS) {
+				LOGW("MJPEGDecodePool::terminate worker: pthread_join failed");
+			}
+		}
+	}
+	EXIT();
+}
+
+/**
+ * pass frames to next worker, this should be called only from owner thread
+ * @param decode_func decode function for this frame, NULL means the one passed to constructor
+ * @return false if the worker is busy, ownership of frames is not transferred in that case
+ */
+bool MJPEGDecodePool::submit(uvc_frame_t *src, uvc_frame_t *dst, decodeFunc_t decode_func) {
+	decode_worker_t *worker = &mWorkers[mSubmitIndex];
+	decode_job_t *job = worker->free_jobs.get();
+	if (UNLIKELY(!job)) return false;
+	job->src = src;
+	job->dst = dst;
+	job->func = decode_func ? decode_func : mDecodeFunc;
+	job->result = UVC_SUCCESS;
+	if (UNLIKELY(!worker->in.put(job))) {
+		worker->free_jobs.put(job);
+		return false;
+	}
+	sem_post(&worker->sync);
+	mSubmitIndex = (mSubmitIndex + 1) % mWorkerNum;
+	mInFlight++;
+	return true;
+}
+
+/**
+ * get decoded frame in submitted order without blocking, this should be called only from owner thread
+ * @return false if next frame is not decoded yet
+ */
+bool MJPEGDecodePool::poll(uvc_frame_t **src, uvc_frame_t **dst, uvc_error_t *result) {
+	if (!mInFlight) return false;
+	decode_worker_t *worker = &mWorkers[mPollIndex];
+	decode_job_t *job = worker->out.get();
+	if (!job) return false;
+	*src = job->src;
+	*dst = job->dst;
+	*result = job->result;
+	worker->free_jobs.put(job);
+	mPollIndex = (mPollIndex + 1) % mWorkerNum;
+	mInFlight--;
+	return true;
+}
+
+/**
+ * get frames of remaining jobs after #stop, decoded or not, to release them
+ * @return false if no job remains
+ */
+bool MJPEGDecodePool::flush(uvc_frame_t **src, uvc_frame_t **dst) {
+	if (UNLIKELY(mIsRunning)) return false;
+	for (int i = 0; i < mWorkerNum; i++) {
+		decode_worker_t *worker = &mWorkers[i];
+		decode_job_t *job = worker->out.get();
+		if (!job) {
+			job = worker->in.get();
+		}
+		if (job) {
+			*src = job->src;
+			*dst = job->dst;
+			worker->free_jobs.put(job);
+			mInFlight--;
+			return true;
+		}
+	}
+	mSubmitIndex = mPollIndex = mInFlight = 0;
+	return false;
+}
+
+void MJPEGDecodePool::getStats(uint32_t &decoded, uint64_t &decode_ns, uint64_t &elapsed_ns) {
+	decoded = 0;
+	decode_ns = 0;
+	for (int i = 0; i < mWorkerNum; i++) {
+		decoded += __atomic_load_n(&mWorkers[i].decoded, __ATOMIC_RELAXED);
+		decode_ns += __atomic_load_n(&mWorkers[i].decode_ns, __ATOMIC_RELAXED);
+	}
+	elapsed_ns = mStartTimeNs ? nowNs() - mStartTimeNs : 0;
+}
+
+void *MJPEGDecodePool::worker_thread_func(void *vptr_args) {
+	ENTER();
+	decode_worker_t *worker = reinterpret_cast<decode_worker_t *>(vptr_args);
+	if (LIKELY(worker)) {
+		worker->parent->do_decode(worker);
+	}
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+void MJPEGDecodePool::do_decode(decode_worker_t *worker) {
+	ENTER();
+	for ( ; LIKELY(mIsRunning) ; ) {
+		if (UNLIKELY(sem_wait(&worker->sync))) continue;
+		for (decode_job_t *job = worker->in.get(); job; job = worker->in.get()) {
+			const uint64_t start = nowNs();
+			job->result = job->func(job->src, job->dst);
+			__atomic_store_n(&worker->decode_ns, worker->decode_ns + (nowNs() - start), __ATOMIC_RELAXED);
+			__atomic_store_n(&worker->decoded, worker->decoded + 1, __ATOMIC_RELAXED);
+			worker->out.put(job);	// never fail because the number of jobs is same as capacity
+			sem_post(mNotify);
+		}
+	}
+	EXIT();
+}
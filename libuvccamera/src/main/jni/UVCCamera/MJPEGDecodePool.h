@@ -0,0 +1,96 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MJPEGDecodePool.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef MJPEGDECODEPOOL_H_
+#define MJPEGDECODEPOOL_H_
+
+#include "libUVCCamera.h"
+#include <pthread.h>
+#include <semaphore.h>
+#include "spscqueue.h"
+
+#pragma interface
+
+#define MAX_DECODE_WORKERS 8
+
+typedef uvc_error_t (*decodeFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
+
+typedef struct decode_job {
+	uvc_frame_t *src;		// MJPEG frame
+	uvc_frame_t *dst;		// decoded frame
+	decodeFunc_t func;
+	uvc_error_t result;
+} decode_job_t;
+
+class MJPEGDecodePool;
+
+typedef struct decode_worker {
+	MJPEGDecodePool *parent;
+	pthread_t thread;
+	sem_t sync;								// posted when a job is queued into in
+	SpscQueue<decode_job_t *> in;			// producer: owner thread, consumer: worker
+	SpscQueue<decode_job_t *> out;			// producer: worker, consumer: owner thread
+	decode_job_t *jobs;
+	SpscQueue<decode_job_t *> free_jobs;	// accessed only from owner thread
+	volatile uint32_t decoded;
+	volatile uint64_t decode_ns;
+} decode_worker_t;
+
+/**
+ * decode MJPEG frames on multiple worker threads and return them in submitted order.
+ * Frames are distributed to workers by turns and collected by turns,
+ * so decoded frames come back in the order of #submit without any sorting.
+ * #submit and #poll should be called only from one thread(owner thread, i.e. preview thread).
+ */
+class MJPEGDecodePool {
+private:
+	const int mWorkerNum;
+	const int mDepth;
+	decodeFunc_t mDecodeFunc;
+	sem_t *mNotify;					// posted when a job finished
+	volatile bool mIsRunning;
+	decode_worker_t *mWorkers;
+	int mSubmitIndex;				// next worker to submit
+	int mPollIndex;					// next worker to poll
+	int mInFlight;
+	uint64_t mStartTimeNs;
+	static void *worker_thread_func(void *vptr_args);
+	void do_decode(decode_worker_t *worker);
+public:
+	MJPEGDecodePool(int worker_num, int depth, decodeFunc_t decode_func, sem_t *notify);
+	~MJPEGDecodePool();
+
+	int start();
+	void stop();
+	inline const int workerNum() const { return mWorkerNum; }
+	inline const int inFlight() const { return mInFlight; }
+	inline const bool canSubmit() const { return mInFlight < mWorkerNum * mDepth; }
+	bool submit(uvc_frame_t *src, uvc_frame_t *dst, decodeFunc_t decode_func = NULL);
+	bool poll(uvc_frame_t **src, uvc_frame_t **dst, uvc_error_t *result);
+	bool flush(uvc_frame_t **src, uvc_frame_t **dst);
+	void getStats(uint32_t &decoded, uint64_t &decode_ns, uint64_t &elapsed_ns);
+	static uint64_t nowNs();
+};
+
+#endif /* MJPEGDECODEPOOL_H_ */
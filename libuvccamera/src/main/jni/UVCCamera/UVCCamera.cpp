@@ -223,15 +223,71 @@ int UVCCamera::setPreviewDisplay(ANativeWindow *preview_window) {
 	RETURN(result, int);
 }
 
-int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format) {
+int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format,
+	jobjectArray frame_slots, jobject frame_descriptor) {
+
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setFrameCallback(env, frame_callback_obj, pixel_format, frame_slots, frame_descriptor);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setFramePoolConfig(int pool_size, int queue_depth, int drop_policy) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setFramePoolConfig(pool_size, queue_depth, drop_policy);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getFrameDropCounts(uint32_t &drop_newest, uint32_t &drop_oldest, uint32_t &blocked, uint32_t &skipped) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		mPreview->getFrameDropCounts(drop_newest, drop_oldest, blocked, skipped);
+		result = EXIT_SUCCESS;
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::setDecodeWorkers(int worker_num) {
 	ENTER();
 	int result = EXIT_FAILURE;
 	if (mPreview) {
-		result = mPreview->setFrameCallback(env, frame_callback_obj, pixel_format);
+		result = mPreview->setDecodeWorkers(worker_num);
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getDecodeStats(uint32_t &decoded, uint64_t &decode_ns, uint64_t &elapsed_ns) {
+	ENTER();
+	int result = 0;
+	if (mPreview) {
+		result = mPreview->getDecodeStats(decoded, decode_ns, elapsed_ns);
 	}
 	RETURN(result, int);
 }
 
+int UVCCamera::getPreviewFrameRate() {
+	ENTER();
+	int result = 0;
+	if (mPreview) {
+		result = mPreview->getFrameRate();
+	}
+	RETURN(result, int);
+}
+
+int UVCCamera::getFrameTimes(uint64_t presented_ns, frame_times_t &times) {
+	int result = -1;
+	if (mPreview) {
+		result = mPreview->getFrameTimes(presented_ns, times);
+	}
+	return result;
+}
+
 int UVCCamera::startPreview() {
 	ENTER();
 
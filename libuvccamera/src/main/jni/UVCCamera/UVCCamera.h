@@ -189,7 +189,14 @@ public:
 	char *getSupportedSize();
 	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = DEFAULT_BANDWIDTH);
 	int setPreviewDisplay(ANativeWindow *preview_window);
-	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format,
+		jobjectArray frame_slots = NULL, jobject frame_descriptor = NULL);
+	int setFramePoolConfig(int pool_size, int queue_depth, int drop_policy);
+	int getFrameDropCounts(uint32_t &drop_newest, uint32_t &drop_oldest, uint32_t &blocked, uint32_t &skipped);
+	int setDecodeWorkers(int worker_num);
+	int getDecodeStats(uint32_t &decoded, uint64_t &decode_ns, uint64_t &elapsed_ns);
+	int getFrameTimes(uint64_t presented_ns, frame_times_t &times);
+	int getPreviewFrameRate();
 	int startPreview();
 	int stopPreview();
 	int setCaptureDisplay(ANativeWindow *capture_window);
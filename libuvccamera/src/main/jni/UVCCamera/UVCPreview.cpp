@@ -42,9 +42,9 @@
 #include "libuvc_internal.h"
 
 #define	LOCAL_DEBUG 0
-#define MAX_FRAME 4
 #define PREVIEW_PIXEL_BYTES 4	// RGBA/RGBX
-#define FRAME_POOL_SZ MAX_FRAME + 2
+// frames in previewFrames + one in callback + one in preview thread
+#define CALLBACK_POOL_SZ(depth) ((depth) + 2)
 
 UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 :	mPreviewWindow(NULL),
@@ -58,19 +58,45 @@ UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 	requestBandwidth(DEFAULT_BANDWIDTH),
 	frameWidth(DEFAULT_PREVIEW_WIDTH),
 	frameHeight(DEFAULT_PREVIEW_HEIGHT),
+	frameFps(DEFAULT_PREVIEW_FPS_MAX),
 	frameBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * 2),	// YUYV
 	frameMode(0),
 	previewBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * PREVIEW_PIXEL_BYTES),
 	previewFormat(WINDOW_FORMAT_RGBA_8888),
 	mIsRunning(false),
+	previewFrames(DEFAULT_FRAME_QUEUE_DEPTH),
+	mCallbackPool(CALLBACK_POOL_SZ(DEFAULT_FRAME_QUEUE_DEPTH)),
+	mCallbackSpare(NULL),
+	mLatestFrame(NULL),
+	mSpaceWaiting(false),
+	requestPoolSize(DEFAULT_FRAME_POOL_SIZE),
+	requestQueueDepth(DEFAULT_FRAME_QUEUE_DEPTH),
+	requestDropPolicy(DEFAULT_FRAME_DROP_POLICY),
+	mFramePoolSize(DEFAULT_FRAME_POOL_SIZE),
+	mDropPolicy(DEFAULT_FRAME_DROP_POLICY),
+	mDropNewest(0),
+	mDropOldest(0),
+	mBlocked(0),
+	mSkipped(0),
+	requestDecodeWorkers(DEFAULT_DECODE_WORKERS),
+	mDecodePool(NULL),
+	mFrameTimesHead(0),
 	mIsCapturing(false),
 	captureQueu(NULL),
 	mFrameCallbackObj(NULL),
 	mFrameCallbackFunc(NULL),
-	callbackPixelBytes(2) {
+	callbackPixelBytes(2),
+	mFrameSlotsObj(NULL),
+	mFrameSlots(NULL),
+	mFrameSlotNum(0),
+	mFrameSlotIndex(0),
+	mFrameSlotsFit(false),
+	mFrameDescriptorObj(NULL) {
 
 	ENTER();
-	pthread_cond_init(&preview_sync, NULL);
+	memset(mFrameTimes, 0, sizeof(mFrameTimes));
+	sem_init(&preview_sync, 0, 0);
+	sem_init(&preview_space, 0, 0);
 	pthread_mutex_init(&preview_mutex, NULL);
 //
 	pthread_cond_init(&capture_sync, NULL);
@@ -91,9 +117,12 @@ UVCPreview::~UVCPreview() {
 	mCaptureWindow = NULL;
 	clearPreviewFrame();
 	clearCaptureFrame();
+	clear_callback_pool();
 	clear_pool();
+	SAFE_DELETE(mDecodePool);
 	pthread_mutex_destroy(&preview_mutex);
-	pthread_cond_destroy(&preview_sync);
+	sem_destroy(&preview_sync);
+	sem_destroy(&preview_space);
 	pthread_mutex_destroy(&capture_mutex);
 	pthread_cond_destroy(&capture_sync);
 	pthread_mutex_destroy(&pool_mutex);
@@ -124,7 +153,7 @@ uvc_frame_t *UVCPreview::get_frame(size_t data_bytes) {
 
 void UVCPreview::recycle_frame(uvc_frame_t *frame) {
 	pthread_mutex_lock(&pool_mutex);
-	if (LIKELY(mFramePool.size() < FRAME_POOL_SZ)) {
+	if (LIKELY(mFramePool.size() < mFramePoolSize)) {
 		mFramePool.put(frame);
 		frame = NULL;
 	}
@@ -141,7 +170,7 @@ void UVCPreview::init_pool(size_t data_bytes) {
 	clear_pool();
 	pthread_mutex_lock(&pool_mutex);
 	{
-		for (int i = 0; i < FRAME_POOL_SZ; i++) {
+		for (int i = 0; i < mFramePoolSize; i++) {
 			mFramePool.put(uvc_allocate_frame(data_bytes));
 		}
 	}
@@ -165,8 +194,72 @@ void UVCPreview::clear_pool() {
 	EXIT();
 }
 
+/**
+ * get empty frame for uvc_preview_frame_callback without locking
+ * this should be called only from uvc_preview_frame_callback
+ * if mCallbackPool is empty, fallback to frame pool
+ */
+uvc_frame_t *UVCPreview::get_callback_frame(size_t data_bytes) {
+	uvc_frame_t *frame = mCallbackSpare;
+	if (frame) {
+		mCallbackSpare = NULL;
+	} else {
+		frame = mCallbackPool.get();
+		if (UNLIKELY(!frame)) {
+			frame = get_frame(data_bytes);
+		}
+	}
+	return frame;
+}
+
+/**
+ * return the frame that came from uvc_preview_frame_callback without locking
+ * this should be called only from preview thread
+ */
+void UVCPreview::recycle_callback_frame(uvc_frame_t *frame) {
+	if (UNLIKELY(!mCallbackPool.put(frame))) {
+		recycle_frame(frame);
+	}
+}
+
+/**
+ * top up mCallbackPool from frame pool, call this only from preview thread
+ * (or while streaming is not running) because this is the producer side of mCallbackPool
+ */
+void UVCPreview::fill_callback_pool() {
+	for (int i = mCallbackPool.size(); i < mCallbackPool.capacity(); i++) {
+		uvc_frame_t *frame = get_frame(frameBytes);
+		if (UNLIKELY(!frame)) break;
+		if (UNLIKELY(!mCallbackPool.put(frame))) {
+			recycle_frame(frame);
+			break;
+		}
+	}
+}
+
+/**
+ * return all frames in mCallbackPool to frame pool
+ * call this only while streaming is not running
+ */
+void UVCPreview::clear_callback_pool() {
+	for (uvc_frame_t *frame = mCallbackPool.get(); frame; frame = mCallbackPool.get()) {
+		recycle_frame(frame);
+	}
+	if (mCallbackSpare) {
+		recycle_frame(mCallbackSpare);
+		mCallbackSpare = NULL;
+	}
+}
+
 inline const bool UVCPreview::isRunning() const {return mIsRunning; }
 
+/**
+ * frame rate of negotiated stream control, dwFrameInterval is in 100ns unit
+ */
+static int frame_rate(const uvc_stream_ctrl_t *ctrl, int default_fps) {
+	return ctrl->dwFrameInterval ? (int)(10000000 / ctrl->dwFrameInterval) : default_fps;
+}
+
 int UVCPreview::setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth) {
 	ENTER();
 	
@@ -183,11 +276,94 @@ int UVCPreview::setPreviewSize(int width, int height, int min_fps, int max_fps,
 		result = uvc_get_stream_ctrl_format_size_fps(mDeviceHandle, &ctrl,
 			!requestMode ? UVC_FRAME_FORMAT_YUYV : UVC_FRAME_FORMAT_MJPEG,
 			requestWidth, requestHeight, requestMinFps, requestMaxFps);
+		if (LIKELY(!result)) {
+			frameFps = frame_rate(&ctrl, requestMaxFps);
+		}
 	}
 	
 	RETURN(result, int);
 }
 
+/**
+ * set size of frame pool, depth of previewFrames and what to do when previewFrames is full
+ * new values are applied on next #startPreview
+ */
+int UVCPreview::setFramePoolConfig(int pool_size, int queue_depth, int drop_policy) {
+	ENTER();
+
+	if (UNLIKELY((pool_size < 1) || (queue_depth < 1)
+		|| (drop_policy < FRAME_DROP_POLICY_NEWEST) || (drop_policy > FRAME_DROP_POLICY_BLOCK))) {
+
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	requestPoolSize = pool_size;
+	requestQueueDepth = queue_depth;
+	requestDropPolicy = drop_policy;
+
+	RETURN(0, int);
+}
+
+void UVCPreview::getFrameDropCounts(uint32_t &drop_newest, uint32_t &drop_oldest, uint32_t &blocked, uint32_t &skipped) {
+	drop_newest = __atomic_load_n(&mDropNewest, __ATOMIC_RELAXED);
+	drop_oldest = __atomic_load_n(&mDropOldest, __ATOMIC_RELAXED);
+	blocked = __atomic_load_n(&mBlocked, __ATOMIC_RELAXED);
+	skipped = __atomic_load_n(&mSkipped, __ATOMIC_RELAXED);
+}
+
+/**
+ * find the times of the frame that is shown with presented_ns(timestamp of the SurfaceTexture
+ * of the preview window), i.e. the newest frame that started posting before presented_ns,
+ * because the timestamp of SurfaceTexture is set while posting on the same clock.
+ * this can be called from any thread without locking
+ * @return 0 if found
+ */
+int UVCPreview::getFrameTimes(uint64_t presented_ns, frame_times_t &times) {
+	const uint32_t head = __atomic_load_n(&mFrameTimesHead, __ATOMIC_ACQUIRE);
+	// the oldest entry may be overwritten by preview thread now, skip it
+	const uint32_t n = head < FRAME_TIMES_NUM ? head : FRAME_TIMES_NUM - 1;
+	for (uint32_t i = 1; i <= n; i++) {
+		const frame_times_t *entry = &mFrameTimes[(head - i) & (FRAME_TIMES_NUM - 1)];
+		if (entry->posted_ns <= presented_ns) {
+			times = *entry;
+			return 0;
+		}
+	}
+	return -1;
+}
+
+/**
+ * set the number of threads to decode MJPEG frames, this is applied on next #startPreview
+ */
+int UVCPreview::setDecodeWorkers(int worker_num) {
+	ENTER();
+
+	if (UNLIKELY((worker_num < 1) || (worker_num > MAX_DECODE_WORKERS))) {
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	requestDecodeWorkers = worker_num;
+
+	RETURN(0, int);
+}
+
+/**
+ * get statistics of MJPEG decoding of current(or last) preview
+ * @return the number of decode workers, or 0 if MJPEG decoding has not been executed
+ */
+int UVCPreview::getDecodeStats(uint32_t &decoded, uint64_t &decode_ns, uint64_t &elapsed_ns) {
+	int result = 0;
+	decoded = 0;
+	decode_ns = elapsed_ns = 0;
+	pthread_mutex_lock(&preview_mutex);
+	{
+		if (mDecodePool) {
+			mDecodePool->getStats(decoded, decode_ns, elapsed_ns);
+			result = mDecodePool->workerNum();
+		}
+	}
+	pthread_mutex_unlock(&preview_mutex);
+	return result;
+}
+
 int UVCPreview::setPreviewDisplay(ANativeWindow *preview_window) {
 	ENTER();
 	pthread_mutex_lock(&preview_mutex);
@@ -206,7 +382,16 @@ int UVCPreview::setPreviewDisplay(ANativeWindow *preview_window) {
 	RETURN(0, int);
 }
 
-int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format) {
+/**
+ * set frame callback
+ * if frame_slots is not NULL, frame_callback_obj should be IFrameSlotCallback
+ * and frames are copied into the direct ByteBuffers in frame_slots by turns
+ * instead of creating new ByteBuffer for every frame
+ * if frame_descriptor is not NULL, frame_callback_obj should be IFrameDescriptorCallback
+ * and frame_descriptor is updated and passed with every frame
+ */
+int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format,
+	jobjectArray frame_slots, jobject frame_descriptor) {
 	
 	ENTER();
 	pthread_mutex_lock(&capture_mutex);
@@ -218,27 +403,64 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 				pthread_cond_wait(&capture_sync, &capture_mutex);	// wait finishing capturing
 			}
 		}
+		release_frame_slots(env);
+		release_frame_descriptor(env);
 		if (!env->IsSameObject(mFrameCallbackObj, frame_callback_obj))	{
-			iframecallback_fields.onFrame = NULL;
 			if (mFrameCallbackObj) {
 				env->DeleteGlobalRef(mFrameCallbackObj);
 			}
 			mFrameCallbackObj = frame_callback_obj;
-			if (frame_callback_obj) {
-				// get method IDs of Java object for callback
-				jclass clazz = env->GetObjectClass(frame_callback_obj);
-				if (LIKELY(clazz)) {
+		} else if (frame_callback_obj) {
+			// same callback object, the global ref that passed is not necessary
+			env->DeleteGlobalRef(frame_callback_obj);
+			frame_callback_obj = mFrameCallbackObj;
+		}
+		// the method depends on the mode(slots/descriptor/plain) and the same object can be
+		// registered again with another mode, so look up the method IDs every time
+		iframecallback_fields.onFrame = NULL;
+		iframecallback_fields.onFrameSlot = NULL;
+		iframecallback_fields.onFrameDescriptor = NULL;
+		if (frame_callback_obj) {
+			// get method IDs of Java object for callback
+			jclass clazz = env->GetObjectClass(frame_callback_obj);
+			if (LIKELY(clazz)) {
+				if (frame_slots) {
+					iframecallback_fields.onFrameSlot = env->GetMethodID(clazz,
+						"onFrameSlot",	"(II)V");
+				} else if (frame_descriptor) {
+					iframecallback_fields.onFrameDescriptor = env->GetMethodID(clazz,
+						"onFrame",	"(Ljava/nio/ByteBuffer;Lcom/serenegiant/usb/FrameDescriptor;)V");
+				} else {
 					iframecallback_fields.onFrame = env->GetMethodID(clazz,
 						"onFrame",	"(Ljava/nio/ByteBuffer;)V");
-				} else {
-					LOGW("failed to get object class");
-				}
-				env->ExceptionClear();
-				if (!iframecallback_fields.onFrame) {
-					LOGE("Can't find IFrameCallback#onFrame");
-					env->DeleteGlobalRef(frame_callback_obj);
-					mFrameCallbackObj = frame_callback_obj = NULL;
 				}
+				env->DeleteLocalRef(clazz);
+			} else {
+				LOGW("failed to get object class");
+			}
+			env->ExceptionClear();
+			if (!iframecallback_fields.onFrame && !iframecallback_fields.onFrameSlot
+				&& !iframecallback_fields.onFrameDescriptor) {
+
+				LOGE("Can't find IFrameCallback#onFrame/IFrameSlotCallback#onFrameSlot/IFrameDescriptorCallback#onFrame");
+				env->DeleteGlobalRef(frame_callback_obj);
+				mFrameCallbackObj = frame_callback_obj = NULL;
+			}
+		}
+		if (frame_callback_obj && frame_slots) {
+			if (UNLIKELY(set_frame_slots(env, frame_slots))) {
+				LOGE("failed to register frame slots");
+				env->DeleteGlobalRef(mFrameCallbackObj);
+				mFrameCallbackObj = frame_callback_obj = NULL;
+				iframecallback_fields.onFrameSlot = NULL;
+			}
+		}
+		if (frame_callback_obj && frame_descriptor) {
+			if (UNLIKELY(set_frame_descriptor(env, frame_descriptor))) {
+				LOGE("failed to register frame descriptor");
+				env->DeleteGlobalRef(mFrameCallbackObj);
+				mFrameCallbackObj = frame_callback_obj = NULL;
+				iframecallback_fields.onFrameDescriptor = NULL;
 			}
 		}
 		if (frame_callback_obj) {
@@ -250,6 +472,113 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 	RETURN(0, int);
 }
 
+/**
+ * wrap the memory of direct ByteBuffers with uvc_frame_t, this should be called with capture_mutex locked
+ */
+int UVCPreview::set_frame_slots(JNIEnv *env, jobjectArray frame_slots) {
+	ENTER();
+
+	const int n = env->GetArrayLength(frame_slots);
+	if (UNLIKELY(n <= 0)) RETURN(UVC_ERROR_INVALID_PARAM, int);
+	mFrameSlots = new uvc_frame_t *[n];
+	memset(mFrameSlots, 0, sizeof(uvc_frame_t *) * n);
+	mFrameSlotNum = n;
+	mFrameSlotIndex = 0;
+	mFrameSlotsObj = (jobjectArray)env->NewGlobalRef(frame_slots);
+	for (int i = 0; i < n; i++) {
+		jobject buf = env->GetObjectArrayElement(frame_slots, i);
+		void *addr = buf ? env->GetDirectBufferAddress(buf) : NULL;
+		const jlong capacity = buf ? env->GetDirectBufferCapacity(buf) : 0;
+		env->DeleteLocalRef(buf);
+		uvc_frame_t *slot = addr && (capacity > 0) ? uvc_allocate_frame(0) : NULL;
+		if (UNLIKELY(!slot)) {
+			LOGE("frame slot %d is not a direct ByteBuffer", i);
+			release_frame_slots(env);
+			RETURN(UVC_ERROR_INVALID_PARAM, int);
+		}
+		memset(slot, 0, sizeof(*slot));
+		slot->data = addr;
+		slot->data_bytes = slot->actual_bytes = capacity;
+		slot->library_owns_data = 0;	// memory is owned by Java ByteBuffer
+		mFrameSlots[i] = slot;
+	}
+	RETURN(0, int);
+}
+
+/**
+ * this should be called with capture_mutex locked or after capture thread finished
+ */
+void UVCPreview::release_frame_slots(JNIEnv *env) {
+	ENTER();
+
+	if (mFrameSlots) {
+		for (int i = 0; i < mFrameSlotNum; i++) {
+			if (mFrameSlots[i]) {
+				uvc_free_frame(mFrameSlots[i]);
+			}
+		}
+		SAFE_DELETE_ARRAY(mFrameSlots);
+	}
+	mFrameSlotNum = mFrameSlotIndex = 0;
+	if (mFrameSlotsObj) {
+		env->DeleteGlobalRef(mFrameSlotsObj);
+		mFrameSlotsObj = NULL;
+	}
+
+	EXIT();
+}
+
+/**
+ * keep FrameDescriptor object and its field IDs, this should be called with capture_mutex locked
+ */
+int UVCPreview::set_frame_descriptor(JNIEnv *env, jobject frame_descriptor) {
+	ENTER();
+
+	jclass clazz = env->GetObjectClass(frame_descriptor);
+	if (UNLIKELY(!clazz)) RETURN(UVC_ERROR_INVALID_PARAM, int);
+	framedescriptor_fields.sequence = env->GetFieldID(clazz, "sequence", "J");
+	framedescriptor_fields.timestampNs = env->GetFieldID(clazz, "timestampNs", "J");
+	framedescriptor_fields.width = env->GetFieldID(clazz, "width", "I");
+	framedescriptor_fields.height = env->GetFieldID(clazz, "height", "I");
+	framedescriptor_fields.pixelFormat = env->GetFieldID(clazz, "pixelFormat", "I");
+	framedescriptor_fields.bytes = env->GetFieldID(clazz, "bytes", "I");
+	env->DeleteLocalRef(clazz);
+	env->ExceptionClear();
+	if (UNLIKELY(!framedescriptor_fields.sequence || !framedescriptor_fields.timestampNs
+		|| !framedescriptor_fields.width || !framedescriptor_fields.height
+		|| !framedescriptor_fields.pixelFormat || !framedescriptor_fields.bytes)) {
+
+		LOGE("Can't find fields of FrameDescriptor");
+		RETURN(UVC_ERROR_INVALID_PARAM, int);
+	}
+	mFrameDescriptorObj = env->NewGlobalRef(frame_descriptor);
+	RETURN(0, int);
+}
+
+/**
+ * this should be called with capture_mutex locked or after capture thread finished
+ */
+void UVCPreview::release_frame_descriptor(JNIEnv *env) {
+	if (mFrameDescriptorObj) {
+		env->DeleteGlobalRef(mFrameDescriptorObj);
+		mFrameDescriptorObj = NULL;
+	}
+}
+
+/**
+ * copy metadata of the frame into FrameDescriptor object
+ */
+void UVCPreview::update_frame_descriptor(JNIEnv *env, uvc_frame_t *frame) {
+	// capture_time is the time when the frame arrived on CLOCK_MONOTONIC(see _uvc_populate_frame)
+	const jlong ts = (jlong)frame->capture_time.tv_sec * 1000000000LL + (jlong)frame->capture_time.tv_usec * 1000LL;
+	env->SetLongField(mFrameDescriptorObj, framedescriptor_fields.sequence, (jlong)frame->sequence);
+	env->SetLongField(mFrameDescriptorObj, framedescriptor_fields.timestampNs, ts);
+	env->SetIntField(mFrameDescriptorObj, framedescriptor_fields.width, frame->width);
+	env->SetIntField(mFrameDescriptorObj, framedescriptor_fields.height, frame->height);
+	env->SetIntField(mFrameDescriptorObj, framedescriptor_fields.pixelFormat, mPixelFormat);
+	env->SetIntField(mFrameDescriptorObj, framedescriptor_fields.bytes, (jint)callbackPixelBytes);
+}
+
 void UVCPreview::callbackPixelFormatChanged() {
 	mFrameCallbackFunc = NULL;
 	const size_t sz = requestWidth * requestHeight;
@@ -283,6 +612,36 @@ void UVCPreview::callbackPixelFormatChanged() {
 		callbackPixelBytes = (sz * 3) / 2;
 		break;
 	}
+	// frame slots are sized when they are registered, so check them once here instead of every frame
+	mFrameSlotsFit = true;
+	for (int i = 0; i < mFrameSlotNum; i++) {
+		if (UNLIKELY(mFrameSlots[i]->data_bytes < callbackPixelBytes)) {
+			LOGE("frame slot %d is too small(%d < %d), frame slots should be registered again after changing preview size",
+				i, (int)mFrameSlots[i]->data_bytes, (int)callbackPixelBytes);
+			mFrameSlotsFit = false;
+			break;
+		}
+	}
+}
+
+/**
+ * which consumers need pixels of frames now
+ * @return bitwise OR of CONSUMER_XXX, 0 means decoding/converting can be skipped
+ */
+int UVCPreview::get_consumers() {
+	int result = 0;
+	pthread_mutex_lock(&preview_mutex);
+	{
+		if (mPreviewWindow) result |= CONSUMER_PREVIEW;
+	}
+	pthread_mutex_unlock(&preview_mutex);
+	pthread_mutex_lock(&capture_mutex);
+	{
+		if (mCaptureWindow) result |= CONSUMER_CAPTURE;
+		if (mFrameCallbackObj) result |= CONSUMER_CALLBACK;
+	}
+	pthread_mutex_unlock(&capture_mutex);
+	return result;
 }
 
 void UVCPreview::clearDisplay() {
@@ -341,11 +700,7 @@ int UVCPreview::startPreview() {
 		if (UNLIKELY(result != EXIT_SUCCESS)) {
 			LOGW("UVCCamera::window does not exist/already running/could not create thread etc.");
 			mIsRunning = false;
-			pthread_mutex_lock(&preview_mutex);
-			{
-				pthread_cond_signal(&preview_sync);
-			}
-			pthread_mutex_unlock(&preview_mutex);
+			sem_post(&preview_sync);
 		}
 	}
 	RETURN(result, int);
@@ -356,7 +711,8 @@ int UVCPreview::stopPreview() {
 	bool b = isRunning();
 	if (LIKELY(b)) {
 		mIsRunning = false;
-		pthread_cond_signal(&preview_sync);
+		sem_post(&preview_sync);
+		sem_post(&preview_space);
 		pthread_cond_signal(&capture_sync);
 		if (pthread_join(capture_thread, NULL) != EXIT_SUCCESS) {
 			LOGW("UVCPreview::terminate capture thread: pthread_join failed");
@@ -368,6 +724,7 @@ int UVCPreview::stopPreview() {
 	}
 	clearPreviewFrame();
 	clearCaptureFrame();
+	clear_callback_pool();
 	pthread_mutex_lock(&preview_mutex);
 	if (mPreviewWindow) {
 		ANativeWindow_release(mPreviewWindow);
@@ -401,7 +758,10 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 		return;
 	}
 	if (LIKELY(preview->isRunning())) {
-		uvc_frame_t *copy = preview->get_frame(frame->data_bytes);
+		// this callback runs on the thread that receives isochronous transfers,
+		// so hand over the frame to preview thread through lock-free queue,
+		// this blocks only on FRAME_DROP_POLICY_BLOCK while previewFrames is full
+		uvc_frame_t *copy = preview->get_callback_frame(frame->data_bytes);
 		if (UNLIKELY(!copy)) {
 #if LOCAL_DEBUG
 			LOGE("uvc_callback:unable to allocate duplicate frame!");
@@ -410,50 +770,136 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 		}
 		uvc_error_t ret = uvc_duplicate_frame(frame, copy);
 		if (UNLIKELY(ret)) {
-			preview->recycle_frame(copy);
+			preview->mCallbackSpare = copy;
 			return;
 		}
 		preview->addPreviewFrame(copy);
 	}
 }
 
+/**
+ * this should be called only from uvc_preview_frame_callback
+ */
 void UVCPreview::addPreviewFrame(uvc_frame_t *frame) {
 
-	pthread_mutex_lock(&preview_mutex);
-	if (isRunning() && (previewFrames.size() < MAX_FRAME)) {
-		previewFrames.put(frame);
-		frame = NULL;
-		pthread_cond_signal(&preview_sync);
+	if (LIKELY(isRunning() && previewFrames.put(frame))) {
+		sem_post(&preview_sync);
+		return;
 	}
-	pthread_mutex_unlock(&preview_mutex);
-	if (frame) {
-		recycle_frame(frame);
+	switch (mDropPolicy) {
+	case FRAME_DROP_POLICY_OLDEST:
+	{
+		// put the frame into overflow slot, preview thread takes it in preference to queued ones
+		uvc_frame_t *old = __atomic_exchange_n(&mLatestFrame, frame, __ATOMIC_ACQ_REL);
+		if (old) {
+			__atomic_add_fetch(&mDropOldest, 1, __ATOMIC_RELAXED);
+			mCallbackSpare = old;
+		}
+		sem_post(&preview_sync);
+		return;
+	}
+	case FRAME_DROP_POLICY_BLOCK:
+		__atomic_add_fetch(&mBlocked, 1, __ATOMIC_RELAXED);
+		for ( ; isRunning() ; ) {
+			if (previewFrames.put(frame)) {
+				sem_post(&preview_sync);
+				return;
+			}
+			// drop the stale count and ask preview thread to post preview_space on next dequeue
+			while (!sem_trywait(&preview_space)) {}
+			__atomic_store_n(&mSpaceWaiting, true, __ATOMIC_SEQ_CST);
+			// preview thread may have dequeued before the flag was set
+			if (previewFrames.put(frame)) {
+				__atomic_store_n(&mSpaceWaiting, false, __ATOMIC_SEQ_CST);
+				sem_post(&preview_sync);
+				return;
+			}
+			sem_wait(&preview_space);
+		}
+		break;
+	default:
+		if (isRunning()) {
+			__atomic_add_fetch(&mDropNewest, 1, __ATOMIC_RELAXED);
+		}
+		break;
 	}
+	// keep the frame to reuse on next callback
+	mCallbackSpare = frame;
 }
 
-uvc_frame_t *UVCPreview::waitPreviewFrame() {
-	uvc_frame_t *frame = NULL;
-	pthread_mutex_lock(&preview_mutex);
+/**
+ * get frame from previewFrames according to the drop policy without blocking
+ * this should be called only from preview thread
+ */
+uvc_frame_t *UVCPreview::pollPreviewFrame() {
+	uvc_frame_t *frame;
+	switch (mDropPolicy) {
+	case FRAME_DROP_POLICY_OLDEST:
 	{
-		if (!previewFrames.size()) {
-			pthread_cond_wait(&preview_sync, &preview_mutex);
+		// latest frame wins, discard older ones
+		frame = __atomic_exchange_n(&mLatestFrame, (uvc_frame_t *)NULL, __ATOMIC_ACQ_REL);
+		uvc_frame_t *next;
+		if (frame) {
+			// frame in the overflow slot is newer than any queued ones
+			for (next = previewFrames.get(); next; next = previewFrames.get()) {
+				recycle_callback_frame(next);
+				__atomic_add_fetch(&mDropOldest, 1, __ATOMIC_RELAXED);
+			}
+		} else {
+			frame = previewFrames.get();
+			for (next = frame ? previewFrames.get() : NULL; next; next = previewFrames.get()) {
+				recycle_callback_frame(frame);
+				__atomic_add_fetch(&mDropOldest, 1, __ATOMIC_RELAXED);
+				frame = next;
+			}
 		}
-		if (LIKELY(isRunning() && previewFrames.size() > 0)) {
-			frame = previewFrames.remove(0);
+		break;
+	}
+	case FRAME_DROP_POLICY_BLOCK:
+		frame = previewFrames.get();
+		if (frame && __atomic_exchange_n(&mSpaceWaiting, false, __ATOMIC_SEQ_CST)) {
+			sem_post(&preview_space);
 		}
+		break;
+	default:
+		frame = previewFrames.get();
+		break;
+	}
+	return frame;
+}
+
+/**
+ * get frame from previewFrames, if not exist, block and wait
+ * this should be called only from preview thread
+ */
+uvc_frame_t *UVCPreview::waitPreviewFrame() {
+	uvc_frame_t *frame = pollPreviewFrame();
+	if (!frame) {
+		if (LIKELY(!sem_wait(&preview_sync) && isRunning())) {
+			frame = pollPreviewFrame();
+		}
+	} else {
+		// consume the count for this frame so that we don't wake up spuriously later
+		sem_trywait(&preview_sync);
 	}
-	pthread_mutex_unlock(&preview_mutex);
 	return frame;
 }
 
+/**
+ * drain previewFrames, this should be called from preview thread(consumer)
+ * or while streaming is not running
+ */
 void UVCPreview::clearPreviewFrame() {
-	pthread_mutex_lock(&preview_mutex);
-	{
-		for (int i = 0; i < previewFrames.size(); i++)
-			recycle_frame(previewFrames[i]);
-		previewFrames.clear();
+	for (uvc_frame_t *frame = previewFrames.get(); frame; frame = previewFrames.get()) {
+		recycle_frame(frame);
 	}
-	pthread_mutex_unlock(&preview_mutex);
+	uvc_frame_t *frame = __atomic_exchange_n(&mLatestFrame, (uvc_frame_t *)NULL, __ATOMIC_ACQ_REL);
+	if (frame) {
+		recycle_frame(frame);
+	}
+	while (!sem_trywait(&preview_sync)) {}
+	while (!sem_trywait(&preview_space)) {}
+	mSpaceWaiting = false;
 }
 
 void *UVCPreview::preview_thread_func(void *vptr_args) {
@@ -481,6 +927,7 @@ int UVCPreview::prepare_preview(uvc_stream_ctrl_t *ctrl) {
 		requestWidth, requestHeight, requestMinFps, requestMaxFps
 	);
 	if (LIKELY(!result)) {
+		frameFps = frame_rate(ctrl, requestMaxFps);
 #if LOCAL_DEBUG
 		uvc_print_stream_ctrl(ctrl, stderr);
 #endif
@@ -513,12 +960,22 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 	ENTER();
 
 	uvc_frame_t *frame = NULL;
-	uvc_frame_t *frame_mjpeg = NULL;
+	// mCallbackPool should be filled before starting streaming
+	// because preview thread is the only producer of it after this
+	clearPreviewFrame();
+	clear_callback_pool();
+	// apply frame pool config, both queues are empty and no other thread access them now
+	mFramePoolSize = requestPoolSize;
+	mDropPolicy = requestDropPolicy;
+	previewFrames.resize(requestQueueDepth);
+	mCallbackPool.resize(CALLBACK_POOL_SZ(requestQueueDepth));
+	mDropNewest = mDropOldest = mBlocked = mSkipped = 0;
+	init_pool(frameBytes);
+	fill_callback_pool();
 	uvc_error_t result = uvc_start_streaming_bandwidth(
 		mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *)this, requestBandwidth, 0);
 
 	if (LIKELY(!result)) {
-		clearPreviewFrame();
 		pthread_create(&capture_thread, NULL, capture_thread_func, (void *)this);
 
 #if LOCAL_DEBUG
@@ -526,29 +983,28 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 #endif
 		if (frameMode) {
 			// MJPEG mode
+			do_preview_mjpeg();
+		} else {
+			// yuvyv mode
 			for ( ; LIKELY(isRunning()) ; ) {
-				frame_mjpeg = waitPreviewFrame();
-				if (LIKELY(frame_mjpeg)) {
-					frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
-					result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
-					recycle_frame(frame_mjpeg);
-					if (LIKELY(!result)) {
+				frame = waitPreviewFrame();
+				if (LIKELY(frame)) {
+					// the frame goes to capture thread, so replenish mCallbackPool from frame pool
+					fill_callback_pool();
+					const int consumers = get_consumers();
+					if (consumers & CONSUMER_PREVIEW) {
 						frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
+					}
+					if (consumers & (CONSUMER_CAPTURE | CONSUMER_CALLBACK)) {
 						addCaptureFrame(frame);
 					} else {
+						if (!consumers) {
+							__atomic_add_fetch(&mSkipped, 1, __ATOMIC_RELAXED);
+						}
 						recycle_frame(frame);
 					}
 				}
 			}
-		} else {
-			// yuvyv mode
-			for ( ; LIKELY(isRunning()) ; ) {
-				frame = waitPreviewFrame();
-				if (LIKELY(frame)) {
-					frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
-					addCaptureFrame(frame);
-				}
-			}
 		}
 		pthread_cond_signal(&capture_sync);
 #if LOCAL_DEBUG
@@ -565,6 +1021,83 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 	EXIT();
 }
 
+/**
+ * preview loop for MJPEG mode
+ * MJPEG frames are decoded on MJPEGDecodePool and decoded frames come back in arrival order.
+ * Even if the number of workers is 1, decoding runs in parallel with drawing on this thread.
+ * When all consumers can take RGBX, MJPEG is decoded straight into RGBX by libjpeg-turbo,
+ * then the preview and capture Surface only need copying and no intermediate YUYV frame is used.
+ * When no consumer is attached, MJPEG frames are discarded without decoding.
+ */
+void UVCPreview::do_preview_mjpeg() {
+	ENTER();
+
+	uvc_frame_t *frame, *frame_mjpeg;
+	uvc_error_t result;
+	MJPEGDecodePool *pool = new MJPEGDecodePool(requestDecodeWorkers, DECODE_DEPTH_PER_WORKER,
+		uvc_mjpeg2yuyv, &preview_sync);	// MJPEG => yuyv as default
+	pthread_mutex_lock(&preview_mutex);
+	{
+		SAFE_DELETE(mDecodePool);
+		mDecodePool = pool;
+	}
+	pthread_mutex_unlock(&preview_mutex);
+	if (UNLIKELY(pool->start())) {
+		LOGE("failed to start MJPEG decoder");
+		EXIT();
+	}
+	for ( ; LIKELY(isRunning()) ; ) {
+		// this also returns when a worker finished decoding(frame_mjpeg is NULL in that case)
+		frame_mjpeg = waitPreviewFrame();
+		if (LIKELY(frame_mjpeg)) {
+			const int consumers = get_consumers();
+			if (UNLIKELY(!consumers)) {
+				// nobody needs pixels now, discard without decoding
+				__atomic_add_fetch(&mSkipped, 1, __ATOMIC_RELAXED);
+				recycle_callback_frame(frame_mjpeg);
+			} else {
+				// IFrameCallback other than PIXEL_FORMAT_RGBX still needs yuyv
+				const bool rgbx = !(consumers & CONSUMER_CALLBACK) || (mPixelFormat == PIXEL_FORMAT_RGBX);
+				frame = pool->canSubmit()
+					? get_frame(frame_mjpeg->width * frame_mjpeg->height * (rgbx ? PREVIEW_PIXEL_BYTES : 2)) : NULL;
+				if (UNLIKELY(!frame || !pool->submit(frame_mjpeg, frame, rgbx ? uvc_mjpeg2rgbx : NULL))) {
+					// all workers are busy, discard this frame
+					__atomic_add_fetch(&mDropNewest, 1, __ATOMIC_RELAXED);
+					recycle_callback_frame(frame_mjpeg);
+					if (frame) {
+						recycle_frame(frame);
+					}
+				}
+			}
+		}
+		while (pool->poll(&frame_mjpeg, &frame, &result)) {
+			recycle_callback_frame(frame_mjpeg);
+			if (LIKELY(!result)) {
+				// consumers may have been detached while decoding
+				const int consumers = get_consumers();
+				if (consumers & CONSUMER_PREVIEW) {
+					frame = draw_preview_one(frame, &mPreviewWindow,
+						frame->frame_format == UVC_FRAME_FORMAT_RGBX ? NULL : uvc_any2rgbx, 4);
+				}
+				if (consumers & (CONSUMER_CAPTURE | CONSUMER_CALLBACK)) {
+					addCaptureFrame(frame);
+				} else {
+					recycle_frame(frame);
+				}
+			} else {
+				recycle_frame(frame);
+			}
+		}
+	}
+	pool->stop();
+	while (pool->flush(&frame_mjpeg, &frame)) {
+		recycle_callback_frame(frame_mjpeg);
+		recycle_frame(frame);
+	}
+
+	EXIT();
+}
+
 static void copyFrame(const uint8_t *src, uint8_t *dest, const int width, int height, const int stride_src, const int stride_dest) {
 	const int h8 = height % 8;
 	for (int i = 0; i < h8; i++) {
@@ -627,6 +1160,8 @@ int copyToSurface(uvc_frame_t *frame, ANativeWindow **window) {
 uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t convert_func, int pixcelBytes) {
 	// ENTER();
 
+	// the frame was decoded(or dequeued for YUYV) just before calling this
+	const uint64_t decoded_ns = MJPEGDecodePool::nowNs();
 	int b = 0;
 	pthread_mutex_lock(&preview_mutex);
 	{
@@ -640,6 +1175,7 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 			if LIKELY(converted) {
 				b = convert_func(frame, converted);
 				if (!b) {
+					record_frame_times(frame, decoded_ns);
 					pthread_mutex_lock(&preview_mutex);
 					copyToSurface(converted, window);
 					pthread_mutex_unlock(&preview_mutex);
@@ -649,6 +1185,7 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 				recycle_frame(converted);
 			}
 		} else {
+			record_frame_times(frame, decoded_ns);
 			pthread_mutex_lock(&preview_mutex);
 			copyToSurface(frame, window);
 			pthread_mutex_unlock(&preview_mutex);
@@ -657,6 +1194,21 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 	return frame; //RETURN(frame, uvc_frame_t *);
 }
 
+/**
+ * keep the times of the frame that is about to be posted to the preview window for #getFrameTimes,
+ * this should be called only from preview thread
+ */
+void UVCPreview::record_frame_times(uvc_frame_t *frame, uint64_t decoded_ns) {
+	const uint32_t head = __atomic_load_n(&mFrameTimesHead, __ATOMIC_RELAXED);
+	frame_times_t *entry = &mFrameTimes[head & (FRAME_TIMES_NUM - 1)];
+	entry->sequence = frame->sequence;
+	// capture_time is the time when the frame arrived on CLOCK_MONOTONIC(see _uvc_populate_frame)
+	entry->arrival_ns = (uint64_t)frame->capture_time.tv_sec * 1000000000ULL + (uint64_t)frame->capture_time.tv_usec * 1000ULL;
+	entry->decoded_ns = decoded_ns;
+	entry->posted_ns = MJPEGDecodePool::nowNs();
+	__atomic_store_n(&mFrameTimesHead, head + 1, __ATOMIC_RELEASE);
+}
+
 //======================================================================
 //
 //======================================================================
@@ -776,7 +1328,11 @@ void UVCPreview::do_capture(JNIEnv *env) {
 	ENTER();
 
 	clearCaptureFrame();
-	callbackPixelFormatChanged();
+	pthread_mutex_lock(&capture_mutex);
+	{
+		callbackPixelFormatChanged();
+	}
+	pthread_mutex_unlock(&capture_mutex);
 	for (; isRunning() ;) {
 		mIsCapturing = true;
 		if (mCaptureWindow) {
@@ -812,8 +1368,12 @@ void UVCPreview::do_capture_surface(JNIEnv *env) {
 	for (; isRunning() && isCapturing() ;) {
 		frame = waitCaptureFrame();
 		if (LIKELY(frame)) {
-			// frame data is always YUYV format.
-			if LIKELY(isCapturing()) {
+			// frame data is YUYV, or RGBX when MJPEG was decoded directly
+			if (frame->frame_format == UVC_FRAME_FORMAT_RGBX) {
+				if (LIKELY(isCapturing() && mCaptureWindow)) {
+					copyToSurface(frame, &mCaptureWindow);
+				}
+			} else if LIKELY(isCapturing()) {
 				if (UNLIKELY(!converted)) {
 					converted = get_frame(previewBytes);
 				}
@@ -849,10 +1409,44 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 	if (LIKELY(frame)) {
 		uvc_frame_t *callback_frame = frame;
 		if (mFrameCallbackObj) {
-			if (mFrameCallbackFunc) {
+			// RGBX frame comes only when MJPEG was decoded directly for PIXEL_FORMAT_RGBX,
+			// it can be passed without conversion
+			convFunc_t convert_func = mFrameCallbackFunc;
+			if (frame->frame_format == UVC_FRAME_FORMAT_RGBX) {
+				if (UNLIKELY(mPixelFormat != PIXEL_FORMAT_RGBX)) {
+					// pixel format was changed while this frame was decoding
+					goto SKIP;
+				}
+				convert_func = NULL;
+			}
+			if (mFrameSlots) {
+				if (UNLIKELY(!mFrameSlotsFit)) {
+					// already reported by callbackPixelFormatChanged
+					goto SKIP;
+				}
+				// convert/copy into pre-registered ByteBuffer directly and pass only its index,
+				// this does not allocate any Java object nor intermediate frame
+				uvc_frame_t *slot = mFrameSlots[mFrameSlotIndex];
+				int b = convert_func
+					? convert_func(frame, slot) : copy_to_frame_slot(frame, slot);
+				if (LIKELY(!b)) {
+					if (convert_func) {
+						// converters do not update actual_bytes of a frame that does not own its memory
+						slot->actual_bytes = callbackPixelBytes;
+					}
+					env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrameSlot,
+						mFrameSlotIndex, (jint)slot->actual_bytes);
+					env->ExceptionClear();
+					mFrameSlotIndex = (mFrameSlotIndex + 1) % mFrameSlotNum;
+				} else {
+					LOGW("failed to convert for frame slot");
+				}
+				goto SKIP;
+			}
+			if (convert_func) {
 				callback_frame = get_frame(callbackPixelBytes);
 				if (LIKELY(callback_frame)) {
-					int b = mFrameCallbackFunc(frame, callback_frame);
+					int b = convert_func(frame, callback_frame);
 					recycle_frame(frame);
 					if (UNLIKELY(b)) {
 						LOGW("failed to convert for callback frame");
@@ -865,7 +1459,12 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 				}
 			}
 			jobject buf = env->NewDirectByteBuffer(callback_frame->data, callbackPixelBytes);
-			env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
+			if (mFrameDescriptorObj) {
+				update_frame_descriptor(env, callback_frame);
+				env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrameDescriptor, buf, mFrameDescriptorObj);
+			} else {
+				env->CallVoidMethod(mFrameCallbackObj, iframecallback_fields.onFrame, buf);
+			}
 			env->ExceptionClear();
 			env->DeleteLocalRef(buf);
 		}
@@ -874,3 +1473,21 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 	}
 	EXIT();
 }
+
+/**
+ * copy raw frame data into frame slot, the slot memory is not reallocated
+ */
+int UVCPreview::copy_to_frame_slot(uvc_frame_t *frame, uvc_frame_t *slot) {
+	const size_t bytes = callbackPixelBytes < frame->actual_bytes ? callbackPixelBytes : frame->actual_bytes;
+	if (UNLIKELY(slot->data_bytes < bytes)) {
+		return UVC_ERROR_NO_MEM;
+	}
+	memcpy(slot->data, frame->data, bytes);
+	slot->width = frame->width;
+	slot->height = frame->height;
+	slot->frame_format = frame->frame_format;
+	slot->sequence = frame->sequence;
+	slot->capture_time = frame->capture_time;
+	slot->actual_bytes = bytes;
+	return 0;
+}
@@ -27,8 +27,11 @@
 
 #include "libUVCCamera.h"
 #include <pthread.h>
+#include <semaphore.h>
 #include <android/native_window.h>
 #include "objectarray.h"
+#include "spscqueue.h"
+#include "MJPEGDecodePool.h"
 
 #pragma interface
 
@@ -50,11 +53,50 @@ typedef uvc_error_t (*convFunc_t)(uvc_frame_t *in, uvc_frame_t *out);
 #define PIXEL_FORMAT_YUV20SP 4
 #define PIXEL_FORMAT_NV21 5		// YVU420SemiPlanar
 
+// what to do when previewFrames is full
+#define FRAME_DROP_POLICY_NEWEST 0	// discard the frame that just arrived
+#define FRAME_DROP_POLICY_OLDEST 1	// discard queued frames, latest frame wins
+#define FRAME_DROP_POLICY_BLOCK 2	// block the callback until preview thread dequeue a frame
+
+#define DEFAULT_FRAME_POOL_SIZE 6
+#define DEFAULT_FRAME_QUEUE_DEPTH 4
+#define DEFAULT_FRAME_DROP_POLICY FRAME_DROP_POLICY_NEWEST
+#define DEFAULT_DECODE_WORKERS 1
+#define DECODE_DEPTH_PER_WORKER 2
+
+// number of recent frames whose times are kept for #getFrameTimes, should be power of 2
+#define FRAME_TIMES_NUM 32
+
+// consumers of decoded/converted pixels, see #get_consumers
+#define CONSUMER_PREVIEW 0x01		// preview window
+#define CONSUMER_CAPTURE 0x02		// capture window
+#define CONSUMER_CALLBACK 0x04		// IFrameCallback
+
 // for callback to Java object
 typedef struct {
 	jmethodID onFrame;
+	jmethodID onFrameSlot;
+	jmethodID onFrameDescriptor;
 } Fields_iframecallback;
 
+// fields of FrameDescriptor
+typedef struct {
+	jfieldID sequence;
+	jfieldID timestampNs;
+	jfieldID width;
+	jfieldID height;
+	jfieldID pixelFormat;
+	jfieldID bytes;
+} Fields_framedescriptor;
+
+// times of a frame that was posted to the preview window, all on CLOCK_MONOTONIC
+typedef struct {
+	uint32_t sequence;
+	uint64_t arrival_ns;	// arrived from USB(uvc_preview_frame_callback)
+	uint64_t decoded_ns;	// MJPEG decoding finished(or dequeued by preview thread for YUYV)
+	uint64_t posted_ns;		// just before copying into the preview window
+} frame_times_t;
+
 class UVCPreview {
 private:
 	uvc_device_handle_t *mDeviceHandle;
@@ -64,14 +106,32 @@ private:
 	int requestMinFps, requestMaxFps;
 	float requestBandwidth;
 	int frameWidth, frameHeight;
+	int frameFps;						// negotiated frame rate
 	int frameMode;
 	size_t frameBytes;
 	pthread_t preview_thread;
-	pthread_mutex_t preview_mutex;
-	pthread_cond_t preview_sync;
-	ObjectArray<uvc_frame_t *> previewFrames;
+	pthread_mutex_t preview_mutex;		// guard for mPreviewWindow
+	sem_t preview_sync;					// posted when new frame is queued into previewFrames
+	// frames from uvc_preview_frame_callback to preview thread (producer: callback, consumer: preview thread)
+	SpscQueue<uvc_frame_t *> previewFrames;
+	// empty frames from preview thread to uvc_preview_frame_callback (producer: preview thread, consumer: callback)
+	SpscQueue<uvc_frame_t *> mCallbackPool;
+	uvc_frame_t *mCallbackSpare;		// accessed only from uvc_preview_frame_callback
+	uvc_frame_t *mLatestFrame;			// overflow slot for FRAME_DROP_POLICY_OLDEST, exchanged atomically
+	sem_t preview_space;				// posted when preview thread dequeue a frame while mSpaceWaiting is set
+	volatile bool mSpaceWaiting;		// uvc_preview_frame_callback waits for preview_space on FRAME_DROP_POLICY_BLOCK
+	int requestPoolSize, requestQueueDepth, requestDropPolicy;
+	int mFramePoolSize;
+	int mDropPolicy;
+	volatile uint32_t mDropNewest, mDropOldest, mBlocked;	// statistics of frame drop
+	volatile uint32_t mSkipped;			// frames that were not decoded/converted because no consumer is attached
+	int requestDecodeWorkers;
+	MJPEGDecodePool *mDecodePool;		// keep after stopping preview to get statistics, guarded by preview_mutex
 	int previewFormat;
 	size_t previewBytes;
+	// ring of the times of recent frames, written only by preview thread
+	frame_times_t mFrameTimes[FRAME_TIMES_NUM];
+	volatile uint32_t mFrameTimesHead;
 //
 	volatile bool mIsCapturing;
 	ANativeWindow *mCaptureWindow;
@@ -84,6 +144,15 @@ private:
 	Fields_iframecallback iframecallback_fields;
 	int mPixelFormat;
 	size_t callbackPixelBytes;
+	// ring of pre-registered direct ByteBuffers for IFrameSlotCallback, guarded by capture_mutex
+	jobjectArray mFrameSlotsObj;
+	uvc_frame_t **mFrameSlots;			// frames that wrap the memory of each direct ByteBuffer
+	int mFrameSlotNum;
+	int mFrameSlotIndex;
+	bool mFrameSlotsFit;				// all frame slots can hold callbackPixelBytes
+	// FrameDescriptor that is reused for every IFrameDescriptorCallback#onFrame, guarded by capture_mutex
+	jobject mFrameDescriptorObj;
+	Fields_framedescriptor framedescriptor_fields;
 // improve performance by reducing memory allocation
 	pthread_mutex_t pool_mutex;
 	ObjectArray<uvc_frame_t *> mFramePool;
@@ -91,16 +160,24 @@ private:
 	void recycle_frame(uvc_frame_t *frame);
 	void init_pool(size_t data_bytes);
 	void clear_pool();
+	uvc_frame_t *get_callback_frame(size_t data_bytes);
+	void recycle_callback_frame(uvc_frame_t *frame);
+	void fill_callback_pool();
+	void clear_callback_pool();
 //
 	void clearDisplay();
+	int get_consumers();
 	static void uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args);
 	void addPreviewFrame(uvc_frame_t *frame);
+	uvc_frame_t *pollPreviewFrame();
 	uvc_frame_t *waitPreviewFrame();
 	void clearPreviewFrame();
 	static void *preview_thread_func(void *vptr_args);
 	int prepare_preview(uvc_stream_ctrl_t *ctrl);
 	void do_preview(uvc_stream_ctrl_t *ctrl);
+	void do_preview_mjpeg();
 	uvc_frame_t *draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t func, int pixelBytes);
+	void record_frame_times(uvc_frame_t *frame, uint64_t decoded_ns);
 //
 	void addCaptureFrame(uvc_frame_t *frame);
 	uvc_frame_t *waitCaptureFrame();
@@ -110,6 +187,12 @@ private:
 	void do_capture_surface(JNIEnv *env);
 	void do_capture_idle_loop(JNIEnv *env);
 	void do_capture_callback(JNIEnv *env, uvc_frame_t *frame);
+	int copy_to_frame_slot(uvc_frame_t *frame, uvc_frame_t *slot);
+	int set_frame_slots(JNIEnv *env, jobjectArray frame_slots);
+	void release_frame_slots(JNIEnv *env);
+	int set_frame_descriptor(JNIEnv *env, jobject frame_descriptor);
+	void release_frame_descriptor(JNIEnv *env);
+	void update_frame_descriptor(JNIEnv *env, uvc_frame_t *frame);
 	void callbackPixelFormatChanged();
 public:
 	UVCPreview(uvc_device_handle_t *devh);
@@ -118,7 +201,14 @@ public:
 	inline const bool isRunning() const;
 	int setPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth = 1.0f);
 	int setPreviewDisplay(ANativeWindow *preview_window);
-	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format,
+		jobjectArray frame_slots = NULL, jobject frame_descriptor = NULL);
+	int setFramePoolConfig(int pool_size, int queue_depth, int drop_policy);
+	void getFrameDropCounts(uint32_t &drop_newest, uint32_t &drop_oldest, uint32_t &blocked, uint32_t &skipped);
+	int setDecodeWorkers(int worker_num);
+	int getDecodeStats(uint32_t &decoded, uint64_t &decode_ns, uint64_t &elapsed_ns);
+	int getFrameTimes(uint64_t presented_ns, frame_times_t &times);
+	inline const int getFrameRate() const { return frameFps; }
 	int startPreview();
 	int stopPreview();
 	inline const bool isCapturing() const;
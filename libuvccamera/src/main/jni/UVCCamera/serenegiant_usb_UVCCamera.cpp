@@ -255,6 +255,121 @@ static jint nativeSetFrameCallback(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+static jint nativeSetFrameSlotCallback(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jIFrameSlotCallback, jint pixel_format, jobjectArray frame_slots) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject frame_callback_obj = env->NewGlobalRef(jIFrameSlotCallback);
+		result = camera->setFrameCallback(env, frame_callback_obj, pixel_format,
+			jIFrameSlotCallback ? frame_slots : NULL);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetFrameDescriptorCallback(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jIFrameDescriptorCallback, jint pixel_format, jobject frame_descriptor) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject frame_callback_obj = env->NewGlobalRef(jIFrameDescriptorCallback);
+		result = camera->setFrameCallback(env, frame_callback_obj, pixel_format,
+			NULL, jIFrameDescriptorCallback ? frame_descriptor : NULL);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetFramePoolConfig(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint pool_size, jint queue_depth, jint drop_policy) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setFramePoolConfig(pool_size, queue_depth, drop_policy);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetFrameDropCounts(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jintArray counts) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && counts && (env->GetArrayLength(counts) >= 4))) {
+		uint32_t drop_newest, drop_oldest, blocked, skipped;
+		result = camera->getFrameDropCounts(drop_newest, drop_oldest, blocked, skipped);
+		if (LIKELY(!result)) {
+			jint values[4] = { (jint)drop_newest, (jint)drop_oldest, (jint)blocked, (jint)skipped };
+			env->SetIntArrayRegion(counts, 0, 4, values);
+		}
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeSetDecodeWorkers(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint worker_num) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setDecodeWorkers(worker_num);
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetDecodeStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jlongArray stats) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && stats && (env->GetArrayLength(stats) >= 4))) {
+		uint32_t decoded;
+		uint64_t decode_ns, elapsed_ns;
+		const int workers = camera->getDecodeStats(decoded, decode_ns, elapsed_ns);
+		jlong values[4] = { workers, decoded, (jlong)decode_ns, (jlong)elapsed_ns };
+		env->SetLongArrayRegion(stats, 0, 4, values);
+		result = 0;
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetPreviewFrameRate(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jint result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->getPreviewFrameRate();
+	}
+	RETURN(result, jint);
+}
+
+static jint nativeGetFrameTimes(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jlong presented_ns, jlongArray times) {
+
+	// this is called for every frame, so no ENTER/RETURN
+	jint result = JNI_ERR;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && times && (env->GetArrayLength(times) >= 4))) {
+		frame_times_t t;
+		result = camera->getFrameTimes((uint64_t)presented_ns, t);
+		if (!result) {
+			jlong values[4] = { (jlong)t.sequence, (jlong)t.arrival_ns, (jlong)t.decoded_ns, (jlong)t.posted_ns };
+			env->SetLongArrayRegion(times, 0, 4, values);
+		}
+	}
+	return result;
+}
+
 static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, jobject jSurface) {
 
@@ -2005,6 +2120,14 @@ static JNINativeMethod methods[] = {
 	{ "nativeStopPreview",				"(J)I", (void *) nativeStopPreview },
 	{ "nativeSetPreviewDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetPreviewDisplay },
 	{ "nativeSetFrameCallback",			"(JLcom/serenegiant/usb/IFrameCallback;I)I", (void *) nativeSetFrameCallback },
+	{ "nativeSetFrameSlotCallback",		"(JLcom/serenegiant/usb/IFrameSlotCallback;I[Ljava/nio/ByteBuffer;)I", (void *) nativeSetFrameSlotCallback },
+	{ "nativeSetFrameDescriptorCallback",	"(JLcom/serenegiant/usb/IFrameDescriptorCallback;ILcom/serenegiant/usb/FrameDescriptor;)I", (void *) nativeSetFrameDescriptorCallback },
+	{ "nativeSetDecodeWorkers",			"(JI)I", (void *) nativeSetDecodeWorkers },
+	{ "nativeGetDecodeStats",			"(J[J)I", (void *) nativeGetDecodeStats },
+	{ "nativeGetPreviewFrameRate",		"(J)I", (void *) nativeGetPreviewFrameRate },
+	{ "nativeGetFrameTimes",			"(JJ[J)I", (void *) nativeGetFrameTimes },
+	{ "nativeSetFramePoolConfig",		"(JIII)I", (void *) nativeSetFramePoolConfig },
+	{ "nativeGetFrameDropCounts",		"(J[I)I", (void *) nativeGetFrameDropCounts },
 
 	{ "nativeSetCaptureDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetCaptureDisplay },
 
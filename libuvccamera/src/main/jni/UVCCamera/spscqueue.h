@@ -0,0 +1,121 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: spscqueue.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef SPSCQUEUE_H_
+#define SPSCQUEUE_H_
+
+#include <stdint.h>
+#include "utilbase.h"
+
+/**
+ * lock-free bounded ring buffer for single producer and single consumer.
+ * #put must be called only from one producer thread and #get only from one consumer thread.
+ * #resize is not thread safe, call it only while both threads are idle.
+ * The internal array is rounded up to power of 2, but #put never stores more than requested capacity.
+ */
+template <class T>
+class SpscQueue {
+private:
+	T *m_elements;
+	uint32_t m_mask;
+	uint32_t m_limit;
+	// m_head is written only by consumer and m_tail is written only by producer.
+	// keep them on separate cache lines to avoid false sharing between two threads
+	volatile uint32_t m_head __attribute__((aligned(64)));
+	volatile uint32_t m_tail __attribute__((aligned(64)));
+
+	static uint32_t round_up(uint32_t v) {
+		uint32_t result = 1;
+		while (result < v) result <<= 1;
+		return result;
+	}
+public:
+	SpscQueue(int capacity = 4)
+		: m_elements(NULL),
+		  m_mask(0),
+		  m_limit(0),
+		  m_head(0),
+		  m_tail(0) {
+		resize(capacity);
+	}
+
+	~SpscQueue() { SAFE_DELETE_ARRAY(m_elements); }
+
+	/**
+	 * change capacity, the queue should be empty and not accessed from other thread.
+	 */
+	void resize(int capacity) {
+		const uint32_t limit = capacity > 0 ? capacity : 1;
+		const uint32_t n = round_up(limit);
+		if (n != m_mask + 1 || !m_elements) {
+			SAFE_DELETE_ARRAY(m_elements);
+			m_elements = new T[n];
+			m_mask = n - 1;
+		}
+		m_limit = limit;
+		m_head = m_tail = 0;
+	}
+
+	inline int capacity() const { return m_limit; }
+
+	/**
+	 * approximate number of queued elements, this is exact only when called from producer or consumer thread
+	 */
+	inline int size() const {
+		return (int)(__atomic_load_n(&m_tail, __ATOMIC_ACQUIRE) - __atomic_load_n(&m_head, __ATOMIC_ACQUIRE));
+	}
+	inline bool isEmpty() const { return size() <= 0; }
+
+	/**
+	 * add object to the tail, only from producer thread
+	 * @return false if the queue is full, ownership of object is not transferred in that case
+	 */
+	bool put(T object) {
+		const uint32_t tail = __atomic_load_n(&m_tail, __ATOMIC_RELAXED);
+		const uint32_t head = __atomic_load_n(&m_head, __ATOMIC_ACQUIRE);
+		if (UNLIKELY(tail - head >= m_limit)) {
+			return false;
+		}
+		m_elements[tail & m_mask] = object;
+		__atomic_store_n(&m_tail, tail + 1, __ATOMIC_RELEASE);
+		return true;
+	}
+
+	/**
+	 * remove and return the head object, only from consumer thread
+	 * @return NULL if the queue is empty
+	 */
+	T get() {
+		const uint32_t head = __atomic_load_n(&m_head, __ATOMIC_RELAXED);
+		const uint32_t tail = __atomic_load_n(&m_tail, __ATOMIC_ACQUIRE);
+		if (head == tail) {
+			return NULL;
+		}
+		T obj = m_elements[head & m_mask];
+		__atomic_store_n(&m_head, head + 1, __ATOMIC_RELEASE);
+		return obj;
+	}
+};
+
+#endif	// SPSCQUEUE_H_
@@ -596,6 +596,12 @@ static void _uvc_swap_buffers(uvc_stream_handle_t *strmh) {
 		strmh->hold_last_scr = strmh->last_scr;
 		strmh->hold_pts = strmh->pts;
 		strmh->hold_seq = strmh->seq;
+		{	// XXX keep the time when the frame arrived(CLOCK_MONOTONIC, same as System#nanoTime on Java)
+			struct timespec ts;
+			clock_gettime(CLOCK_MONOTONIC, &ts);
+			strmh->hold_time.tv_sec = ts.tv_sec;
+			strmh->hold_time.tv_usec = ts.tv_nsec / 1000;
+		}
 
 		pthread_cond_broadcast(&strmh->cb_cond);
 	}
@@ -1685,7 +1691,9 @@ void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
 	}
 	memcpy(frame->data, strmh->holdbuf, strmh->hold_bytes/*frame->data_bytes*/);	// XXX
 
-	/** @todo set the frame time */
+	frame->sequence = strmh->hold_seq;
+	// XXX this is the time when the frame arrived on CLOCK_MONOTONIC, not the time the device started capturing
+	frame->capture_time = strmh->hold_time;
 }
 
 /** Poll for a frame
@@ -0,0 +1,130 @@
+package com.serenegiant.usb;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpscQueueTest {
+    private static final int STRESS_ITEMS = 2000000;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveCapacity() {
+        new SpscQueue<Integer>(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNull() {
+        new SpscQueue<Integer>(4).offer(null);
+    }
+
+    @Test
+    public void pollOnEmptyQueueReturnsNull() {
+        final SpscQueue<Integer> queue = new SpscQueue<Integer>(4);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertTrue(queue.offer(1));
+        assertEquals(Integer.valueOf(1), queue.poll());
+        // drained queue behaves like a new one
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void offerOnFullQueueFails() {
+        // capacity is not a power of 2, the ring is larger but only 3 elements are accepted
+        final SpscQueue<Integer> queue = new SpscQueue<Integer>(3);
+        assertEquals(3, queue.capacity());
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertTrue(queue.offer(3));
+        assertFalse(queue.offer(4));
+        assertEquals(3, queue.size());
+        // the rejected element does not replace anything
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertTrue(queue.offer(5));
+        assertFalse(queue.offer(6));
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertEquals(Integer.valueOf(5), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void keepsOrderAcrossWrapAround() {
+        final SpscQueue<Integer> queue = new SpscQueue<Integer>(4);
+        int next = 0, expected = 0;
+        for (int round = 0; round < 100; round++) {
+            while (queue.offer(next)) next++;
+            assertEquals(4, queue.size());
+            // leave some elements so that head and tail wrap at different positions
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Integer.valueOf(expected++), queue.poll());
+            }
+        }
+        Integer e;
+        while ((e = queue.poll()) != null) {
+            assertEquals(Integer.valueOf(expected++), e);
+        }
+        assertEquals(next, expected);
+    }
+
+    /**
+     * one producer and one consumer thread, every item should come out exactly once and in order
+     */
+    @Test(timeout = 60000)
+    public void stressProducerConsumer() throws InterruptedException {
+        final SpscQueue<Integer> queue = new SpscQueue<Integer>(16);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < STRESS_ITEMS; i++) {
+                    final Integer item = i;
+                    while (!queue.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        }, "producer");
+        final long[] received = new long[2];    // count, sum
+        final Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int expected = 0;
+                    while (expected < STRESS_ITEMS) {
+                        final Integer item = queue.poll();
+                        if (item == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        // a lost item shows up as a gap and a duplicate as a repeat
+                        assertEquals("out of order, lost or duplicated", expected, item.intValue());
+                        expected++;
+                        received[0]++;
+                        received[1] += item;
+                    }
+                    assertNull("item after the last one", queue.poll());
+                } catch (final Throwable e) {
+                    error.set(e);
+                }
+            }
+        }, "consumer");
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertEquals(STRESS_ITEMS, received[0]);
+        assertEquals((long)STRESS_ITEMS * (STRESS_ITEMS - 1) / 2, received[1]);
+        assertTrue(queue.isEmpty());
+    }
+}